@@ -8,19 +8,67 @@ import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothProfile;
+import android.bluetooth.BluetoothSocket;
 import android.bluetooth.le.BluetoothLeScanner;
 import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
 import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 
 import androidx.lifecycle.LifecycleOwner;
 
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import cn.com.shadowless.blelib.connect.DeviceProfile;
+import cn.com.shadowless.blelib.connect.DeviceProfileStore;
+import cn.com.shadowless.blelib.connect.PhyPolicy;
+import cn.com.shadowless.blelib.connect.PriorityScheduler;
+import cn.com.shadowless.blelib.connect.ReconnectPolicy;
+import cn.com.shadowless.blelib.metrics.ConnectionMetrics;
+import cn.com.shadowless.blelib.metrics.MetricsListener;
+import cn.com.shadowless.blelib.metrics.MetricsSnapshot;
+import cn.com.shadowless.blelib.frame.FrameCodec;
+import cn.com.shadowless.blelib.frame.PayloadCompressor;
+import cn.com.shadowless.blelib.pool.PooledBuffer;
+import cn.com.shadowless.blelib.pool.PooledBufferPool;
+import cn.com.shadowless.blelib.queue.CreditWindow;
+import cn.com.shadowless.blelib.queue.GattOperation;
+import cn.com.shadowless.blelib.queue.GattOperationQueue;
+import cn.com.shadowless.blelib.queue.OrderedDispatcher;
+import cn.com.shadowless.blelib.reactive.BlePublisher;
+import cn.com.shadowless.blelib.reactive.GattValue;
+import cn.com.shadowless.blelib.rpc.RpcClient;
+import cn.com.shadowless.blelib.trace.TraceRecorder;
+import cn.com.shadowless.blelib.transport.ClientTransport;
+import cn.com.shadowless.blelib.transport.ReliableStream;
+import cn.com.shadowless.blelib.transport.Scheduler;
+import cn.com.shadowless.blelib.transport.StreamChannel;
+import cn.com.shadowless.blelib.transport.TransportClient;
 
 
 /**
@@ -35,6 +83,11 @@ public class BleClient extends BaseBle {
      */
     private final String tag = BleClient.class.getSimpleName();
 
+    /**
+     * 发现服务的尝试次数
+     */
+    private static final int DISCOVER_ATTEMPTS = 2;
+
     /**
      * 上下文
      */
@@ -85,6 +138,31 @@ public class BleClient extends BaseBle {
      */
     private ScanCallback scanCallback;
 
+    /**
+     * 扫描过滤，交给控制器匹配
+     */
+    private final List<ScanFilter> scanFilters;
+
+    /**
+     * 扫描设置
+     */
+    private final ScanSettings scanSettings;
+
+    /**
+     * 批量扫描上报间隔，0为逐条上报
+     */
+    private final long reportDelay;
+
+    /**
+     * 批量扫描回调
+     */
+    private final BatchScanCallBack batchScanCallBack;
+
+    /**
+     * 批量扫描去重，key为设备地址
+     */
+    private final HashMap<String, ScanResult> batchResults = new HashMap<>();
+
     /**
      * 协议回调
      */
@@ -95,6 +173,212 @@ public class BleClient extends BaseBle {
      */
     private final StatueCallBack callBack;
 
+    /**
+     * 分包消息回调
+     */
+    private final FrameCallBack frameCallBack;
+
+    /**
+     * 池化数据回调
+     */
+    private final BufferCallBack bufferCallBack;
+
+    /**
+     * 池化缓冲池
+     */
+    private final PooledBufferPool bufferPool = new PooledBufferPool();
+
+    /**
+     * 数据通路，负责操作队列、分包与重连
+     */
+    private final TransportClient core;
+
+    /**
+     * 重连回调
+     */
+    private final ReconnectCallBack reconnectCallBack;
+
+    /**
+     * 用户回调分发，未设置回调线程池时在蓝牙回调线程上直接执行
+     */
+    private final OrderedDispatcher dispatcher;
+
+    /**
+     * 最近连接的设备地址
+     */
+    private volatile String lastAddress;
+
+    /**
+     * 是否已主动断开
+     */
+    private volatile boolean stopped;
+
+    /**
+     * 设备档案存储，为空不启用热启动
+     */
+    private final DeviceProfileStore profileStore;
+
+    /**
+     * 当前设备档案
+     */
+    private volatile DeviceProfile profile;
+
+    /**
+     * 是否正按档案直接连接，连上前失败则作废档案
+     */
+    private volatile boolean warmStarting;
+
+    /**
+     * 主线程Handler
+     */
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * 主线程调度
+     */
+    private final Scheduler scheduler = new Scheduler() {
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            //同一任务只保留最新一次
+            handler.removeCallbacks(task);
+            handler.postDelayed(task, delayMillis);
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            handler.removeCallbacks(task);
+        }
+
+        @Override
+        public long now() {
+            return SystemClock.elapsedRealtime();
+        }
+    };
+
+    /**
+     * 连接优先级调度，为空则固定均衡
+     */
+    private final PriorityScheduler priorityScheduler;
+
+    /**
+     * 已生效的连接优先级
+     */
+    private volatile int connectionPriority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+
+    /**
+     * PHY策略，为空不主动切换
+     */
+    private final PhyPolicy phyPolicy;
+
+    /**
+     * 本次连接是否已请求PHY且尚未收到结果
+     */
+    private volatile boolean phyRequested;
+
+    /**
+     * 当前发送PHY
+     */
+    private volatile int txPhy = PhyPolicy.PHY_LE_1M;
+
+    /**
+     * 当前接收PHY
+     */
+    private volatile int rxPhy = PhyPolicy.PHY_LE_1M;
+
+    /**
+     * 连接统计
+     */
+    private final ConnectionMetrics metrics = new ConnectionMetrics(null);
+
+    /**
+     * 周期统计回调
+     */
+    private final MetricsListener metricsListener;
+
+    /**
+     * GATT事件记录
+     */
+    private final TraceRecorder traceRecorder;
+
+    /**
+     * 服务端L2CAP通道PSM所在特征值，为空不使用L2CAP
+     */
+    private final UUID l2capPsmId;
+
+    /**
+     * L2CAP通道，未建立时批量数据走GATT
+     */
+    private volatile StreamChannel l2capChannel;
+
+    /**
+     * 保护L2CAP通道的发布与关闭
+     */
+    private final Object l2capLock = new Object();
+
+    /**
+     * L2CAP通道代数，每次关闭加1，建立完成时代数已变化说明期间已断开，丢弃新通道
+     */
+    private int l2capGeneration;
+
+    /**
+     * L2CAP建连线程，socket.connect()阻塞，空闲后线程退出
+     */
+    private final ExecutorService l2capExecutor = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ble-l2cap-connect");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * 服务端通知发布者
+     */
+    private final BlePublisher<GattValue<BluetoothGatt>> notifyPublisher;
+
+    /**
+     * 扫描结果发布者
+     */
+    private final BlePublisher<ScanResult> scanPublisher;
+
+    /**
+     * 统计回调间隔，毫秒
+     */
+    private final long metricsInterval;
+
+    /**
+     * 周期回调统计快照
+     */
+    private final Runnable metricsTask = new Runnable() {
+        @Override
+        public void run() {
+            if (stopped) {
+                return;
+            }
+            metricsListener.onMetrics(Collections.singletonList(getMetrics()));
+            handler.postDelayed(this, metricsInterval);
+        }
+    };
+
+    /**
+     * 按队列长度与接收速率周期调整连接优先级
+     */
+    private final Runnable priorityTask = new Runnable() {
+        @Override
+        public void run() {
+            BluetoothGatt gatt = bluetoothGatt;
+            if (gatt == null || stopped) {
+                return;
+            }
+            int priority = priorityScheduler.evaluate(core.getQueueSize() + core.getStreamSize(), SystemClock.elapsedRealtime());
+            if (priority != connectionPriority && gatt.requestConnectionPriority(priority)) {
+                connectionPriority = priority;
+            }
+            handler.postDelayed(this, PriorityScheduler.SAMPLE_INTERVAL);
+        }
+    };
+
     /**
      * 构造
      *
@@ -110,18 +394,91 @@ public class BleClient extends BaseBle {
      * @param lifecycleOwner        the lifecycle owner
      */
     public BleClient(Context context, UUID serverId, UUID writeId, UUID readId, String serverName, int mtuSize, ScanCallback scanCallback, BluetoothGattCallback bluetoothGattCallback, StatueCallBack callBack, LifecycleOwner lifecycleOwner) {
-        super(context);
-        this.context = context;
-        this.serverId = serverId;
-        this.writeId = writeId;
-        this.readId = readId;
-        this.serverName = serverName;
-        this.mtuSize = mtuSize;
-        this.scanCallback = scanCallback;
-        this.bluetoothGattCallback = bluetoothGattCallback;
-        this.callBack = callBack;
-        if (lifecycleOwner != null) {
-            lifecycleOwner.getLifecycle().addObserver(this);
+        this(builder()
+                .context(context)
+                .serverId(serverId)
+                .writeId(writeId)
+                .readId(readId)
+                .serverName(serverName)
+                .mtuSize(mtuSize)
+                .scanCallback(scanCallback)
+                .bluetoothGattCallback(bluetoothGattCallback)
+                .statueCallBack(callBack)
+                .lifecycle(lifecycleOwner));
+    }
+
+    /**
+     * 构造
+     *
+     * @param builder the builder
+     */
+    private BleClient(ClientBuilder builder) {
+        super(builder.context);
+        this.context = builder.context;
+        this.serverId = builder.serverId;
+        this.writeId = builder.writeId;
+        this.readId = builder.readId;
+        this.serverName = builder.serverName;
+        this.mtuSize = builder.mtuSize;
+        this.scanCallback = builder.scanCallback;
+        this.bluetoothGattCallback = builder.bluetoothGattCallback;
+        this.reportDelay = builder.reportDelay;
+        this.batchScanCallBack = builder.batchScanCallBack;
+        this.scanFilters = builder.scanFilters == null ? initScanFilters() : builder.scanFilters;
+        this.scanSettings = builder.scanSettings == null ? initScanSettings(reportDelay) : builder.scanSettings;
+        this.callBack = builder.callBack;
+        this.frameCallBack = builder.frameCallBack;
+        this.bufferCallBack = builder.bufferCallBack;
+        this.reconnectCallBack = builder.reconnectCallBack;
+        this.dispatcher = new OrderedDispatcher(builder.callbackExecutor, new OrderedDispatcher.ErrorListener() {
+            @Override
+            public void onError(Object key, RuntimeException e) {
+                Log.e(tag, "dispatch: 回调执行失败 " + key, e);
+            }
+        });
+        this.core = new TransportClient(new GattTransport(), scheduler, builder.queueCapacity,
+                builder.creditWindow == null ? new CreditWindow() : builder.creditWindow,
+                builder.reconnectPolicy == null ? new ReconnectPolicy() : builder.reconnectPolicy);
+        this.core.setFrameMode(frameCallBack != null);
+        this.core.setCallback(new CoreCallback());
+        this.core.getOperationQueue().setTimeoutListener(new GattOperationQueue.TimeoutListener() {
+            @Override
+            public void onTimeout(GattOperation operation) {
+                int type = toMetricsType(operation.getType());
+                if (type >= 0) {
+                    metrics.recordTimeout(type);
+                }
+            }
+        });
+        if (builder.maxMessageSize > 0) {
+            this.core.setMaxMessageSize(builder.maxMessageSize);
+        }
+        if (builder.compressor != null) {
+            if (frameCallBack == null) {
+                throw new IllegalArgumentException("载荷压缩需配合FrameCallBack使用");
+            }
+            this.core.setCompressor(builder.compressor);
+        }
+        if (builder.reliableWindow > 0) {
+            if (frameCallBack == null) {
+                throw new IllegalArgumentException("可靠传输需配合FrameCallBack使用");
+            }
+            this.core.setReliable(builder.reliableWindow, builder.reliableAckDelay, builder.reliableRetransmitTimeout);
+        }
+        this.profileStore = builder.profileStore;
+        this.priorityScheduler = builder.priorityScheduler;
+        this.phyPolicy = builder.phyPolicy;
+        this.metricsListener = builder.metricsListener;
+        this.metricsInterval = builder.metricsInterval;
+        this.traceRecorder = builder.traceRecorder == null ? new TraceRecorder() : builder.traceRecorder;
+        this.l2capPsmId = builder.l2capPsmId;
+        if (l2capPsmId != null && frameCallBack == null) {
+            throw new IllegalArgumentException("L2CAP通道需配合FrameCallBack使用");
+        }
+        this.notifyPublisher = new BlePublisher<>(builder.publisherCapacity, builder.publisherOverflow, builder.callbackExecutor);
+        this.scanPublisher = new BlePublisher<>(builder.publisherCapacity, builder.publisherOverflow, builder.callbackExecutor);
+        if (builder.lifecycle != null) {
+            builder.lifecycle.getLifecycle().addObserver(this);
         }
     }
 
@@ -184,6 +541,26 @@ public class BleClient extends BaseBle {
          */
         private BluetoothGattCallback bluetoothGattCallback;
 
+        /**
+         * The Scan filters.
+         */
+        private List<ScanFilter> scanFilters;
+
+        /**
+         * The Scan settings.
+         */
+        private ScanSettings scanSettings;
+
+        /**
+         * The Report delay.
+         */
+        private long reportDelay;
+
+        /**
+         * The Batch scan call back.
+         */
+        private BatchScanCallBack batchScanCallBack;
+
         /**
          * The Call back.
          */
@@ -194,6 +571,111 @@ public class BleClient extends BaseBle {
          */
         private LifecycleOwner lifecycle;
 
+        /**
+         * The Frame call back.
+         */
+        private FrameCallBack frameCallBack;
+
+        /**
+         * The Max message size.
+         */
+        private int maxMessageSize;
+
+        /**
+         * The Buffer call back.
+         */
+        private BufferCallBack bufferCallBack;
+
+        /**
+         * The Queue capacity.
+         */
+        private int queueCapacity = GattOperationQueue.DEFAULT_CAPACITY;
+
+        /**
+         * The Credit window.
+         */
+        private CreditWindow creditWindow;
+
+        /**
+         * The Reconnect policy.
+         */
+        private ReconnectPolicy reconnectPolicy;
+
+        /**
+         * The Reconnect call back.
+         */
+        private ReconnectCallBack reconnectCallBack;
+
+        /**
+         * The Callback executor.
+         */
+        private Executor callbackExecutor;
+
+        /**
+         * The Profile store.
+         */
+        private DeviceProfileStore profileStore;
+
+        /**
+         * The Priority scheduler.
+         */
+        private PriorityScheduler priorityScheduler;
+
+        /**
+         * The Phy policy.
+         */
+        private PhyPolicy phyPolicy;
+
+        /**
+         * The Metrics interval.
+         */
+        private long metricsInterval;
+
+        /**
+         * The Metrics listener.
+         */
+        private MetricsListener metricsListener;
+
+        /**
+         * The Trace recorder.
+         */
+        private TraceRecorder traceRecorder;
+
+        /**
+         * The Compressor.
+         */
+        private PayloadCompressor compressor;
+
+        /**
+         * The Reliable window.
+         */
+        private int reliableWindow;
+
+        /**
+         * The Reliable ack delay.
+         */
+        private long reliableAckDelay;
+
+        /**
+         * The Reliable retransmit timeout.
+         */
+        private long reliableRetransmitTimeout;
+
+        /**
+         * The L2cap psm id.
+         */
+        private UUID l2capPsmId;
+
+        /**
+         * The Publisher capacity.
+         */
+        private int publisherCapacity = BlePublisher.DEFAULT_CAPACITY;
+
+        /**
+         * The Publisher overflow.
+         */
+        private int publisherOverflow = BlePublisher.OVERFLOW_DROP_OLDEST;
+
         /**
          * Base url net utils . net utils builder.
          *
@@ -271,6 +753,41 @@ public class BleClient extends BaseBle {
             return this;
         }
 
+        /**
+         * 扫描过滤(不传有默认，按服务端id或服务端名称过滤)
+         *
+         * @param scanFilters the scan filters
+         * @return the client builder
+         */
+        public ClientBuilder scanFilters(List<ScanFilter> scanFilters) {
+            this.scanFilters = scanFilters;
+            return this;
+        }
+
+        /**
+         * 扫描设置(不传有默认)
+         *
+         * @param scanSettings the scan settings
+         * @return the client builder
+         */
+        public ClientBuilder scanSettings(ScanSettings scanSettings) {
+            this.scanSettings = scanSettings;
+            return this;
+        }
+
+        /**
+         * 批量扫描，控制器每隔reportDelay毫秒上报一次，需配合批量扫描回调使用
+         *
+         * @param reportDelay       the report delay
+         * @param batchScanCallBack the batch scan call back
+         * @return the client builder
+         */
+        public ClientBuilder batchScan(long reportDelay, BatchScanCallBack batchScanCallBack) {
+            this.reportDelay = reportDelay;
+            this.batchScanCallBack = batchScanCallBack;
+            return this;
+        }
+
         /**
          * Time out unit net utils . net utils builder.
          *
@@ -305,30 +822,231 @@ public class BleClient extends BaseBle {
         }
 
         /**
-         * Build net utils.
+         * Frame call back client builder.
          *
-         * @return the net utils
+         * @param frameCallBack the frame call back
+         * @return the client builder
          */
-        public BleClient build() {
-            return new BleClient(this.context, this.serverId, this.writeId, this.readId, this.serverName, this.mtuSize, this.scanCallback, this.bluetoothGattCallback, this.callBack, this.lifecycle);
+        public ClientBuilder frameCallBack(FrameCallBack frameCallBack) {
+            this.frameCallBack = frameCallBack;
+            return this;
         }
-    }
 
-    /**
-     * The interface Statue call back.
-     */
-    public interface StatueCallBack {
         /**
-         * Start success.
+         * 接收分包消息的长度上限，默认1MB，服务端声明的长度超过上限的消息直接丢弃，需要接收更大的消息时放宽
          *
-         * @param device the device
+         * @param maxMessageSize the max message size
+         * @return the client builder
          */
-        void getScannerDevice(BluetoothDevice device);
+        public ClientBuilder maxMessageSize(int maxMessageSize) {
+            this.maxMessageSize = maxMessageSize;
+            return this;
+        }
 
         /**
-         * Connecting.
+         * Buffer call back client builder.
          *
-         * @param gatt     the gatt
+         * @param bufferCallBack the buffer call back
+         * @return the client builder
+         */
+        public ClientBuilder bufferCallBack(BufferCallBack bufferCallBack) {
+            this.bufferCallBack = bufferCallBack;
+            return this;
+        }
+
+        /**
+         * Queue capacity client builder.
+         *
+         * @param queueCapacity the queue capacity
+         * @return the client builder
+         */
+        public ClientBuilder queueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * Credit window client builder.
+         *
+         * @param creditWindow the credit window
+         * @return the client builder
+         */
+        public ClientBuilder creditWindow(CreditWindow creditWindow) {
+            this.creditWindow = creditWindow;
+            return this;
+        }
+
+        /**
+         * 重连策略(不传有默认)
+         *
+         * @param reconnectPolicy the reconnect policy
+         * @return the client builder
+         */
+        public ClientBuilder reconnectPolicy(ReconnectPolicy reconnectPolicy) {
+            this.reconnectPolicy = reconnectPolicy;
+            return this;
+        }
+
+        /**
+         * Reconnect call back client builder.
+         *
+         * @param reconnectCallBack the reconnect call back
+         * @return the client builder
+         */
+        public ClientBuilder reconnectCallBack(ReconnectCallBack reconnectCallBack) {
+            this.reconnectCallBack = reconnectCallBack;
+            return this;
+        }
+
+        /**
+         * 回调线程池，设置后用户回调按顺序在线程池上执行，处理慢的回调不再阻塞蓝牙回调线程，
+         * 确认、队列推进与MTU等内部状态仍在蓝牙回调线程上更新；
+         * 读、写与通知回调收到的是特征值快照，数据固定为本次回调的值，快照不含所属服务
+         *
+         * @param callbackExecutor the callback executor
+         * @return the client builder
+         */
+        public ClientBuilder callbackExecutor(Executor callbackExecutor) {
+            this.callbackExecutor = callbackExecutor;
+            return this;
+        }
+
+        /**
+         * 设备档案存储，设置后按服务端名称找到上次连接的设备直接连接，跳过扫描
+         *
+         * @param profileStore the profile store
+         * @return the client builder
+         */
+        public ClientBuilder profileStore(DeviceProfileStore profileStore) {
+            this.profileStore = profileStore;
+            return this;
+        }
+
+        /**
+         * 连接优先级调度，设置后按发送队列与接收速率在高优先级、均衡、低功耗之间切换
+         *
+         * @param priorityScheduler the priority scheduler
+         * @return the client builder
+         */
+        public ClientBuilder priorityScheduler(PriorityScheduler priorityScheduler) {
+            this.priorityScheduler = priorityScheduler;
+            return this;
+        }
+
+        /**
+         * PHY策略(8.0以上生效)，PhyPolicy.throughput()偏好2M，PhyPolicy.range()偏好Coded
+         *
+         * @param phyPolicy the phy policy
+         * @return the client builder
+         */
+        public ClientBuilder phyPolicy(PhyPolicy phyPolicy) {
+            this.phyPolicy = phyPolicy;
+            return this;
+        }
+
+        /**
+         * 周期统计回调，每隔interval毫秒回调一次统计快照
+         *
+         * @param interval        the interval
+         * @param metricsListener the metrics listener
+         * @return the client builder
+         */
+        public ClientBuilder metricsListener(long interval, MetricsListener metricsListener) {
+            if (interval <= 0) {
+                throw new IllegalArgumentException("统计回调间隔必须大于0");
+            }
+            this.metricsInterval = interval;
+            this.metricsListener = metricsListener;
+            return this;
+        }
+
+        /**
+         * GATT事件记录(不传有默认，容量4096个事件)
+         *
+         * @param traceRecorder the trace recorder
+         * @return the client builder
+         */
+        public ClientBuilder traceRecorder(TraceRecorder traceRecorder) {
+            this.traceRecorder = traceRecorder;
+            return this;
+        }
+
+        /**
+         * 载荷压缩，需配合分包消息回调使用，与服务端协商一致后分包消息超过阈值时压缩发送
+         *
+         * @param compressor the compressor
+         * @return the client builder
+         */
+        public ClientBuilder compressor(PayloadCompressor compressor) {
+            this.compressor = compressor;
+            return this;
+        }
+
+        /**
+         * 可靠传输，需配合分包消息回调使用且服务端使用相同配置，分包消息带序号与校验发送，丢包时只重传缺失的分包
+         *
+         * @param window            发送窗口，需为2的幂，最大{@link ReliableStream#MAX_WINDOW}
+         * @param ackDelay          延迟确认时间，毫秒
+         * @param retransmitTimeout 最小重传超时，毫秒
+         * @return the client builder
+         */
+        public ClientBuilder reliable(int window, long ackDelay, long retransmitTimeout) {
+            this.reliableWindow = window;
+            this.reliableAckDelay = ackDelay;
+            this.reliableRetransmitTimeout = retransmitTimeout;
+            return this;
+        }
+
+        /**
+         * L2CAP通道，需配合分包消息回调使用，发现服务后读取该特征值中的PSM并建立L2CAP CoC通道，
+         * 建立后{@link #sendBulk(byte[])}经通道发送，Android 10以下或服务端未提供时继续使用GATT
+         *
+         * @param l2capPsmId serverId服务下存放PSM的特征值
+         * @return the client builder
+         */
+        public ClientBuilder l2capPsmId(UUID l2capPsmId) {
+            this.l2capPsmId = l2capPsmId;
+            return this;
+        }
+
+        /**
+         * 发布者缓冲，通知与扫描结果的每个订阅者按此缓冲，订阅者处理不及时缓冲满时按溢出策略处理
+         *
+         * @param capacity 每个订阅者的缓冲容量
+         * @param overflow 溢出策略，见{@link BlePublisher#OVERFLOW_DROP_OLDEST}等
+         * @return the client builder
+         */
+        public ClientBuilder publisherBuffer(int capacity, int overflow) {
+            this.publisherCapacity = capacity;
+            this.publisherOverflow = overflow;
+            return this;
+        }
+
+        /**
+         * Build net utils.
+         *
+         * @return the net utils
+         */
+        public BleClient build() {
+            return new BleClient(this);
+        }
+    }
+
+    /**
+     * The interface Statue call back.
+     */
+    public interface StatueCallBack {
+        /**
+         * Start success.
+         *
+         * @param device the device
+         */
+        void getScannerDevice(BluetoothDevice device);
+
+        /**
+         * Connecting.
+         *
+         * @param gatt     the gatt
          * @param status   the status
          * @param newState the new state
          */
@@ -413,13 +1131,66 @@ public class BleClient extends BaseBle {
         void setMtuIsSuccess(Boolean isSuccess);
     }
 
+    /**
+     * 重连回调
+     */
+    public interface ReconnectCallBack {
+        /**
+         * Reconnect success.
+         *
+         * @param gatt       the gatt
+         * @param attempts   重连次数
+         * @param costMillis 从断开到重新连上的耗时
+         */
+        void reconnectSuccess(BluetoothGatt gatt, int attempts, long costMillis);
+    }
+
+    /**
+     * 批量扫描回调
+     */
+    public interface BatchScanCallBack {
+        /**
+         * Gets scanner devices.
+         *
+         * @param results 本次上报的扫描结果，按设备地址去重，保留信号最强的一条
+         */
+        void getScannerDevices(List<ScanResult> results);
+    }
+
+    /**
+     * 分包消息回调，设置后服务端的通知会按{@link FrameCodec}格式重组
+     */
+    public interface FrameCallBack {
+        /**
+         * Gets server frame data.
+         *
+         * @param gatt the gatt
+         * @param data 重组后的完整消息
+         */
+        void getServerFrameData(BluetoothGatt gatt, byte[] data);
+    }
+
+    /**
+     * 池化数据回调，设置后服务端的通知以池化缓冲交付，不再走getServerNotifyData
+     */
+    public interface BufferCallBack {
+        /**
+         * Gets server notify buffer.
+         *
+         * @param gatt           the gatt
+         * @param characteristic the characteristic
+         * @param buffer         通知数据，使用完毕必须调用{@link PooledBuffer#release()}
+         */
+        void getServerNotifyBuffer(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, PooledBuffer buffer);
+    }
+
     /**
      * Start scan.
      */
     public void startScan() {
         if (scanCallback == null && bluetoothGattCallback == null) {
-            if (callBack == null) {
-                throw new IllegalArgumentException("请传入StatueCallBack或自实现ScanCallback或LeScanCallback和BluetoothGattCallback");
+            if (callBack == null && batchScanCallBack == null) {
+                throw new IllegalArgumentException("请传入StatueCallBack或BatchScanCallBack或自实现ScanCallback或LeScanCallback和BluetoothGattCallback");
             }
         }
         if (!getBluetoothIsOpen() || !getLocationIsOpen()) {
@@ -429,12 +1200,21 @@ public class BleClient extends BaseBle {
         if (bluetoothAdapter == null) {
             bluetoothAdapter = getBluetoothManager().getAdapter();
         }
+        stopped = false;
+        core.open();
         scanner = bluetoothAdapter.getBluetoothLeScanner();
         if (scanner != null) {
             if (scanCallback == null) {
                 initScanCallback();
             }
-            scanner.startScan(scanCallback);
+            if (metricsListener != null) {
+                handler.removeCallbacks(metricsTask);
+                handler.postDelayed(metricsTask, metricsInterval);
+            }
+            if (warmStart()) {
+                return;
+            }
+            scanner.startScan(scanFilters, getEffectiveScanSettings(), scanCallback);
         }
     }
 
@@ -442,13 +1222,13 @@ public class BleClient extends BaseBle {
      * Stop connect.
      */
     public void stopConnect() {
-        if (bluetoothGatt != null) {
-            bluetoothGatt.disconnect();
-            bluetoothGatt.close();
-        }
+        stopped = true;
+        handler.removeCallbacks(priorityTask);
+        handler.removeCallbacks(metricsTask);
+        core.close();
+        closeL2capChannel();
         stopScan();
         bluetoothAdapter = null;
-        bluetoothGatt = null;
         scanCallback = null;
         bluetoothGattCallback = null;
     }
@@ -466,114 +1246,1409 @@ public class BleClient extends BaseBle {
     }
 
     /**
-     * Send data.
+     * Send data，队列满时丢弃，需要知道是否入队时使用{@link #offerData(byte[], int)}
      *
      * @param data      the data
      * @param writeType the write type
      */
     public void sendData(byte[] data, int writeType) {
-        //找到服务
-        BluetoothGattService service = bluetoothGatt.getService(serverId);
-        //拿到写的特征值
-        if (service != null) {
-            BluetoothGattCharacteristic characteristic = service.getCharacteristic(writeId);
-            bluetoothGatt.setCharacteristicNotification(characteristic, true);
-            characteristic.setValue(data);
-            characteristic.setWriteType(writeType);
-            bluetoothGatt.writeCharacteristic(characteristic);
-        }
+        offerData(data, writeType);
     }
 
     /**
-     * Init scan callback.
+     * 发送数据，队列满时返回false
+     *
+     * @param data      the data
+     * @param writeType the write type
+     * @return 是否入队成功
      */
-    private void initScanCallback() {
-        scanCallback = new ScanCallback() {
-            @Override
-            public void onScanResult(int callbackType, ScanResult result) {
-                super.onScanResult(callbackType, result);
-                BluetoothDevice device = result.getDevice();
-                String name = device.getName() == null ? "未知" : device.getName();
-                Log.e(tag, "找到的服务: " + name);
-                if (serverName.equals(name)) {
-                    callBack.getScannerDevice(device);
-                    if (bluetoothGattCallback == null) {
-                        initBluetoothGattCallback();
-                    }
-                    bluetoothGatt = device.connectGatt(context, false, bluetoothGattCallback);
-                    scanner.stopScan(scanCallback);
-                }
-            }
-        };
+    public boolean offerData(byte[] data, int writeType) {
+        return core.sendData(data, writeType);
     }
 
     /**
-     * Init bluetooth gatt callback.
+     * Send data，队列满时等待
+     *
+     * @param data      the data
+     * @param writeType the write type
+     * @param timeout   the timeout
+     * @param unit      the unit
+     * @return 是否入队成功
+     * @throws InterruptedException the interrupted exception
      */
-    private void initBluetoothGattCallback() {
-        bluetoothGattCallback = new BluetoothGattCallback() {
-            @Override
-            public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-                super.onConnectionStateChange(gatt, status, newState);
-                if (newState == BluetoothProfile.STATE_CONNECTED) {
-                    callBack.connectSuccess(gatt, status, newState);
-                    if (mtuSize == 0) {
-                        mtuSize = 512;
-                    }
-                    boolean isSuccess = bluetoothGatt.requestMtu(mtuSize + 3);
-                    callBack.setMtuIsSuccess(isSuccess);
-                    bluetoothGatt.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_BALANCED);
-                } else if (newState == BluetoothProfile.STATE_CONNECTING) {
-                    callBack.connecting(gatt, status, newState);
-                } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                    scanner.startScan(scanCallback);
-                    callBack.connectFail(gatt, status, newState);
-                } else if (newState == BluetoothProfile.STATE_DISCONNECTING) {
-                    callBack.disconnecting(gatt, status, newState);
-                }
-            }
+    public boolean sendData(byte[] data, int writeType, long timeout, TimeUnit unit) throws InterruptedException {
+        return core.sendData(data, writeType, timeout, unit);
+    }
 
-            @Override
-            public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-                super.onServicesDiscovered(gatt, status);
-                callBack.getServer(gatt, status);
-                BluetoothGattService service = bluetoothGatt.getService(serverId);
-                BluetoothGattCharacteristic characteristic = service.getCharacteristic(readId);
-                boolean b = bluetoothGatt.setCharacteristicNotification(characteristic, true);
-                if (b) {
-                    List<BluetoothGattDescriptor> descriptorList = characteristic.getDescriptors();
-                    if (descriptorList != null && descriptorList.size() > 0) {
-                        for (BluetoothGattDescriptor descriptor : descriptorList) {
-                            descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-                            bluetoothGatt.writeDescriptor(descriptor);
-                        }
-                    }
-                }
-            }
+    /**
+     * 按当前MTU分包发送，剩余容量不足以放下全部分包时返回false
+     *
+     * @param data      the data
+     * @param writeType the write type
+     * @return 是否入队成功
+     */
+    public boolean sendFrame(byte[] data, int writeType) {
+        return core.sendFrame(data, writeType);
+    }
 
-            @Override
-            public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-                super.onCharacteristicChanged(gatt, characteristic);
-                callBack.getServerNotifyData(gatt, characteristic);
-            }
+    /**
+     * 按当前MTU分包发送，剩余容量不足时等待
+     *
+     * @param data      the data
+     * @param writeType the write type
+     * @param timeout   the timeout
+     * @param unit      the unit
+     * @return 是否入队成功
+     * @throws InterruptedException the interrupted exception
+     */
+    public boolean sendFrame(byte[] data, int writeType, long timeout, TimeUnit unit) throws InterruptedException {
+        return core.sendFrame(data, writeType, timeout, unit);
+    }
 
-            @Override
-            public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-                super.onCharacteristicWrite(gatt, characteristic, status);
-                callBack.getServerWriteData(gatt, characteristic, status);
-            }
+    /**
+     * 流式发送，按当前MTU切片后以无响应写入发送，
+     * 交给协议栈的包数受信用窗口限制，协议栈缓冲区满时退避重发，不丢包；
+     * 未发出的分包超过队列容量时拒绝，缓存为空时总是接受
+     *
+     * @param data the data
+     * @return 是否接受
+     */
+    public boolean streamData(byte[] data) {
+        return core.streamData(data);
+    }
 
-            @Override
-            public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-                super.onCharacteristicRead(gatt, characteristic, status);
-                callBack.getServerReadData(gatt, characteristic, status);
-            }
+    /**
+     * 流式发送分包消息，对端需使用分包消息回调接收，缓存已满时拒绝
+     *
+     * @param data the data
+     * @return 是否接受
+     */
+    public boolean streamFrame(byte[] data) {
+        return core.streamFrame(data);
+    }
 
-            @Override
-            public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
-                super.onMtuChanged(gatt, mtu, status);
-                callBack.mtuStatue(gatt, mtu, status);
-                bluetoothGatt.discoverServices();
+    /**
+     * 发起RPC调用，使用默认超时
+     *
+     * @param request  the request
+     * @param callback the callback
+     * @return 关联ID，超出在途上限时排队发出
+     */
+    public int call(byte[] request, RpcClient.Callback callback) {
+        return call(request, RpcClient.DEFAULT_TIMEOUT, callback);
+    }
+
+    /**
+     * 发起RPC调用，请求带关联ID经流式写入发出，不等待之前的调用完成，服务端的应答按关联ID回调，
+     * 应答不经过分包消息回调，需配合FrameCallBack使用
+     *
+     * @param request       the request
+     * @param timeoutMillis 超时，毫秒
+     * @param callback      在途调用超时、断开或服务端报错时回调onFailure
+     * @return 关联ID，超出在途上限时排队发出
+     */
+    public int call(byte[] request, long timeoutMillis, RpcClient.Callback callback) {
+        if (frameCallBack == null) {
+            throw new IllegalArgumentException("RPC需配合FrameCallBack使用");
+        }
+        if (dispatcher.isDirect()) {
+            return core.call(request, timeoutMillis, callback);
+        }
+        return core.call(request, timeoutMillis, new DispatchedCallback(callback));
+    }
+
+    /**
+     * 取消RPC调用，之后到达的应答被丢弃
+     *
+     * @param id 关联ID
+     * @return 调用是否仍在途
+     */
+    public boolean cancelCall(int id) {
+        return core.getRpcClient().cancel(id);
+    }
+
+    /**
+     * 在途的RPC调用数
+     *
+     * @return the in flight call count
+     */
+    public int getInFlightCallCount() {
+        return core.getRpcClient().getInFlightCount();
+    }
+
+    /**
+     * 服务端通知发布者，订阅者按request的数量在交付线程上收到通知数据的副本，不阻塞GATT回调线程，
+     * 与StatueCallBack等回调同时生效
+     *
+     * @return the notify publisher
+     */
+    public BlePublisher<GattValue<BluetoothGatt>> getNotifyPublisher() {
+        return notifyPublisher;
+    }
+
+    /**
+     * 扫描结果发布者，单个结果与批量结果逐个发布
+     *
+     * @return the scan publisher
+     */
+    public BlePublisher<ScanResult> getScanPublisher() {
+        return scanPublisher;
+    }
+
+    /**
+     * 批量发送，L2CAP通道已建立时经通道发送，否则退回GATT流式发送分包消息，服务端均以分包消息回调接收
+     *
+     * @param data the data
+     * @return 是否接受，退回GATT且流式缓存已满时返回false
+     */
+    public boolean sendBulk(byte[] data) {
+        StreamChannel channel = l2capChannel;
+        if (channel != null && channel.send(data)) {
+            return true;
+        }
+        return core.streamFrame(data);
+    }
+
+    /**
+     * 批量发送输入流中的length字节，L2CAP通道已建立时边读边发，否则读出后退回GATT流式发送，发送后关闭source
+     *
+     * @param source the source
+     * @param length the length
+     * @return 是否接受，退回GATT且流式缓存已满时返回false
+     * @throws IOException 退回GATT时读取source失败，或通道在发送前关闭、发送队列已满
+     */
+    public boolean sendBulk(InputStream source, int length) throws IOException {
+        StreamChannel channel = l2capChannel;
+        if (channel != null && channel.isOpen()) {
+            if (channel.send(source, length)) {
+                return true;
+            }
+            throw new IOException("L2CAP通道已关闭或发送队列已满，数据源已被关闭");
+        }
+        byte[] data = new byte[length];
+        try {
+            new DataInputStream(source).readFully(data);
+        } finally {
+            source.close();
+        }
+        return core.streamFrame(data);
+    }
+
+    /**
+     * L2CAP通道是否已建立
+     *
+     * @return the boolean
+     */
+    public boolean isL2capOpen() {
+        StreamChannel channel = l2capChannel;
+        return channel != null && channel.isOpen();
+    }
+
+    /**
+     * 获取流式发送尚未交给队列的分包数
+     *
+     * @return the stream size
+     */
+    public int getStreamSize() {
+        return core.getStreamSize();
+    }
+
+    /**
+     * 获取流式发送的信用窗口
+     *
+     * @return the credit window
+     */
+    public CreditWindow getCreditWindow() {
+        return core.getCreditWindow();
+    }
+
+    /**
+     * 读取服务端读取通道，结果在getServerReadData回调
+     *
+     * @return 是否入队成功
+     */
+    public boolean readData() {
+        return core.readData();
+    }
+
+    /**
+     * 最近一次重连耗时
+     *
+     * @return 毫秒，未发生过重连返回-1
+     */
+    public long getLastReconnectTime() {
+        return core.getLastReconnectTime();
+    }
+
+    /**
+     * 获取当前设备档案
+     *
+     * @return 未连接过设备返回null
+     */
+    public DeviceProfile getDeviceProfile() {
+        return profile;
+    }
+
+    /**
+     * 获取当前连接优先级
+     *
+     * @return BluetoothGatt.CONNECTION_PRIORITY_*
+     */
+    public int getConnectionPriority() {
+        return connectionPriority;
+    }
+
+    /**
+     * 获取当前发送PHY
+     *
+     * @return PhyPolicy.PHY_LE_*
+     */
+    public int getTxPhy() {
+        return txPhy;
+    }
+
+    /**
+     * 获取当前接收PHY
+     *
+     * @return PhyPolicy.PHY_LE_*
+     */
+    public int getRxPhy() {
+        return rxPhy;
+    }
+
+    /**
+     * 获取连接统计快照，统计在客户端生命周期内累计
+     *
+     * @return the metrics
+     */
+    public MetricsSnapshot getMetrics() {
+        return metrics.snapshot(core.getQueueSize() + core.getStreamSize());
+    }
+
+    /**
+     * 服务端是否已接受载荷压缩
+     *
+     * @return the boolean
+     */
+    public boolean isCompressing() {
+        return core.isCompressing();
+    }
+
+    /**
+     * 获取可靠传输，可查看重传与丢弃统计
+     *
+     * @return 未开启返回null
+     */
+    public ReliableStream getReliableStream() {
+        return core.getReliableStream();
+    }
+
+    /**
+     * 获取GATT事件记录
+     *
+     * @return the trace recorder
+     */
+    public TraceRecorder getTraceRecorder() {
+        return traceRecorder;
+    }
+
+    /**
+     * 导出GATT事件记录
+     *
+     * @param file the file
+     * @throws IOException the io exception
+     */
+    public void dumpTrace(File file) throws IOException {
+        traceRecorder.dump(file);
+    }
+
+    /**
+     * 获取当前MTU
+     *
+     * @return the mtu
+     */
+    public int getMtu() {
+        return core.getMtu();
+    }
+
+    /**
+     * 获取队列中等待执行的操作数
+     *
+     * @return the queue size
+     */
+    public int getQueueSize() {
+        return core.getQueueSize();
+    }
+
+    /**
+     * 获取队列容量
+     *
+     * @return the queue capacity
+     */
+    public int getQueueCapacity() {
+        return core.getQueueCapacity();
+    }
+
+    /**
+     * Gets characteristic.
+     *
+     * @param id the id
+     * @return the characteristic
+     */
+    private BluetoothGattCharacteristic getCharacteristic(UUID id) {
+        return getCharacteristic(bluetoothGatt, id);
+    }
+
+    /**
+     * 从指定连接获取特征值，调用方先取bluetoothGatt的快照，避免与断开并发时取到null
+     *
+     * @param gatt the gatt
+     * @param id   the id
+     * @return the characteristic
+     */
+    private BluetoothGattCharacteristic getCharacteristic(BluetoothGatt gatt, UUID id) {
+        if (gatt == null) {
+            return null;
+        }
+        BluetoothGattService service = gatt.getService(serverId);
+        return service == null ? null : service.getCharacteristic(id);
+    }
+
+    /**
+     * 开启通知并写入描述符
+     *
+     * @param id the id
+     */
+    private void enableNotification(UUID id) {
+        BluetoothGatt gatt = bluetoothGatt;
+        BluetoothGattCharacteristic characteristic = getCharacteristic(gatt, id);
+        if (characteristic == null || !gatt.setCharacteristicNotification(characteristic, true)) {
+            return;
+        }
+        List<BluetoothGattDescriptor> descriptorList = characteristic.getDescriptors();
+        if (descriptorList == null) {
+            return;
+        }
+        for (final BluetoothGattDescriptor descriptor : descriptorList) {
+            core.getOperationQueue().offerFirst(new GattOperation(GattOperation.TYPE_DESCRIPTOR_WRITE) {
+                @Override
+                public boolean execute() {
+                    BluetoothGatt gatt = bluetoothGatt;
+                    if (gatt == null) {
+                        return false;
+                    }
+                    descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+                    return gatt.writeDescriptor(descriptor);
+                }
+            });
+        }
+    }
+
+    /**
+     * 读取服务端L2CAP通道的PSM，Android 10以下或服务端未提供时继续使用GATT
+     */
+    private void readL2capPsm() {
+        if (l2capPsmId == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.Q || isL2capOpen()) {
+            return;
+        }
+        final BluetoothGattCharacteristic characteristic = getCharacteristic(l2capPsmId);
+        if (characteristic == null) {
+            return;
+        }
+        core.getOperationQueue().offer(new GattOperation(GattOperation.TYPE_READ) {
+            @Override
+            public boolean execute() {
+                BluetoothGatt gatt = bluetoothGatt;
+                return gatt != null && gatt.readCharacteristic(characteristic);
+            }
+        });
+    }
+
+    /**
+     * 在建连线程建立L2CAP通道，失败时继续使用GATT，建立期间断开、停止连接或已有通道时丢弃新通道
+     *
+     * @param device the device
+     * @param psm    the psm
+     */
+    private void openL2capChannel(final BluetoothDevice device, final int psm) {
+        final int generation;
+        synchronized (l2capLock) {
+            generation = l2capGeneration;
+        }
+        l2capExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                BluetoothSocket socket = null;
+                try {
+                    socket = createL2capSocket(device, psm);
+                    socket.connect();
+                    L2capListener listener = new L2capListener();
+                    StreamChannel channel = new StreamChannel("ble-l2cap", socket.getInputStream(), socket.getOutputStream(), socket, listener);
+                    listener.channel = channel;
+                    synchronized (l2capLock) {
+                        if (stopped || generation != l2capGeneration || l2capChannel != null) {
+                            channel.close();
+                            return;
+                        }
+                        l2capChannel = channel;
+                    }
+                    channel.start();
+                    traceRecorder.record(TraceRecorder.L2CAP_STATE, device.getAddress(), BluetoothGatt.GATT_SUCCESS, psm);
+                } catch (IOException e) {
+                    Log.e(tag, "openL2capChannel: L2CAP通道建立失败，继续使用GATT " + e.getMessage());
+                    traceRecorder.record(TraceRecorder.L2CAP_STATE, device.getAddress(), BluetoothGatt.GATT_FAILURE, psm);
+                    if (socket != null) {
+                        try {
+                            socket.close();
+                        } catch (IOException ignored) {
+                            //关闭失败无需处理
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 创建L2CAP CoC socket
+     *
+     * @param device the device
+     * @param psm    the psm
+     * @return the bluetooth socket
+     * @throws IOException Android 10以下或创建失败
+     */
+    private static BluetoothSocket createL2capSocket(BluetoothDevice device, int psm) throws IOException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            throw new IOException("Android 10以下不支持L2CAP通道");
+        }
+        return device.createL2capChannel(psm);
+    }
+
+    /**
+     * 关闭L2CAP通道，正在建立的通道完成后随即关闭
+     */
+    private void closeL2capChannel() {
+        StreamChannel channel;
+        synchronized (l2capLock) {
+            l2capGeneration++;
+            channel = l2capChannel;
+            l2capChannel = null;
+        }
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * 发现服务
+     */
+    private void discoverServices() {
+        core.getOperationQueue().offerFirst(new DiscoverOperation(1));
+    }
+
+    /**
+     * 发现服务操作，超时或提交失败时重试一次，仍失败则断开交给重连
+     */
+    private class DiscoverOperation extends GattOperation {
+
+        /**
+         * 第几次尝试
+         */
+        private final int attempt;
+
+        /**
+         * Instantiates a new Discover operation.
+         *
+         * @param attempt the attempt
+         */
+        DiscoverOperation(int attempt) {
+            super(TYPE_DISCOVER);
+            this.attempt = attempt;
+        }
+
+        @Override
+        public boolean execute() {
+            BluetoothGatt gatt = bluetoothGatt;
+            return gatt != null && gatt.discoverServices();
+        }
+
+        @Override
+        protected void onComplete(int status) {
+            if (status == STATUS_TIMEOUT) {
+                retry();
+            }
+        }
+
+        @Override
+        protected boolean onFailure() {
+            retry();
+            return false;
+        }
+
+        /**
+         * 重试或断开
+         */
+        private void retry() {
+            if (attempt < DISCOVER_ATTEMPTS) {
+                core.getOperationQueue().offerFirst(new DiscoverOperation(attempt + 1));
+                return;
+            }
+            BluetoothGatt gatt = bluetoothGatt;
+            if (gatt != null) {
+                Log.e(tag, "discoverServices: 发现服务失败，断开重连");
+                gatt.disconnect();
+            }
+        }
+    }
+
+    /**
+     * 分发服务端通知
+     *
+     * @param gatt           the gatt
+     * @param characteristic the characteristic
+     * @param value          the value
+     */
+    private void handleNotify(final BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic, final byte[] value) {
+        traceRecorder.record(TraceRecorder.CHARACTERISTIC_CHANGED, gatt.getDevice().getAddress(), BluetoothGatt.GATT_SUCCESS, value.length);
+        metrics.recordInbound(value.length);
+        metrics.recordOperation(ConnectionMetrics.OP_NOTIFY, BluetoothGatt.GATT_SUCCESS);
+        if (priorityScheduler != null) {
+            priorityScheduler.recordInbound(value.length);
+        }
+        if (notifyPublisher.hasSubscribers()) {
+            notifyPublisher.offer(new GattValue<>(gatt, characteristic.getUuid(), value.clone()));
+        }
+        if (frameCallBack != null) {
+            core.onNotify(value);
+        } else if (bufferCallBack != null) {
+            final PooledBuffer buffer = bufferPool.copyOf(value, 0, value.length);
+            dispatch(new Runnable() {
+                @Override
+                public void run() {
+                    bufferCallBack.getServerNotifyBuffer(gatt, characteristic, buffer);
+                }
+            });
+        } else {
+            final BluetoothGattCharacteristic snapshot = snapshotOf(characteristic, value);
+            dispatch(new Runnable() {
+                @Override
+                public void run() {
+                    callBack.getServerNotifyData(gatt, snapshot);
+                }
+            });
+        }
+    }
+
+    /**
+     * 使用回调线程池时复制特征值，之后的通知与读写只会更新共享的特征值，不影响已提交的回调
+     *
+     * @param characteristic the characteristic
+     * @param value          本次回调的值
+     * @return 直接执行时返回原特征值
+     */
+    private BluetoothGattCharacteristic snapshotOf(BluetoothGattCharacteristic characteristic, byte[] value) {
+        if (dispatcher.isDirect()) {
+            return characteristic;
+        }
+        BluetoothGattCharacteristic snapshot = new BluetoothGattCharacteristic(characteristic.getUuid(), characteristic.getProperties(), characteristic.getPermissions());
+        snapshot.setWriteType(characteristic.getWriteType());
+        if (value != null) {
+            snapshot.setValue(value.clone());
+        }
+        for (BluetoothGattDescriptor descriptor : characteristic.getDescriptors()) {
+            BluetoothGattDescriptor copy = new BluetoothGattDescriptor(descriptor.getUuid(), descriptor.getPermissions());
+            byte[] config = descriptor.getValue();
+            if (config != null) {
+                copy.setValue(config.clone());
+            }
+            snapshot.addDescriptor(copy);
+        }
+        return snapshot;
+    }
+
+    /**
+     * 分发用户回调，设置回调线程池时按提交顺序在线程池上执行
+     *
+     * @param task the task
+     */
+    private void dispatch(Runnable task) {
+        dispatcher.execute(this, task);
+    }
+
+    /**
+     * 交付分包消息，GATT与L2CAP收到的消息经同一顺序交付
+     *
+     * @param data the data
+     */
+    private void deliverFrame(final byte[] data) {
+        final BluetoothGatt gatt = bluetoothGatt;
+        dispatch(new Runnable() {
+            @Override
+            public void run() {
+                frameCallBack.getServerFrameData(gatt, data);
+            }
+        });
+    }
+
+    /**
+     * GATT传输，写入与读取固定走写入通道与读取通道
+     */
+    private class GattTransport implements ClientTransport {
+
+        @Override
+        public void setListener(Listener listener) {
+            //GATT事件由bluetoothGattCallback直接转交core
+        }
+
+        @Override
+        public boolean connect(boolean autoConnect) {
+            String address = lastAddress;
+            BluetoothAdapter adapter = bluetoothAdapter;
+            if (address == null || adapter == null || bluetoothGattCallback == null) {
+                return false;
+            }
+            metrics.recordConnectStart();
+            bluetoothGatt = adapter.getRemoteDevice(address).connectGatt(context, autoConnect, bluetoothGattCallback);
+            return bluetoothGatt != null;
+        }
+
+        @Override
+        public void disconnect() {
+            BluetoothGatt gatt = bluetoothGatt;
+            bluetoothGatt = null;
+            if (gatt != null) {
+                gatt.disconnect();
+                gatt.close();
+            }
+        }
+
+        @Override
+        public boolean requestMtu(int mtu) {
+            BluetoothGatt gatt = bluetoothGatt;
+            return gatt != null && gatt.requestMtu(mtu);
+        }
+
+        @Override
+        public boolean write(byte[] data, int writeType) {
+            BluetoothGatt gatt = bluetoothGatt;
+            BluetoothGattCharacteristic characteristic = getCharacteristic(gatt, writeId);
+            if (characteristic == null) {
+                return false;
+            }
+            characteristic.setValue(data);
+            characteristic.setWriteType(writeType);
+            if (!gatt.writeCharacteristic(characteristic)) {
+                return false;
+            }
+            metrics.recordOutbound(data.length);
+            return true;
+        }
+
+        @Override
+        public boolean read() {
+            BluetoothGatt gatt = bluetoothGatt;
+            BluetoothGattCharacteristic characteristic = getCharacteristic(gatt, readId);
+            return characteristic != null && gatt.readCharacteristic(characteristic);
+        }
+    }
+
+    /**
+     * L2CAP通道事件，收到的消息与GATT分包消息一样经分包消息回调交付
+     */
+    private class L2capListener implements StreamChannel.Listener {
+
+        /**
+         * 所属通道
+         */
+        volatile StreamChannel channel;
+
+        @Override
+        public void onMessage(byte[] data) {
+            metrics.recordInbound(data.length);
+            deliverFrame(data);
+        }
+
+        @Override
+        public void onClosed(IOException cause) {
+            synchronized (l2capLock) {
+                if (l2capChannel == channel) {
+                    l2capChannel = null;
+                }
+            }
+            BluetoothGatt gatt = bluetoothGatt;
+            traceRecorder.record(TraceRecorder.L2CAP_STATE, gatt == null ? null : gatt.getDevice().getAddress(), cause == null ? BluetoothGatt.GATT_SUCCESS : BluetoothGatt.GATT_FAILURE, 0);
+            if (cause != null) {
+                Log.e(tag, "onClosed: L2CAP通道异常关闭，退回GATT " + cause.getMessage());
+            }
+        }
+    }
+
+    /**
+     * RPC调用结果经回调线程池交付
+     */
+    private class DispatchedCallback implements RpcClient.Callback {
+
+        /**
+         * 用户回调
+         */
+        private final RpcClient.Callback callback;
+
+        /**
+         * Instantiates a new Dispatched callback.
+         *
+         * @param callback the callback
+         */
+        DispatchedCallback(RpcClient.Callback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void onResponse(final byte[] response) {
+            dispatch(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onResponse(response);
+                }
+            });
+        }
+
+        @Override
+        public void onFailure(final int error, final String message) {
+            dispatch(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onFailure(error, message);
+                }
+            });
+        }
+    }
+
+    /**
+     * 数据通路回调
+     */
+    private class CoreCallback implements TransportClient.Callback {
+
+        @Override
+        public void onReconnected(final int attempts, final long costMillis) {
+            if (reconnectCallBack != null) {
+                final BluetoothGatt gatt = bluetoothGatt;
+                dispatch(new Runnable() {
+                    @Override
+                    public void run() {
+                        reconnectCallBack.reconnectSuccess(gatt, attempts, costMillis);
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void onReconnectFailed() {
+            if (warmStarting) {
+                warmStarting = false;
+                core.resetReconnect();
+                if (profileStore != null && lastAddress != null) {
+                    profileStore.remove(lastAddress);
+                }
+                profile = null;
+            }
+            if (scanner != null && scanCallback != null) {
+                scanner.startScan(scanFilters, getEffectiveScanSettings(), scanCallback);
+            }
+        }
+
+        @Override
+        public void onNotify(byte[] value) {
+            //非分包模式的通知在handleNotify中直接分发
+        }
+
+        @Override
+        public void onMessage(byte[] data, int flags) {
+            deliverFrame(data);
+        }
+
+        @Override
+        public void onReadComplete(byte[] value, int status) {
+            //读取结果已在onCharacteristicRead中通过getServerReadData回调
+        }
+    }
+
+    /**
+     * 队列操作类型对应的统计类型
+     *
+     * @param type GattOperation.TYPE_*
+     * @return ConnectionMetrics.OP_*，没有对应类型返回-1
+     */
+    private static int toMetricsType(int type) {
+        switch (type) {
+            case GattOperation.TYPE_WRITE:
+                return ConnectionMetrics.OP_WRITE;
+            case GattOperation.TYPE_READ:
+                return ConnectionMetrics.OP_READ;
+            case GattOperation.TYPE_DESCRIPTOR_WRITE:
+                return ConnectionMetrics.OP_DESCRIPTOR_WRITE;
+            case GattOperation.TYPE_MTU:
+                return ConnectionMetrics.OP_MTU;
+            case GattOperation.TYPE_DISCOVER:
+                return ConnectionMetrics.OP_DISCOVER;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Init scan filters.
+     *
+     * @return the list
+     */
+    private List<ScanFilter> initScanFilters() {
+        List<ScanFilter> filters = new ArrayList<>();
+        //多个过滤条件为或关系，广播中只有名称或只有服务id的服务端都能上报，名称再由onDeviceFound精确匹配
+        if (serverId != null) {
+            filters.add(new ScanFilter.Builder().setServiceUuid(new ParcelUuid(serverId)).build());
+        }
+        if (serverName != null) {
+            filters.add(new ScanFilter.Builder().setDeviceName(serverName).build());
+        }
+        return filters;
+    }
+
+    /**
+     * 控制器不支持批量上报时退回逐条上报
+     *
+     * @return the scan settings
+     */
+    private ScanSettings getEffectiveScanSettings() {
+        if (scanSettings.getReportDelayMillis() > 0 && !bluetoothAdapter.isOffloadedScanBatchingSupported()) {
+            Log.e(tag, "getEffectiveScanSettings: 控制器不支持批量扫描，退回逐条上报");
+            return initScanSettings(0);
+        }
+        return scanSettings;
+    }
+
+    /**
+     * Init scan settings.
+     *
+     * @param reportDelay the report delay
+     * @return the scan settings
+     */
+    private ScanSettings initScanSettings(long reportDelay) {
+        ScanSettings.Builder builder = new ScanSettings.Builder()
+                .setScanMode(reportDelay > 0 ? ScanSettings.SCAN_MODE_LOW_POWER : ScanSettings.SCAN_MODE_LOW_LATENCY)
+                .setReportDelay(reportDelay);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            builder.setCallbackType(ScanSettings.CALLBACK_TYPE_ALL_MATCHES)
+                    .setMatchMode(ScanSettings.MATCH_MODE_AGGRESSIVE)
+                    .setNumOfMatches(ScanSettings.MATCH_NUM_ONE_ADVERTISEMENT);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Init scan callback.
+     */
+    private void initScanCallback() {
+        scanCallback = new ScanCallback() {
+            @Override
+            public void onScanResult(int callbackType, ScanResult result) {
+                super.onScanResult(callbackType, result);
+                traceRecorder.record(TraceRecorder.SCAN_RESULT, result.getDevice().getAddress(), result.getRssi(), result.getScanRecord() == null ? 0 : result.getScanRecord().getBytes().length);
+                scanPublisher.offer(result);
+                if (batchScanCallBack != null) {
+                    final List<ScanResult> results = new ArrayList<>(1);
+                    results.add(result);
+                    dispatch(new Runnable() {
+                        @Override
+                        public void run() {
+                            batchScanCallBack.getScannerDevices(results);
+                        }
+                    });
+                }
+                onDeviceFound(result);
+            }
+
+            @Override
+            public void onBatchScanResults(List<ScanResult> results) {
+                super.onBatchScanResults(results);
+                traceRecorder.record(TraceRecorder.BATCH_SCAN_RESULTS, null, 0, results.size());
+                final List<ScanResult> merged = mergeBatchResults(results);
+                for (ScanResult result : merged) {
+                    scanPublisher.offer(result);
+                }
+                if (batchScanCallBack != null) {
+                    dispatch(new Runnable() {
+                        @Override
+                        public void run() {
+                            batchScanCallBack.getScannerDevices(merged);
+                        }
+                    });
+                }
+                for (ScanResult result : merged) {
+                    if (onDeviceFound(result)) {
+                        break;
+                    }
+                }
+            }
+
+            @Override
+            public void onScanFailed(int errorCode) {
+                super.onScanFailed(errorCode);
+                traceRecorder.record(TraceRecorder.SCAN_FAILED, null, errorCode, 0);
+                Log.e(tag, "onScanFailed: 扫描失败" + errorCode);
+            }
+        };
+    }
+
+    /**
+     * 名称是否匹配，设备名称未缓存时使用广播中的名称
+     *
+     * @param result the result
+     * @return the boolean
+     */
+    private boolean matchesName(ScanResult result) {
+        if (serverName == null) {
+            return true;
+        }
+        ScanRecord record = result.getScanRecord();
+        return serverName.equals(result.getDevice().getName()) || (record != null && serverName.equals(record.getDeviceName()));
+    }
+
+    /**
+     * 扫描到设备，名称匹配时连接
+     *
+     * @param result the result
+     * @return 是否匹配
+     */
+    private boolean onDeviceFound(ScanResult result) {
+        final BluetoothDevice device = result.getDevice();
+        if (callBack == null || !matchesName(result)) {
+            return false;
+        }
+        dispatch(new Runnable() {
+            @Override
+            public void run() {
+                callBack.getScannerDevice(device);
+            }
+        });
+        if (bluetoothGattCallback == null) {
+            initBluetoothGattCallback();
+        }
+        lastAddress = device.getAddress();
+        profile = loadProfile(device);
+        profile.setRssi(result.getRssi());
+        metrics.setAddress(device.getAddress());
+        metrics.recordConnectStart();
+        bluetoothGatt = device.connectGatt(context, false, bluetoothGattCallback);
+        scanner.stopScan(scanCallback);
+        return true;
+    }
+
+    /**
+     * 按档案直接连接上次的设备，跳过扫描
+     *
+     * @return 是否已发起连接
+     */
+    private boolean warmStart() {
+        if (profileStore == null || callBack == null || serverName == null) {
+            return false;
+        }
+        DeviceProfile stored = profileStore.findByName(serverName);
+        if (stored == null || (serverId != null && !stored.hasCharacteristic(serverId, writeId))) {
+            return false;
+        }
+        if (bluetoothGattCallback == null) {
+            initBluetoothGattCallback();
+        }
+        profile = stored;
+        lastAddress = stored.getAddress();
+        warmStarting = true;
+        metrics.setAddress(stored.getAddress());
+        metrics.recordConnectStart();
+        bluetoothGatt = bluetoothAdapter.getRemoteDevice(stored.getAddress()).connectGatt(context, false, bluetoothGattCallback);
+        return true;
+    }
+
+    /**
+     * 读取设备档案，没有则新建
+     *
+     * @param device the device
+     * @return the device profile
+     */
+    private DeviceProfile loadProfile(BluetoothDevice device) {
+        DeviceProfile current = profile;
+        if (current != null && current.getAddress().equals(device.getAddress())) {
+            return current;
+        }
+        DeviceProfile stored = profileStore == null ? null : profileStore.get(device.getAddress());
+        if (stored == null) {
+            stored = new DeviceProfile(device.getAddress());
+        }
+        stored.setName(device.getName());
+        return stored;
+    }
+
+    /**
+     * 保存当前设备档案
+     */
+    private void saveProfile() {
+        DeviceProfile current = profile;
+        if (profileStore != null && current != null) {
+            profileStore.put(current);
+        }
+    }
+
+    /**
+     * 按当前服务更新档案中的服务结构
+     *
+     * @param gatt the gatt
+     */
+    private void recordServices(BluetoothGatt gatt) {
+        DeviceProfile current = profile;
+        if (current == null) {
+            return;
+        }
+        current.clearServices();
+        for (BluetoothGattService service : gatt.getServices()) {
+            List<BluetoothGattCharacteristic> characteristics = service.getCharacteristics();
+            List<UUID> ids = new ArrayList<>(characteristics.size());
+            for (BluetoothGattCharacteristic characteristic : characteristics) {
+                ids.add(characteristic.getUuid());
+            }
+            current.putService(service.getUuid(), ids);
+        }
+    }
+
+    /**
+     * 记录PHY，请求的PHY被对端拒绝时记入档案，之后的连接不再请求
+     *
+     * @param txPhy  the tx phy
+     * @param rxPhy  the rx phy
+     * @param status the status
+     * @param update 是否为PHY变更回调
+     */
+    private void recordPhy(int txPhy, int rxPhy, int status, boolean update) {
+        DeviceProfile current = profile;
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            this.txPhy = txPhy;
+            this.rxPhy = rxPhy;
+            if (current != null) {
+                current.setTxPhy(txPhy);
+                current.setRxPhy(rxPhy);
+            }
+        }
+        if (update && phyRequested) {
+            phyRequested = false;
+            boolean accepted = status == BluetoothGatt.GATT_SUCCESS && phyPolicy.isAccepted(txPhy, rxPhy);
+            if (!accepted) {
+                Log.e(tag, "recordPhy: 对端未接受PHY" + phyPolicy.getPhy() + "，保持" + this.txPhy + "/" + this.rxPhy);
+            }
+            if (current != null) {
+                current.setRefusedPhy(accepted ? DeviceProfile.UNKNOWN : phyPolicy.getPhy());
+            }
+        }
+        saveProfile();
+    }
+
+    /**
+     * 断开后关闭旧GATT，交给数据通路按策略直接重连或退回扫描
+     *
+     * @param gatt   the gatt
+     * @param status the status
+     */
+    private void onDisconnected(BluetoothGatt gatt, int status) {
+        gatt.close();
+        if (bluetoothGatt == gatt) {
+            bluetoothGatt = null;
+        }
+        closeL2capChannel();
+        core.onConnectionStateChange(status, false);
+    }
+
+    /**
+     * 一次遍历按设备地址去重，保留信号最强的一条，结果按信号强度降序
+     *
+     * @param results the results
+     * @return the list
+     */
+    private List<ScanResult> mergeBatchResults(List<ScanResult> results) {
+        batchResults.clear();
+        for (ScanResult result : results) {
+            String address = result.getDevice().getAddress();
+            ScanResult exist = batchResults.get(address);
+            if (exist == null || result.getRssi() > exist.getRssi()) {
+                batchResults.put(address, result);
+            }
+        }
+        List<ScanResult> merged = new ArrayList<>(batchResults.values());
+        batchResults.clear();
+        Collections.sort(merged, new Comparator<ScanResult>() {
+            @Override
+            public int compare(ScanResult o1, ScanResult o2) {
+                return o2.getRssi() - o1.getRssi();
+            }
+        });
+        return merged;
+    }
+
+    /**
+     * Init bluetooth gatt callback.
+     */
+    private void initBluetoothGattCallback() {
+        bluetoothGattCallback = new BluetoothGattCallback() {
+            @Override
+            public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+                super.onConnectionStateChange(gatt, status, newState);
+                traceRecorder.record(TraceRecorder.CONNECTION_STATE, gatt.getDevice().getAddress(), status, newState);
+                if (newState == BluetoothProfile.STATE_CONNECTED) {
+                    bluetoothGatt = gatt;
+                    metrics.recordConnected();
+                    core.onConnectionStateChange(status, true);
+                    warmStarting = false;
+                    final DeviceProfile current = loadProfile(gatt.getDevice());
+                    profile = current;
+                    dispatch(new Runnable() {
+                        @Override
+                        public void run() {
+                            callBack.connectSuccess(gatt, status, newState);
+                        }
+                    });
+                    if (mtuSize == 0) {
+                        mtuSize = 512;
+                    }
+                    int priority = current.getConnectionPriority() == DeviceProfile.UNKNOWN ? BluetoothGatt.CONNECTION_PRIORITY_BALANCED : current.getConnectionPriority();
+                    if (gatt.requestConnectionPriority(priority)) {
+                        current.setConnectionPriority(priority);
+                        connectionPriority = priority;
+                    }
+                    if (priorityScheduler != null) {
+                        priorityScheduler.reset(connectionPriority, SystemClock.elapsedRealtime());
+                        handler.removeCallbacks(priorityTask);
+                        handler.postDelayed(priorityTask, PriorityScheduler.SAMPLE_INTERVAL);
+                    }
+                    txPhy = PhyPolicy.PHY_LE_1M;
+                    rxPhy = PhyPolicy.PHY_LE_1M;
+                    phyRequested = false;
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                        if (phyPolicy != null) {
+                            if (phyPolicy.shouldRequest(current.getRefusedPhy())) {
+                                phyRequested = true;
+                                gatt.setPreferredPhy(phyPolicy.getPhyMask(), phyPolicy.getPhyMask(), phyPolicy.getPhyOptions());
+                            }
+                        } else if (current.getTxPhy() > PhyPolicy.PHY_LE_1M && current.getRxPhy() > PhyPolicy.PHY_LE_1M) {
+                            gatt.setPreferredPhy(PhyPolicy.toMask(current.getTxPhy()), PhyPolicy.toMask(current.getRxPhy()), PhyPolicy.PHY_OPTION_NO_PREFERRED);
+                        }
+                    }
+                    if (current.getMtu() == FrameCodec.DEFAULT_MTU) {
+                        dispatch(new Runnable() {
+                            @Override
+                            public void run() {
+                                callBack.setMtuIsSuccess(false);
+                            }
+                        });
+                        discoverServices();
+                        return;
+                    }
+                    core.getOperationQueue().offerFirst(new GattOperation(GattOperation.TYPE_MTU) {
+                        @Override
+                        public boolean execute() {
+                            BluetoothGatt gatt = bluetoothGatt;
+                            int mtu = current.getMtu() == DeviceProfile.UNKNOWN ? mtuSize + 3 : Math.min(current.getMtu(), mtuSize + 3);
+                            final boolean isSuccess = gatt != null && gatt.requestMtu(mtu);
+                            dispatch(new Runnable() {
+                                @Override
+                                public void run() {
+                                    callBack.setMtuIsSuccess(isSuccess);
+                                }
+                            });
+                            return isSuccess;
+                        }
+
+                        @Override
+                        protected void onComplete(int status) {
+                            //协商结果或超时之后都继续发现服务
+                            discoverServices();
+                        }
+
+                        @Override
+                        protected boolean onFailure() {
+                            discoverServices();
+                            return false;
+                        }
+                    });
+                } else if (newState == BluetoothProfile.STATE_CONNECTING) {
+                    dispatch(new Runnable() {
+                        @Override
+                        public void run() {
+                            callBack.connecting(gatt, status, newState);
+                        }
+                    });
+                } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                    metrics.recordDisconnected(status, stopped);
+                    handler.removeCallbacks(priorityTask);
+                    onDisconnected(gatt, status);
+                    dispatch(new Runnable() {
+                        @Override
+                        public void run() {
+                            callBack.connectFail(gatt, status, newState);
+                        }
+                    });
+                } else if (newState == BluetoothProfile.STATE_DISCONNECTING) {
+                    dispatch(new Runnable() {
+                        @Override
+                        public void run() {
+                            callBack.disconnecting(gatt, status, newState);
+                        }
+                    });
+                }
+            }
+
+            @Override
+            public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+                super.onServicesDiscovered(gatt, status);
+                traceRecorder.record(TraceRecorder.SERVICES_DISCOVERED, gatt.getDevice().getAddress(), status, gatt.getServices().size());
+                metrics.recordOperation(ConnectionMetrics.OP_DISCOVER, status);
+                dispatch(new Runnable() {
+                    @Override
+                    public void run() {
+                        callBack.getServer(gatt, status);
+                    }
+                });
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    recordServices(gatt);
+                    saveProfile();
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                        gatt.readPhy();
+                    }
+                }
+                enableNotification(readId);
+                //写特征值的本地通知此前在每次写入时开启，改为每个连接发现服务后开启一次
+                BluetoothGattCharacteristic writeCharacteristic = getCharacteristic(gatt, writeId);
+                if (writeCharacteristic != null) {
+                    gatt.setCharacteristicNotification(writeCharacteristic, true);
+                }
+                core.handshake();
+                readL2capPsm();
+                core.getOperationQueue().complete(GattOperation.TYPE_DISCOVER);
+            }
+
+            @Override
+            public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+                super.onDescriptorWrite(gatt, descriptor, status);
+                traceRecorder.record(TraceRecorder.DESCRIPTOR_WRITE, gatt.getDevice().getAddress(), status, 0);
+                metrics.recordOperation(ConnectionMetrics.OP_DESCRIPTOR_WRITE, status);
+                core.getOperationQueue().complete(GattOperation.TYPE_DESCRIPTOR_WRITE);
+            }
+
+            @Override
+            public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+                super.onCharacteristicChanged(gatt, characteristic);
+                handleNotify(gatt, characteristic, characteristic.getValue());
+            }
+
+            /**
+             * Android 13起携带通知数据的回调，默认实现会转调旧回调，覆盖后不调用super避免重复分发
+             */
+            public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, byte[] value) {
+                handleNotify(gatt, characteristic, value);
+            }
+
+            @Override
+            public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+                super.onCharacteristicWrite(gatt, characteristic, status);
+                traceRecorder.record(TraceRecorder.CHARACTERISTIC_WRITE, gatt.getDevice().getAddress(), status, characteristic.getValue() == null ? 0 : characteristic.getValue().length);
+                metrics.recordOperation(ConnectionMetrics.OP_WRITE, status);
+                metrics.recordWriteAck();
+                final BluetoothGattCharacteristic snapshot = snapshotOf(characteristic, characteristic.getValue());
+                dispatch(new Runnable() {
+                    @Override
+                    public void run() {
+                        callBack.getServerWriteData(gatt, snapshot, status);
+                    }
+                });
+                core.onWriteComplete(status);
+            }
+
+            @Override
+            public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+                super.onCharacteristicRead(gatt, characteristic, status);
+                traceRecorder.record(TraceRecorder.CHARACTERISTIC_READ, gatt.getDevice().getAddress(), status, characteristic.getValue() == null ? 0 : characteristic.getValue().length);
+                metrics.recordOperation(ConnectionMetrics.OP_READ, status);
+                if (status == BluetoothGatt.GATT_SUCCESS && characteristic.getValue() != null) {
+                    metrics.recordInbound(characteristic.getValue().length);
+                }
+                if (l2capPsmId != null && l2capPsmId.equals(characteristic.getUuid())) {
+                    byte[] value = characteristic.getValue();
+                    if (status == BluetoothGatt.GATT_SUCCESS && value != null && value.length >= 2) {
+                        openL2capChannel(gatt.getDevice(), (value[0] & 0xFF) | (value[1] & 0xFF) << 8);
+                    }
+                    core.getOperationQueue().complete(GattOperation.TYPE_READ);
+                    return;
+                }
+                final BluetoothGattCharacteristic snapshot = snapshotOf(characteristic, characteristic.getValue());
+                dispatch(new Runnable() {
+                    @Override
+                    public void run() {
+                        callBack.getServerReadData(gatt, snapshot, status);
+                    }
+                });
+                core.onReadComplete(characteristic.getValue(), status);
+            }
+
+            @Override
+            public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+                super.onMtuChanged(gatt, mtu, status);
+                traceRecorder.record(TraceRecorder.MTU_CHANGED, gatt.getDevice().getAddress(), status, mtu);
+                metrics.recordOperation(ConnectionMetrics.OP_MTU, status);
+                dispatch(new Runnable() {
+                    @Override
+                    public void run() {
+                        callBack.mtuStatue(gatt, mtu, status);
+                    }
+                });
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    DeviceProfile current = profile;
+                    if (current != null) {
+                        current.setMtu(mtu);
+                    }
+                }
+                core.onMtuChanged(mtu, status);
+            }
+
+            @Override
+            public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+                super.onPhyUpdate(gatt, txPhy, rxPhy, status);
+                traceRecorder.record(TraceRecorder.PHY_UPDATE, gatt.getDevice().getAddress(), status, txPhy << 8 | rxPhy);
+                recordPhy(txPhy, rxPhy, status, true);
+            }
+
+            @Override
+            public void onPhyRead(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+                super.onPhyRead(gatt, txPhy, rxPhy, status);
+                traceRecorder.record(TraceRecorder.PHY_READ, gatt.getDevice().getAddress(), status, txPhy << 8 | rxPhy);
+                recordPhy(txPhy, rxPhy, status, false);
+            }
+
+            @Override
+            public void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+                super.onDescriptorRead(gatt, descriptor, status);
+                traceRecorder.record(TraceRecorder.DESCRIPTOR_READ, gatt.getDevice().getAddress(), status, descriptor.getValue() == null ? 0 : descriptor.getValue().length);
+            }
+
+            @Override
+            public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
+                super.onReadRemoteRssi(gatt, rssi, status);
+                traceRecorder.record(TraceRecorder.READ_REMOTE_RSSI, gatt.getDevice().getAddress(), status, rssi);
+            }
+
+            @Override
+            public void onReliableWriteCompleted(BluetoothGatt gatt, int status) {
+                super.onReliableWriteCompleted(gatt, status);
+                traceRecorder.record(TraceRecorder.RELIABLE_WRITE_COMPLETED, gatt.getDevice().getAddress(), status, 0);
+            }
+
+            @Override
+            public void onServiceChanged(BluetoothGatt gatt) {
+                super.onServiceChanged(gatt);
+                traceRecorder.record(TraceRecorder.SERVICE_CHANGED, gatt.getDevice().getAddress(), BluetoothGatt.GATT_SUCCESS, 0);
             }
         };
     }
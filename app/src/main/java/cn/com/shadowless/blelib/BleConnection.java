@@ -0,0 +1,485 @@
+package cn.com.shadowless.blelib;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import cn.com.shadowless.blelib.frame.FrameAssembler;
+import cn.com.shadowless.blelib.frame.FrameCodec;
+import cn.com.shadowless.blelib.queue.GattOperation;
+import cn.com.shadowless.blelib.queue.GattOperationQueue;
+import cn.com.shadowless.blelib.transport.Scheduler;
+
+/**
+ * 连接池中的单个连接
+ * <p>
+ * 每个连接有独立的GATT、操作队列、MTU与分包状态，由{@link BleConnectionPool}创建。
+ *
+ * @author sHadowLess
+ */
+public class BleConnection {
+
+    /**
+     * 正在连接
+     */
+    public static final int STATE_CONNECTING = 1;
+
+    /**
+     * 已连接，正在协商MTU与发现服务
+     */
+    public static final int STATE_CONNECTED = 2;
+
+    /**
+     * 已开启通知，可以收发数据
+     */
+    public static final int STATE_READY = 3;
+
+    /**
+     * 已断开
+     */
+    public static final int STATE_DISCONNECTED = 4;
+
+    /**
+     * 发现服务的尝试次数
+     */
+    private static final int DISCOVER_ATTEMPTS = 2;
+
+    /**
+     * 所属连接池
+     */
+    private final BleConnectionPool pool;
+
+    /**
+     * 设备
+     */
+    private final BluetoothDevice device;
+
+    /**
+     * 服务端id
+     */
+    private final UUID serverId;
+
+    /**
+     * 写入通道id
+     */
+    private final UUID writeId;
+
+    /**
+     * 读取通道id
+     */
+    private final UUID readId;
+
+    /**
+     * 请求的MTU
+     */
+    private final int mtuSize;
+
+    /**
+     * GATT操作队列
+     */
+    private final GattOperationQueue operationQueue;
+
+    /**
+     * 分包编码
+     */
+    private final FrameCodec frameCodec = new FrameCodec();
+
+    /**
+     * 分包重组
+     */
+    private final FrameAssembler frameAssembler = new FrameAssembler();
+
+    /**
+     * 客户端协议
+     */
+    private volatile BluetoothGatt bluetoothGatt;
+
+    /**
+     * 连接状态
+     */
+    private volatile int state;
+
+    /**
+     * Instantiates a new Ble connection.
+     *
+     * @param pool          the pool
+     * @param device        the device
+     * @param serverId      the server id
+     * @param writeId       the write id
+     * @param readId        the read id
+     * @param mtuSize       the mtu size
+     * @param queueCapacity the queue capacity
+     * @param scheduler     操作超时调度
+     */
+    BleConnection(BleConnectionPool pool, BluetoothDevice device, UUID serverId, UUID writeId, UUID readId, int mtuSize, int queueCapacity, Scheduler scheduler) {
+        this.pool = pool;
+        this.device = device;
+        this.serverId = serverId;
+        this.writeId = writeId;
+        this.readId = readId;
+        this.mtuSize = mtuSize;
+        this.operationQueue = new GattOperationQueue(queueCapacity, scheduler, GattOperationQueue.DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * 发起连接
+     *
+     * @param context the context
+     */
+    void connect(Context context) {
+        state = STATE_CONNECTING;
+        bluetoothGatt = device.connectGatt(context, false, gattCallback);
+    }
+
+    /**
+     * 断开连接，断开后由连接池释放名额
+     */
+    public void disconnect() {
+        BluetoothGatt gatt = bluetoothGatt;
+        if (gatt != null) {
+            gatt.disconnect();
+        }
+    }
+
+    /**
+     * 关闭GATT
+     */
+    void close() {
+        BluetoothGatt gatt = bluetoothGatt;
+        bluetoothGatt = null;
+        state = STATE_DISCONNECTED;
+        operationQueue.clear();
+        frameAssembler.reset();
+        if (gatt != null) {
+            gatt.close();
+        }
+    }
+
+    /**
+     * Send data，队列满时返回false
+     *
+     * @param data      the data
+     * @param writeType the write type
+     * @return 是否入队成功
+     */
+    public boolean sendData(byte[] data, int writeType) {
+        return operationQueue.offer(new WriteOperation(data, writeType));
+    }
+
+    /**
+     * 按当前MTU分包发送，剩余容量不足以放下全部分包时返回false
+     *
+     * @param data      the data
+     * @param writeType the write type
+     * @return 是否入队成功
+     */
+    public boolean sendFrame(byte[] data, int writeType) {
+        List<byte[]> chunks = frameCodec.encode(data);
+        List<WriteOperation> operations = new ArrayList<>(chunks.size());
+        for (byte[] chunk : chunks) {
+            operations.add(new WriteOperation(chunk, writeType));
+        }
+        return operationQueue.offerAll(operations);
+    }
+
+    /**
+     * Gets device.
+     *
+     * @return the device
+     */
+    public BluetoothDevice getDevice() {
+        return device;
+    }
+
+    /**
+     * Gets address.
+     *
+     * @return the address
+     */
+    public String getAddress() {
+        return device.getAddress();
+    }
+
+    /**
+     * Gets gatt.
+     *
+     * @return the gatt
+     */
+    public BluetoothGatt getGatt() {
+        return bluetoothGatt;
+    }
+
+    /**
+     * Gets state.
+     *
+     * @return the state
+     */
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * Gets mtu.
+     *
+     * @return the mtu
+     */
+    public int getMtu() {
+        return frameCodec.getMtu();
+    }
+
+    /**
+     * 获取队列中等待执行的操作数
+     *
+     * @return the queue size
+     */
+    public int getQueueSize() {
+        return operationQueue.size();
+    }
+
+    /**
+     * Gets characteristic.
+     *
+     * @param id the id
+     * @return the characteristic
+     */
+    private BluetoothGattCharacteristic getCharacteristic(UUID id) {
+        BluetoothGatt gatt = bluetoothGatt;
+        if (gatt == null) {
+            return null;
+        }
+        BluetoothGattService service = gatt.getService(serverId);
+        return service == null ? null : service.getCharacteristic(id);
+    }
+
+    /**
+     * 开启通知并写入描述符
+     *
+     * @param id the id
+     */
+    private void enableNotification(UUID id) {
+        BluetoothGattCharacteristic characteristic = getCharacteristic(id);
+        BluetoothGatt gatt = bluetoothGatt;
+        if (characteristic == null || gatt == null || !gatt.setCharacteristicNotification(characteristic, true)) {
+            return;
+        }
+        for (final BluetoothGattDescriptor descriptor : characteristic.getDescriptors()) {
+            operationQueue.offerFirst(new GattOperation(GattOperation.TYPE_DESCRIPTOR_WRITE) {
+                @Override
+                public boolean execute() {
+                    BluetoothGatt gatt = bluetoothGatt;
+                    if (gatt == null) {
+                        return false;
+                    }
+                    descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+                    return gatt.writeDescriptor(descriptor);
+                }
+            });
+        }
+    }
+
+    /**
+     * 发现服务
+     */
+    private void discoverServices() {
+        operationQueue.offerFirst(new DiscoverOperation(1));
+    }
+
+    /**
+     * 发现服务操作，超时或提交失败时重试一次，仍失败则断开
+     */
+    private class DiscoverOperation extends GattOperation {
+
+        /**
+         * 第几次尝试
+         */
+        private final int attempt;
+
+        /**
+         * Instantiates a new Discover operation.
+         *
+         * @param attempt the attempt
+         */
+        DiscoverOperation(int attempt) {
+            super(TYPE_DISCOVER);
+            this.attempt = attempt;
+        }
+
+        @Override
+        public boolean execute() {
+            BluetoothGatt gatt = bluetoothGatt;
+            return gatt != null && gatt.discoverServices();
+        }
+
+        @Override
+        protected void onComplete(int status) {
+            if (status == STATUS_TIMEOUT) {
+                retry();
+            }
+        }
+
+        @Override
+        protected boolean onFailure() {
+            retry();
+            return false;
+        }
+
+        /**
+         * 重试或断开
+         */
+        private void retry() {
+            if (attempt < DISCOVER_ATTEMPTS) {
+                operationQueue.offerFirst(new DiscoverOperation(attempt + 1));
+            } else {
+                disconnect();
+            }
+        }
+    }
+
+    /**
+     * 写特征值操作
+     */
+    private class WriteOperation extends GattOperation {
+
+        /**
+         * The Data.
+         */
+        private final byte[] data;
+
+        /**
+         * The Write type.
+         */
+        private final int writeType;
+
+        /**
+         * Instantiates a new Write operation.
+         *
+         * @param data      the data
+         * @param writeType the write type
+         */
+        WriteOperation(byte[] data, int writeType) {
+            super(TYPE_WRITE);
+            this.data = data;
+            this.writeType = writeType;
+        }
+
+        @Override
+        public boolean execute() {
+            BluetoothGattCharacteristic characteristic = getCharacteristic(writeId);
+            BluetoothGatt gatt = bluetoothGatt;
+            if (characteristic == null || gatt == null) {
+                return false;
+            }
+            characteristic.setValue(data);
+            characteristic.setWriteType(writeType);
+            return gatt.writeCharacteristic(characteristic);
+        }
+    }
+
+    /**
+     * 协议回调
+     */
+    private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            super.onConnectionStateChange(gatt, status, newState);
+            if (newState == BluetoothProfile.STATE_CONNECTED) {
+                state = STATE_CONNECTED;
+                pool.onConnected(BleConnection.this, status);
+                gatt.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_BALANCED);
+                operationQueue.offerFirst(new GattOperation(GattOperation.TYPE_MTU) {
+                    @Override
+                    public boolean execute() {
+                        BluetoothGatt gatt = bluetoothGatt;
+                        return gatt != null && gatt.requestMtu(mtuSize + FrameCodec.ATT_HEADER_SIZE);
+                    }
+
+                    @Override
+                    protected void onComplete(int status) {
+                        //协商结果或超时之后都继续发现服务
+                        discoverServices();
+                    }
+
+                    @Override
+                    protected boolean onFailure() {
+                        discoverServices();
+                        return false;
+                    }
+                });
+            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                close();
+                pool.onDisconnected(BleConnection.this, status);
+            }
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            super.onMtuChanged(gatt, mtu, status);
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                frameCodec.setMtu(mtu);
+            }
+            pool.onMtuChanged(BleConnection.this, mtu, status);
+            operationQueue.complete(GattOperation.TYPE_MTU);
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            super.onServicesDiscovered(gatt, status);
+            enableNotification(readId);
+            state = STATE_READY;
+            pool.onServicesDiscovered(BleConnection.this, status);
+            operationQueue.complete(GattOperation.TYPE_DISCOVER);
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            super.onDescriptorWrite(gatt, descriptor, status);
+            operationQueue.complete(GattOperation.TYPE_DESCRIPTOR_WRITE);
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            super.onCharacteristicWrite(gatt, characteristic, status);
+            pool.onWrite(BleConnection.this, characteristic, status);
+            operationQueue.complete(GattOperation.TYPE_WRITE, status);
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+            super.onCharacteristicChanged(gatt, characteristic);
+            handleNotify(characteristic, characteristic.getValue());
+        }
+
+        /**
+         * Android 13起携带通知数据的回调，默认实现会转调旧回调，覆盖后不调用super避免重复分发
+         */
+        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, byte[] value) {
+            handleNotify(characteristic, value);
+        }
+    };
+
+    /**
+     * 分发服务端通知
+     *
+     * @param characteristic the characteristic
+     * @param value          the value
+     */
+    private void handleNotify(BluetoothGattCharacteristic characteristic, byte[] value) {
+        if (!pool.hasFrameCallBack()) {
+            pool.onNotify(this, characteristic, value);
+            return;
+        }
+        byte[] data = frameAssembler.feed(value);
+        if (data != null) {
+            pool.onFrame(this, data);
+        }
+    }
+}
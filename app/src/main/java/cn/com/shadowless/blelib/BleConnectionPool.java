@@ -0,0 +1,706 @@
+package cn.com.shadowless.blelib;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
+import android.util.Log;
+import android.widget.Toast;
+
+import androidx.lifecycle.LifecycleOwner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import cn.com.shadowless.blelib.queue.GattOperationQueue;
+import cn.com.shadowless.blelib.transport.Scheduler;
+
+/**
+ * Ble多连接客户端
+ * <p>
+ * 一次扫描同时连接多个服务端，连接数达到上限时停止扫描，有连接断开后继续扫描补位。
+ *
+ * @author sHadowLess
+ */
+public class BleConnectionPool extends BaseBle {
+
+    /**
+     * 默认最大连接数，多数控制器可同时维持4到7个连接
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 4;
+
+    /**
+     * The Tag.
+     */
+    private final String tag = BleConnectionPool.class.getSimpleName();
+
+    /**
+     * 上下文
+     */
+    private final Context context;
+
+    /**
+     * 服务端id
+     */
+    private final UUID serverId;
+
+    /**
+     * 写入通道id
+     */
+    private final UUID writeId;
+
+    /**
+     * 读取通道id
+     */
+    private final UUID readId;
+
+    /**
+     * 服务端名称，为null时只按服务端id匹配
+     */
+    private final String serverName;
+
+    /**
+     * 最大每包大小
+     */
+    private final int mtuSize;
+
+    /**
+     * 每个连接的队列容量
+     */
+    private final int queueCapacity;
+
+    /**
+     * 最大连接数
+     */
+    private final int maxConnections;
+
+    /**
+     * 状态回调
+     */
+    private final StatueCallBack callBack;
+
+    /**
+     * 分包消息回调
+     */
+    private final FrameCallBack frameCallBack;
+
+    /**
+     * 当前连接，key为设备地址
+     */
+    private final ConcurrentHashMap<String, BleConnection> connections = new ConcurrentHashMap<>();
+
+    /**
+     * 主线程Handler
+     */
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * 主线程调度，用于GATT操作超时
+     */
+    private final Scheduler scheduler = new Scheduler() {
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            //同一任务只保留最新一次
+            handler.removeCallbacks(task);
+            handler.postDelayed(task, delayMillis);
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            handler.removeCallbacks(task);
+        }
+
+        @Override
+        public long now() {
+            return SystemClock.elapsedRealtime();
+        }
+    };
+
+    /**
+     * 蓝牙扫描
+     */
+    private BluetoothLeScanner scanner;
+
+    /**
+     * 是否需要扫描
+     */
+    private volatile boolean scanRequested;
+
+    /**
+     * 是否正在扫描
+     */
+    private boolean scanning;
+
+    /**
+     * Instantiates a new Ble connection pool.
+     *
+     * @param builder the builder
+     */
+    private BleConnectionPool(PoolBuilder builder) {
+        super(builder.context);
+        this.context = builder.context;
+        this.serverId = builder.serverId;
+        this.writeId = builder.writeId;
+        this.readId = builder.readId;
+        this.serverName = builder.serverName;
+        this.mtuSize = builder.mtuSize == 0 ? 512 : builder.mtuSize;
+        this.queueCapacity = builder.queueCapacity;
+        this.maxConnections = builder.maxConnections;
+        this.callBack = builder.callBack;
+        this.frameCallBack = builder.frameCallBack;
+        if (builder.lifecycle != null) {
+            builder.lifecycle.getLifecycle().addObserver(this);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        stopConnect();
+        Log.e(tag, "onStateChanged: BLE多连接客户端已关闭");
+    }
+
+    /**
+     * 构造者
+     *
+     * @return the pool builder
+     */
+    public static PoolBuilder builder() {
+        return new PoolBuilder();
+    }
+
+    /**
+     * 构造者实体
+     */
+    public static class PoolBuilder {
+        /**
+         * The Context.
+         */
+        private Context context;
+
+        /**
+         * The Server id.
+         */
+        private UUID serverId;
+
+        /**
+         * The Write id.
+         */
+        private UUID writeId;
+
+        /**
+         * The Read id.
+         */
+        private UUID readId;
+
+        /**
+         * The Server name.
+         */
+        private String serverName;
+
+        /**
+         * The Mtu size.
+         */
+        private int mtuSize;
+
+        /**
+         * The Queue capacity.
+         */
+        private int queueCapacity = GattOperationQueue.DEFAULT_CAPACITY;
+
+        /**
+         * The Max connections.
+         */
+        private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+
+        /**
+         * The Call back.
+         */
+        private StatueCallBack callBack;
+
+        /**
+         * The Frame call back.
+         */
+        private FrameCallBack frameCallBack;
+
+        /**
+         * The Observer.
+         */
+        private LifecycleOwner lifecycle;
+
+        /**
+         * Context pool builder.
+         *
+         * @param context the context
+         * @return the pool builder
+         */
+        public PoolBuilder context(Context context) {
+            this.context = context;
+            return this;
+        }
+
+        /**
+         * Server id pool builder.
+         *
+         * @param serverId the server id
+         * @return the pool builder
+         */
+        public PoolBuilder serverId(UUID serverId) {
+            this.serverId = serverId;
+            return this;
+        }
+
+        /**
+         * Write id pool builder.
+         *
+         * @param writeId the write id
+         * @return the pool builder
+         */
+        public PoolBuilder writeId(UUID writeId) {
+            this.writeId = writeId;
+            return this;
+        }
+
+        /**
+         * Read id pool builder.
+         *
+         * @param readId the read id
+         * @return the pool builder
+         */
+        public PoolBuilder readId(UUID readId) {
+            this.readId = readId;
+            return this;
+        }
+
+        /**
+         * Server name pool builder.
+         *
+         * @param serverName the server name
+         * @return the pool builder
+         */
+        public PoolBuilder serverName(String serverName) {
+            this.serverName = serverName;
+            return this;
+        }
+
+        /**
+         * Mtu size pool builder.
+         *
+         * @param mtuSize the mtu size
+         * @return the pool builder
+         */
+        public PoolBuilder mtuSize(int mtuSize) {
+            this.mtuSize = mtuSize;
+            return this;
+        }
+
+        /**
+         * Queue capacity pool builder.
+         *
+         * @param queueCapacity the queue capacity
+         * @return the pool builder
+         */
+        public PoolBuilder queueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * 最大同时连接数，应与控制器支持的连接数匹配
+         *
+         * @param maxConnections the max connections
+         * @return the pool builder
+         */
+        public PoolBuilder maxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        /**
+         * Statue call back pool builder.
+         *
+         * @param callBack the call back
+         * @return the pool builder
+         */
+        public PoolBuilder statueCallBack(StatueCallBack callBack) {
+            this.callBack = callBack;
+            return this;
+        }
+
+        /**
+         * Frame call back pool builder.
+         *
+         * @param frameCallBack the frame call back
+         * @return the pool builder
+         */
+        public PoolBuilder frameCallBack(FrameCallBack frameCallBack) {
+            this.frameCallBack = frameCallBack;
+            return this;
+        }
+
+        /**
+         * Lifecycle pool builder.
+         *
+         * @param lifecycle the lifecycle
+         * @return the pool builder
+         */
+        public PoolBuilder lifecycle(LifecycleOwner lifecycle) {
+            this.lifecycle = lifecycle;
+            return this;
+        }
+
+        /**
+         * Build ble connection pool.
+         *
+         * @return the ble connection pool
+         */
+        public BleConnectionPool build() {
+            if (maxConnections <= 0) {
+                throw new IllegalArgumentException("最大连接数必须大于0");
+            }
+            return new BleConnectionPool(this);
+        }
+    }
+
+    /**
+     * The interface Statue call back.
+     */
+    public interface StatueCallBack {
+        /**
+         * Gets scanner device.
+         *
+         * @param device the device
+         */
+        void getScannerDevice(BluetoothDevice device);
+
+        /**
+         * Connect success.
+         *
+         * @param connection the connection
+         * @param status     the status
+         */
+        void connectSuccess(BleConnection connection, int status);
+
+        /**
+         * Connect fail.
+         *
+         * @param connection the connection
+         * @param status     the status
+         */
+        void connectFail(BleConnection connection, int status);
+
+        /**
+         * Gets server.
+         *
+         * @param connection the connection
+         * @param status     the status
+         */
+        void getServer(BleConnection connection, int status);
+
+        /**
+         * Gets server notify data.
+         *
+         * @param connection     the connection
+         * @param characteristic the characteristic
+         * @param value          the value
+         */
+        void getServerNotifyData(BleConnection connection, BluetoothGattCharacteristic characteristic, byte[] value);
+
+        /**
+         * Gets server write data.
+         *
+         * @param connection     the connection
+         * @param characteristic the characteristic
+         * @param statue         the statue
+         */
+        void getServerWriteData(BleConnection connection, BluetoothGattCharacteristic characteristic, int statue);
+
+        /**
+         * Mtu statue.
+         *
+         * @param connection the connection
+         * @param mtu        the mtu
+         * @param status     the status
+         */
+        void mtuStatue(BleConnection connection, int mtu, int status);
+    }
+
+    /**
+     * 分包消息回调，设置后服务端的通知会按分包格式重组
+     */
+    public interface FrameCallBack {
+        /**
+         * Gets server frame data.
+         *
+         * @param connection the connection
+         * @param data       重组后的完整消息
+         */
+        void getServerFrameData(BleConnection connection, byte[] data);
+    }
+
+    /**
+     * 开始扫描，连接数未满时自动连接匹配的服务端
+     */
+    public void startScan() {
+        if (callBack == null) {
+            throw new IllegalArgumentException("请传入StatueCallBack");
+        }
+        if (!getBluetoothIsOpen() || !getLocationIsOpen()) {
+            Toast.makeText(context, "请打开蓝牙和定位", Toast.LENGTH_LONG).show();
+            return;
+        }
+        scanRequested = true;
+        updateScan();
+    }
+
+    /**
+     * 停止扫描，已建立的连接不受影响
+     */
+    public void stopScan() {
+        scanRequested = false;
+        updateScan();
+    }
+
+    /**
+     * 主动连接指定设备，连接数已满时返回false
+     *
+     * @param device the device
+     * @return 是否发起连接
+     */
+    public boolean connect(BluetoothDevice device) {
+        BleConnection connection;
+        synchronized (connections) {
+            if (connections.containsKey(device.getAddress()) || connections.size() >= maxConnections) {
+                return false;
+            }
+            connection = new BleConnection(this, device, serverId, writeId, readId, mtuSize, queueCapacity, scheduler);
+            connections.put(device.getAddress(), connection);
+        }
+        connection.connect(context);
+        updateScan();
+        return true;
+    }
+
+    /**
+     * 断开全部连接并停止扫描
+     */
+    public void stopConnect() {
+        stopScan();
+        List<BleConnection> list;
+        synchronized (connections) {
+            list = new ArrayList<>(connections.values());
+            connections.clear();
+        }
+        for (BleConnection connection : list) {
+            connection.disconnect();
+            connection.close();
+        }
+    }
+
+    /**
+     * 获取指定设备的连接
+     *
+     * @param address the address
+     * @return the connection
+     */
+    public BleConnection getConnection(String address) {
+        return connections.get(address);
+    }
+
+    /**
+     * 获取全部连接
+     *
+     * @return the connections
+     */
+    public List<BleConnection> getConnections() {
+        return Collections.unmodifiableList(new ArrayList<>(connections.values()));
+    }
+
+    /**
+     * 发送数据到全部已就绪的连接
+     *
+     * @param data      the data
+     * @param writeType the write type
+     */
+    public void sendDataToAll(byte[] data, int writeType) {
+        for (BleConnection connection : connections.values()) {
+            if (connection.getState() == BleConnection.STATE_READY) {
+                connection.sendData(data, writeType);
+            }
+        }
+    }
+
+    /**
+     * Gets max connections.
+     *
+     * @return the max connections
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * 按是否需要扫描与剩余名额开启或停止扫描
+     */
+    private synchronized void updateScan() {
+        boolean shouldScan = scanRequested && connections.size() < maxConnections;
+        if (shouldScan == scanning) {
+            return;
+        }
+        BluetoothAdapter adapter = getBluetoothManager().getAdapter();
+        scanner = adapter == null ? null : adapter.getBluetoothLeScanner();
+        if (scanner == null) {
+            scanning = false;
+            return;
+        }
+        if (shouldScan) {
+            List<ScanFilter> filters = new ArrayList<>();
+            //多个过滤条件为或关系，只广播名称的服务端也能上报，名称在扫描回调中精确匹配
+            if (serverId != null) {
+                filters.add(new ScanFilter.Builder().setServiceUuid(new ParcelUuid(serverId)).build());
+            }
+            if (serverName != null) {
+                filters.add(new ScanFilter.Builder().setDeviceName(serverName).build());
+            }
+            if (filters.isEmpty()) {
+                filters.add(new ScanFilter.Builder().build());
+            }
+            ScanSettings settings = new ScanSettings.Builder()
+                    .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
+                    .build();
+            scanner.startScan(filters, settings, scanCallback);
+        } else {
+            scanner.stopScan(scanCallback);
+        }
+        scanning = shouldScan;
+    }
+
+    /**
+     * 名称是否匹配，设备名称未缓存时使用广播中的名称
+     *
+     * @param result the result
+     * @return the boolean
+     */
+    private boolean matchesName(ScanResult result) {
+        if (serverName == null) {
+            return true;
+        }
+        ScanRecord record = result.getScanRecord();
+        return serverName.equals(result.getDevice().getName()) || (record != null && serverName.equals(record.getDeviceName()));
+    }
+
+    /**
+     * 扫描回调
+     */
+    private final ScanCallback scanCallback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            super.onScanResult(callbackType, result);
+            BluetoothDevice device = result.getDevice();
+            if (!matchesName(result)) {
+                return;
+            }
+            if (connections.containsKey(device.getAddress())) {
+                return;
+            }
+            callBack.getScannerDevice(device);
+            connect(device);
+        }
+    };
+
+    /**
+     * Has frame call back.
+     *
+     * @return the boolean
+     */
+    boolean hasFrameCallBack() {
+        return frameCallBack != null;
+    }
+
+    /**
+     * On connected.
+     *
+     * @param connection the connection
+     * @param status     the status
+     */
+    void onConnected(BleConnection connection, int status) {
+        callBack.connectSuccess(connection, status);
+    }
+
+    /**
+     * 连接断开，释放名额并继续扫描补位
+     *
+     * @param connection the connection
+     * @param status     the status
+     */
+    void onDisconnected(BleConnection connection, int status) {
+        connections.remove(connection.getAddress(), connection);
+        callBack.connectFail(connection, status);
+        updateScan();
+    }
+
+    /**
+     * On mtu changed.
+     *
+     * @param connection the connection
+     * @param mtu        the mtu
+     * @param status     the status
+     */
+    void onMtuChanged(BleConnection connection, int mtu, int status) {
+        callBack.mtuStatue(connection, mtu, status);
+    }
+
+    /**
+     * On services discovered.
+     *
+     * @param connection the connection
+     * @param status     the status
+     */
+    void onServicesDiscovered(BleConnection connection, int status) {
+        callBack.getServer(connection, status);
+    }
+
+    /**
+     * On write.
+     *
+     * @param connection     the connection
+     * @param characteristic the characteristic
+     * @param status         the status
+     */
+    void onWrite(BleConnection connection, BluetoothGattCharacteristic characteristic, int status) {
+        callBack.getServerWriteData(connection, characteristic, status);
+    }
+
+    /**
+     * On notify.
+     *
+     * @param connection     the connection
+     * @param characteristic the characteristic
+     * @param value          the value
+     */
+    void onNotify(BleConnection connection, BluetoothGattCharacteristic characteristic, byte[] value) {
+        callBack.getServerNotifyData(connection, characteristic, value);
+    }
+
+    /**
+     * On frame.
+     *
+     * @param connection the connection
+     * @param data       the data
+     */
+    void onFrame(BleConnection connection, byte[] data) {
+        frameCallBack.getServerFrameData(connection, data);
+    }
+}
@@ -4,23 +4,66 @@ import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattServer;
 import android.bluetooth.BluetoothGattServerCallback;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothProfile;
+import android.bluetooth.BluetoothServerSocket;
+import android.bluetooth.BluetoothSocket;
 import android.bluetooth.le.AdvertiseCallback;
 import android.bluetooth.le.AdvertiseData;
 import android.bluetooth.le.AdvertiseSettings;
 import android.bluetooth.le.BluetoothLeAdvertiser;
 import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.ParcelUuid;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 
 import androidx.lifecycle.LifecycleOwner;
 
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import cn.com.shadowless.blelib.connect.DeviceProfile;
+import cn.com.shadowless.blelib.connect.PhyPolicy;
+import cn.com.shadowless.blelib.frame.FrameCodec;
+import cn.com.shadowless.blelib.frame.PayloadCompressor;
+import cn.com.shadowless.blelib.metrics.ConnectionMetrics;
+import cn.com.shadowless.blelib.metrics.MetricsListener;
+import cn.com.shadowless.blelib.metrics.MetricsSnapshot;
+import cn.com.shadowless.blelib.pool.BufferPool;
+import cn.com.shadowless.blelib.pool.PooledBuffer;
+import cn.com.shadowless.blelib.pool.PooledBufferPool;
+import cn.com.shadowless.blelib.pool.PreparedWriteBuffer;
+import cn.com.shadowless.blelib.queue.NotifyFanOut;
+import cn.com.shadowless.blelib.queue.OrderedDispatcher;
+import cn.com.shadowless.blelib.reactive.BlePublisher;
+import cn.com.shadowless.blelib.reactive.GattValue;
+import cn.com.shadowless.blelib.rpc.RpcServer;
+import cn.com.shadowless.blelib.trace.TraceRecorder;
+import cn.com.shadowless.blelib.transport.ReliableStream;
+import cn.com.shadowless.blelib.transport.Scheduler;
+import cn.com.shadowless.blelib.transport.DeviceSession;
+import cn.com.shadowless.blelib.transport.ServerTransport;
+import cn.com.shadowless.blelib.transport.StreamChannel;
+import cn.com.shadowless.blelib.transport.TransportServer;
 
 /**
  * The type Ble server.
@@ -29,6 +72,11 @@ import java.util.UUID;
  */
 public class BleServer extends BaseBle {
 
+    /**
+     * 客户端特征值配置描述符(CCCD)，客户端写入后才开始接收通知或指示
+     */
+    public static final UUID CLIENT_CONFIG_ID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
     /**
      * The Tag.
      */
@@ -104,6 +152,152 @@ public class BleServer extends BaseBle {
      */
     private AdvertiseCallback advertiseCallback;
 
+    /**
+     * The Frame call back.
+     */
+    private final FrameCallBack frameCallBack;
+
+    /**
+     * 数据通路，负责各客户端的通知队列与分包
+     */
+    private final TransportServer<BluetoothDevice> core;
+
+    /**
+     * 数组池
+     */
+    private final BufferPool bufferPool = new BufferPool();
+
+    /**
+     * 池化数据回调
+     */
+    private final BufferCallBack bufferCallBack;
+
+    /**
+     * 池化缓冲池
+     */
+    private final PooledBufferPool pooledBufferPool = new PooledBufferPool();
+
+    /**
+     * 各客户端的长写入缓冲，key为设备地址
+     */
+    private final Map<String, Map<BluetoothGattCharacteristic, PreparedWriteBuffer>> preparedWrites = new ConcurrentHashMap<>();
+
+    /**
+     * PHY策略，为空不主动切换
+     */
+    private final PhyPolicy phyPolicy;
+
+    /**
+     * 各客户端当前的发送、接收PHY，key为设备地址
+     */
+    private final Map<String, int[]> devicePhys = new ConcurrentHashMap<>();
+
+    /**
+     * 各客户端写入readGatt、writeGatt的CCCD值，key为设备地址
+     */
+    private final Map<String, int[]> clientConfigs = new ConcurrentHashMap<>();
+
+    /**
+     * 是否由内部回调维护客户端会话，自实现BluetoothGattServerCallback时不维护
+     */
+    private final boolean sessionTracked;
+
+    /**
+     * 已请求PHY且尚未收到结果的客户端地址
+     */
+    private final Set<String> phyRequested = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * 拒绝过偏好PHY的客户端地址，之后的连接不再请求
+     */
+    private final Set<String> phyRefused = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * 各客户端的连接统计，key为设备地址
+     */
+    private final ConcurrentHashMap<String, ConnectionMetrics> deviceMetrics = new ConcurrentHashMap<>();
+
+    /**
+     * 周期统计回调
+     */
+    private final MetricsListener metricsListener;
+
+    /**
+     * 统计回调间隔，毫秒
+     */
+    private final long metricsInterval;
+
+    /**
+     * GATT事件记录
+     */
+    private final TraceRecorder traceRecorder;
+
+    /**
+     * 存放L2CAP通道PSM的特征值，为空不开启L2CAP
+     */
+    private final UUID l2capPsmId;
+
+    /**
+     * L2CAP监听
+     */
+    private volatile BluetoothServerSocket l2capServerSocket;
+
+    /**
+     * 各客户端的L2CAP通道，未建立时批量数据走GATT
+     */
+    private final Map<String, StreamChannel> l2capChannels = new ConcurrentHashMap<>();
+
+    /**
+     * 客户端写入请求发布者
+     */
+    private final BlePublisher<GattValue<BluetoothDevice>> writePublisher;
+
+    /**
+     * 用户回调分发，按客户端地址保持顺序，未设置回调线程池时在蓝牙回调线程上直接执行
+     */
+    private final OrderedDispatcher dispatcher;
+
+    /**
+     * 主线程Handler
+     */
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * 主线程调度，用于通知的延时重发、发送回调超时，以及可靠传输的重传与延迟确认
+     */
+    private final Scheduler scheduler = new Scheduler() {
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            //同一任务只保留最新一次
+            handler.removeCallbacks(task);
+            handler.postDelayed(task, delayMillis);
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            handler.removeCallbacks(task);
+        }
+
+        @Override
+        public long now() {
+            return SystemClock.elapsedRealtime();
+        }
+    };
+
+    /**
+     * 周期回调统计快照，服务关闭后停止
+     */
+    private final Runnable metricsTask = new Runnable() {
+        @Override
+        public void run() {
+            if (bluetoothGattServer == null) {
+                return;
+            }
+            metricsListener.onMetrics(getMetrics());
+            handler.postDelayed(this, metricsInterval);
+        }
+    };
+
     /**
      * Instantiates a new Ble server.
      *
@@ -122,21 +316,86 @@ public class BleServer extends BaseBle {
      * @param lifecycle          the lifecycle
      */
     public BleServer(Context context, UUID serverId, UUID writeId, UUID readId, String serverName, AdvertiseSettings settings, AdvertiseData advertiseData, BluetoothGattCharacteristic readGatt, BluetoothGattCharacteristic writeGatt, StatueCallBack callBack, BluetoothGattServerCallback gattServerCallback, AdvertiseCallback advertiseCallback, LifecycleOwner lifecycle) {
-        super(context);
-        this.context = context;
-        this.serverId = serverId;
-        this.writeId = writeId;
-        this.readId = readId;
-        this.serverName = serverName;
-        this.settings = settings;
-        this.readGatt = readGatt;
-        this.writeGatt = writeGatt;
-        this.advertiseData = advertiseData;
-        this.callBack = callBack;
-        this.gattServerCallback = gattServerCallback;
-        this.advertiseCallback = advertiseCallback;
-        if (lifecycle != null) {
-            lifecycle.getLifecycle().addObserver(this);
+        this(builder()
+                .context(context)
+                .serverId(serverId)
+                .writeId(writeId)
+                .readId(readId)
+                .serverName(serverName)
+                .advertiseSetting(settings)
+                .advertiseData(advertiseData)
+                .readGatt(readGatt)
+                .writeGatt(writeGatt)
+                .statueCallBack(callBack)
+                .gattServerCallback(gattServerCallback)
+                .advertiseCallBack(advertiseCallback)
+                .lifecycle(lifecycle));
+    }
+
+    /**
+     * Instantiates a new Ble server.
+     *
+     * @param builder the builder
+     */
+    private BleServer(ServerBuilder builder) {
+        super(builder.context);
+        this.context = builder.context;
+        this.serverId = builder.serverId;
+        this.writeId = builder.writeId;
+        this.readId = builder.readId;
+        this.serverName = builder.serverName;
+        this.settings = builder.advertiseSetting;
+        this.readGatt = builder.readGatt;
+        this.writeGatt = builder.writeGatt;
+        this.advertiseData = builder.advertiseData;
+        this.callBack = builder.callBack;
+        this.gattServerCallback = builder.gattServerCallback;
+        this.advertiseCallback = builder.advertiseCallback;
+        this.frameCallBack = builder.frameCallBack;
+        this.bufferCallBack = builder.bufferCallBack;
+        this.dispatcher = new OrderedDispatcher(builder.callbackExecutor, new OrderedDispatcher.ErrorListener() {
+            @Override
+            public void onError(Object key, RuntimeException e) {
+                Log.e(tag, "dispatch: 回调执行失败 " + key, e);
+            }
+        });
+        this.phyPolicy = builder.phyPolicy;
+        this.metricsListener = builder.metricsListener;
+        this.metricsInterval = builder.metricsInterval;
+        this.traceRecorder = builder.traceRecorder == null ? new TraceRecorder() : builder.traceRecorder;
+        this.l2capPsmId = builder.l2capPsmId;
+        if (l2capPsmId != null && frameCallBack == null) {
+            throw new IllegalArgumentException("L2CAP通道需配合FrameCallBack使用");
+        }
+        this.core = new TransportServer<>(new GattServerTransport(), builder.notifyQueueCapacity, scheduler);
+        this.core.setFrameMode(frameCallBack != null);
+        this.sessionTracked = gattServerCallback == null;
+        this.core.setSubscriptionRequired(sessionTracked);
+        this.core.setCallback(new CoreCallback());
+        if (builder.maxMessageSize > 0) {
+            this.core.setMaxMessageSize(builder.maxMessageSize);
+        }
+        if (builder.compressor != null) {
+            if (frameCallBack == null) {
+                throw new IllegalArgumentException("载荷压缩需配合FrameCallBack使用");
+            }
+            this.core.setCompressor(builder.compressor);
+        }
+        if (builder.reliableWindow > 0) {
+            if (frameCallBack == null) {
+                throw new IllegalArgumentException("可靠传输需配合FrameCallBack使用");
+            }
+            this.core.setReliable(scheduler, builder.reliableWindow, builder.reliableAckDelay, builder.reliableRetransmitTimeout);
+        }
+        if (builder.rpcHandler != null) {
+            if (frameCallBack == null) {
+                throw new IllegalArgumentException("RPC需配合FrameCallBack使用");
+            }
+            this.core.setRpcHandler(dispatcher.isDirect() ? builder.rpcHandler : new DispatchedHandler(builder.rpcHandler));
+        }
+        this.writePublisher = new BlePublisher<>(builder.publisherCapacity, builder.publisherOverflow, builder.callbackExecutor);
+        if (builder.lifecycle != null) {
+            builder.lifecycle.getLifecycle().addObserver(this);
         }
     }
 
@@ -224,6 +483,91 @@ public class BleServer extends BaseBle {
          */
         private LifecycleOwner lifecycle;
 
+        /**
+         * The Frame call back.
+         */
+        private FrameCallBack frameCallBack;
+
+        /**
+         * The Max message size.
+         */
+        private int maxMessageSize;
+
+        /**
+         * The Buffer call back.
+         */
+        private BufferCallBack bufferCallBack;
+
+        /**
+         * The Notify queue capacity.
+         */
+        private int notifyQueueCapacity = NotifyFanOut.DEFAULT_CAPACITY;
+
+        /**
+         * The Phy policy.
+         */
+        private PhyPolicy phyPolicy;
+
+        /**
+         * The Metrics interval.
+         */
+        private long metricsInterval;
+
+        /**
+         * The Metrics listener.
+         */
+        private MetricsListener metricsListener;
+
+        /**
+         * The Trace recorder.
+         */
+        private TraceRecorder traceRecorder;
+
+        /**
+         * The Compressor.
+         */
+        private PayloadCompressor compressor;
+
+        /**
+         * The Reliable window.
+         */
+        private int reliableWindow;
+
+        /**
+         * The Reliable ack delay.
+         */
+        private long reliableAckDelay;
+
+        /**
+         * The Reliable retransmit timeout.
+         */
+        private long reliableRetransmitTimeout;
+
+        /**
+         * The L2cap psm id.
+         */
+        private UUID l2capPsmId;
+
+        /**
+         * The Rpc handler.
+         */
+        private RpcServer.Handler<BluetoothDevice> rpcHandler;
+
+        /**
+         * The Publisher capacity.
+         */
+        private int publisherCapacity = BlePublisher.DEFAULT_CAPACITY;
+
+        /**
+         * The Publisher overflow.
+         */
+        private int publisherOverflow = BlePublisher.OVERFLOW_DROP_OLDEST;
+
+        /**
+         * The Callback executor.
+         */
+        private Executor callbackExecutor;
+
         /**
          * Base url net utils . net utils builder.
          *
@@ -367,13 +711,171 @@ public class BleServer extends BaseBle {
             return this;
         }
 
+        /**
+         * Frame call back server builder.
+         *
+         * @param frameCallBack the frame call back
+         * @return the server builder
+         */
+        public ServerBuilder frameCallBack(FrameCallBack frameCallBack) {
+            this.frameCallBack = frameCallBack;
+            return this;
+        }
+
+        /**
+         * 接收分包消息的长度上限，默认1MB，客户端声明的长度超过上限的消息直接丢弃，需要接收更大的消息时放宽
+         *
+         * @param maxMessageSize the max message size
+         * @return the server builder
+         */
+        public ServerBuilder maxMessageSize(int maxMessageSize) {
+            this.maxMessageSize = maxMessageSize;
+            return this;
+        }
+
+        /**
+         * Buffer call back server builder.
+         *
+         * @param bufferCallBack the buffer call back
+         * @return the server builder
+         */
+        public ServerBuilder bufferCallBack(BufferCallBack bufferCallBack) {
+            this.bufferCallBack = bufferCallBack;
+            return this;
+        }
+
+        /**
+         * 每个客户端的通知队列容量，满时丢弃最旧的数据
+         *
+         * @param notifyQueueCapacity the notify queue capacity
+         * @return the server builder
+         */
+        public ServerBuilder notifyQueueCapacity(int notifyQueueCapacity) {
+            this.notifyQueueCapacity = notifyQueueCapacity;
+            return this;
+        }
+
+        /**
+         * PHY策略(8.0以上生效)，PhyPolicy.throughput()偏好2M，PhyPolicy.range()偏好Coded
+         *
+         * @param phyPolicy the phy policy
+         * @return the server builder
+         */
+        public ServerBuilder phyPolicy(PhyPolicy phyPolicy) {
+            this.phyPolicy = phyPolicy;
+            return this;
+        }
+
+        /**
+         * 周期统计回调，每隔interval毫秒回调一次各客户端的统计快照
+         *
+         * @param interval        the interval
+         * @param metricsListener the metrics listener
+         * @return the server builder
+         */
+        public ServerBuilder metricsListener(long interval, MetricsListener metricsListener) {
+            if (interval <= 0) {
+                throw new IllegalArgumentException("统计回调间隔必须大于0");
+            }
+            this.metricsInterval = interval;
+            this.metricsListener = metricsListener;
+            return this;
+        }
+
+        /**
+         * GATT事件记录(不传有默认，容量4096个事件)
+         *
+         * @param traceRecorder the trace recorder
+         * @return the server builder
+         */
+        public ServerBuilder traceRecorder(TraceRecorder traceRecorder) {
+            this.traceRecorder = traceRecorder;
+            return this;
+        }
+
+        /**
+         * 载荷压缩，需配合分包消息回调使用，与客户端协商一致后分包消息超过阈值时压缩发送
+         *
+         * @param compressor the compressor
+         * @return the server builder
+         */
+        public ServerBuilder compressor(PayloadCompressor compressor) {
+            this.compressor = compressor;
+            return this;
+        }
+
+        /**
+         * 可靠传输，需配合分包消息回调使用且客户端使用相同配置，分包消息带序号与校验发送，丢包时只重传缺失的分包
+         *
+         * @param window            发送窗口，需为2的幂，最大{@link ReliableStream#MAX_WINDOW}
+         * @param ackDelay          延迟确认时间，毫秒
+         * @param retransmitTimeout 最小重传超时，毫秒
+         * @return the server builder
+         */
+        public ServerBuilder reliable(int window, long ackDelay, long retransmitTimeout) {
+            this.reliableWindow = window;
+            this.reliableAckDelay = ackDelay;
+            this.reliableRetransmitTimeout = retransmitTimeout;
+            return this;
+        }
+
+        /**
+         * L2CAP通道，需配合分包消息回调使用，Android 10及以上开启L2CAP CoC监听并在serverId服务下添加只读特征值存放PSM，
+         * 客户端建立通道后{@link #sendBulkToDevice(BluetoothDevice, byte[])}经通道发送，否则继续使用GATT
+         *
+         * @param l2capPsmId 存放PSM的特征值
+         * @return the server builder
+         */
+        public ServerBuilder l2capPsmId(UUID l2capPsmId) {
+            this.l2capPsmId = l2capPsmId;
+            return this;
+        }
+
+        /**
+         * RPC请求处理，需配合分包消息回调使用，客户端的RPC请求不经过分包消息回调，
+         * 通过responder应答一次，可在其他线程异步应答，多个请求可同时处理
+         *
+         * @param rpcHandler the rpc handler
+         * @return the server builder
+         */
+        public ServerBuilder rpcHandler(RpcServer.Handler<BluetoothDevice> rpcHandler) {
+            this.rpcHandler = rpcHandler;
+            return this;
+        }
+
+        /**
+         * 发布者缓冲，写入请求的每个订阅者按此缓冲，订阅者处理不及时缓冲满时按溢出策略处理
+         *
+         * @param capacity 每个订阅者的缓冲容量
+         * @param overflow 溢出策略，见{@link BlePublisher#OVERFLOW_DROP_OLDEST}等
+         * @return the server builder
+         */
+        public ServerBuilder publisherBuffer(int capacity, int overflow) {
+            this.publisherCapacity = capacity;
+            this.publisherOverflow = overflow;
+            return this;
+        }
+
+        /**
+         * 回调线程池，设置后用户回调按客户端分组，同一客户端的回调按顺序执行，不同客户端的回调在线程池上并行执行，
+         * 处理慢的回调只积压该客户端自己的回调，不再阻塞蓝牙回调线程与其他客户端；
+         * 分包应答、通知队列推进与MTU等内部状态仍在蓝牙回调线程上更新
+         *
+         * @param callbackExecutor the callback executor
+         * @return the server builder
+         */
+        public ServerBuilder callbackExecutor(Executor callbackExecutor) {
+            this.callbackExecutor = callbackExecutor;
+            return this;
+        }
+
         /**
          * Build net utils.
          *
          * @return the net utils
          */
         public BleServer build() {
-            return new BleServer(this.context, this.serverId, this.writeId, this.readId, this.serverName, this.advertiseSetting, this.advertiseData, this.readGatt, this.writeGatt, this.callBack, this.gattServerCallback, this.advertiseCallback, this.lifecycle);
+            return new BleServer(this);
         }
     }
 
@@ -465,22 +967,49 @@ public class BleServer extends BaseBle {
     }
 
     /**
-     * Start advertising.
+     * 分包消息回调，设置后客户端的写入会按{@link FrameCodec}格式重组
      */
-    public void starServer() {
-        if (advertiseCallback == null && gattServerCallback == null) {
-            if (callBack == null) {
-                throw new IllegalArgumentException("请传入StatueCallBack或自实现AdvertiseCallback和BluetoothGattServerCallback");
-            }
-        }
-        if (!getBluetoothIsOpen() || !getLocationIsOpen()) {
-            Toast.makeText(context, "请打开蓝牙和定位", Toast.LENGTH_LONG).show();
-            return;
-        }
-        BluetoothAdapter bluetoothAdapter = getBluetoothManager().getAdapter();
-        if (settings == null) {
-            initAdvertiseSetting();
-        }
+    public interface FrameCallBack {
+        /**
+         * Gets client frame data.
+         *
+         * @param device the device
+         * @param data   重组后的完整消息
+         */
+        void getClientFrameData(BluetoothDevice device, byte[] data);
+    }
+
+    /**
+     * 池化数据回调，设置后客户端的写入以池化缓冲交付，不再走getClientWriteData，写入响应由内部发送
+     */
+    public interface BufferCallBack {
+        /**
+         * Gets client write buffer.
+         *
+         * @param device         the device
+         * @param characteristic the characteristic
+         * @param buffer         写入数据，使用完毕必须调用{@link PooledBuffer#release()}
+         */
+        void getClientWriteBuffer(BluetoothDevice device, BluetoothGattCharacteristic characteristic, PooledBuffer buffer);
+    }
+
+    /**
+     * Start advertising.
+     */
+    public void starServer() {
+        if (advertiseCallback == null && gattServerCallback == null) {
+            if (callBack == null) {
+                throw new IllegalArgumentException("请传入StatueCallBack或自实现AdvertiseCallback和BluetoothGattServerCallback");
+            }
+        }
+        if (!getBluetoothIsOpen() || !getLocationIsOpen()) {
+            Toast.makeText(context, "请打开蓝牙和定位", Toast.LENGTH_LONG).show();
+            return;
+        }
+        BluetoothAdapter bluetoothAdapter = getBluetoothManager().getAdapter();
+        if (settings == null) {
+            initAdvertiseSetting();
+        }
         if (advertiseData == null) {
             initAdvertiseData();
         }
@@ -492,6 +1021,19 @@ public class BleServer extends BaseBle {
         bluetoothLeAdvertiser.startAdvertising(settings, advertiseData, advertiseCallback);
     }
 
+    /**
+     * 客户端断开后重新广播，部分设备建立连接后会停止广播，服务本身不重启
+     */
+    private void restartAdvertising() {
+        BluetoothLeAdvertiser advertiser = bluetoothLeAdvertiser;
+        AdvertiseCallback callback = advertiseCallback;
+        if (advertiser == null || callback == null || !getBluetoothIsOpen()) {
+            return;
+        }
+        advertiser.stopAdvertising(callback);
+        advertiser.startAdvertising(settings, advertiseData, callback);
+    }
+
     /**
      * Stop server.
      */
@@ -505,34 +1047,623 @@ public class BleServer extends BaseBle {
         bluetoothLeAdvertiser = null;
         advertiseCallback = null;
         bluetoothGattServer = null;
+        devicePhys.clear();
+        phyRequested.clear();
+        clientConfigs.clear();
+        core.clear();
+        closeL2cap();
+        for (String address : preparedWrites.keySet()) {
+            cancelPreparedWrite(address);
+        }
     }
 
     /**
-     * Send data to all device.
+     * Send data to all device，只发给已订阅的客户端，每个客户端独立排队，发送回调到达后再发下一个
      *
      * @param data the data
      */
     public void sendDataToAllDevice(byte[] data) {
-        List<BluetoothDevice> list = getConnectedDevice();
+        List<BluetoothDevice> list = sessionTracked ? core.getSubscribers() : getConnectedDevice();
         if (list != null && !list.isEmpty()) {
             for (BluetoothDevice device : list) {
-                writeGatt.setValue(data);
-                writeGatt.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
-                bluetoothGattServer.notifyCharacteristicChanged(device, writeGatt, false);
+                core.send(device, data);
             }
         }
     }
 
     /**
-     * Send data.
+     * Send data，队列满时丢弃该客户端最旧的数据，超过该客户端单包长度时按MTU依次通知，客户端未订阅时不发送，
+     * 需要知道是否丢弃时使用{@link #offerDataToDevice(BluetoothDevice, byte[])}
      *
      * @param device the device
      * @param data   the data
      */
     public void sendDataToDevice(BluetoothDevice device, byte[] data) {
-        writeGatt.setValue(data);
-        writeGatt.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
-        bluetoothGattServer.notifyCharacteristicChanged(device, writeGatt, false);
+        offerDataToDevice(device, data);
+    }
+
+    /**
+     * 发送数据到指定客户端，队列满时丢弃该客户端最旧的数据，超过该客户端单包长度时按MTU依次通知，客户端未订阅时不发送
+     *
+     * @param device the device
+     * @param data   the data
+     * @return 是否没有丢弃数据，客户端未订阅时返回false
+     */
+    public boolean offerDataToDevice(BluetoothDevice device, byte[] data) {
+        return core.send(device, data);
+    }
+
+    /**
+     * 按该客户端的MTU分包通知，队列剩余容量不足时整条丢弃
+     *
+     * @param device the device
+     * @param data   the data
+     * @return 是否入队成功
+     */
+    public boolean sendFrameToDevice(BluetoothDevice device, byte[] data) {
+        return core.sendFrame(device, data);
+    }
+
+    /**
+     * 批量发送，该客户端的L2CAP通道已建立时经通道发送，否则退回GATT分包通知，客户端均以分包消息回调接收
+     *
+     * @param device the device
+     * @param data   the data
+     * @return 是否已交给通道或入队成功
+     */
+    public boolean sendBulkToDevice(BluetoothDevice device, byte[] data) {
+        StreamChannel channel = l2capChannels.get(device.getAddress());
+        if (channel != null && channel.send(data)) {
+            return true;
+        }
+        return core.sendFrame(device, data);
+    }
+
+    /**
+     * 批量发送输入流中的length字节，L2CAP通道已建立时边读边发，否则读出后退回GATT分包通知，发送后关闭source
+     *
+     * @param device the device
+     * @param source the source
+     * @param length the length
+     * @return 是否已交给通道或入队成功
+     * @throws IOException 退回GATT时读取source失败
+     */
+    public boolean sendBulkToDevice(BluetoothDevice device, InputStream source, int length) throws IOException {
+        StreamChannel channel = l2capChannels.get(device.getAddress());
+        if (channel != null && channel.isOpen()) {
+            return channel.send(source, length);
+        }
+        byte[] data = new byte[length];
+        try {
+            new DataInputStream(source).readFully(data);
+        } finally {
+            source.close();
+        }
+        return core.sendFrame(device, data);
+    }
+
+    /**
+     * 客户端的L2CAP通道是否已建立
+     *
+     * @param device the device
+     * @return the boolean
+     */
+    public boolean isL2capOpen(BluetoothDevice device) {
+        StreamChannel channel = l2capChannels.get(device.getAddress());
+        return channel != null && channel.isOpen();
+    }
+
+    /**
+     * 客户端写入请求发布者，订阅者按request的数量在交付线程上收到写入数据的副本，准备写入在执行后整体发布，
+     * 不阻塞GATT回调线程，与StatueCallBack等回调同时生效
+     *
+     * @return the write publisher
+     */
+    public BlePublisher<GattValue<BluetoothDevice>> getWritePublisher() {
+        return writePublisher;
+    }
+
+    /**
+     * 分包通知全部已订阅的客户端
+     *
+     * @param data the data
+     */
+    public void sendFrameToAllDevice(byte[] data) {
+        List<BluetoothDevice> list = sessionTracked ? core.getSubscribers() : getConnectedDevice();
+        if (list != null && !list.isEmpty()) {
+            for (BluetoothDevice device : list) {
+                sendFrameToDevice(device, data);
+            }
+        }
+    }
+
+    /**
+     * 获取客户端已送达的通知数
+     *
+     * @param device the device
+     * @return the delivered count
+     */
+    public long getDeliveredCount(BluetoothDevice device) {
+        return core.getDeliveredCount(device);
+    }
+
+    /**
+     * 获取客户端会话，可查看订阅方式与协商后的MTU
+     *
+     * @param device the device
+     * @return 未连接返回null
+     */
+    public DeviceSession getSession(BluetoothDevice device) {
+        return core.getSession(device);
+    }
+
+    /**
+     * 获取已订阅的客户端，自实现BluetoothGattServerCallback时为全部已连接的客户端
+     *
+     * @return the subscribed devices
+     */
+    public List<BluetoothDevice> getSubscribedDevices() {
+        return sessionTracked ? core.getSubscribers() : getConnectedDevice();
+    }
+
+    /**
+     * 获取客户端因队列满被丢弃的通知数
+     *
+     * @param device the device
+     * @return the dropped count
+     */
+    public long getDroppedCount(BluetoothDevice device) {
+        return core.getDroppedCount(device);
+    }
+
+    /**
+     * 获取客户端待发送的通知数
+     *
+     * @param device the device
+     * @return the pending count
+     */
+    public int getPendingCount(BluetoothDevice device) {
+        return core.getPendingCount(device);
+    }
+
+    /**
+     * 获取客户端当前的发送PHY
+     *
+     * @param device the device
+     * @return PhyPolicy.PHY_LE_*
+     */
+    public int getTxPhy(BluetoothDevice device) {
+        int[] phys = devicePhys.get(device.getAddress());
+        return phys == null ? PhyPolicy.PHY_LE_1M : phys[0];
+    }
+
+    /**
+     * 获取客户端当前的接收PHY
+     *
+     * @param device the device
+     * @return PhyPolicy.PHY_LE_*
+     */
+    public int getRxPhy(BluetoothDevice device) {
+        int[] phys = devicePhys.get(device.getAddress());
+        return phys == null ? PhyPolicy.PHY_LE_1M : phys[1];
+    }
+
+    /**
+     * 获取客户端的连接统计快照
+     *
+     * @param device the device
+     * @return 未连接返回null
+     */
+    public MetricsSnapshot getMetrics(BluetoothDevice device) {
+        ConnectionMetrics metrics = deviceMetrics.get(device.getAddress());
+        return metrics == null ? null : metrics.snapshot(core.getPendingCount(device));
+    }
+
+    /**
+     * 获取全部已连接客户端的统计快照
+     *
+     * @return the metrics
+     */
+    public List<MetricsSnapshot> getMetrics() {
+        List<MetricsSnapshot> snapshots = new ArrayList<>(deviceMetrics.size());
+        BluetoothAdapter adapter = getBluetoothManager().getAdapter();
+        for (ConnectionMetrics metrics : deviceMetrics.values()) {
+            int queueDepth = core.getPendingCount(adapter.getRemoteDevice(metrics.getAddress()));
+            snapshots.add(metrics.snapshot(queueDepth));
+        }
+        return snapshots;
+    }
+
+    /**
+     * 客户端是否已接受载荷压缩
+     *
+     * @param device the device
+     * @return the boolean
+     */
+    public boolean isCompressing(BluetoothDevice device) {
+        return core.isCompressing(device);
+    }
+
+    /**
+     * 获取客户端的可靠传输，可查看重传与丢弃统计
+     *
+     * @param device the device
+     * @return 未开启返回null
+     */
+    public ReliableStream getReliableStream(BluetoothDevice device) {
+        return core.getReliableStream(device);
+    }
+
+    /**
+     * 获取GATT事件记录
+     *
+     * @return the trace recorder
+     */
+    public TraceRecorder getTraceRecorder() {
+        return traceRecorder;
+    }
+
+    /**
+     * 导出GATT事件记录
+     *
+     * @param file the file
+     * @throws IOException the io exception
+     */
+    public void dumpTrace(File file) throws IOException {
+        traceRecorder.dump(file);
+    }
+
+    /**
+     * 获取客户端的连接统计，没有则新建
+     *
+     * @param device the device
+     * @return the connection metrics
+     */
+    private ConnectionMetrics metricsOf(BluetoothDevice device) {
+        ConnectionMetrics metrics = deviceMetrics.get(device.getAddress());
+        if (metrics == null) {
+            metrics = new ConnectionMetrics(device.getAddress());
+            ConnectionMetrics exist = deviceMetrics.putIfAbsent(device.getAddress(), metrics);
+            if (exist != null) {
+                metrics = exist;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * 按策略向客户端请求PHY
+     *
+     * @param device the device
+     */
+    private void requestPhy(BluetoothDevice device) {
+        BluetoothGattServer server = bluetoothGattServer;
+        if (phyPolicy == null || server == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return;
+        }
+        String address = device.getAddress();
+        if (!phyPolicy.shouldRequest(phyRefused.contains(address) ? phyPolicy.getPhy() : DeviceProfile.UNKNOWN)) {
+            return;
+        }
+        phyRequested.add(address);
+        server.setPreferredPhy(device, phyPolicy.getPhyMask(), phyPolicy.getPhyMask(), phyPolicy.getPhyOptions());
+    }
+
+    /**
+     * 记录PHY，请求的PHY被拒绝时保持当前PHY并记住该客户端
+     *
+     * @param device the device
+     * @param txPhy  the tx phy
+     * @param rxPhy  the rx phy
+     * @param status the status
+     * @param update 是否为PHY变更回调
+     */
+    private void recordPhy(BluetoothDevice device, int txPhy, int rxPhy, int status, boolean update) {
+        String address = device.getAddress();
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            devicePhys.put(address, new int[]{txPhy, rxPhy});
+        }
+        if (update && phyRequested.remove(address)) {
+            if (status == BluetoothGatt.GATT_SUCCESS && phyPolicy.isAccepted(txPhy, rxPhy)) {
+                phyRefused.remove(address);
+            } else {
+                phyRefused.add(address);
+                Log.e(tag, "recordPhy: " + address + "未接受PHY" + phyPolicy.getPhy() + "，保持" + getTxPhy(device) + "/" + getRxPhy(device));
+            }
+        }
+    }
+
+    /**
+     * 处理客户端的完整写入
+     *
+     * @param device         the device
+     * @param requestId      the request id
+     * @param characteristic the characteristic
+     * @param responseNeeded the response needed
+     * @param offset         the offset
+     * @param value          the value
+     */
+    private void handleClientWrite(final BluetoothDevice device, final int requestId, final BluetoothGattCharacteristic characteristic, final boolean responseNeeded, final int offset, final byte[] value) {
+        if (writePublisher.hasSubscribers()) {
+            writePublisher.offer(new GattValue<>(device, characteristic.getUuid(), value.clone()));
+        }
+        if (frameCallBack == null && bufferCallBack == null) {
+            final BluetoothGattServer server = bluetoothGattServer;
+            dispatch(device, new Runnable() {
+                @Override
+                public void run() {
+                    callBack.getClientWriteData(server, device, requestId, characteristic, false, responseNeeded, offset, value);
+                }
+            });
+            return;
+        }
+        if (responseNeeded) {
+            bluetoothGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, offset, null);
+        }
+        if (frameCallBack == null) {
+            deliverBuffer(device, characteristic, pooledBufferPool.copyOf(value, 0, value.length));
+            return;
+        }
+        core.onWrite(device, value);
+    }
+
+    /**
+     * 缓存准备写入的分片，并回显分片供客户端校验
+     *
+     * @param device         the device
+     * @param requestId      the request id
+     * @param characteristic the characteristic
+     * @param responseNeeded the response needed
+     * @param offset         the offset
+     * @param value          the value
+     */
+    private void prepareWrite(BluetoothDevice device, int requestId, BluetoothGattCharacteristic characteristic, boolean responseNeeded, int offset, byte[] value) {
+        Map<BluetoothGattCharacteristic, PreparedWriteBuffer> buffers = preparedWrites.get(device.getAddress());
+        if (buffers == null) {
+            buffers = new LinkedHashMap<>();
+            preparedWrites.put(device.getAddress(), buffers);
+        }
+        PreparedWriteBuffer buffer = buffers.get(characteristic);
+        if (buffer == null) {
+            buffer = new PreparedWriteBuffer(bufferPool, bufferPool.getMaxBufferSize());
+            buffers.put(characteristic, buffer);
+        }
+        int status;
+        if (offset > buffer.length()) {
+            status = BluetoothGatt.GATT_INVALID_OFFSET;
+        } else if (!buffer.write(offset, value)) {
+            status = BluetoothGatt.GATT_INVALID_ATTRIBUTE_LENGTH;
+        } else {
+            status = BluetoothGatt.GATT_SUCCESS;
+        }
+        if (responseNeeded) {
+            bluetoothGattServer.sendResponse(device, requestId, status, offset, value);
+        }
+    }
+
+    /**
+     * 执行写入，把各特征值的分片按连续数据交付
+     *
+     * @param device    the device
+     * @param requestId the request id
+     */
+    private void executePreparedWrite(BluetoothDevice device, int requestId) {
+        Map<BluetoothGattCharacteristic, PreparedWriteBuffer> buffers = preparedWrites.remove(device.getAddress());
+        if (buffers == null) {
+            return;
+        }
+        for (Map.Entry<BluetoothGattCharacteristic, PreparedWriteBuffer> entry : buffers.entrySet()) {
+            PreparedWriteBuffer buffer = entry.getValue();
+            if (frameCallBack == null && bufferCallBack != null) {
+                if (writePublisher.hasSubscribers()) {
+                    writePublisher.offer(new GattValue<>(device, entry.getKey().getUuid(), Arrays.copyOf(buffer.array(), buffer.length())));
+                }
+                deliverBuffer(device, entry.getKey(), pooledBufferPool.copyOf(buffer.array(), 0, buffer.length()));
+                buffer.cancel();
+            } else {
+                handleClientWrite(device, requestId, entry.getKey(), false, 0, buffer.commit());
+            }
+        }
+    }
+
+    /**
+     * 取消写入，丢弃分片并归还缓冲
+     *
+     * @param address the address
+     */
+    private void cancelPreparedWrite(String address) {
+        Map<BluetoothGattCharacteristic, PreparedWriteBuffer> buffers = preparedWrites.remove(address);
+        if (buffers == null) {
+            return;
+        }
+        for (PreparedWriteBuffer buffer : buffers.values()) {
+            buffer.cancel();
+        }
+    }
+
+    /**
+     * 分发用户回调，同一客户端的回调按提交顺序执行
+     *
+     * @param device the device
+     * @param task   the task
+     */
+    private void dispatch(BluetoothDevice device, Runnable task) {
+        dispatcher.execute(device.getAddress(), task);
+    }
+
+    /**
+     * 交付分包消息，GATT与L2CAP收到的消息经同一顺序交付
+     *
+     * @param device the device
+     * @param data   the data
+     */
+    private void deliverFrame(final BluetoothDevice device, final byte[] data) {
+        dispatch(device, new Runnable() {
+            @Override
+            public void run() {
+                frameCallBack.getClientFrameData(device, data);
+            }
+        });
+    }
+
+    /**
+     * 交付池化的写入数据
+     *
+     * @param device         the device
+     * @param characteristic the characteristic
+     * @param buffer         the buffer
+     */
+    private void deliverBuffer(final BluetoothDevice device, final BluetoothGattCharacteristic characteristic, final PooledBuffer buffer) {
+        dispatch(device, new Runnable() {
+            @Override
+            public void run() {
+                bufferCallBack.getClientWriteBuffer(device, characteristic, buffer);
+            }
+        });
+    }
+
+    /**
+     * RPC请求经回调线程池交给处理器，同一客户端的请求按顺序交付
+     */
+    private class DispatchedHandler implements RpcServer.Handler<BluetoothDevice> {
+
+        /**
+         * 用户处理器
+         */
+        private final RpcServer.Handler<BluetoothDevice> handler;
+
+        /**
+         * Instantiates a new Dispatched handler.
+         *
+         * @param handler the handler
+         */
+        DispatchedHandler(RpcServer.Handler<BluetoothDevice> handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void onRequest(final BluetoothDevice device, final byte[] request, final RpcServer.Responder responder) {
+            dispatch(device, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        handler.onRequest(device, request, responder);
+                    } catch (RuntimeException e) {
+                        responder.fail(String.valueOf(e));
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * GATT服务端传输，通知固定走写入通道
+     */
+    private class GattServerTransport implements ServerTransport<BluetoothDevice> {
+
+        @Override
+        public void setListener(Listener<BluetoothDevice> listener) {
+            //GATT事件由gattServerCallback直接转交core
+        }
+
+        /**
+         * 通知单个客户端，共用特征值，设值与通知需原子执行
+         *
+         * @param device the device
+         * @param data   the data
+         * @return 是否成功提交到协议栈
+         */
+        @Override
+        public boolean notify(BluetoothDevice device, byte[] data) {
+            BluetoothGattServer server = bluetoothGattServer;
+            if (server == null) {
+                return false;
+            }
+            DeviceSession session = core.getSession(device);
+            boolean confirm = session != null && session.isIndicate();
+            synchronized (writeGatt) {
+                writeGatt.setValue(data);
+                if (!server.notifyCharacteristicChanged(device, writeGatt, confirm)) {
+                    return false;
+                }
+            }
+            metricsOf(device).recordOutbound(data.length);
+            return true;
+        }
+
+        @Override
+        public void disconnect(BluetoothDevice device) {
+            BluetoothGattServer server = bluetoothGattServer;
+            if (server != null) {
+                server.cancelConnection(device);
+            }
+        }
+    }
+
+    /**
+     * 客户端的L2CAP通道事件，收到的消息与GATT分包消息一样经分包消息回调交付
+     */
+    private class L2capListener implements StreamChannel.Listener {
+
+        /**
+         * 客户端
+         */
+        private final BluetoothDevice device;
+
+        /**
+         * 所属通道
+         */
+        volatile StreamChannel channel;
+
+        /**
+         * Instantiates a new L2cap listener.
+         *
+         * @param device the device
+         */
+        L2capListener(BluetoothDevice device) {
+            this.device = device;
+        }
+
+        @Override
+        public void onMessage(byte[] data) {
+            metricsOf(device).recordInbound(data.length);
+            deliverFrame(device, data);
+        }
+
+        @Override
+        public void onClosed(IOException cause) {
+            l2capChannels.remove(device.getAddress(), channel);
+            traceRecorder.record(TraceRecorder.L2CAP_STATE, device.getAddress(), cause == null ? BluetoothGatt.GATT_SUCCESS : BluetoothGatt.GATT_FAILURE, 0);
+            if (cause != null) {
+                Log.e(tag, "onClosed: L2CAP通道异常关闭，退回GATT " + cause.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 数据通路回调
+     */
+    private class CoreCallback implements TransportServer.Callback<BluetoothDevice> {
+
+        @Override
+        public void onConnectionStateChange(BluetoothDevice device, boolean connected) {
+            //连接状态在gattServerCallback中通过StatueCallBack回调
+        }
+
+        @Override
+        public void onWrite(BluetoothDevice device, byte[] value) {
+            //非分包模式的写入在handleClientWrite中直接分发
+        }
+
+        @Override
+        public void onMessage(BluetoothDevice device, byte[] data, int flags) {
+            deliverFrame(device, data);
+        }
+
+        @Override
+        public byte[] onRead(BluetoothDevice device) {
+            return readGatt == null ? null : readGatt.getValue();
+        }
     }
 
     /**
@@ -556,13 +1687,177 @@ public class BleServer extends BaseBle {
         if (gattServerCallback == null) {
             initGattServerCallBack();
         }
+        addClientConfig(readGatt);
+        addClientConfig(writeGatt);
         //将特征值添加至服务里
         gattService.addCharacteristic(readGatt);
         gattService.addCharacteristic(writeGatt);
+        listenL2cap(gattService);
         //监听客户端的连接
         bluetoothGattServer = getBluetoothManager().openGattServer(context, gattServerCallback);
         //添加服务
         bluetoothGattServer.addService(gattService);
+        if (metricsListener != null) {
+            handler.removeCallbacks(metricsTask);
+            handler.postDelayed(metricsTask, metricsInterval);
+        }
+    }
+
+    /**
+     * 可通知或指示的特征值缺少CCCD时添加，客户端通过它订阅
+     *
+     * @param characteristic the characteristic
+     */
+    private void addClientConfig(BluetoothGattCharacteristic characteristic) {
+        int properties = characteristic.getProperties();
+        if ((properties & (BluetoothGattCharacteristic.PROPERTY_NOTIFY | BluetoothGattCharacteristic.PROPERTY_INDICATE)) == 0
+                || characteristic.getDescriptor(CLIENT_CONFIG_ID) != null) {
+            return;
+        }
+        characteristic.addDescriptor(new BluetoothGattDescriptor(CLIENT_CONFIG_ID,
+                BluetoothGattDescriptor.PERMISSION_READ | BluetoothGattDescriptor.PERMISSION_WRITE));
+    }
+
+    /**
+     * 记录客户端写入的CCCD，通知走writeGatt，客户端订阅writeGatt时以其为准，否则以readGatt为准
+     *
+     * @param device         the device
+     * @param characteristic the characteristic
+     * @param offset         the offset
+     * @param value          the value
+     * @return GATT状态
+     */
+    private int writeClientConfig(BluetoothDevice device, BluetoothGattCharacteristic characteristic, int offset, byte[] value) {
+        if (offset != 0) {
+            return BluetoothGatt.GATT_INVALID_OFFSET;
+        }
+        if (value == null || value.length != 2) {
+            return BluetoothGatt.GATT_INVALID_ATTRIBUTE_LENGTH;
+        }
+        int index = characteristic == writeGatt ? 1 : characteristic == readGatt ? 0 : -1;
+        if (index < 0) {
+            return BluetoothGatt.GATT_SUCCESS;
+        }
+        int[] configs = clientConfigs.get(device.getAddress());
+        if (configs == null) {
+            configs = new int[2];
+            clientConfigs.put(device.getAddress(), configs);
+        }
+        configs[index] = (value[0] & 0xFF) | (value[1] & 0xFF) << 8;
+        core.onSubscriptionChanged(device, configs[1] != DeviceSession.SUBSCRIPTION_NONE ? configs[1] : configs[0]);
+        return BluetoothGatt.GATT_SUCCESS;
+    }
+
+    /**
+     * 读取客户端自己的CCCD值
+     *
+     * @param device         the device
+     * @param characteristic the characteristic
+     * @return 小端2字节
+     */
+    private byte[] readClientConfig(BluetoothDevice device, BluetoothGattCharacteristic characteristic) {
+        int[] configs = clientConfigs.get(device.getAddress());
+        int index = characteristic == writeGatt ? 1 : characteristic == readGatt ? 0 : -1;
+        int config = configs == null || index < 0 ? 0 : configs[index];
+        return new byte[]{(byte) config, (byte) (config >> 8)};
+    }
+
+    /**
+     * 开启L2CAP CoC监听，并在服务下添加存放PSM的只读特征值，Android 10以下或监听失败时只使用GATT
+     *
+     * @param gattService the gatt service
+     */
+    private void listenL2cap(BluetoothGattService gattService) {
+        if (l2capPsmId == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return;
+        }
+        final BluetoothServerSocket serverSocket;
+        try {
+            serverSocket = getBluetoothManager().getAdapter().listenUsingL2capChannel();
+        } catch (IOException e) {
+            Log.e(tag, "listenL2cap: L2CAP监听失败，只使用GATT " + e.getMessage());
+            return;
+        }
+        l2capServerSocket = serverSocket;
+        int psm = serverSocket.getPsm();
+        BluetoothGattCharacteristic psmGatt = new BluetoothGattCharacteristic(l2capPsmId,
+                BluetoothGattCharacteristic.PROPERTY_READ, BluetoothGattCharacteristic.PERMISSION_READ);
+        psmGatt.setValue(new byte[]{(byte) psm, (byte) (psm >> 8)});
+        gattService.addCharacteristic(psmGatt);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptL2cap(serverSocket);
+            }
+        }, "ble-l2cap-accept").start();
+    }
+
+    /**
+     * 循环接受客户端的L2CAP连接，监听关闭后退出
+     *
+     * @param serverSocket the server socket
+     */
+    private void acceptL2cap(BluetoothServerSocket serverSocket) {
+        while (true) {
+            BluetoothSocket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            BluetoothDevice device = socket.getRemoteDevice();
+            L2capListener listener = new L2capListener(device);
+            StreamChannel channel;
+            try {
+                channel = new StreamChannel("ble-l2cap-" + device.getAddress(), socket.getInputStream(), socket.getOutputStream(), socket, listener);
+            } catch (IOException e) {
+                Log.e(tag, "acceptL2cap: L2CAP通道建立失败 " + e.getMessage());
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                    //关闭失败无需处理
+                }
+                continue;
+            }
+            listener.channel = channel;
+            StreamChannel previous = l2capChannels.put(device.getAddress(), channel);
+            if (previous != null) {
+                previous.close();
+            }
+            channel.start();
+            traceRecorder.record(TraceRecorder.L2CAP_STATE, device.getAddress(), BluetoothGatt.GATT_SUCCESS, serverSocket.getPsm());
+        }
+    }
+
+    /**
+     * 关闭单个设备的L2CAP通道，监听与其他设备的通道保持不变
+     *
+     * @param address the address
+     */
+    private void closeL2cap(String address) {
+        StreamChannel channel = l2capChannels.remove(address);
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * 关闭L2CAP监听与全部通道
+     */
+    private void closeL2cap() {
+        BluetoothServerSocket serverSocket = l2capServerSocket;
+        l2capServerSocket = null;
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException ignored) {
+                //关闭失败无需处理
+            }
+        }
+        for (StreamChannel channel : l2capChannels.values()) {
+            channel.close();
+        }
+        l2capChannels.clear();
     }
 
     /**
@@ -595,35 +1890,171 @@ public class BleServer extends BaseBle {
             @Override
             public void onConnectionStateChange(BluetoothDevice device, int status, int newState) {
                 super.onConnectionStateChange(device, status, newState);
+                traceRecorder.record(TraceRecorder.SERVER_CONNECTION_STATE, device.getAddress(), status, newState);
                 if (newState == BluetoothProfile.STATE_CONNECTED) {
-                    callBack.connectSuccess(device, status, newState);
+                    ConnectionMetrics metrics = new ConnectionMetrics(device.getAddress());
+                    metrics.recordConnected();
+                    deviceMetrics.put(device.getAddress(), metrics);
+                    core.onConnectionStateChange(device, true);
+                    dispatch(device, new Runnable() {
+                        @Override
+                        public void run() {
+                            callBack.connectSuccess(device, status, newState);
+                        }
+                    });
+                    requestPhy(device);
                 } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                    stopServer();
-                    starServer();
-                    callBack.connectFail(device, status, newState);
+                    core.onConnectionStateChange(device, false);
+                    clientConfigs.remove(device.getAddress());
+                    devicePhys.remove(device.getAddress());
+                    phyRequested.remove(device.getAddress());
+                    deviceMetrics.remove(device.getAddress());
+                    cancelPreparedWrite(device.getAddress());
+                    closeL2cap(device.getAddress());
+                    //只清理断开的设备，其他客户端的会话和队列保持不变
+                    restartAdvertising();
+                    dispatch(device, new Runnable() {
+                        @Override
+                        public void run() {
+                            callBack.connectFail(device, status, newState);
+                        }
+                    });
                 } else if (newState == BluetoothProfile.STATE_CONNECTING) {
-                    callBack.connecting(device, status, newState);
+                    dispatch(device, new Runnable() {
+                        @Override
+                        public void run() {
+                            callBack.connecting(device, status, newState);
+                        }
+                    });
                 } else if (newState == BluetoothProfile.STATE_DISCONNECTING) {
-                    callBack.disconnecting(device, status, newState);
+                    dispatch(device, new Runnable() {
+                        @Override
+                        public void run() {
+                            callBack.disconnecting(device, status, newState);
+                        }
+                    });
                 }
             }
 
             @Override
             public void onCharacteristicWriteRequest(BluetoothDevice device, int requestId, BluetoothGattCharacteristic characteristic, boolean preparedWrite, boolean responseNeeded, int offset, byte[] value) {
                 super.onCharacteristicWriteRequest(device, requestId, characteristic, preparedWrite, responseNeeded, offset, value);
-                callBack.getClientWriteData(bluetoothGattServer, device, requestId, characteristic, preparedWrite, responseNeeded, offset, value);
+                traceRecorder.record(TraceRecorder.CHARACTERISTIC_WRITE_REQUEST, device.getAddress(), preparedWrite ? 1 : 0, value == null ? 0 : value.length);
+                ConnectionMetrics metrics = metricsOf(device);
+                metrics.recordInbound(value == null ? 0 : value.length);
+                metrics.recordOperation(ConnectionMetrics.OP_WRITE, BluetoothGatt.GATT_SUCCESS);
+                if (preparedWrite) {
+                    prepareWrite(device, requestId, characteristic, responseNeeded, offset, value);
+                } else {
+                    handleClientWrite(device, requestId, characteristic, responseNeeded, offset, value);
+                }
+            }
+
+            @Override
+            public void onExecuteWrite(BluetoothDevice device, int requestId, boolean execute) {
+                super.onExecuteWrite(device, requestId, execute);
+                traceRecorder.record(TraceRecorder.EXECUTE_WRITE, device.getAddress(), BluetoothGatt.GATT_SUCCESS, execute ? 1 : 0);
+                if (execute) {
+                    executePreparedWrite(device, requestId);
+                } else {
+                    cancelPreparedWrite(device.getAddress());
+                }
+                bluetoothGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, 0, null);
             }
 
             @Override
             public void onCharacteristicReadRequest(BluetoothDevice device, int requestId, int offset, BluetoothGattCharacteristic characteristic) {
                 super.onCharacteristicReadRequest(device, requestId, offset, characteristic);
-                callBack.getClientReadData(device, requestId, offset, characteristic);
+                traceRecorder.record(TraceRecorder.CHARACTERISTIC_READ_REQUEST, device.getAddress(), BluetoothGatt.GATT_SUCCESS, offset);
+                metricsOf(device).recordOperation(ConnectionMetrics.OP_READ, BluetoothGatt.GATT_SUCCESS);
+                if (l2capPsmId != null && l2capPsmId.equals(characteristic.getUuid())) {
+                    //PSM由内部应答，不交给读取回调
+                    bluetoothGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, offset, characteristic.getValue());
+                    return;
+                }
+                dispatch(device, new Runnable() {
+                    @Override
+                    public void run() {
+                        callBack.getClientReadData(device, requestId, offset, characteristic);
+                    }
+                });
             }
 
             @Override
             public void onMtuChanged(BluetoothDevice device, int mtu) {
                 super.onMtuChanged(device, mtu);
-                callBack.mtuStatue(device, mtu);
+                traceRecorder.record(TraceRecorder.SERVER_MTU_CHANGED, device.getAddress(), BluetoothGatt.GATT_SUCCESS, mtu);
+                metricsOf(device).recordOperation(ConnectionMetrics.OP_MTU, BluetoothGatt.GATT_SUCCESS);
+                core.onMtuChanged(device, mtu);
+                dispatch(device, new Runnable() {
+                    @Override
+                    public void run() {
+                        callBack.mtuStatue(device, mtu);
+                    }
+                });
+            }
+
+            @Override
+            public void onNotificationSent(BluetoothDevice device, int status) {
+                super.onNotificationSent(device, status);
+                traceRecorder.record(TraceRecorder.NOTIFICATION_SENT, device.getAddress(), status, 0);
+                ConnectionMetrics metrics = metricsOf(device);
+                metrics.recordOperation(ConnectionMetrics.OP_NOTIFY, status);
+                metrics.recordWriteAck();
+                core.onNotificationSent(device, status);
+            }
+
+            @Override
+            public void onPhyUpdate(BluetoothDevice device, int txPhy, int rxPhy, int status) {
+                super.onPhyUpdate(device, txPhy, rxPhy, status);
+                traceRecorder.record(TraceRecorder.SERVER_PHY_UPDATE, device.getAddress(), status, txPhy << 8 | rxPhy);
+                recordPhy(device, txPhy, rxPhy, status, true);
+            }
+
+            @Override
+            public void onPhyRead(BluetoothDevice device, int txPhy, int rxPhy, int status) {
+                super.onPhyRead(device, txPhy, rxPhy, status);
+                traceRecorder.record(TraceRecorder.SERVER_PHY_READ, device.getAddress(), status, txPhy << 8 | rxPhy);
+                recordPhy(device, txPhy, rxPhy, status, false);
+            }
+
+            @Override
+            public void onServiceAdded(int status, BluetoothGattService service) {
+                super.onServiceAdded(status, service);
+                traceRecorder.record(TraceRecorder.SERVICE_ADDED, null, status, service.getCharacteristics().size());
+            }
+
+            @Override
+            public void onDescriptorReadRequest(BluetoothDevice device, int requestId, int offset, BluetoothGattDescriptor descriptor) {
+                super.onDescriptorReadRequest(device, requestId, offset, descriptor);
+                traceRecorder.record(TraceRecorder.DESCRIPTOR_READ_REQUEST, device.getAddress(), BluetoothGatt.GATT_SUCCESS, offset);
+                byte[] value = CLIENT_CONFIG_ID.equals(descriptor.getUuid()) ? readClientConfig(device, descriptor.getCharacteristic()) : descriptor.getValue();
+                if (value == null) {
+                    value = new byte[0];
+                }
+                if (offset > value.length) {
+                    bluetoothGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_INVALID_OFFSET, offset, null);
+                    return;
+                }
+                bluetoothGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, offset, Arrays.copyOfRange(value, offset, value.length));
+            }
+
+            @Override
+            public void onDescriptorWriteRequest(BluetoothDevice device, int requestId, BluetoothGattDescriptor descriptor, boolean preparedWrite, boolean responseNeeded, int offset, byte[] value) {
+                super.onDescriptorWriteRequest(device, requestId, descriptor, preparedWrite, responseNeeded, offset, value);
+                traceRecorder.record(TraceRecorder.DESCRIPTOR_WRITE_REQUEST, device.getAddress(), preparedWrite ? 1 : 0, value == null ? 0 : value.length);
+                int status;
+                if (!CLIENT_CONFIG_ID.equals(descriptor.getUuid())) {
+                    descriptor.setValue(value);
+                    status = BluetoothGatt.GATT_SUCCESS;
+                } else if (preparedWrite) {
+                    status = BluetoothGatt.GATT_REQUEST_NOT_SUPPORTED;
+                } else {
+                    status = writeClientConfig(device, descriptor.getCharacteristic(), offset, value);
+                }
+                if (responseNeeded) {
+                    bluetoothGattServer.sendResponse(device, requestId, status, offset, value);
+                }
             }
         };
     }
@@ -636,14 +2067,29 @@ public class BleServer extends BaseBle {
             @Override
             public void onStartSuccess(AdvertiseSettings settingsInEffect) {
                 super.onStartSuccess(settingsInEffect);
-                callBack.startSuccess(settingsInEffect);
-                initParam();
+                traceRecorder.record(TraceRecorder.ADVERTISE_START_SUCCESS, null, 0, settingsInEffect.getTxPowerLevel());
+                dispatcher.execute(BleServer.this, new Runnable() {
+                    @Override
+                    public void run() {
+                        callBack.startSuccess(settingsInEffect);
+                    }
+                });
+                //重新广播时服务已打开，不再重复创建
+                if (bluetoothGattServer == null) {
+                    initParam();
+                }
             }
 
             @Override
             public void onStartFailure(int errorCode) {
                 super.onStartFailure(errorCode);
-                callBack.startFail(errorCode);
+                traceRecorder.record(TraceRecorder.ADVERTISE_START_FAILURE, null, errorCode, 0);
+                dispatcher.execute(BleServer.this, new Runnable() {
+                    @Override
+                    public void run() {
+                        callBack.startFail(errorCode);
+                    }
+                });
             }
         };
     }
@@ -0,0 +1,272 @@
+package cn.com.shadowless.blelib.connect;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 设备档案
+ * <p>
+ * 记录上一次成功连接时协商得到的参数与服务结构，用于下次启动时跳过扫描直接连接。
+ *
+ * @author sHadowLess
+ */
+public class DeviceProfile {
+
+    /**
+     * 未知值
+     */
+    public static final int UNKNOWN = -1;
+
+    /**
+     * 设备地址
+     */
+    private final String address;
+
+    /**
+     * 设备名称
+     */
+    private String name;
+
+    /**
+     * 协商后的MTU
+     */
+    private int mtu = UNKNOWN;
+
+    /**
+     * 发送PHY
+     */
+    private int txPhy = UNKNOWN;
+
+    /**
+     * 接收PHY
+     */
+    private int rxPhy = UNKNOWN;
+
+    /**
+     * 对端拒绝过的PHY
+     */
+    private int refusedPhy = UNKNOWN;
+
+    /**
+     * 连接优先级
+     */
+    private int connectionPriority = UNKNOWN;
+
+    /**
+     * 最近一次信号强度
+     */
+    private int rssi;
+
+    /**
+     * 服务结构，key为服务id，value为特征值id
+     */
+    private final Map<UUID, List<UUID>> services = new LinkedHashMap<>();
+
+    /**
+     * 更新时间
+     */
+    private long updateTime;
+
+    /**
+     * Instantiates a new Device profile.
+     *
+     * @param address the address
+     */
+    public DeviceProfile(String address) {
+        this.address = address;
+    }
+
+    /**
+     * 是否包含指定特征值
+     *
+     * @param serviceId        the service id
+     * @param characteristicId the characteristic id
+     * @return the boolean
+     */
+    public boolean hasCharacteristic(UUID serviceId, UUID characteristicId) {
+        List<UUID> characteristics = services.get(serviceId);
+        return characteristics != null && characteristics.contains(characteristicId);
+    }
+
+    /**
+     * 记录一个服务及其特征值
+     *
+     * @param serviceId         the service id
+     * @param characteristicIds the characteristic ids
+     */
+    public void putService(UUID serviceId, List<UUID> characteristicIds) {
+        services.put(serviceId, new ArrayList<>(characteristicIds));
+    }
+
+    /**
+     * 清空服务结构
+     */
+    public void clearServices() {
+        services.clear();
+    }
+
+    /**
+     * Gets address.
+     *
+     * @return the address
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Gets name.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Sets name.
+     *
+     * @param name the name
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Gets mtu.
+     *
+     * @return the mtu
+     */
+    public int getMtu() {
+        return mtu;
+    }
+
+    /**
+     * Sets mtu.
+     *
+     * @param mtu the mtu
+     */
+    public void setMtu(int mtu) {
+        this.mtu = mtu;
+    }
+
+    /**
+     * Gets tx phy.
+     *
+     * @return the tx phy
+     */
+    public int getTxPhy() {
+        return txPhy;
+    }
+
+    /**
+     * Sets tx phy.
+     *
+     * @param txPhy the tx phy
+     */
+    public void setTxPhy(int txPhy) {
+        this.txPhy = txPhy;
+    }
+
+    /**
+     * Gets rx phy.
+     *
+     * @return the rx phy
+     */
+    public int getRxPhy() {
+        return rxPhy;
+    }
+
+    /**
+     * Sets rx phy.
+     *
+     * @param rxPhy the rx phy
+     */
+    public void setRxPhy(int rxPhy) {
+        this.rxPhy = rxPhy;
+    }
+
+    /**
+     * Gets refused phy.
+     *
+     * @return the refused phy
+     */
+    public int getRefusedPhy() {
+        return refusedPhy;
+    }
+
+    /**
+     * Sets refused phy.
+     *
+     * @param refusedPhy the refused phy
+     */
+    public void setRefusedPhy(int refusedPhy) {
+        this.refusedPhy = refusedPhy;
+    }
+
+    /**
+     * Gets connection priority.
+     *
+     * @return the connection priority
+     */
+    public int getConnectionPriority() {
+        return connectionPriority;
+    }
+
+    /**
+     * Sets connection priority.
+     *
+     * @param connectionPriority the connection priority
+     */
+    public void setConnectionPriority(int connectionPriority) {
+        this.connectionPriority = connectionPriority;
+    }
+
+    /**
+     * Gets rssi.
+     *
+     * @return the rssi
+     */
+    public int getRssi() {
+        return rssi;
+    }
+
+    /**
+     * Sets rssi.
+     *
+     * @param rssi the rssi
+     */
+    public void setRssi(int rssi) {
+        this.rssi = rssi;
+    }
+
+    /**
+     * Gets services.
+     *
+     * @return the services
+     */
+    public Map<UUID, List<UUID>> getServices() {
+        return services;
+    }
+
+    /**
+     * Gets update time.
+     *
+     * @return the update time
+     */
+    public long getUpdateTime() {
+        return updateTime;
+    }
+
+    /**
+     * Sets update time.
+     *
+     * @param updateTime the update time
+     */
+    public void setUpdateTime(long updateTime) {
+        this.updateTime = updateTime;
+    }
+}
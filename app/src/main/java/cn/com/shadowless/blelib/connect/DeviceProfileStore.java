@@ -0,0 +1,190 @@
+package cn.com.shadowless.blelib.connect;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 设备档案存储
+ * <p>
+ * 以设备地址为key把{@link DeviceProfile}以JSON形式保存在SharedPreferences中，写入异步落盘。
+ *
+ * @author sHadowLess
+ */
+public class DeviceProfileStore {
+
+    /**
+     * 默认文件名
+     */
+    private static final String DEFAULT_NAME = "ble_device_profile";
+
+    /**
+     * The Tag.
+     */
+    private final String tag = DeviceProfileStore.class.getSimpleName();
+
+    /**
+     * 存储
+     */
+    private final SharedPreferences preferences;
+
+    /**
+     * Instantiates a new Device profile store.
+     *
+     * @param context the context
+     */
+    public DeviceProfileStore(Context context) {
+        this(context, DEFAULT_NAME);
+    }
+
+    /**
+     * Instantiates a new Device profile store.
+     *
+     * @param context the context
+     * @param name    the name
+     */
+    public DeviceProfileStore(Context context, String name) {
+        this.preferences = context.getApplicationContext().getSharedPreferences(name, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * 读取设备档案
+     *
+     * @param address the address
+     * @return 不存在或解析失败返回null
+     */
+    public DeviceProfile get(String address) {
+        String json = preferences.getString(address, null);
+        return json == null ? null : parse(address, json);
+    }
+
+    /**
+     * 查找指定名称最近更新的设备档案
+     *
+     * @param name the name
+     * @return 不存在返回null
+     */
+    public DeviceProfile findByName(String name) {
+        DeviceProfile latest = null;
+        for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+            if (!(entry.getValue() instanceof String)) {
+                continue;
+            }
+            DeviceProfile profile = parse(entry.getKey(), (String) entry.getValue());
+            if (profile == null || name == null || !name.equals(profile.getName())) {
+                continue;
+            }
+            if (latest == null || profile.getUpdateTime() > latest.getUpdateTime()) {
+                latest = profile;
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * 保存设备档案
+     *
+     * @param profile the profile
+     */
+    public void put(DeviceProfile profile) {
+        profile.setUpdateTime(System.currentTimeMillis());
+        try {
+            preferences.edit().putString(profile.getAddress(), toJson(profile).toString()).apply();
+        } catch (JSONException e) {
+            Log.e(tag, "put: 保存设备档案失败", e);
+        }
+    }
+
+    /**
+     * 删除设备档案
+     *
+     * @param address the address
+     */
+    public void remove(String address) {
+        preferences.edit().remove(address).apply();
+    }
+
+    /**
+     * 清空全部设备档案
+     */
+    public void clear() {
+        preferences.edit().clear().apply();
+    }
+
+    /**
+     * To json.
+     *
+     * @param profile the profile
+     * @return the json object
+     * @throws JSONException the json exception
+     */
+    private JSONObject toJson(DeviceProfile profile) throws JSONException {
+        JSONObject services = new JSONObject();
+        for (Map.Entry<UUID, List<UUID>> entry : profile.getServices().entrySet()) {
+            JSONArray characteristics = new JSONArray();
+            for (UUID id : entry.getValue()) {
+                characteristics.put(id.toString());
+            }
+            services.put(entry.getKey().toString(), characteristics);
+        }
+        return new JSONObject()
+                .put("name", profile.getName())
+                .put("mtu", profile.getMtu())
+                .put("txPhy", profile.getTxPhy())
+                .put("rxPhy", profile.getRxPhy())
+                .put("refusedPhy", profile.getRefusedPhy())
+                .put("connectionPriority", profile.getConnectionPriority())
+                .put("rssi", profile.getRssi())
+                .put("updateTime", profile.getUpdateTime())
+                .put("services", services);
+    }
+
+    /**
+     * Parse.
+     *
+     * @param address the address
+     * @param json    the json
+     * @return the device profile
+     */
+    private DeviceProfile parse(String address, String json) {
+        try {
+            JSONObject object = new JSONObject(json);
+            DeviceProfile profile = new DeviceProfile(address);
+            profile.setName(object.optString("name", null));
+            profile.setMtu(object.optInt("mtu", DeviceProfile.UNKNOWN));
+            profile.setTxPhy(object.optInt("txPhy", DeviceProfile.UNKNOWN));
+            profile.setRxPhy(object.optInt("rxPhy", DeviceProfile.UNKNOWN));
+            profile.setRefusedPhy(object.optInt("refusedPhy", DeviceProfile.UNKNOWN));
+            profile.setConnectionPriority(object.optInt("connectionPriority", DeviceProfile.UNKNOWN));
+            profile.setRssi(object.optInt("rssi"));
+            profile.setUpdateTime(object.optLong("updateTime"));
+            JSONObject services = object.optJSONObject("services");
+            if (services != null) {
+                Iterator<String> keys = services.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    JSONArray array = services.getJSONArray(key);
+                    List<UUID> characteristics = new ArrayList<>(array.length());
+                    for (int i = 0; i < array.length(); i++) {
+                        characteristics.add(UUID.fromString(array.getString(i)));
+                    }
+                    profile.putService(UUID.fromString(key), characteristics);
+                }
+            }
+            return profile;
+        } catch (JSONException | IllegalArgumentException e) {
+            Log.e(tag, "parse: 设备档案解析失败" + address, e);
+            return null;
+        }
+    }
+}
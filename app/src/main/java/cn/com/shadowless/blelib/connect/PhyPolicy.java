@@ -0,0 +1,143 @@
+package cn.com.shadowless.blelib.connect;
+
+/**
+ * PHY策略
+ * <p>
+ * 连接建立后按偏好请求PHY：2M提高吞吐，Coded提高距离。
+ * 对端拒绝或只部分切换时保持当前PHY不再重试，取值与BluetoothDevice.PHY_*一致。
+ *
+ * @author sHadowLess
+ */
+public class PhyPolicy {
+
+    /**
+     * 1M，同BluetoothDevice.PHY_LE_1M
+     */
+    public static final int PHY_LE_1M = 1;
+
+    /**
+     * 2M，同BluetoothDevice.PHY_LE_2M
+     */
+    public static final int PHY_LE_2M = 2;
+
+    /**
+     * Coded，同BluetoothDevice.PHY_LE_CODED
+     */
+    public static final int PHY_LE_CODED = 3;
+
+    /**
+     * 无编码偏好，同BluetoothDevice.PHY_OPTION_NO_PREFERRED
+     */
+    public static final int PHY_OPTION_NO_PREFERRED = 0;
+
+    /**
+     * Coded S2，同BluetoothDevice.PHY_OPTION_S2
+     */
+    public static final int PHY_OPTION_S2 = 1;
+
+    /**
+     * Coded S8，同BluetoothDevice.PHY_OPTION_S8
+     */
+    public static final int PHY_OPTION_S8 = 2;
+
+    /**
+     * 偏好的PHY
+     */
+    private final int phy;
+
+    /**
+     * Coded编码方式
+     */
+    private final int phyOptions;
+
+    /**
+     * 吞吐优先，请求2M
+     *
+     * @return the phy policy
+     */
+    public static PhyPolicy throughput() {
+        return new PhyPolicy(PHY_LE_2M, PHY_OPTION_NO_PREFERRED);
+    }
+
+    /**
+     * 距离优先，请求Coded
+     *
+     * @param phyOptions PHY_OPTION_S2或PHY_OPTION_S8
+     * @return the phy policy
+     */
+    public static PhyPolicy range(int phyOptions) {
+        return new PhyPolicy(PHY_LE_CODED, phyOptions);
+    }
+
+    /**
+     * Instantiates a new Phy policy.
+     *
+     * @param phy        the phy
+     * @param phyOptions the phy options
+     */
+    public PhyPolicy(int phy, int phyOptions) {
+        if (phy < PHY_LE_1M || phy > PHY_LE_CODED) {
+            throw new IllegalArgumentException("phy取值需为PHY_LE_1M、PHY_LE_2M或PHY_LE_CODED");
+        }
+        this.phy = phy;
+        this.phyOptions = phyOptions;
+    }
+
+    /**
+     * 是否需要请求，偏好1M或对端已拒绝过时不请求
+     *
+     * @param refusedPhy 对端拒绝过的PHY，未知为{@link DeviceProfile#UNKNOWN}
+     * @return the boolean
+     */
+    public boolean shouldRequest(int refusedPhy) {
+        return phy != PHY_LE_1M && phy != refusedPhy;
+    }
+
+    /**
+     * 对端是否接受了偏好的PHY
+     *
+     * @param txPhy the tx phy
+     * @param rxPhy the rx phy
+     * @return the boolean
+     */
+    public boolean isAccepted(int txPhy, int rxPhy) {
+        return txPhy == phy && rxPhy == phy;
+    }
+
+    /**
+     * 偏好的PHY
+     *
+     * @return the phy
+     */
+    public int getPhy() {
+        return phy;
+    }
+
+    /**
+     * setPreferredPhy使用的掩码
+     *
+     * @return the phy mask
+     */
+    public int getPhyMask() {
+        return toMask(phy);
+    }
+
+    /**
+     * Gets phy options.
+     *
+     * @return the phy options
+     */
+    public int getPhyOptions() {
+        return phyOptions;
+    }
+
+    /**
+     * PHY转为掩码，同BluetoothDevice.PHY_LE_*_MASK
+     *
+     * @param phy the phy
+     * @return the mask
+     */
+    public static int toMask(int phy) {
+        return 1 << (phy - 1);
+    }
+}
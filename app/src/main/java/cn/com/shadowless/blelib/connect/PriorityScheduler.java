@@ -0,0 +1,224 @@
+package cn.com.shadowless.blelib.connect;
+
+/**
+ * 连接优先级调度
+ * <p>
+ * 按发送队列长度与接收速率选择连接优先级：任一超过上阈值时切到高优先级以缩短连接间隔，
+ * 两者都回落到下阈值以下才退出高优先级，持续空闲达到设定时间后切到低功耗。
+ * 升级立即生效，降级需距上次切换至少{@link #MIN_DWELL}毫秒，避免来回抖动。
+ * 优先级取值与BluetoothGatt.CONNECTION_PRIORITY_*一致。
+ *
+ * @author sHadowLess
+ */
+public class PriorityScheduler {
+
+    /**
+     * 均衡，同BluetoothGatt.CONNECTION_PRIORITY_BALANCED
+     */
+    public static final int PRIORITY_BALANCED = 0;
+
+    /**
+     * 高优先级，同BluetoothGatt.CONNECTION_PRIORITY_HIGH
+     */
+    public static final int PRIORITY_HIGH = 1;
+
+    /**
+     * 低功耗，同BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER
+     */
+    public static final int PRIORITY_LOW_POWER = 2;
+
+    /**
+     * 采样间隔，毫秒
+     */
+    public static final long SAMPLE_INTERVAL = 200;
+
+    /**
+     * 降级前最短停留时间，毫秒
+     */
+    public static final long MIN_DWELL = 1000;
+
+    /**
+     * 默认进入高优先级的队列长度
+     */
+    public static final int DEFAULT_HIGH_QUEUE_SIZE = 8;
+
+    /**
+     * 默认退出高优先级的队列长度
+     */
+    public static final int DEFAULT_LOW_QUEUE_SIZE = 2;
+
+    /**
+     * 默认进入高优先级的接收速率，字节/秒
+     */
+    public static final long DEFAULT_HIGH_INBOUND_RATE = 4096;
+
+    /**
+     * 默认退出高优先级的接收速率，字节/秒
+     */
+    public static final long DEFAULT_LOW_INBOUND_RATE = 1024;
+
+    /**
+     * 默认空闲多久切到低功耗，毫秒
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 5000;
+
+    /**
+     * 进入高优先级的队列长度
+     */
+    private final int highQueueSize;
+
+    /**
+     * 退出高优先级的队列长度
+     */
+    private final int lowQueueSize;
+
+    /**
+     * 进入高优先级的接收速率
+     */
+    private final long highInboundRate;
+
+    /**
+     * 退出高优先级的接收速率
+     */
+    private final long lowInboundRate;
+
+    /**
+     * 空闲超时
+     */
+    private final long idleTimeout;
+
+    /**
+     * 上次采样后累计接收字节
+     */
+    private long inboundBytes;
+
+    /**
+     * 上次采样时间
+     */
+    private long lastSampleTime;
+
+    /**
+     * 最近活跃时间
+     */
+    private long lastActiveTime;
+
+    /**
+     * 最近切换时间
+     */
+    private long lastChangeTime;
+
+    /**
+     * 当前优先级
+     */
+    private int priority = PRIORITY_BALANCED;
+
+    /**
+     * Instantiates a new Priority scheduler.
+     */
+    public PriorityScheduler() {
+        this(DEFAULT_HIGH_QUEUE_SIZE, DEFAULT_LOW_QUEUE_SIZE, DEFAULT_HIGH_INBOUND_RATE, DEFAULT_LOW_INBOUND_RATE, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Instantiates a new Priority scheduler.
+     *
+     * @param highQueueSize   the high queue size
+     * @param lowQueueSize    the low queue size
+     * @param highInboundRate the high inbound rate
+     * @param lowInboundRate  the low inbound rate
+     * @param idleTimeout     the idle timeout
+     */
+    public PriorityScheduler(int highQueueSize, int lowQueueSize, long highInboundRate, long lowInboundRate, long idleTimeout) {
+        if (lowQueueSize < 0 || highQueueSize <= lowQueueSize || lowInboundRate < 0 || highInboundRate <= lowInboundRate || idleTimeout <= 0) {
+            throw new IllegalArgumentException("调度参数需满足 0 <= low < high 且 idleTimeout > 0");
+        }
+        this.highQueueSize = highQueueSize;
+        this.lowQueueSize = lowQueueSize;
+        this.highInboundRate = highInboundRate;
+        this.lowInboundRate = lowInboundRate;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * 记录接收字节
+     *
+     * @param bytes the bytes
+     */
+    public synchronized void recordInbound(int bytes) {
+        inboundBytes += bytes;
+    }
+
+    /**
+     * 采样并计算应使用的优先级
+     *
+     * @param queueSize 发送队列长度
+     * @param now       当前时间，毫秒
+     * @return 应使用的优先级
+     */
+    public synchronized int evaluate(int queueSize, long now) {
+        long elapsed = now - lastSampleTime;
+        long rate = elapsed <= 0 ? 0 : inboundBytes * 1000 / elapsed;
+        inboundBytes = 0;
+        lastSampleTime = now;
+        int target;
+        if (queueSize >= highQueueSize || rate >= highInboundRate) {
+            target = PRIORITY_HIGH;
+        } else if (priority == PRIORITY_HIGH && (queueSize > lowQueueSize || rate > lowInboundRate)) {
+            target = PRIORITY_HIGH;
+        } else if (queueSize > 0 || rate > 0) {
+            target = PRIORITY_BALANCED;
+        } else if (now - lastActiveTime >= idleTimeout) {
+            target = PRIORITY_LOW_POWER;
+        } else {
+            target = priority == PRIORITY_LOW_POWER ? PRIORITY_LOW_POWER : PRIORITY_BALANCED;
+        }
+        if (queueSize > 0 || rate > 0) {
+            lastActiveTime = now;
+        }
+        if (target != priority && (rank(target) > rank(priority) || now - lastChangeTime >= MIN_DWELL)) {
+            priority = target;
+            lastChangeTime = now;
+        }
+        return priority;
+    }
+
+    /**
+     * 连接建立后重置
+     *
+     * @param priority 当前优先级
+     * @param now      当前时间，毫秒
+     */
+    public synchronized void reset(int priority, long now) {
+        this.priority = priority;
+        inboundBytes = 0;
+        lastSampleTime = now;
+        lastActiveTime = now;
+        lastChangeTime = now;
+    }
+
+    /**
+     * Gets priority.
+     *
+     * @return the priority
+     */
+    public synchronized int getPriority() {
+        return priority;
+    }
+
+    /**
+     * 优先级由低到高排序，低功耗 < 均衡 < 高
+     *
+     * @param priority the priority
+     * @return the int
+     */
+    private static int rank(int priority) {
+        switch (priority) {
+            case PRIORITY_HIGH:
+                return 2;
+            case PRIORITY_BALANCED:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+}
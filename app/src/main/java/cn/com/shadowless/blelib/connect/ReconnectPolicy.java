@@ -0,0 +1,196 @@
+package cn.com.shadowless.blelib.connect;
+
+import java.util.Random;
+
+/**
+ * 重连策略
+ * <p>
+ * 断开后按缓存地址直接重连，重连间隔按指数退避并加入随机抖动，
+ * 前若干次使用直接连接以尽快恢复，之后改用autoConnect交给控制器等待设备出现，
+ * 连续失败达到上限后退回扫描。
+ * autoConnect本身不会超时失败，每次尝试超过连接期限仍未连上时按失败计数，
+ * 期限为0时不计时，autoConnect之后的尝试会一直等待，不再退回扫描。
+ *
+ * @author sHadowLess
+ */
+public class ReconnectPolicy {
+
+    /**
+     * 默认最大直连次数
+     */
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+
+    /**
+     * 默认改用autoConnect的次数
+     */
+    public static final int DEFAULT_AUTO_CONNECT_ATTEMPT = 2;
+
+    /**
+     * 默认基础间隔，毫秒
+     */
+    public static final long DEFAULT_BASE_DELAY = 200;
+
+    /**
+     * 默认最大间隔，毫秒
+     */
+    public static final long DEFAULT_MAX_DELAY = 10000;
+
+    /**
+     * 默认每次尝试的连接期限，毫秒
+     */
+    public static final long DEFAULT_CONNECT_TIMEOUT = 15000;
+
+    /**
+     * 最大直连次数，达到后退回扫描
+     */
+    private final int maxAttempts;
+
+    /**
+     * 从第几次开始使用autoConnect
+     */
+    private final int autoConnectAttempt;
+
+    /**
+     * 基础间隔
+     */
+    private final long baseDelay;
+
+    /**
+     * 最大间隔
+     */
+    private final long maxDelay;
+
+    /**
+     * 每次尝试的连接期限，0为不计时
+     */
+    private final long connectTimeout;
+
+    /**
+     * 抖动随机数
+     */
+    private final Random random;
+
+    /**
+     * Instantiates a new Reconnect policy.
+     */
+    public ReconnectPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_AUTO_CONNECT_ATTEMPT, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+    }
+
+    /**
+     * Instantiates a new Reconnect policy.
+     *
+     * @param maxAttempts        the max attempts
+     * @param autoConnectAttempt the auto connect attempt
+     * @param baseDelay          the base delay
+     * @param maxDelay           the max delay
+     */
+    public ReconnectPolicy(int maxAttempts, int autoConnectAttempt, long baseDelay, long maxDelay) {
+        this(maxAttempts, autoConnectAttempt, baseDelay, maxDelay, new Random());
+    }
+
+    /**
+     * Instantiates a new Reconnect policy.
+     *
+     * @param maxAttempts        the max attempts
+     * @param autoConnectAttempt the auto connect attempt
+     * @param baseDelay          the base delay
+     * @param maxDelay           the max delay
+     * @param random             the random
+     */
+    public ReconnectPolicy(int maxAttempts, int autoConnectAttempt, long baseDelay, long maxDelay, Random random) {
+        this(maxAttempts, autoConnectAttempt, baseDelay, maxDelay, DEFAULT_CONNECT_TIMEOUT, random);
+    }
+
+    /**
+     * Instantiates a new Reconnect policy.
+     *
+     * @param maxAttempts        the max attempts
+     * @param autoConnectAttempt the auto connect attempt
+     * @param baseDelay          the base delay
+     * @param maxDelay           the max delay
+     * @param connectTimeout     每次尝试的连接期限，毫秒，0为不计时
+     */
+    public ReconnectPolicy(int maxAttempts, int autoConnectAttempt, long baseDelay, long maxDelay, long connectTimeout) {
+        this(maxAttempts, autoConnectAttempt, baseDelay, maxDelay, connectTimeout, new Random());
+    }
+
+    /**
+     * Instantiates a new Reconnect policy.
+     *
+     * @param maxAttempts        the max attempts
+     * @param autoConnectAttempt the auto connect attempt
+     * @param baseDelay          the base delay
+     * @param maxDelay           the max delay
+     * @param connectTimeout     每次尝试的连接期限，毫秒，0为不计时
+     * @param random             the random
+     */
+    public ReconnectPolicy(int maxAttempts, int autoConnectAttempt, long baseDelay, long maxDelay, long connectTimeout, Random random) {
+        if (maxAttempts < 0 || baseDelay < 0 || maxDelay < baseDelay) {
+            throw new IllegalArgumentException("重连参数需满足 maxAttempts >= 0 且 0 <= baseDelay <= maxDelay");
+        }
+        if (connectTimeout < 0) {
+            throw new IllegalArgumentException("连接期限不能小于0");
+        }
+        this.maxAttempts = maxAttempts;
+        this.autoConnectAttempt = autoConnectAttempt;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.connectTimeout = connectTimeout;
+        this.random = random;
+    }
+
+    /**
+     * 是否继续直连
+     *
+     * @param attempt 已尝试次数
+     * @return false表示应退回扫描
+     */
+    public boolean shouldReconnect(int attempt) {
+        return attempt < maxAttempts;
+    }
+
+    /**
+     * 本次是否使用autoConnect
+     *
+     * @param attempt 已尝试次数
+     * @return the boolean
+     */
+    public boolean useAutoConnect(int attempt) {
+        return attempt >= autoConnectAttempt;
+    }
+
+    /**
+     * 本次重连前的等待时间，在[上限/2, 上限]之间随机，上限为基础间隔的2^attempt倍
+     *
+     * @param attempt 已尝试次数
+     * @return 毫秒
+     */
+    public long nextDelay(int attempt) {
+        long ceiling = Math.min(maxDelay, baseDelay << Math.min(attempt, 20));
+        long half = ceiling / 2;
+        long jitter;
+        synchronized (random) {
+            jitter = half == 0 ? 0 : (long) (random.nextDouble() * (ceiling - half + 1));
+        }
+        return half + jitter;
+    }
+
+    /**
+     * Gets max attempts.
+     *
+     * @return the max attempts
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Gets connect timeout.
+     *
+     * @return 每次尝试的连接期限，毫秒，0为不计时
+     */
+    public long getConnectTimeout() {
+        return connectTimeout;
+    }
+}
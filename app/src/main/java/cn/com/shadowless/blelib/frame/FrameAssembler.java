@@ -0,0 +1,218 @@
+package cn.com.shadowless.blelib.frame;
+
+/**
+ * 分包重组
+ * <p>
+ * 与{@link FrameCodec}配套，一个对端对应一个实例，非线程安全。
+ * 序号不连续或长度越界时丢弃当前消息，等待下一个首包。
+ * 默认只接受{@link #DEFAULT_MAX_MESSAGE_SIZE}以内的消息，缓冲随收到的数据增长，不按首包声明的长度一次分配。
+ *
+ * @author sHadowLess
+ */
+public class FrameAssembler {
+
+    /**
+     * 默认单条消息上限，更大的消息需显式放宽
+     */
+    public static final int DEFAULT_MAX_MESSAGE_SIZE = 1024 * 1024;
+
+    /**
+     * 首包分配的缓冲上限，之后按收到的数据翻倍增长
+     */
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    /**
+     * 允许的最大消息长度
+     */
+    private int maxMessageSize;
+
+    /**
+     * 正在重组的消息
+     */
+    private byte[] message;
+
+    /**
+     * 首包声明的消息长度
+     */
+    private int messageLength;
+
+    /**
+     * 已写入长度
+     */
+    private int position;
+
+    /**
+     * 期望的下一个序号
+     */
+    private int expectedSeq;
+
+    /**
+     * 正在重组的消息标记
+     */
+    private int pendingFlags;
+
+    /**
+     * 最近一条完整消息的标记
+     */
+    private int flags;
+
+    /**
+     * 丢弃的消息数
+     */
+    private long droppedCount;
+
+    /**
+     * Instantiates a new Frame assembler.
+     */
+    public FrameAssembler() {
+        this(DEFAULT_MAX_MESSAGE_SIZE);
+    }
+
+    /**
+     * Instantiates a new Frame assembler.
+     *
+     * @param maxMessageSize 单条消息上限，不超过{@link FrameCodec#MAX_MESSAGE_SIZE}
+     */
+    public FrameAssembler(int maxMessageSize) {
+        setMaxMessageSize(maxMessageSize);
+    }
+
+    /**
+     * 设置单条消息上限，对下一条消息生效
+     *
+     * @param maxMessageSize 不超过{@link FrameCodec#MAX_MESSAGE_SIZE}
+     */
+    public void setMaxMessageSize(int maxMessageSize) {
+        if (maxMessageSize <= 0) {
+            throw new IllegalArgumentException("消息上限必须大于0");
+        }
+        this.maxMessageSize = Math.min(maxMessageSize, FrameCodec.MAX_MESSAGE_SIZE);
+    }
+
+    /**
+     * Gets max message size.
+     *
+     * @return the max message size
+     */
+    public int getMaxMessageSize() {
+        return maxMessageSize;
+    }
+
+    /**
+     * 输入一个分包
+     *
+     * @param chunk the chunk
+     * @return 重组完成的消息，未完成返回null
+     */
+    public byte[] feed(byte[] chunk) {
+        return feed(chunk, 0, chunk.length);
+    }
+
+    /**
+     * 输入一个分包
+     *
+     * @param chunk  the chunk
+     * @param offset the offset
+     * @param length the length
+     * @return 重组完成的消息，未完成返回null
+     */
+    public byte[] feed(byte[] chunk, int offset, int length) {
+        if (length < FrameCodec.CHUNK_HEADER_SIZE) {
+            return null;
+        }
+        int head = chunk[offset] & 0xFF;
+        int seq = head & FrameCodec.SEQ_MASK;
+        int index = offset + FrameCodec.CHUNK_HEADER_SIZE;
+        int end = offset + length;
+        if ((head & FrameCodec.FLAG_FIRST) != 0) {
+            if (message != null) {
+                drop();
+            }
+            if (length < FrameCodec.CHUNK_HEADER_SIZE + FrameCodec.MESSAGE_HEADER_SIZE) {
+                droppedCount++;
+                return null;
+            }
+            int total = ((chunk[index + 1] & 0xFF) << 16) | ((chunk[index + 2] & 0xFF) << 8) | (chunk[index + 3] & 0xFF);
+            if (seq != 0 || total > maxMessageSize) {
+                droppedCount++;
+                return null;
+            }
+            pendingFlags = chunk[index] & 0xFF;
+            messageLength = total;
+            message = new byte[Math.min(total, INITIAL_BUFFER_SIZE)];
+            position = 0;
+            expectedSeq = 0;
+            index += FrameCodec.MESSAGE_HEADER_SIZE;
+        } else if (message == null) {
+            return null;
+        }
+        int size = end - index;
+        if (seq != expectedSeq || position + size > messageLength) {
+            drop();
+            return null;
+        }
+        if (position + size > message.length) {
+            byte[] grown = new byte[Math.min(messageLength, Math.max(message.length << 1, position + size))];
+            System.arraycopy(message, 0, grown, 0, position);
+            message = grown;
+        }
+        System.arraycopy(chunk, index, message, position, size);
+        position += size;
+        expectedSeq = (expectedSeq + 1) & FrameCodec.SEQ_MASK;
+        if ((head & FrameCodec.FLAG_LAST) == 0) {
+            return null;
+        }
+        if (position != messageLength) {
+            drop();
+            return null;
+        }
+        byte[] complete = message;
+        flags = pendingFlags;
+        message = null;
+        return complete;
+    }
+
+    /**
+     * 最近一条完整消息的标记
+     *
+     * @return the flags
+     */
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * 丢弃的消息数
+     *
+     * @return the dropped count
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * 是否正在重组
+     *
+     * @return the boolean
+     */
+    public boolean isAssembling() {
+        return message != null;
+    }
+
+    /**
+     * 清空当前重组状态
+     */
+    public void reset() {
+        message = null;
+        position = 0;
+        expectedSeq = 0;
+    }
+
+    /**
+     * 丢弃当前消息
+     */
+    private void drop() {
+        droppedCount++;
+        reset();
+    }
+}
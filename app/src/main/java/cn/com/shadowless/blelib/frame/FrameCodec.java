@@ -0,0 +1,231 @@
+package cn.com.shadowless.blelib.frame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分包编码
+ * <p>
+ * 按协商后的MTU把一条消息拆成若干分包，每个分包首字节为包头：
+ * bit7 首包标记，bit6 尾包标记，低6位为包内序号；
+ * 首包在包头后额外携带4字节消息头，高8位为消息标记，低24位为消息总长度。
+ *
+ * @author sHadowLess
+ */
+public class FrameCodec {
+
+    /**
+     * ATT协议头长度
+     */
+    public static final int ATT_HEADER_SIZE = 3;
+
+    /**
+     * 默认MTU
+     */
+    public static final int DEFAULT_MTU = 23;
+
+    /**
+     * 分包头长度
+     */
+    public static final int CHUNK_HEADER_SIZE = 1;
+
+    /**
+     * 消息头长度
+     */
+    public static final int MESSAGE_HEADER_SIZE = 4;
+
+    /**
+     * 单条消息最大长度
+     */
+    public static final int MAX_MESSAGE_SIZE = 0xFFFFFF;
+
+    /**
+     * 消息标记：载荷经{@link PayloadCompressor}压缩
+     */
+    public static final int MESSAGE_COMPRESSED = 0x01;
+
+    /**
+     * 消息标记：能力协商，不交给应用
+     */
+    public static final int MESSAGE_HANDSHAKE = 0x02;
+
+    /**
+     * 消息标记：RPC请求或应答，按关联ID交给等待中的调用
+     */
+    public static final int MESSAGE_RPC = 0x04;
+
+    /**
+     * 首包标记
+     */
+    static final int FLAG_FIRST = 0x80;
+
+    /**
+     * 尾包标记
+     */
+    static final int FLAG_LAST = 0x40;
+
+    /**
+     * 包内序号掩码
+     */
+    static final int SEQ_MASK = 0x3F;
+
+    /**
+     * 当前MTU
+     */
+    private volatile int mtu;
+
+    /**
+     * 每个分包前预留给上层协议的字节数
+     */
+    private volatile int headroom;
+
+    /**
+     * Instantiates a new Frame codec.
+     */
+    public FrameCodec() {
+        this(DEFAULT_MTU);
+    }
+
+    /**
+     * Instantiates a new Frame codec.
+     *
+     * @param mtu the mtu
+     */
+    public FrameCodec(int mtu) {
+        setMtu(mtu);
+    }
+
+    /**
+     * Sets mtu.
+     *
+     * @param mtu the mtu
+     */
+    public void setMtu(int mtu) {
+        if (mtu < DEFAULT_MTU) {
+            throw new IllegalArgumentException("MTU不能小于" + DEFAULT_MTU);
+        }
+        this.mtu = mtu;
+    }
+
+    /**
+     * Gets mtu.
+     *
+     * @return the mtu
+     */
+    public int getMtu() {
+        return mtu;
+    }
+
+    /**
+     * 设置每个分包前预留给上层协议的字节数，分包相应变小
+     *
+     * @param headroom the headroom
+     */
+    public void setHeadroom(int headroom) {
+        if (headroom < 0 || DEFAULT_MTU - ATT_HEADER_SIZE - headroom <= CHUNK_HEADER_SIZE + MESSAGE_HEADER_SIZE) {
+            throw new IllegalArgumentException("预留字节数需保证默认MTU下首包仍能携带数据");
+        }
+        this.headroom = headroom;
+    }
+
+    /**
+     * Gets headroom.
+     *
+     * @return the headroom
+     */
+    public int getHeadroom() {
+        return headroom;
+    }
+
+    /**
+     * 每个分包可用的最大长度(含分包头)
+     *
+     * @return the chunk size
+     */
+    public int getChunkSize() {
+        return mtu - ATT_HEADER_SIZE - headroom;
+    }
+
+    /**
+     * 计算指定长度的消息会被拆成几个分包
+     *
+     * @param length the length
+     * @return the chunk count
+     */
+    public int chunkCount(int length) {
+        int chunkSize = getChunkSize();
+        int first = chunkSize - CHUNK_HEADER_SIZE - MESSAGE_HEADER_SIZE;
+        if (length <= first) {
+            return 1;
+        }
+        int rest = chunkSize - CHUNK_HEADER_SIZE;
+        return 1 + (length - first + rest - 1) / rest;
+    }
+
+    /**
+     * 拆包
+     *
+     * @param data the data
+     * @return the list
+     */
+    public List<byte[]> encode(byte[] data) {
+        return encode(data, 0);
+    }
+
+    /**
+     * 拆包
+     *
+     * @param data  the data
+     * @param flags the message flags
+     * @return the list
+     */
+    public List<byte[]> encode(byte[] data, int flags) {
+        List<byte[]> out = new ArrayList<>(chunkCount(data.length));
+        encode(data, flags, out);
+        return out;
+    }
+
+    /**
+     * 拆包并追加到指定集合
+     *
+     * @param data  the data
+     * @param flags the message flags
+     * @param out   the out
+     * @return 分包数量
+     */
+    public int encode(byte[] data, int flags, List<byte[]> out) {
+        int length = data.length;
+        if (length > MAX_MESSAGE_SIZE) {
+            throw new IllegalArgumentException("单条消息长度不能超过" + MAX_MESSAGE_SIZE);
+        }
+        if ((flags & ~0xFF) != 0) {
+            throw new IllegalArgumentException("消息标记只能占用8位");
+        }
+        int chunkSize = getChunkSize();
+        int count = chunkCount(length);
+        int offset = 0;
+        for (int seq = 0; seq < count; seq++) {
+            boolean first = seq == 0;
+            boolean last = seq == count - 1;
+            int header = CHUNK_HEADER_SIZE + (first ? MESSAGE_HEADER_SIZE : 0);
+            int size = Math.min(chunkSize - header, length - offset);
+            byte[] chunk = new byte[header + size];
+            int head = seq & SEQ_MASK;
+            if (first) {
+                head |= FLAG_FIRST;
+                chunk[1] = (byte) flags;
+                chunk[2] = (byte) (length >>> 16);
+                chunk[3] = (byte) (length >>> 8);
+                chunk[4] = (byte) length;
+            }
+            if (last) {
+                head |= FLAG_LAST;
+            }
+            chunk[0] = (byte) head;
+            System.arraycopy(data, offset, chunk, header, size);
+            offset += size;
+            out.add(chunk);
+        }
+        return count;
+    }
+}
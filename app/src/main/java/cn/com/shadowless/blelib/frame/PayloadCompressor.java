@@ -0,0 +1,250 @@
+package cn.com.shadowless.blelib.frame;
+
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 载荷压缩
+ * <p>
+ * 以最快级别的raw deflate压缩单条消息，可预置双方相同的字典提高短消息的压缩率，
+ * 每条消息独立压缩，分包丢失或重传不影响后续消息。短于阈值或压缩后不变小的消息原样发送。
+ * 压缩结果前3字节为原始长度，解压时按该长度一次分配，长度头来自对端，超过接收上限的直接拒绝。
+ * 压缩器与缓冲在消息之间复用，方法互斥。
+ * <p>
+ * 能力协商：连接后客户端发送{@link #capability()}，服务端按{@link #accepts(byte[])}判断后回复自己的能力，
+ * 双方都接受后才发送压缩消息。
+ *
+ * @author sHadowLess
+ */
+public class PayloadCompressor {
+
+    /**
+     * 默认压缩阈值
+     */
+    public static final int DEFAULT_THRESHOLD = 64;
+
+    /**
+     * 协商版本
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * 算法：raw deflate
+     */
+    private static final int ALGORITHM_DEFLATE = 1;
+
+    /**
+     * 能力描述长度：版本、算法、4字节字典校验
+     */
+    private static final int CAPABILITY_SIZE = 6;
+
+    /**
+     * 原始长度头
+     */
+    private static final int LENGTH_HEADER = 3;
+
+    /**
+     * 预置字典，可为空
+     */
+    private final byte[] dictionary;
+
+    /**
+     * 字典校验，没有字典为0
+     */
+    private final int dictionaryId;
+
+    /**
+     * 压缩阈值
+     */
+    private final int threshold;
+
+    /**
+     * The Deflater.
+     */
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+
+    /**
+     * The Inflater.
+     */
+    private final Inflater inflater = new Inflater(true);
+
+    /**
+     * 压缩缓冲
+     */
+    private byte[] buffer = new byte[256];
+
+    /**
+     * 压缩前的字节数
+     */
+    private long inputBytes;
+
+    /**
+     * 压缩后的字节数
+     */
+    private long outputBytes;
+
+    /**
+     * Instantiates a new Payload compressor.
+     */
+    public PayloadCompressor() {
+        this(null, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Instantiates a new Payload compressor.
+     *
+     * @param dictionary 预置字典，双方必须一致，放入常见的键名与取值
+     * @param threshold  短于该长度的消息不压缩
+     */
+    public PayloadCompressor(byte[] dictionary, int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("压缩阈值不能小于0");
+        }
+        this.dictionary = dictionary == null || dictionary.length == 0 ? null : dictionary.clone();
+        this.threshold = threshold;
+        if (this.dictionary == null) {
+            this.dictionaryId = 0;
+        } else {
+            CRC32 crc = new CRC32();
+            crc.update(this.dictionary, 0, this.dictionary.length);
+            this.dictionaryId = (int) crc.getValue();
+        }
+    }
+
+    /**
+     * 本端的能力描述
+     *
+     * @return the byte [ ]
+     */
+    public byte[] capability() {
+        return new byte[]{
+                VERSION,
+                ALGORITHM_DEFLATE,
+                (byte) (dictionaryId >>> 24),
+                (byte) (dictionaryId >>> 16),
+                (byte) (dictionaryId >>> 8),
+                (byte) dictionaryId
+        };
+    }
+
+    /**
+     * 对端能力是否与本端一致
+     *
+     * @param capability 对端的能力描述
+     * @return the boolean
+     */
+    public boolean accepts(byte[] capability) {
+        if (capability == null || capability.length < CAPABILITY_SIZE) {
+            return false;
+        }
+        int id = (capability[2] & 0xFF) << 24 | (capability[3] & 0xFF) << 16 | (capability[4] & 0xFF) << 8 | (capability[5] & 0xFF);
+        return capability[0] == VERSION && capability[1] == ALGORITHM_DEFLATE && id == dictionaryId;
+    }
+
+    /**
+     * 压缩
+     *
+     * @param data the data
+     * @return 短于阈值或压缩后不变小时返回null
+     */
+    public synchronized byte[] compress(byte[] data) {
+        int length = data.length;
+        if (length < threshold || length > FrameCodec.MAX_MESSAGE_SIZE) {
+            return null;
+        }
+        int limit = length - LENGTH_HEADER - 1;
+        if (limit <= 0) {
+            return null;
+        }
+        if (buffer.length < limit) {
+            buffer = new byte[Math.max(limit, buffer.length * 2)];
+        }
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(data);
+        deflater.finish();
+        int size = 0;
+        while (!deflater.finished() && size < limit) {
+            size += deflater.deflate(buffer, size, limit - size);
+        }
+        if (!deflater.finished()) {
+            return null;
+        }
+        byte[] out = new byte[LENGTH_HEADER + size];
+        out[0] = (byte) (length >>> 16);
+        out[1] = (byte) (length >>> 8);
+        out[2] = (byte) length;
+        System.arraycopy(buffer, 0, out, LENGTH_HEADER, size);
+        inputBytes += length;
+        outputBytes += out.length;
+        return out;
+    }
+
+    /**
+     * 解压，原始长度不超过协议可表示的长度
+     *
+     * @param data 带原始长度头的压缩数据
+     * @return 数据损坏返回null
+     */
+    public byte[] decompress(byte[] data) {
+        return decompress(data, FrameCodec.MAX_MESSAGE_SIZE);
+    }
+
+    /**
+     * 解压，原始长度超过上限时不分配缓冲直接拒绝
+     *
+     * @param data      带原始长度头的压缩数据
+     * @param maxLength 原始长度上限，与重组的消息长度上限一致
+     * @return 数据损坏或超过上限返回null
+     */
+    public synchronized byte[] decompress(byte[] data, int maxLength) {
+        if (data.length < LENGTH_HEADER) {
+            return null;
+        }
+        int length = (data[0] & 0xFF) << 16 | (data[1] & 0xFF) << 8 | (data[2] & 0xFF);
+        if (length > maxLength) {
+            return null;
+        }
+        byte[] out = new byte[length];
+        inflater.reset();
+        if (dictionary != null) {
+            inflater.setDictionary(dictionary);
+        }
+        inflater.setInput(data, LENGTH_HEADER, data.length - LENGTH_HEADER);
+        int size = 0;
+        try {
+            while (size < length) {
+                int count = inflater.inflate(out, size, length - size);
+                if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                size += count;
+            }
+        } catch (DataFormatException e) {
+            return null;
+        }
+        return size == length ? out : null;
+    }
+
+    /**
+     * 获取压缩前的累计字节数
+     *
+     * @return the input bytes
+     */
+    public synchronized long getInputBytes() {
+        return inputBytes;
+    }
+
+    /**
+     * 获取压缩后的累计字节数
+     *
+     * @return the output bytes
+     */
+    public synchronized long getOutputBytes() {
+        return outputBytes;
+    }
+}
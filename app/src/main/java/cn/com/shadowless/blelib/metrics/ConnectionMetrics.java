@@ -0,0 +1,326 @@
+package cn.com.shadowless.blelib.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 单个连接的统计
+ * <p>
+ * 计数全部为预先分配的原子变量，记录时不加锁不分配对象，通过{@link #snapshot(int)}拉取。
+ * 0到255以外的状态码(如0x101、超时)少见，首次出现时在溢出表中分配计数。
+ *
+ * @author sHadowLess
+ */
+public class ConnectionMetrics {
+
+    /**
+     * 写入
+     */
+    public static final int OP_WRITE = 0;
+
+    /**
+     * 读取
+     */
+    public static final int OP_READ = 1;
+
+    /**
+     * 通知
+     */
+    public static final int OP_NOTIFY = 2;
+
+    /**
+     * 描述符写入
+     */
+    public static final int OP_DESCRIPTOR_WRITE = 3;
+
+    /**
+     * MTU协商
+     */
+    public static final int OP_MTU = 4;
+
+    /**
+     * 发现服务
+     */
+    public static final int OP_DISCOVER = 5;
+
+    /**
+     * 连接
+     */
+    public static final int OP_CONNECT = 6;
+
+    /**
+     * 操作类型数
+     */
+    public static final int OP_TYPE_COUNT = 7;
+
+    /**
+     * 回调超时，同GattOperation.STATUS_TIMEOUT，失败统计中以此为键
+     */
+    public static final int STATUS_TIMEOUT = -1;
+
+    /**
+     * 预先分配计数的状态码个数
+     */
+    private static final int STATUS_SLOTS = 256;
+
+    /**
+     * 设备地址
+     */
+    private volatile String address;
+
+    /**
+     * 接收字节
+     */
+    private final AtomicLong bytesIn = new AtomicLong();
+
+    /**
+     * 发送字节
+     */
+    private final AtomicLong bytesOut = new AtomicLong();
+
+    /**
+     * 接收包数
+     */
+    private final AtomicLong packetsIn = new AtomicLong();
+
+    /**
+     * 发送包数
+     */
+    private final AtomicLong packetsOut = new AtomicLong();
+
+    /**
+     * 各类型操作数
+     */
+    private final AtomicLongArray operations = new AtomicLongArray(OP_TYPE_COUNT);
+
+    /**
+     * 各GATT状态码的失败数
+     */
+    private final AtomicLongArray failures = new AtomicLongArray(STATUS_SLOTS);
+
+    /**
+     * 0到255以外状态码的失败数
+     */
+    private final ConcurrentHashMap<Integer, AtomicLong> overflowFailures = new ConcurrentHashMap<>();
+
+    /**
+     * 写入到确认的延迟
+     */
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+
+    /**
+     * 连接延迟
+     */
+    private final LatencyHistogram connectLatency = new LatencyHistogram();
+
+    /**
+     * 当前写入开始时间，纳秒，0为没有等待确认的写入
+     */
+    private volatile long writeStartTime;
+
+    /**
+     * 连接开始时间，纳秒，0为未在连接
+     */
+    private volatile long connectStartTime;
+
+    /**
+     * Instantiates a new Connection metrics.
+     *
+     * @param address the address
+     */
+    public ConnectionMetrics(String address) {
+        this.address = address;
+    }
+
+    /**
+     * 记录接收
+     *
+     * @param length the length
+     */
+    public void recordInbound(int length) {
+        packetsIn.incrementAndGet();
+        bytesIn.addAndGet(length);
+    }
+
+    /**
+     * 记录发送，并开始计时写入到确认的延迟
+     *
+     * @param length the length
+     */
+    public void recordOutbound(int length) {
+        packetsOut.incrementAndGet();
+        bytesOut.addAndGet(length);
+        writeStartTime = System.nanoTime();
+    }
+
+    /**
+     * 记录写入确认
+     */
+    public void recordWriteAck() {
+        long start = writeStartTime;
+        if (start != 0) {
+            writeStartTime = 0;
+            writeLatency.record((System.nanoTime() - start) / 1000);
+        }
+    }
+
+    /**
+     * 记录开始连接
+     */
+    public void recordConnectStart() {
+        connectStartTime = System.nanoTime();
+    }
+
+    /**
+     * 记录连接成功
+     */
+    public void recordConnected() {
+        long start = connectStartTime;
+        if (start != 0) {
+            connectStartTime = 0;
+            connectLatency.record((System.nanoTime() - start) / 1000);
+        }
+        operations.incrementAndGet(OP_CONNECT);
+    }
+
+    /**
+     * 记录一次操作结果
+     *
+     * @param type   OP_*
+     * @param status GATT状态码
+     */
+    public void recordOperation(int type, int status) {
+        operations.incrementAndGet(type);
+        if (status != 0) {
+            countFailure(status);
+        }
+    }
+
+    /**
+     * 记录一次回调超时的操作
+     *
+     * @param type OP_*
+     */
+    public void recordTimeout(int type) {
+        recordOperation(type, STATUS_TIMEOUT);
+    }
+
+    /**
+     * 记录失败
+     *
+     * @param status GATT状态码
+     */
+    public void recordFailure(int status) {
+        if (status != 0) {
+            connectStartTime = 0;
+            countFailure(status);
+        }
+    }
+
+    /**
+     * 记录断开，本端请求且状态码为成功的断开不计入失败，
+     * 意外断开即使状态码为成功也计入，对应失败统计中的状态码0
+     *
+     * @param status    GATT状态码
+     * @param requested 是否本端请求断开
+     */
+    public void recordDisconnected(int status, boolean requested) {
+        connectStartTime = 0;
+        if (status != 0 || !requested) {
+            countFailure(status);
+        }
+    }
+
+    /**
+     * 快照
+     *
+     * @param queueDepth 当前队列深度
+     * @return the metrics snapshot
+     */
+    public MetricsSnapshot snapshot(int queueDepth) {
+        long[] operationCounts = new long[OP_TYPE_COUNT];
+        for (int i = 0; i < OP_TYPE_COUNT; i++) {
+            operationCounts[i] = operations.get(i);
+        }
+        Map<Integer, Long> failureCounts = new LinkedHashMap<>();
+        for (int i = 0; i < failures.length(); i++) {
+            long count = failures.get(i);
+            if (count != 0) {
+                failureCounts.put(i, count);
+            }
+        }
+        for (Map.Entry<Integer, AtomicLong> entry : overflowFailures.entrySet()) {
+            long count = entry.getValue().get();
+            if (count != 0) {
+                failureCounts.put(entry.getKey(), count);
+            }
+        }
+        return new MetricsSnapshot(address, System.currentTimeMillis(), bytesIn.get(), bytesOut.get(), packetsIn.get(), packetsOut.get(),
+                operationCounts, failureCounts, queueDepth, writeLatency.snapshot(), connectLatency.snapshot());
+    }
+
+    /**
+     * 设置设备地址
+     *
+     * @param address the address
+     */
+    public void setAddress(String address) {
+        this.address = address;
+    }
+
+    /**
+     * Gets address.
+     *
+     * @return the address
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * 清空
+     */
+    public void reset() {
+        bytesIn.set(0);
+        bytesOut.set(0);
+        packetsIn.set(0);
+        packetsOut.set(0);
+        for (int i = 0; i < OP_TYPE_COUNT; i++) {
+            operations.set(i, 0);
+        }
+        for (int i = 0; i < failures.length(); i++) {
+            failures.set(i, 0);
+        }
+        for (AtomicLong count : overflowFailures.values()) {
+            count.set(0);
+        }
+        writeLatency.reset();
+        connectLatency.reset();
+        writeStartTime = 0;
+        connectStartTime = 0;
+    }
+
+    /**
+     * 按完整状态码计数失败
+     *
+     * @param status the status
+     */
+    private void countFailure(int status) {
+        if (status >= 0 && status < STATUS_SLOTS) {
+            failures.incrementAndGet(status);
+            return;
+        }
+        AtomicLong count = overflowFailures.get(status);
+        if (count == null) {
+            count = new AtomicLong();
+            AtomicLong exist = overflowFailures.putIfAbsent(status, count);
+            if (exist != null) {
+                count = exist;
+            }
+        }
+        count.incrementAndGet();
+    }
+}
@@ -0,0 +1,130 @@
+package cn.com.shadowless.blelib.metrics;
+
+/**
+ * 延迟直方图快照
+ *
+ * @author sHadowLess
+ */
+public class HistogramSnapshot {
+
+    /**
+     * 桶上边界，微秒
+     */
+    private final long[] bounds;
+
+    /**
+     * 各桶计数，最后一个为溢出桶
+     */
+    private final long[] counts;
+
+    /**
+     * 总次数
+     */
+    private final long count;
+
+    /**
+     * 总和，微秒
+     */
+    private final long sum;
+
+    /**
+     * 最大值，微秒
+     */
+    private final long max;
+
+    /**
+     * Instantiates a new Histogram snapshot.
+     *
+     * @param bounds the bounds
+     * @param counts the counts
+     * @param count  the count
+     * @param sum    the sum
+     * @param max    the max
+     */
+    HistogramSnapshot(long[] bounds, long[] counts, long count, long sum, long max) {
+        this.bounds = bounds;
+        this.counts = counts;
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    /**
+     * 估算分位数，返回所在桶的上边界，落在溢出桶时返回最大值
+     *
+     * @param percentile 0~100
+     * @return 微秒，没有数据返回0
+     */
+    public long percentile(double percentile) {
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                return i < bounds.length ? Math.min(bounds[i], max) : max;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * 平均值
+     *
+     * @return 微秒
+     */
+    public long mean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * Get bounds long [ ].
+     *
+     * @return the long [ ]
+     */
+    public long[] getBounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * Get counts long [ ].
+     *
+     * @return the long [ ]
+     */
+    public long[] getCounts() {
+        return counts.clone();
+    }
+
+    /**
+     * Gets count.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets sum.
+     *
+     * @return the sum
+     */
+    public long getSum() {
+        return sum;
+    }
+
+    /**
+     * Gets max.
+     *
+     * @return the max
+     */
+    public long getMax() {
+        return max;
+    }
+}
@@ -0,0 +1,106 @@
+package cn.com.shadowless.blelib.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 固定分桶的延迟直方图
+ * <p>
+ * 桶边界固定、预先分配，记录只做一次查找和几次原子自增，不分配对象。
+ * 单位为微秒，最后一个桶收纳超过最大边界的值。
+ *
+ * @author sHadowLess
+ */
+public class LatencyHistogram {
+
+    /**
+     * 桶上边界，微秒
+     */
+    private static final long[] BOUNDS = {
+            250, 500, 1000, 2000, 5000, 10000, 20000, 50000,
+            100000, 200000, 500000, 1000000, 2000000, 5000000, 10000000
+    };
+
+    /**
+     * 各桶计数，比边界多一个溢出桶
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+
+    /**
+     * 总次数
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * 总和
+     */
+    private final AtomicLong sum = new AtomicLong();
+
+    /**
+     * 最大值
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * 记录一次延迟
+     *
+     * @param micros 微秒
+     */
+    public void record(long micros) {
+        if (micros < 0) {
+            return;
+        }
+        counts.incrementAndGet(indexOf(micros));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+        long current = max.get();
+        while (micros > current && !max.compareAndSet(current, micros)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * 快照
+     *
+     * @return the histogram snapshot
+     */
+    public HistogramSnapshot snapshot() {
+        long[] copy = new long[counts.length()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new HistogramSnapshot(BOUNDS, copy, count.get(), sum.get(), max.get());
+    }
+
+    /**
+     * 清空
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * 二分查找所在的桶
+     *
+     * @param micros the micros
+     * @return the int
+     */
+    private static int indexOf(long micros) {
+        int low = 0;
+        int high = BOUNDS.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (BOUNDS[mid] < micros) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
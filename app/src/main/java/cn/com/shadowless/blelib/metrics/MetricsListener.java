@@ -0,0 +1,17 @@
+package cn.com.shadowless.blelib.metrics;
+
+import java.util.List;
+
+/**
+ * 周期统计回调
+ *
+ * @author sHadowLess
+ */
+public interface MetricsListener {
+    /**
+     * On metrics.
+     *
+     * @param snapshots 各连接的统计快照
+     */
+    void onMetrics(List<MetricsSnapshot> snapshots);
+}
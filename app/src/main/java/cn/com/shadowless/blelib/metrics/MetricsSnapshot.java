@@ -0,0 +1,196 @@
+package cn.com.shadowless.blelib.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 连接统计快照
+ *
+ * @author sHadowLess
+ */
+public class MetricsSnapshot {
+
+    /**
+     * 设备地址
+     */
+    private final String address;
+
+    /**
+     * 快照时间
+     */
+    private final long time;
+
+    /**
+     * 接收字节
+     */
+    private final long bytesIn;
+
+    /**
+     * 发送字节
+     */
+    private final long bytesOut;
+
+    /**
+     * 接收包数
+     */
+    private final long packetsIn;
+
+    /**
+     * 发送包数
+     */
+    private final long packetsOut;
+
+    /**
+     * 各类型操作数，下标为ConnectionMetrics.OP_*
+     */
+    private final long[] operations;
+
+    /**
+     * 失败数，key为GATT状态码，回调超时为{@link ConnectionMetrics#STATUS_TIMEOUT}
+     */
+    private final Map<Integer, Long> failures;
+
+    /**
+     * 队列深度
+     */
+    private final int queueDepth;
+
+    /**
+     * 写入到确认的延迟
+     */
+    private final HistogramSnapshot writeLatency;
+
+    /**
+     * 连接延迟
+     */
+    private final HistogramSnapshot connectLatency;
+
+    /**
+     * Instantiates a new Metrics snapshot.
+     *
+     * @param address        the address
+     * @param time           the time
+     * @param bytesIn        the bytes in
+     * @param bytesOut       the bytes out
+     * @param packetsIn      the packets in
+     * @param packetsOut     the packets out
+     * @param operations     the operations
+     * @param failures       the failures
+     * @param queueDepth     the queue depth
+     * @param writeLatency   the write latency
+     * @param connectLatency the connect latency
+     */
+    MetricsSnapshot(String address, long time, long bytesIn, long bytesOut, long packetsIn, long packetsOut, long[] operations, Map<Integer, Long> failures, int queueDepth, HistogramSnapshot writeLatency, HistogramSnapshot connectLatency) {
+        this.address = address;
+        this.time = time;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.packetsIn = packetsIn;
+        this.packetsOut = packetsOut;
+        this.operations = operations;
+        this.failures = Collections.unmodifiableMap(failures);
+        this.queueDepth = queueDepth;
+        this.writeLatency = writeLatency;
+        this.connectLatency = connectLatency;
+    }
+
+    /**
+     * Gets address.
+     *
+     * @return the address
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Gets time.
+     *
+     * @return the time
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Gets bytes in.
+     *
+     * @return the bytes in
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * Gets bytes out.
+     *
+     * @return the bytes out
+     */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * Gets packets in.
+     *
+     * @return the packets in
+     */
+    public long getPacketsIn() {
+        return packetsIn;
+    }
+
+    /**
+     * Gets packets out.
+     *
+     * @return the packets out
+     */
+    public long getPacketsOut() {
+        return packetsOut;
+    }
+
+    /**
+     * 获取某类操作数
+     *
+     * @param type ConnectionMetrics.OP_*
+     * @return the operation count
+     */
+    public long getOperationCount(int type) {
+        return operations[type];
+    }
+
+    /**
+     * 失败数，key为GATT状态码，回调超时为{@link ConnectionMetrics#STATUS_TIMEOUT}
+     *
+     * @return the failures
+     */
+    public Map<Integer, Long> getFailures() {
+        return failures;
+    }
+
+    /**
+     * Gets queue depth.
+     *
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * Gets write latency.
+     *
+     * @return the write latency
+     */
+    public HistogramSnapshot getWriteLatency() {
+        return writeLatency;
+    }
+
+    /**
+     * Gets connect latency.
+     *
+     * @return the connect latency
+     */
+    public HistogramSnapshot getConnectLatency() {
+        return connectLatency;
+    }
+}
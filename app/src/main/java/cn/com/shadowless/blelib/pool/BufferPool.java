@@ -0,0 +1,134 @@
+package cn.com.shadowless.blelib.pool;
+
+import java.util.ArrayDeque;
+
+/**
+ * 字节数组池
+ * <p>
+ * 按2的幂分级缓存数组，借出的数组长度不小于申请长度，
+ * 超过最大级别的申请直接分配且不回收。
+ *
+ * @author sHadowLess
+ */
+public class BufferPool {
+
+    /**
+     * 最小级别，64字节
+     */
+    static final int MIN_SHIFT = 6;
+
+    /**
+     * 默认最大级别，64KB
+     */
+    private static final int DEFAULT_MAX_SHIFT = 16;
+
+    /**
+     * 默认每级缓存数量
+     */
+    private static final int DEFAULT_MAX_PER_CLASS = 8;
+
+    /**
+     * 最大级别
+     */
+    private final int maxShift;
+
+    /**
+     * 每级缓存数量
+     */
+    private final int maxPerClass;
+
+    /**
+     * 各级缓存
+     */
+    private final ArrayDeque<byte[]>[] classes;
+
+    /**
+     * Instantiates a new Buffer pool.
+     */
+    public BufferPool() {
+        this(1 << DEFAULT_MAX_SHIFT, DEFAULT_MAX_PER_CLASS);
+    }
+
+    /**
+     * Instantiates a new Buffer pool.
+     *
+     * @param maxBufferSize the max buffer size
+     * @param maxPerClass   the max per class
+     */
+    public BufferPool(int maxBufferSize, int maxPerClass) {
+        if (maxBufferSize < 1 << MIN_SHIFT || maxPerClass <= 0) {
+            throw new IllegalArgumentException("缓存大小不能小于" + (1 << MIN_SHIFT) + "且每级数量必须大于0");
+        }
+        this.maxShift = shiftFor(maxBufferSize);
+        this.maxPerClass = maxPerClass;
+        @SuppressWarnings("unchecked")
+        ArrayDeque<byte[]>[] created = (ArrayDeque<byte[]>[]) new ArrayDeque<?>[maxShift - MIN_SHIFT + 1];
+        this.classes = created;
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new ArrayDeque<>(maxPerClass);
+        }
+    }
+
+    /**
+     * 借出数组
+     *
+     * @param minSize 最小长度
+     * @return the byte [ ]
+     */
+    public byte[] acquire(int minSize) {
+        int shift = shiftFor(minSize);
+        if (shift > maxShift) {
+            return new byte[minSize];
+        }
+        ArrayDeque<byte[]> deque = classes[shift - MIN_SHIFT];
+        byte[] buffer;
+        synchronized (deque) {
+            buffer = deque.poll();
+        }
+        return buffer == null ? new byte[1 << shift] : buffer;
+    }
+
+    /**
+     * 归还数组，非本池级别的数组直接丢弃
+     *
+     * @param buffer the buffer
+     */
+    public void release(byte[] buffer) {
+        int length = buffer.length;
+        if (Integer.bitCount(length) != 1) {
+            return;
+        }
+        int shift = Integer.numberOfTrailingZeros(length);
+        if (shift < MIN_SHIFT || shift > maxShift) {
+            return;
+        }
+        ArrayDeque<byte[]> deque = classes[shift - MIN_SHIFT];
+        synchronized (deque) {
+            if (deque.size() < maxPerClass) {
+                deque.offer(buffer);
+            }
+        }
+    }
+
+    /**
+     * 不超过该级别的最大数组长度
+     *
+     * @return the max buffer size
+     */
+    public int getMaxBufferSize() {
+        return 1 << maxShift;
+    }
+
+    /**
+     * 计算容纳指定长度所需的级别
+     *
+     * @param size the size
+     * @return the int
+     */
+    static int shiftFor(int size) {
+        if (size <= 1 << MIN_SHIFT) {
+            return MIN_SHIFT;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+}
@@ -0,0 +1,114 @@
+package cn.com.shadowless.blelib.pool;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 池化缓冲
+ * <p>
+ * 由{@link PooledBufferPool}借出，使用完毕必须调用{@link #release()}归还，
+ * 归还后不能再访问其中的数据。
+ *
+ * @author sHadowLess
+ */
+public final class PooledBuffer {
+
+    /**
+     * 所属池，为null时不回收
+     */
+    private final PooledBufferPool pool;
+
+    /**
+     * 底层数组
+     */
+    private final byte[] array;
+
+    /**
+     * 底层数组的视图
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * 有效长度
+     */
+    private int length;
+
+    /**
+     * 是否已归还
+     */
+    private boolean released;
+
+    /**
+     * Instantiates a new Pooled buffer.
+     *
+     * @param pool     the pool
+     * @param capacity the capacity
+     */
+    PooledBuffer(PooledBufferPool pool, int capacity) {
+        this.pool = pool;
+        this.array = new byte[capacity];
+        this.buffer = ByteBuffer.wrap(array);
+    }
+
+    /**
+     * 借出时重置
+     *
+     * @param length the length
+     */
+    synchronized void reset(int length) {
+        this.length = length;
+        this.released = false;
+    }
+
+    /**
+     * 数据视图，position为0，limit为有效长度
+     *
+     * @return the byte buffer
+     */
+    public ByteBuffer buffer() {
+        buffer.clear();
+        buffer.limit(length);
+        return buffer;
+    }
+
+    /**
+     * 底层数组，有效数据为[0, length)
+     *
+     * @return the byte [ ]
+     */
+    public byte[] array() {
+        return array;
+    }
+
+    /**
+     * 有效长度
+     *
+     * @return the int
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * 底层数组容量
+     *
+     * @return the int
+     */
+    public int capacity() {
+        return array.length;
+    }
+
+    /**
+     * 归还，重复归还会被忽略
+     */
+    public void release() {
+        synchronized (this) {
+            if (released) {
+                return;
+            }
+            released = true;
+        }
+        if (pool != null) {
+            pool.recycle(this);
+        }
+    }
+}
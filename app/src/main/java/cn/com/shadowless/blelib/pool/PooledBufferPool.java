@@ -0,0 +1,124 @@
+package cn.com.shadowless.blelib.pool;
+
+import java.util.ArrayDeque;
+
+/**
+ * 池化缓冲池
+ * <p>
+ * 按2的幂分级缓存{@link PooledBuffer}，缓冲与其数组、视图一起复用，
+ * 稳定运行时借出与归还都不产生新对象。
+ *
+ * @author sHadowLess
+ */
+public class PooledBufferPool {
+
+    /**
+     * 默认最大缓冲，64KB
+     */
+    private static final int DEFAULT_MAX_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * 默认每级缓存数量
+     */
+    private static final int DEFAULT_MAX_PER_CLASS = 32;
+
+    /**
+     * 最大级别
+     */
+    private final int maxShift;
+
+    /**
+     * 每级缓存数量
+     */
+    private final int maxPerClass;
+
+    /**
+     * 各级缓存
+     */
+    private final ArrayDeque<PooledBuffer>[] classes;
+
+    /**
+     * Instantiates a new Pooled buffer pool.
+     */
+    public PooledBufferPool() {
+        this(DEFAULT_MAX_BUFFER_SIZE, DEFAULT_MAX_PER_CLASS);
+    }
+
+    /**
+     * Instantiates a new Pooled buffer pool.
+     *
+     * @param maxBufferSize the max buffer size
+     * @param maxPerClass   the max per class
+     */
+    public PooledBufferPool(int maxBufferSize, int maxPerClass) {
+        if (maxBufferSize < 1 << BufferPool.MIN_SHIFT || maxPerClass <= 0) {
+            throw new IllegalArgumentException("缓存大小不能小于" + (1 << BufferPool.MIN_SHIFT) + "且每级数量必须大于0");
+        }
+        this.maxShift = BufferPool.shiftFor(maxBufferSize);
+        this.maxPerClass = maxPerClass;
+        @SuppressWarnings("unchecked")
+        ArrayDeque<PooledBuffer>[] created = (ArrayDeque<PooledBuffer>[]) new ArrayDeque<?>[maxShift - BufferPool.MIN_SHIFT + 1];
+        this.classes = created;
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new ArrayDeque<>(maxPerClass);
+        }
+    }
+
+    /**
+     * 借出缓冲
+     *
+     * @param length 有效长度
+     * @return the pooled buffer
+     */
+    public PooledBuffer acquire(int length) {
+        int shift = BufferPool.shiftFor(length);
+        PooledBuffer buffer = null;
+        if (shift > maxShift) {
+            buffer = new PooledBuffer(null, length);
+        } else {
+            ArrayDeque<PooledBuffer> deque = classes[shift - BufferPool.MIN_SHIFT];
+            synchronized (deque) {
+                buffer = deque.poll();
+            }
+            if (buffer == null) {
+                buffer = new PooledBuffer(this, 1 << shift);
+            }
+        }
+        buffer.reset(length);
+        return buffer;
+    }
+
+    /**
+     * 借出缓冲并拷贝数据
+     *
+     * @param src    the src
+     * @param offset the offset
+     * @param length the length
+     * @return the pooled buffer
+     */
+    public PooledBuffer copyOf(byte[] src, int offset, int length) {
+        PooledBuffer buffer = acquire(length);
+        if (length > 0) {
+            System.arraycopy(src, offset, buffer.array(), 0, length);
+        }
+        return buffer;
+    }
+
+    /**
+     * 归还缓冲
+     *
+     * @param buffer the buffer
+     */
+    void recycle(PooledBuffer buffer) {
+        int shift = Integer.numberOfTrailingZeros(buffer.capacity());
+        if (shift > maxShift) {
+            return;
+        }
+        ArrayDeque<PooledBuffer> deque = classes[shift - BufferPool.MIN_SHIFT];
+        synchronized (deque) {
+            if (deque.size() < maxPerClass) {
+                deque.offer(buffer);
+            }
+        }
+    }
+}
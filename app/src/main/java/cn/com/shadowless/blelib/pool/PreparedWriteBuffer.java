@@ -0,0 +1,123 @@
+package cn.com.shadowless.blelib.pool;
+
+import java.util.Arrays;
+
+/**
+ * 长写入缓冲
+ * <p>
+ * 按偏移量拼接准备写入的分片，执行写入时提交为一段连续数据，取消时丢弃，
+ * 底层数组从{@link BufferPool}借出，提交或取消后归还。非线程安全。
+ *
+ * @author sHadowLess
+ */
+public class PreparedWriteBuffer {
+
+    /**
+     * 数组池
+     */
+    private final BufferPool pool;
+
+    /**
+     * 允许的最大长度
+     */
+    private final int maxLength;
+
+    /**
+     * 当前数组
+     */
+    private byte[] buffer;
+
+    /**
+     * 已写入的最大长度
+     */
+    private int length;
+
+    /**
+     * Instantiates a new Prepared write buffer.
+     *
+     * @param pool      the pool
+     * @param maxLength the max length
+     */
+    public PreparedWriteBuffer(BufferPool pool, int maxLength) {
+        this.pool = pool;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * 写入分片
+     *
+     * @param offset the offset
+     * @param value  the value
+     * @return 偏移量越界或总长度超限时返回false
+     */
+    public boolean write(int offset, byte[] value) {
+        if (offset < 0 || offset > length) {
+            return false;
+        }
+        int end = offset + value.length;
+        if (end > maxLength) {
+            return false;
+        }
+        ensureCapacity(end);
+        System.arraycopy(value, 0, buffer, offset, value.length);
+        length = Math.max(length, end);
+        return true;
+    }
+
+    /**
+     * 提交，返回拼接后的连续数据并归还数组
+     *
+     * @return the byte [ ]
+     */
+    public byte[] commit() {
+        byte[] data = buffer == null ? new byte[0] : Arrays.copyOf(buffer, length);
+        cancel();
+        return data;
+    }
+
+    /**
+     * 取消，丢弃已写入的数据并归还数组
+     */
+    public void cancel() {
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+        }
+        length = 0;
+    }
+
+    /**
+     * 已写入的长度
+     *
+     * @return the int
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * 当前数组，有效长度为{@link #length()}
+     *
+     * @return the byte [ ]
+     */
+    public byte[] array() {
+        return buffer;
+    }
+
+    /**
+     * 扩容
+     *
+     * @param size the size
+     */
+    private void ensureCapacity(int size) {
+        if (buffer != null && buffer.length >= size) {
+            return;
+        }
+        byte[] grown = pool.acquire(size);
+        if (buffer != null) {
+            System.arraycopy(buffer, 0, grown, 0, length);
+            pool.release(buffer);
+        }
+        buffer = grown;
+    }
+}
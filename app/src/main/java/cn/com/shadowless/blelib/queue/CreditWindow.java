@@ -0,0 +1,163 @@
+package cn.com.shadowless.blelib.queue;
+
+/**
+ * 信用窗口
+ * <p>
+ * 限制同时交给协议栈的无响应写入数量，每次写入回调归还一个信用；
+ * 一个窗口内全部成功则窗口加一，出现丢包则窗口减半。
+ *
+ * @author sHadowLess
+ */
+public class CreditWindow {
+
+    /**
+     * 默认初始窗口
+     */
+    public static final int DEFAULT_INITIAL_WINDOW = 4;
+
+    /**
+     * 默认最大窗口
+     */
+    public static final int DEFAULT_MAX_WINDOW = 32;
+
+    /**
+     * 最小窗口
+     */
+    private final int minWindow;
+
+    /**
+     * 最大窗口
+     */
+    private final int maxWindow;
+
+    /**
+     * 初始窗口
+     */
+    private final int initialWindow;
+
+    /**
+     * 当前窗口
+     */
+    private int window;
+
+    /**
+     * 已借出的信用
+     */
+    private int inFlight;
+
+    /**
+     * 当前窗口内连续成功数
+     */
+    private int successCount;
+
+    /**
+     * 丢包数
+     */
+    private long dropCount;
+
+    /**
+     * Instantiates a new Credit window.
+     */
+    public CreditWindow() {
+        this(1, DEFAULT_INITIAL_WINDOW, DEFAULT_MAX_WINDOW);
+    }
+
+    /**
+     * Instantiates a new Credit window.
+     *
+     * @param minWindow     the min window
+     * @param initialWindow the initial window
+     * @param maxWindow     the max window
+     */
+    public CreditWindow(int minWindow, int initialWindow, int maxWindow) {
+        if (minWindow <= 0 || initialWindow < minWindow || maxWindow < initialWindow) {
+            throw new IllegalArgumentException("窗口大小需满足 0 < min <= initial <= max");
+        }
+        this.minWindow = minWindow;
+        this.initialWindow = initialWindow;
+        this.maxWindow = maxWindow;
+        this.window = initialWindow;
+    }
+
+    /**
+     * 借出一个信用
+     *
+     * @return 是否借出成功
+     */
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= window) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * 归还信用，写入成功
+     */
+    public synchronized void release() {
+        if (inFlight > 0) {
+            inFlight--;
+        }
+        if (++successCount >= window) {
+            successCount = 0;
+            if (window < maxWindow) {
+                window++;
+            }
+        }
+    }
+
+    /**
+     * 归还信用，不计入成功也不计入丢包，用于未能交给队列的写入
+     */
+    public synchronized void cancel() {
+        if (inFlight > 0) {
+            inFlight--;
+        }
+    }
+
+    /**
+     * 记录一次丢包，窗口减半
+     */
+    public synchronized void drop() {
+        dropCount++;
+        successCount = 0;
+        window = Math.max(minWindow, window / 2);
+    }
+
+    /**
+     * Gets window.
+     *
+     * @return the window
+     */
+    public synchronized int getWindow() {
+        return window;
+    }
+
+    /**
+     * Gets in flight.
+     *
+     * @return the in flight
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Gets drop count.
+     *
+     * @return the drop count
+     */
+    public synchronized long getDropCount() {
+        return dropCount;
+    }
+
+    /**
+     * 重置为初始窗口
+     */
+    public synchronized void reset() {
+        window = initialWindow;
+        inFlight = 0;
+        successCount = 0;
+    }
+}
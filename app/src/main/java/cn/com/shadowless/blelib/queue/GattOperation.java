@@ -0,0 +1,94 @@
+package cn.com.shadowless.blelib.queue;
+
+/**
+ * GATT操作
+ * <p>
+ * 由{@link GattOperationQueue}串行执行，异步操作在对应回调到达后才会执行下一个。
+ *
+ * @author sHadowLess
+ */
+public abstract class GattOperation {
+
+    /**
+     * 同步操作，执行后立即执行下一个
+     */
+    public static final int TYPE_SYNC = 0;
+
+    /**
+     * 写特征值，对应onCharacteristicWrite
+     */
+    public static final int TYPE_WRITE = 1;
+
+    /**
+     * 读特征值，对应onCharacteristicRead
+     */
+    public static final int TYPE_READ = 2;
+
+    /**
+     * 写描述符，对应onDescriptorWrite
+     */
+    public static final int TYPE_DESCRIPTOR_WRITE = 3;
+
+    /**
+     * 请求MTU，对应onMtuChanged
+     */
+    public static final int TYPE_MTU = 4;
+
+    /**
+     * 发现服务，对应onServicesDiscovered
+     */
+    public static final int TYPE_DISCOVER = 5;
+
+    /**
+     * 回调未在期限内到达，操作以此状态结束
+     */
+    public static final int STATUS_TIMEOUT = -1;
+
+    /**
+     * 操作类型
+     */
+    private final int type;
+
+    /**
+     * Instantiates a new Gatt operation.
+     *
+     * @param type the type
+     */
+    protected GattOperation(int type) {
+        this.type = type;
+    }
+
+    /**
+     * Gets type.
+     *
+     * @return the type
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * 执行操作
+     *
+     * @return 是否成功提交到协议栈
+     */
+    public abstract boolean execute();
+
+    /**
+     * 对应回调到达或超时时回调
+     *
+     * @param status the status
+     */
+    protected void onComplete(int status) {
+
+    }
+
+    /**
+     * 提交到协议栈失败时回调
+     *
+     * @return 是否稍后重试，返回true时操作放回队首并暂停队列，由调用方择机恢复
+     */
+    protected boolean onFailure() {
+        return false;
+    }
+}
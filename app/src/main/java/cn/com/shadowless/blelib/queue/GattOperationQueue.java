@@ -0,0 +1,488 @@
+package cn.com.shadowless.blelib.queue;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import cn.com.shadowless.blelib.transport.Scheduler;
+
+/**
+ * GATT操作队列
+ * <p>
+ * 安卓同一连接同时只允许一个GATT操作在执行，队列保证前一个操作的回调到达后再执行下一个，
+ * 容量有限，队列满时由调用方决定丢弃或等待。
+ * 设置调度器后每个异步操作有执行期限，回调丢失时以{@link GattOperation#STATUS_TIMEOUT}结束并继续执行下一个。
+ * 回调只按类型匹配，超时操作的回调迟到时会被当作下一个同类型操作的结果，因此超时后丢弃该类型的第一个回调；
+ * 若被丢弃的其实是下一个操作自己的回调，该操作随后超时，此时不再丢弃，最多多等一个超时周期。
+ *
+ * @author sHadowLess
+ */
+public class GattOperationQueue {
+
+    /**
+     * 默认容量
+     */
+    public static final int DEFAULT_CAPACITY = 512;
+
+    /**
+     * 默认单个操作超时
+     */
+    public static final long DEFAULT_TIMEOUT = 10000;
+
+    /**
+     * 没有待丢弃的迟到回调
+     */
+    private static final int NO_LATE_TYPE = -1;
+
+    /**
+     * 等待中的操作
+     */
+    private final ArrayDeque<GattOperation> queue = new ArrayDeque<>();
+
+    /**
+     * 容量
+     */
+    private final int capacity;
+
+    /**
+     * 超时调度，为空不检查超时
+     */
+    private final Scheduler scheduler;
+
+    /**
+     * 单个操作超时
+     */
+    private final long timeoutMillis;
+
+    /**
+     * 正在执行的操作超时检查
+     */
+    private final Runnable timeoutTask = new Runnable() {
+        @Override
+        public void run() {
+            timeout();
+        }
+    };
+
+    /**
+     * 正在执行的操作的期限
+     */
+    private long deadline;
+
+    /**
+     * 超时次数
+     */
+    private int timeoutCount;
+
+    /**
+     * 最近超时操作的类型，该类型的下一个回调视为迟到回调丢弃
+     */
+    private int lateType = NO_LATE_TYPE;
+
+    /**
+     * 正在执行的操作期间是否丢弃过迟到回调
+     */
+    private boolean lateDropped;
+
+    /**
+     * 丢弃的迟到回调数
+     */
+    private int lateCount;
+
+    /**
+     * 超时监听
+     */
+    private volatile TimeoutListener timeoutListener;
+
+    /**
+     * 正在执行的操作
+     */
+    private GattOperation current;
+
+    /**
+     * 是否暂停
+     */
+    private boolean paused;
+
+    /**
+     * Instantiates a new Gatt operation queue.
+     */
+    public GattOperationQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Instantiates a new Gatt operation queue.
+     *
+     * @param capacity the capacity
+     */
+    public GattOperationQueue(int capacity) {
+        this(capacity, null, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Instantiates a new Gatt operation queue.
+     *
+     * @param capacity      the capacity
+     * @param scheduler     超时调度，为空不检查超时
+     * @param timeoutMillis 单个操作超时
+     */
+    public GattOperationQueue(int capacity, Scheduler scheduler, long timeoutMillis) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("队列容量必须大于0");
+        }
+        if (scheduler != null && timeoutMillis <= 0) {
+            throw new IllegalArgumentException("操作超时必须大于0");
+        }
+        this.capacity = capacity;
+        this.scheduler = scheduler;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * 入队，队列满时立即返回
+     *
+     * @param operation the operation
+     * @return 是否入队成功
+     */
+    public boolean offer(GattOperation operation) {
+        synchronized (queue) {
+            if (queue.size() >= capacity) {
+                return false;
+            }
+            queue.offer(operation);
+        }
+        next();
+        return true;
+    }
+
+    /**
+     * 插入队首，不受容量限制，用于连接建立阶段必须先于业务数据执行的操作
+     *
+     * @param operation the operation
+     */
+    public void offerFirst(GattOperation operation) {
+        synchronized (queue) {
+            queue.offerFirst(operation);
+        }
+        next();
+    }
+
+    /**
+     * 入队，队列满时等待
+     *
+     * @param operation the operation
+     * @param timeout   the timeout
+     * @param unit      the unit
+     * @return 是否入队成功
+     * @throws InterruptedException the interrupted exception
+     */
+    public boolean offer(GattOperation operation, long timeout, TimeUnit unit) throws InterruptedException {
+        synchronized (queue) {
+            if (!awaitSpace(1, unit.toNanos(timeout))) {
+                return false;
+            }
+            queue.offer(operation);
+        }
+        next();
+        return true;
+    }
+
+    /**
+     * 整体入队，剩余容量不足时立即返回
+     *
+     * @param operations the operations
+     * @return 是否入队成功
+     */
+    public boolean offerAll(Collection<? extends GattOperation> operations) {
+        synchronized (queue) {
+            if (queue.size() + operations.size() > capacity) {
+                return false;
+            }
+            queue.addAll(operations);
+        }
+        next();
+        return true;
+    }
+
+    /**
+     * 整体入队，剩余容量不足时等待
+     *
+     * @param operations the operations
+     * @param timeout    the timeout
+     * @param unit       the unit
+     * @return 是否入队成功
+     * @throws InterruptedException the interrupted exception
+     */
+    public boolean offerAll(Collection<? extends GattOperation> operations, long timeout, TimeUnit unit) throws InterruptedException {
+        if (operations.size() > capacity) {
+            throw new IllegalArgumentException("操作数量超过队列容量");
+        }
+        synchronized (queue) {
+            if (!awaitSpace(operations.size(), unit.toNanos(timeout))) {
+                return false;
+            }
+            queue.addAll(operations);
+        }
+        next();
+        return true;
+    }
+
+    /**
+     * 对应回调到达时调用，类型与正在执行的操作一致才会执行下一个
+     *
+     * @param type the type
+     */
+    public void complete(int type) {
+        complete(type, 0);
+    }
+
+    /**
+     * 对应回调到达时调用，类型与正在执行的操作一致才会执行下一个
+     *
+     * @param type   the type
+     * @param status the status
+     */
+    public void complete(int type, int status) {
+        GattOperation operation;
+        synchronized (queue) {
+            if (type == lateType) {
+                //超时操作的回调迟到，不能算作当前操作的结果
+                lateType = NO_LATE_TYPE;
+                lateDropped = true;
+                lateCount++;
+                return;
+            }
+            operation = current;
+            if (operation == null || operation.getType() != type) {
+                return;
+            }
+            current = null;
+            cancelTimeout();
+        }
+        operation.onComplete(status);
+        next();
+    }
+
+    /**
+     * 暂停队列，正在执行的操作不受影响，之后的操作等待{@link #resume()}
+     */
+    public void pause() {
+        synchronized (queue) {
+            paused = true;
+        }
+    }
+
+    /**
+     * 恢复暂停的队列
+     */
+    public void resume() {
+        synchronized (queue) {
+            if (!paused) {
+                return;
+            }
+            paused = false;
+        }
+        next();
+    }
+
+    /**
+     * 是否暂停
+     *
+     * @return the boolean
+     */
+    public boolean isPaused() {
+        synchronized (queue) {
+            return paused;
+        }
+    }
+
+    /**
+     * 等待执行的操作数
+     *
+     * @return the int
+     */
+    public int size() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * Gets capacity.
+     *
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 操作超时次数
+     *
+     * @return the timeout count
+     */
+    public int getTimeoutCount() {
+        synchronized (queue) {
+            return timeoutCount;
+        }
+    }
+
+    /**
+     * 丢弃的迟到回调数
+     *
+     * @return the late count
+     */
+    public int getLateCount() {
+        synchronized (queue) {
+            return lateCount;
+        }
+    }
+
+    /**
+     * 设置超时监听
+     *
+     * @param timeoutListener the timeout listener
+     */
+    public void setTimeoutListener(TimeoutListener timeoutListener) {
+        this.timeoutListener = timeoutListener;
+    }
+
+    /**
+     * 是否空闲
+     *
+     * @return the boolean
+     */
+    public boolean isIdle() {
+        synchronized (queue) {
+            return current == null && queue.isEmpty();
+        }
+    }
+
+    /**
+     * 清空队列，断开连接时调用
+     */
+    public void clear() {
+        synchronized (queue) {
+            queue.clear();
+            current = null;
+            cancelTimeout();
+            paused = false;
+            lateType = NO_LATE_TYPE;
+            queue.notifyAll();
+        }
+    }
+
+    /**
+     * 等待剩余容量，调用方需持有锁
+     *
+     * @param count the count
+     * @param nanos the nanos
+     * @return 是否有足够容量
+     * @throws InterruptedException the interrupted exception
+     */
+    private boolean awaitSpace(int count, long nanos) throws InterruptedException {
+        long deadline = System.nanoTime() + nanos;
+        while (queue.size() + count > capacity) {
+            if (nanos <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(queue, nanos);
+            nanos = deadline - System.nanoTime();
+        }
+        return true;
+    }
+
+    /**
+     * 正在执行的操作到期，以超时结束并执行下一个
+     */
+    private void timeout() {
+        GattOperation operation;
+        synchronized (queue) {
+            operation = current;
+            if (operation == null) {
+                return;
+            }
+            long remain = deadline - scheduler.now();
+            if (remain > 0) {
+                //取消前已取出的过期检查，按当前操作的期限重新计时
+                scheduler.schedule(timeoutTask, remain);
+                return;
+            }
+            current = null;
+            timeoutCount++;
+            //期间丢弃过的回调多半就是本操作的，不再丢弃下一个
+            lateType = lateDropped ? NO_LATE_TYPE : operation.getType();
+        }
+        TimeoutListener listener = timeoutListener;
+        if (listener != null) {
+            listener.onTimeout(operation);
+        }
+        operation.onComplete(GattOperation.STATUS_TIMEOUT);
+        next();
+    }
+
+    /**
+     * 取消超时检查，调用方需持有锁
+     */
+    private void cancelTimeout() {
+        if (scheduler != null) {
+            scheduler.cancel(timeoutTask);
+        }
+    }
+
+    /**
+     * 执行下一个操作，提交失败或同步操作会继续执行后续操作
+     */
+    private void next() {
+        while (true) {
+            GattOperation operation;
+            synchronized (queue) {
+                if (current != null || paused) {
+                    return;
+                }
+                operation = queue.poll();
+                if (operation == null) {
+                    return;
+                }
+                current = operation;
+                lateDropped = false;
+                if (scheduler != null && operation.getType() != GattOperation.TYPE_SYNC) {
+                    deadline = scheduler.now() + timeoutMillis;
+                    scheduler.schedule(timeoutTask, timeoutMillis);
+                }
+                queue.notifyAll();
+            }
+            boolean success = operation.execute();
+            if (success && operation.getType() != GattOperation.TYPE_SYNC) {
+                return;
+            }
+            synchronized (queue) {
+                if (current != operation) {
+                    return;
+                }
+                current = null;
+                cancelTimeout();
+            }
+            if (!success && operation.onFailure()) {
+                synchronized (queue) {
+                    queue.offerFirst(operation);
+                    paused = true;
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * 超时监听
+     */
+    public interface TimeoutListener {
+        /**
+         * 操作超时，在结束该操作前回调
+         *
+         * @param operation the operation
+         */
+        void onTimeout(GattOperation operation);
+    }
+}
@@ -0,0 +1,492 @@
+package cn.com.shadowless.blelib.queue;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import cn.com.shadowless.blelib.transport.Scheduler;
+
+/**
+ * 通知分发
+ * <p>
+ * 每个设备一个独立的有界发送队列，同一设备同时只有一个通知在途，
+ * 发送回调到达后才发送下一个，慢设备只会积压自己的队列，不影响其他设备。
+ * 队列按消息存放，队列满时整条丢弃最旧且尚未开始发送的消息，不会拆散分包；
+ * 提交到协议栈失败的通知保留，在下一个发送回调到达或再次入队时重发。
+ * 提供调度时提交失败的通知还会延时重发，在途通知超时未收到发送回调按失败处理并继续发送，
+ * 之后迟到的回调丢弃一次，避免一个丢失的回调让设备永远停止发送。
+ *
+ * @param <K> 设备类型
+ * @author sHadowLess
+ */
+public class NotifyFanOut<K> {
+
+    /**
+     * 默认每个设备的队列容量
+     */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    /**
+     * 默认在途通知等待发送回调的超时，毫秒
+     */
+    public static final long DEFAULT_TIMEOUT = 1000;
+
+    /**
+     * 提交失败后延时重发的间隔，毫秒
+     */
+    private static final long RETRY_DELAY = 10;
+
+    /**
+     * 发送者
+     *
+     * @param <K> 设备类型
+     */
+    public interface Sender<K> {
+        /**
+         * 发送一个通知
+         *
+         * @param device the device
+         * @param data   the data
+         * @return 是否成功提交到协议栈，返回false时稍后重发同一数据
+         */
+        boolean send(K device, byte[] data);
+    }
+
+    /**
+     * 单个设备的发送通道
+     */
+    private static class Channel {
+
+        /**
+         * 待发送消息，每条消息由一个或多个分包组成
+         */
+        private final ArrayDeque<byte[][]> queue = new ArrayDeque<>();
+
+        /**
+         * 队首消息下一个要发送的分包
+         */
+        private int cursor;
+
+        /**
+         * 待发送分包数
+         */
+        private int size;
+
+        /**
+         * 提交失败等待重发的分包
+         */
+        private byte[] retry;
+
+        /**
+         * 是否有通知在途
+         */
+        private boolean inFlight;
+
+        /**
+         * 在途通知超时后，下一个到达的发送回调是迟到的，需要丢弃
+         */
+        private boolean late;
+
+        /**
+         * 当前在途通知发出后已丢弃过迟到回调，再超时不再等待迟到回调，避免连续错配
+         */
+        private boolean lateDropped;
+
+        /**
+         * 延时重发与在途超时共用的任务
+         */
+        private Runnable timer;
+
+        /**
+         * 已送达数
+         */
+        private long deliveredCount;
+
+        /**
+         * 队列满被丢弃的分包数
+         */
+        private long droppedCount;
+
+        /**
+         * 发送失败数，包含提交失败后重发与在途超时的次数
+         */
+        private long failedCount;
+
+        /**
+         * 取出下一个待发送的分包，调用方需持有锁
+         *
+         * @return 没有待发送数据返回null
+         */
+        private byte[] take() {
+            byte[][] head = queue.peek();
+            if (head == null) {
+                return null;
+            }
+            byte[] data = head[cursor++];
+            size--;
+            if (cursor == head.length) {
+                queue.poll();
+                cursor = 0;
+            }
+            return data;
+        }
+
+        /**
+         * 丢弃最旧的一条尚未开始发送的消息，调用方需持有锁
+         *
+         * @return 是否有可丢弃的消息
+         */
+        private boolean evict() {
+            Iterator<byte[][]> iterator = queue.iterator();
+            if (cursor > 0) {
+                //队首消息已发出部分分包，丢弃会让对端重组失败
+                iterator.next();
+            }
+            if (!iterator.hasNext()) {
+                return false;
+            }
+            byte[][] message = iterator.next();
+            iterator.remove();
+            size -= message.length;
+            droppedCount += message.length;
+            return true;
+        }
+    }
+
+    /**
+     * 发送者
+     */
+    private final Sender<K> sender;
+
+    /**
+     * 每个设备的队列容量
+     */
+    private final int capacity;
+
+    /**
+     * 各设备的发送通道
+     */
+    private final ConcurrentHashMap<K, Channel> channels = new ConcurrentHashMap<>();
+
+    /**
+     * 延时重发与在途超时的调度，为空时只在发送回调到达或再次入队时重发
+     */
+    private final Scheduler scheduler;
+
+    /**
+     * 在途通知超时，毫秒
+     */
+    private final long timeout;
+
+    /**
+     * Instantiates a new Notify fan out.
+     *
+     * @param sender the sender
+     */
+    public NotifyFanOut(Sender<K> sender) {
+        this(sender, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Instantiates a new Notify fan out.
+     *
+     * @param sender   the sender
+     * @param capacity the capacity
+     */
+    public NotifyFanOut(Sender<K> sender, int capacity) {
+        this(sender, capacity, null, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Instantiates a new Notify fan out.
+     *
+     * @param sender        the sender
+     * @param capacity      the capacity
+     * @param scheduler     延时重发与在途超时的调度，为空时不启用
+     * @param timeoutMillis 在途通知等待发送回调的超时，毫秒
+     */
+    public NotifyFanOut(Sender<K> sender, int capacity, Scheduler scheduler, long timeoutMillis) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("队列容量必须大于0");
+        }
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("超时必须大于0");
+        }
+        this.sender = sender;
+        this.capacity = capacity;
+        this.scheduler = scheduler;
+        this.timeout = timeoutMillis;
+    }
+
+    /**
+     * 入队，队列满时整条丢弃最旧的消息
+     *
+     * @param device the device
+     * @param data   the data
+     * @return 是否没有丢弃数据
+     */
+    public boolean offer(K device, byte[] data) {
+        Channel channel = getChannel(device);
+        boolean dropped = false;
+        synchronized (channel) {
+            while (channel.size >= capacity && channel.evict()) {
+                dropped = true;
+            }
+            channel.queue.offer(new byte[][]{data});
+            channel.size++;
+        }
+        pump(device, channel);
+        return !dropped;
+    }
+
+    /**
+     * 整体入队，剩余容量不足时整体丢弃，用于不能拆散的分包
+     *
+     * @param device the device
+     * @param chunks the chunks
+     * @return 是否入队成功
+     */
+    public boolean offerAll(K device, Collection<byte[]> chunks) {
+        Channel channel = getChannel(device);
+        synchronized (channel) {
+            if (channel.size + chunks.size() > Math.max(capacity, chunks.size())) {
+                channel.droppedCount += chunks.size();
+                return false;
+            }
+            if (!chunks.isEmpty()) {
+                channel.queue.offer(chunks.toArray(new byte[chunks.size()][]));
+                channel.size += chunks.size();
+            }
+        }
+        pump(device, channel);
+        return true;
+    }
+
+    /**
+     * 发送回调到达时调用，同时重发各设备提交失败的通知
+     *
+     * @param device  the device
+     * @param success the success
+     */
+    public void onSent(K device, boolean success) {
+        Channel channel = channels.get(device);
+        if (channel == null) {
+            return;
+        }
+        synchronized (channel) {
+            if (channel.late) {
+                //超时通知的迟到回调
+                channel.late = false;
+                channel.lateDropped = true;
+                return;
+            }
+            if (!channel.inFlight) {
+                return;
+            }
+            channel.inFlight = false;
+            if (success) {
+                channel.deliveredCount++;
+            } else {
+                channel.failedCount++;
+            }
+        }
+        if (scheduler != null) {
+            scheduler.cancel(channel.timer);
+        }
+        pump(device, channel);
+        retryStalled(device);
+    }
+
+    /**
+     * 移除设备，断开连接时调用
+     *
+     * @param device the device
+     */
+    public void remove(K device) {
+        Channel channel = channels.remove(device);
+        if (channel != null && scheduler != null) {
+            scheduler.cancel(channel.timer);
+        }
+    }
+
+    /**
+     * 清空全部设备
+     */
+    public void clear() {
+        for (K device : channels.keySet()) {
+            remove(device);
+        }
+    }
+
+    /**
+     * 获取设备待发送数
+     *
+     * @param device the device
+     * @return the int
+     */
+    public int size(K device) {
+        Channel channel = channels.get(device);
+        if (channel == null) {
+            return 0;
+        }
+        synchronized (channel) {
+            return channel.size + (channel.retry == null ? 0 : 1);
+        }
+    }
+
+    /**
+     * 获取设备已送达数
+     *
+     * @param device the device
+     * @return the delivered count
+     */
+    public long getDeliveredCount(K device) {
+        Channel channel = channels.get(device);
+        if (channel == null) {
+            return 0;
+        }
+        synchronized (channel) {
+            return channel.deliveredCount;
+        }
+    }
+
+    /**
+     * 获取设备因队列满被丢弃数
+     *
+     * @param device the device
+     * @return the dropped count
+     */
+    public long getDroppedCount(K device) {
+        Channel channel = channels.get(device);
+        if (channel == null) {
+            return 0;
+        }
+        synchronized (channel) {
+            return channel.droppedCount;
+        }
+    }
+
+    /**
+     * 获取设备发送失败数
+     *
+     * @param device the device
+     * @return the failed count
+     */
+    public long getFailedCount(K device) {
+        Channel channel = channels.get(device);
+        if (channel == null) {
+            return 0;
+        }
+        synchronized (channel) {
+            return channel.failedCount;
+        }
+    }
+
+    /**
+     * Gets channel.
+     *
+     * @param device the device
+     * @return the channel
+     */
+    private Channel getChannel(final K device) {
+        Channel channel = channels.get(device);
+        if (channel == null) {
+            final Channel created = new Channel();
+            created.timer = new Runnable() {
+                @Override
+                public void run() {
+                    expire(device, created);
+                }
+            };
+            channel = created;
+            Channel exist = channels.putIfAbsent(device, channel);
+            if (exist != null) {
+                channel = exist;
+            }
+        }
+        return channel;
+    }
+
+    /**
+     * 协议栈忙通常由其他设备的在途通知引起，任一发送回调到达后重发其他设备提交失败的通知
+     *
+     * @param sent 刚收到发送回调的设备
+     */
+    private void retryStalled(K sent) {
+        for (Map.Entry<K, Channel> entry : channels.entrySet()) {
+            if (entry.getKey().equals(sent)) {
+                continue;
+            }
+            Channel channel = entry.getValue();
+            boolean stalled;
+            synchronized (channel) {
+                stalled = channel.retry != null && !channel.inFlight;
+            }
+            if (stalled) {
+                pump(entry.getKey(), channel);
+            }
+        }
+    }
+
+    /**
+     * 调度任务到期，在途通知超时按失败处理，之后发送下一个或重发提交失败的数据
+     *
+     * @param device  the device
+     * @param channel the channel
+     */
+    private void expire(K device, Channel channel) {
+        if (channels.get(device) != channel) {
+            return;
+        }
+        synchronized (channel) {
+            if (channel.inFlight) {
+                channel.inFlight = false;
+                channel.failedCount++;
+                channel.late = !channel.lateDropped;
+            }
+        }
+        pump(device, channel);
+    }
+
+    /**
+     * 没有通知在途时发送下一个，优先重发提交失败的数据，再次提交失败时保留等待下次重发
+     *
+     * @param device  the device
+     * @param channel the channel
+     */
+    private void pump(K device, Channel channel) {
+        byte[] data;
+        synchronized (channel) {
+            if (channel.inFlight) {
+                return;
+            }
+            data = channel.retry;
+            channel.retry = null;
+            if (data == null) {
+                data = channel.take();
+                if (data == null) {
+                    return;
+                }
+            }
+            channel.inFlight = true;
+            channel.lateDropped = false;
+        }
+        if (scheduler != null) {
+            //先于提交计时，回调可能在提交返回前到达
+            scheduler.schedule(channel.timer, timeout);
+        }
+        if (sender.send(device, data)) {
+            return;
+        }
+        synchronized (channel) {
+            channel.inFlight = false;
+            channel.failedCount++;
+            channel.retry = data;
+        }
+        if (scheduler != null) {
+            scheduler.schedule(channel.timer, RETRY_DELAY);
+        }
+    }
+}
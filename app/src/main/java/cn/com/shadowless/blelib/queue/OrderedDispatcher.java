@@ -0,0 +1,210 @@
+package cn.com.shadowless.blelib.queue;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 回调分发
+ * <p>
+ * 同一键(通常为设备地址)的任务按提交顺序串行执行，不同键的任务在线程池上并行执行，
+ * 一个设备的回调处理慢只会积压自己的任务，不影响其他设备，也不占用蓝牙回调线程。
+ * 未设置线程池时任务在提交线程上直接执行。
+ * 任务抛出的异常与线程池拒绝执行都交给{@link ErrorListener}，不会中断后续任务或抛给提交线程。
+ *
+ * @author sHadowLess
+ */
+public class OrderedDispatcher {
+
+    /**
+     * 单个键连续执行的任务数上限，达到后重新提交，让出线程给其他键
+     */
+    private static final int BATCH = 64;
+
+    /**
+     * 线程池，为空时直接执行
+     */
+    private final Executor executor;
+
+    /**
+     * 异常监听，为空时忽略
+     */
+    private final ErrorListener errorListener;
+
+    /**
+     * 有待执行任务的键
+     */
+    private final Map<Object, Stripe> stripes = new HashMap<>();
+
+    /**
+     * Instantiates a new Ordered dispatcher.
+     *
+     * @param executor 线程池，为空时在提交线程上直接执行
+     */
+    public OrderedDispatcher(Executor executor) {
+        this(executor, null);
+    }
+
+    /**
+     * Instantiates a new Ordered dispatcher.
+     *
+     * @param executor      线程池，为空时在提交线程上直接执行
+     * @param errorListener 异常监听，为空时忽略
+     */
+    public OrderedDispatcher(Executor executor, ErrorListener errorListener) {
+        this.executor = executor;
+        this.errorListener = errorListener;
+    }
+
+    /**
+     * 提交任务，同一键的任务按提交顺序执行
+     *
+     * @param key  the key
+     * @param task the task
+     */
+    public void execute(Object key, Runnable task) {
+        if (executor == null) {
+            task.run();
+            return;
+        }
+        Stripe stripe;
+        synchronized (this) {
+            stripe = stripes.get(key);
+            if (stripe != null) {
+                stripe.tasks.add(task);
+                return;
+            }
+            stripe = new Stripe(key);
+            stripe.tasks.add(task);
+            stripes.put(key, stripe);
+        }
+        submit(stripe);
+    }
+
+    /**
+     * 提交到线程池，被拒绝时移除该键并丢弃其任务，之后的任务重新提交
+     *
+     * @param stripe the stripe
+     */
+    private void submit(Stripe stripe) {
+        try {
+            executor.execute(stripe);
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                if (stripes.get(stripe.key) == stripe) {
+                    stripes.remove(stripe.key);
+                }
+                stripe.tasks.clear();
+            }
+            onError(stripe.key, e);
+        }
+    }
+
+    /**
+     * 交给异常监听，监听本身的异常不再传递
+     *
+     * @param key the key
+     * @param e   the e
+     */
+    private void onError(Object key, RuntimeException e) {
+        ErrorListener listener = errorListener;
+        if (listener == null) {
+            return;
+        }
+        try {
+            listener.onError(key, e);
+        } catch (RuntimeException ignored) {
+            //监听异常不影响分发
+        }
+    }
+
+    /**
+     * 是否在提交线程上直接执行
+     *
+     * @return the boolean
+     */
+    public boolean isDirect() {
+        return executor == null;
+    }
+
+    /**
+     * 异常监听
+     */
+    public interface ErrorListener {
+
+        /**
+         * 任务抛出异常，或线程池拒绝执行时丢弃了该键的待执行任务
+         *
+         * @param key the key
+         * @param e   the e
+         */
+        void onError(Object key, RuntimeException e);
+    }
+
+    /**
+     * 待执行的任务数
+     *
+     * @return the pending count
+     */
+    public synchronized int getPendingCount() {
+        int count = 0;
+        for (Stripe stripe : stripes.values()) {
+            count += stripe.tasks.size();
+        }
+        return count;
+    }
+
+    /**
+     * 单个键的任务队列，同时只在一个线程上执行
+     */
+    private class Stripe implements Runnable {
+
+        /**
+         * 所属键
+         */
+        private final Object key;
+
+        /**
+         * 待执行任务
+         */
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        /**
+         * Instantiates a new Stripe.
+         *
+         * @param key the key
+         */
+        Stripe(Object key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < BATCH; i++) {
+                Runnable task;
+                synchronized (OrderedDispatcher.this) {
+                    task = tasks.poll();
+                    if (task == null) {
+                        stripes.remove(key);
+                        return;
+                    }
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    //回调异常不中断同一键的后续任务
+                    onError(key, e);
+                }
+            }
+            synchronized (OrderedDispatcher.this) {
+                if (tasks.isEmpty()) {
+                    stripes.remove(key);
+                    return;
+                }
+            }
+            submit(this);
+        }
+    }
+}
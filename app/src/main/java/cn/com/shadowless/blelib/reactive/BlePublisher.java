@@ -0,0 +1,321 @@
+package cn.com.shadowless.blelib.reactive;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按需交付的热发布者，GATT回调线程只入队不等待订阅者
+ * <p>
+ * 每个订阅者有独立的有界缓冲，数据只在订阅者request后于交付线程上按序交付，
+ * 订阅者处理不及时缓冲满时按溢出策略处理：丢弃最旧、只保留最新或以错误结束订阅，内存占用不会随积压增长。
+ * 没有订阅者时发布为空操作。
+ *
+ * @param <T> 数据类型
+ * @author sHadowLess
+ */
+public class BlePublisher<T> implements Publisher<T> {
+
+    /**
+     * 溢出策略：丢弃最旧的数据
+     */
+    public static final int OVERFLOW_DROP_OLDEST = 0;
+
+    /**
+     * 溢出策略：只保留最新的一条，缓冲容量固定为1
+     */
+    public static final int OVERFLOW_LATEST = 1;
+
+    /**
+     * 溢出策略：有界缓冲，满时以IllegalStateException结束订阅
+     */
+    public static final int OVERFLOW_BUFFER = 2;
+
+    /**
+     * 默认缓冲容量
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /**
+     * 每个订阅者的缓冲容量
+     */
+    private final int capacity;
+
+    /**
+     * 溢出策略
+     */
+    private final int overflow;
+
+    /**
+     * 交付线程
+     */
+    private final Executor executor;
+
+    /**
+     * 当前订阅
+     */
+    private final CopyOnWriteArrayList<Emitter> emitters = new CopyOnWriteArrayList<>();
+
+    /**
+     * 因溢出丢弃的数据数
+     */
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * 使用默认容量、丢弃最旧与默认交付线程
+     */
+    public BlePublisher() {
+        this(DEFAULT_CAPACITY, OVERFLOW_DROP_OLDEST, null);
+    }
+
+    /**
+     * Instantiates a new Ble publisher.
+     *
+     * @param capacity 每个订阅者的缓冲容量
+     * @param overflow 溢出策略
+     * @param executor 交付线程，为空时使用共享的守护线程池，同一订阅者的交付总是串行
+     */
+    public BlePublisher(int capacity, int overflow, Executor executor) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("缓冲容量需大于0");
+        }
+        if (overflow < OVERFLOW_DROP_OLDEST || overflow > OVERFLOW_BUFFER) {
+            throw new IllegalArgumentException("未知的溢出策略" + overflow);
+        }
+        this.capacity = overflow == OVERFLOW_LATEST ? 1 : capacity;
+        this.overflow = overflow;
+        this.executor = executor == null ? DefaultExecutor.INSTANCE : executor;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super T> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber为空");
+        }
+        Emitter emitter = new Emitter(subscriber);
+        subscriber.onSubscribe(emitter);
+        if (!emitter.cancelled) {
+            emitters.add(emitter);
+        }
+    }
+
+    /**
+     * 发布数据，不等待订阅者
+     *
+     * @param item the item
+     */
+    public void offer(T item) {
+        for (Emitter emitter : emitters) {
+            emitter.offer(item);
+        }
+    }
+
+    /**
+     * 是否有订阅者，没有时调用方可跳过数据复制
+     *
+     * @return the boolean
+     */
+    public boolean hasSubscribers() {
+        return !emitters.isEmpty();
+    }
+
+    /**
+     * Gets subscriber count.
+     *
+     * @return the subscriber count
+     */
+    public int getSubscriberCount() {
+        return emitters.size();
+    }
+
+    /**
+     * 因溢出丢弃的数据数，各订阅者合计
+     *
+     * @return the dropped count
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * 一个订阅，缓冲待交付的数据并记录需求
+     */
+    private class Emitter implements Subscription, Runnable {
+
+        /**
+         * 订阅者
+         */
+        private final Subscriber<? super T> subscriber;
+
+        /**
+         * 待交付的数据
+         */
+        private final ArrayDeque<T> queue = new ArrayDeque<>();
+
+        /**
+         * 未满足的需求
+         */
+        private final AtomicLong requested = new AtomicLong();
+
+        /**
+         * 待处理的交付请求数，为0时才提交交付任务，保证同一订阅者串行交付
+         */
+        private final AtomicInteger wip = new AtomicInteger();
+
+        /**
+         * 是否已取消或已结束
+         */
+        private volatile boolean cancelled;
+
+        /**
+         * 待交付的错误，交付后订阅结束
+         */
+        private Throwable error;
+
+        /**
+         * Instantiates a new Emitter.
+         *
+         * @param subscriber the subscriber
+         */
+        Emitter(Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        /**
+         * 入队，缓冲满时按溢出策略处理
+         *
+         * @param item the item
+         */
+        void offer(T item) {
+            synchronized (this) {
+                if (cancelled || error != null) {
+                    return;
+                }
+                if (queue.size() >= capacity) {
+                    if (overflow == OVERFLOW_BUFFER) {
+                        error = new IllegalStateException("订阅者处理不及时，缓冲已满" + capacity);
+                        droppedCount.addAndGet(queue.size() + 1);
+                        queue.clear();
+                    } else {
+                        queue.poll();
+                        queue.add(item);
+                        droppedCount.incrementAndGet();
+                    }
+                } else {
+                    queue.add(item);
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                synchronized (this) {
+                    if (error == null) {
+                        error = new IllegalArgumentException("request数需大于0，实际" + n);
+                    }
+                }
+            } else {
+                long current;
+                long next;
+                do {
+                    current = requested.get();
+                    next = current + n < 0 ? Long.MAX_VALUE : current + n;
+                } while (!requested.compareAndSet(current, next));
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            emitters.remove(this);
+            synchronized (this) {
+                queue.clear();
+            }
+        }
+
+        /**
+         * 提交交付任务
+         */
+        private void drain() {
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            while (true) {
+                long demand = requested.get();
+                long emitted = 0;
+                Throwable failure;
+                while (true) {
+                    if (cancelled) {
+                        return;
+                    }
+                    T item;
+                    synchronized (this) {
+                        failure = error;
+                        item = failure != null || emitted == demand ? null : queue.poll();
+                    }
+                    if (item == null) {
+                        break;
+                    }
+                    try {
+                        subscriber.onNext(item);
+                    } catch (RuntimeException e) {
+                        //订阅者违反规范抛出异常，视为取消
+                        cancel();
+                        return;
+                    }
+                    emitted++;
+                }
+                if (failure != null) {
+                    cancel();
+                    subscriber.onError(failure);
+                    return;
+                }
+                if (emitted != 0 && demand != Long.MAX_VALUE) {
+                    requested.addAndGet(-emitted);
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 共享的默认交付线程池，空闲线程60秒后回收
+     */
+    private static final class DefaultExecutor {
+
+        /**
+         * The constant INSTANCE.
+         */
+        static final Executor INSTANCE = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ble-publisher-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
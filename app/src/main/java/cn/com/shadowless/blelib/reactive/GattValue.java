@@ -0,0 +1,69 @@
+package cn.com.shadowless.blelib.reactive;
+
+import java.util.UUID;
+
+/**
+ * 特征值数据，通知与写入请求经发布者交付时的载体
+ * <p>
+ * 数据为独立副本，可跨线程持有。
+ *
+ * @param <K> 对端标识
+ * @author sHadowLess
+ */
+public final class GattValue<K> {
+
+    /**
+     * 对端
+     */
+    private final K device;
+
+    /**
+     * 特征值
+     */
+    private final UUID characteristicId;
+
+    /**
+     * 数据
+     */
+    private final byte[] value;
+
+    /**
+     * Instantiates a new Gatt value.
+     *
+     * @param device           the device
+     * @param characteristicId the characteristic id
+     * @param value            the value
+     */
+    public GattValue(K device, UUID characteristicId, byte[] value) {
+        this.device = device;
+        this.characteristicId = characteristicId;
+        this.value = value;
+    }
+
+    /**
+     * Gets device.
+     *
+     * @return the device
+     */
+    public K getDevice() {
+        return device;
+    }
+
+    /**
+     * Gets characteristic id.
+     *
+     * @return the characteristic id
+     */
+    public UUID getCharacteristicId() {
+        return characteristicId;
+    }
+
+    /**
+     * Gets value.
+     *
+     * @return the value
+     */
+    public byte[] getValue() {
+        return value;
+    }
+}
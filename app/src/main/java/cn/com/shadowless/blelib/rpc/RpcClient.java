@@ -0,0 +1,391 @@
+package cn.com.shadowless.blelib.rpc;
+
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cn.com.shadowless.blelib.transport.Scheduler;
+
+/**
+ * RPC调用方
+ * <p>
+ * 每个请求分配关联ID后立即发出，不等待上一个应答，多个请求同时在途，超出在途上限的请求排队等待空位；
+ * 应答按关联ID交给对应的调用，每个调用从发起时独立计时，超时、断开或对端报错时回调失败。
+ *
+ * @author sHadowLess
+ */
+public class RpcClient {
+
+    /**
+     * 默认超时，毫秒
+     */
+    public static final long DEFAULT_TIMEOUT = 3000;
+
+    /**
+     * 默认最大在途请求数
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+
+    /**
+     * 失败原因：超时
+     */
+    public static final int ERROR_TIMEOUT = 1;
+
+    /**
+     * 失败原因：连接断开
+     */
+    public static final int ERROR_DISCONNECTED = 2;
+
+    /**
+     * 失败原因：对端处理出错
+     */
+    public static final int ERROR_REMOTE = 3;
+
+    /**
+     * 失败原因：请求未能发出
+     */
+    public static final int ERROR_SEND = 4;
+
+    /**
+     * 失败原因：调用方取消
+     */
+    public static final int ERROR_CANCELLED = 5;
+
+    /**
+     * UTF-8
+     */
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * 发送编码后的请求
+     */
+    public interface Sender {
+        /**
+         * Send.
+         *
+         * @param message the message
+         * @return 是否已交给发送队列
+         */
+        boolean send(byte[] message);
+    }
+
+    /**
+     * 调用结果，每个调用只回调一次
+     */
+    public interface Callback {
+        /**
+         * 收到应答
+         *
+         * @param response the response
+         */
+        void onResponse(byte[] response);
+
+        /**
+         * 调用失败
+         *
+         * @param error   失败原因
+         * @param message the message
+         */
+        void onFailure(int error, String message);
+    }
+
+    /**
+     * 发送
+     */
+    private final Sender sender;
+
+    /**
+     * 超时调度
+     */
+    private final Scheduler scheduler;
+
+    /**
+     * 最大在途请求数
+     */
+    private final int maxInFlight;
+
+    /**
+     * 未完成的调用，含排队中的
+     */
+    private final Map<Integer, Call> pending = new HashMap<>();
+
+    /**
+     * 等待在途空位的调用
+     */
+    private final ArrayDeque<Call> waiting = new ArrayDeque<>();
+
+    /**
+     * 已发出未应答的调用数
+     */
+    private int inFlight;
+
+    /**
+     * 下一个关联ID
+     */
+    private int nextId;
+
+    /**
+     * 超时次数
+     */
+    private long timeoutCount;
+
+    /**
+     * 收到的未知关联ID应答数，通常是超时后才到达的应答
+     */
+    private long lateCount;
+
+    /**
+     * 使用默认最大在途请求数
+     *
+     * @param sender    the sender
+     * @param scheduler the scheduler
+     */
+    public RpcClient(Sender sender, Scheduler scheduler) {
+        this(sender, scheduler, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Instantiates a new Rpc client.
+     *
+     * @param sender      the sender
+     * @param scheduler   the scheduler
+     * @param maxInFlight 最大在途请求数
+     */
+    public RpcClient(Sender sender, Scheduler scheduler, int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("最大在途请求数需大于0");
+        }
+        this.sender = sender;
+        this.scheduler = scheduler;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * 发起调用，不等待之前的调用完成
+     *
+     * @param request       the request
+     * @param timeoutMillis 超时，从发起时计时，含排队时间，毫秒
+     * @param callback      the callback
+     * @return 关联ID
+     */
+    public int call(byte[] request, long timeoutMillis, Callback callback) {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("超时需大于0");
+        }
+        Call call;
+        boolean send;
+        synchronized (this) {
+            call = new Call(nextId++, request, callback);
+            pending.put(call.id, call);
+            send = inFlight < maxInFlight;
+            if (send) {
+                call.request = null;
+                inFlight++;
+            } else {
+                waiting.add(call);
+            }
+        }
+        scheduler.schedule(call, timeoutMillis);
+        if (send) {
+            transmit(call, request);
+        }
+        return call.id;
+    }
+
+    /**
+     * 取消调用，之后到达的应答被丢弃
+     *
+     * @param id the id
+     * @return 调用是否仍在途
+     */
+    public boolean cancel(int id) {
+        Call call = finish(id);
+        if (call == null) {
+            return false;
+        }
+        call.callback.onFailure(ERROR_CANCELLED, "已取消");
+        return true;
+    }
+
+    /**
+     * 处理对端的应答
+     *
+     * @param message the message
+     */
+    public void onMessage(byte[] message) {
+        int kind = RpcCodec.kind(message);
+        if (kind != RpcCodec.KIND_RESPONSE && kind != RpcCodec.KIND_ERROR) {
+            return;
+        }
+        Call call = finish(RpcCodec.id(message));
+        if (call == null) {
+            synchronized (this) {
+                lateCount++;
+            }
+            return;
+        }
+        byte[] payload = RpcCodec.payload(message);
+        if (kind == RpcCodec.KIND_RESPONSE) {
+            call.callback.onResponse(payload);
+        } else {
+            call.callback.onFailure(ERROR_REMOTE, new String(payload, UTF_8));
+        }
+    }
+
+    /**
+     * 全部在途调用以指定原因失败，连接断开时调用
+     *
+     * @param error   the error
+     * @param message the message
+     */
+    public void failAll(int error, String message) {
+        List<Call> calls;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            calls = new ArrayList<>(pending.values());
+            pending.clear();
+            waiting.clear();
+            inFlight = 0;
+        }
+        for (Call call : calls) {
+            scheduler.cancel(call);
+            call.callback.onFailure(error, message);
+        }
+    }
+
+    /**
+     * 已发出未应答的请求数
+     *
+     * @return the in flight count
+     */
+    public synchronized int getInFlightCount() {
+        return inFlight;
+    }
+
+    /**
+     * 等待在途空位的请求数
+     *
+     * @return the waiting count
+     */
+    public synchronized int getWaitingCount() {
+        return waiting.size();
+    }
+
+    /**
+     * Gets timeout count.
+     *
+     * @return the timeout count
+     */
+    public synchronized long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    /**
+     * Gets late count.
+     *
+     * @return the late count
+     */
+    public synchronized long getLateCount() {
+        return lateCount;
+    }
+
+    /**
+     * 结束调用并停止计时，空出的在途位置交给排队的调用
+     *
+     * @param id the id
+     * @return 调用已结束返回null
+     */
+    private Call finish(int id) {
+        Call call;
+        List<Call> ready = null;
+        synchronized (this) {
+            call = pending.remove(id);
+            if (call == null) {
+                return null;
+            }
+            if (call.request != null) {
+                waiting.remove(call);
+            } else {
+                inFlight--;
+                while (inFlight < maxInFlight && !waiting.isEmpty()) {
+                    if (ready == null) {
+                        ready = new ArrayList<>();
+                    }
+                    ready.add(waiting.poll());
+                    inFlight++;
+                }
+            }
+        }
+        scheduler.cancel(call);
+        if (ready != null) {
+            for (Call next : ready) {
+                byte[] request = next.request;
+                next.request = null;
+                transmit(next, request);
+            }
+        }
+        return call;
+    }
+
+    /**
+     * 发出请求，未能发出时以发送失败结束
+     *
+     * @param call    the call
+     * @param request the request
+     */
+    private void transmit(Call call, byte[] request) {
+        if (!sender.send(RpcCodec.encode(RpcCodec.KIND_REQUEST, call.id, request)) && finish(call.id) != null) {
+            call.callback.onFailure(ERROR_SEND, "请求未能发出");
+        }
+    }
+
+    /**
+     * 在途调用，到时未收到应答则超时
+     */
+    private class Call implements Runnable {
+
+        /**
+         * 关联ID
+         */
+        final int id;
+
+        /**
+         * 调用结果
+         */
+        final Callback callback;
+
+        /**
+         * 排队中的请求，发出后置空
+         */
+        byte[] request;
+
+        /**
+         * Instantiates a new Call.
+         *
+         * @param id       the id
+         * @param request  the request
+         * @param callback the callback
+         */
+        Call(int id, byte[] request, Callback callback) {
+            this.id = id;
+            this.request = request;
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            if (finish(id) == null) {
+                return;
+            }
+            synchronized (RpcClient.this) {
+                timeoutCount++;
+            }
+            callback.onFailure(ERROR_TIMEOUT, "请求" + id + "超时");
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package cn.com.shadowless.blelib.rpc;
+
+/**
+ * RPC消息格式：[类型 1字节][关联ID 4字节][载荷]
+ * <p>
+ * 请求与应答携带相同的关联ID，客户端据此把乱序到达的应答交给对应的调用，错误应答的载荷为UTF-8错误信息。
+ *
+ * @author sHadowLess
+ */
+public final class RpcCodec {
+
+    /**
+     * 请求
+     */
+    public static final int KIND_REQUEST = 1;
+
+    /**
+     * 应答
+     */
+    public static final int KIND_RESPONSE = 2;
+
+    /**
+     * 错误应答
+     */
+    public static final int KIND_ERROR = 3;
+
+    /**
+     * 消息头长度
+     */
+    public static final int HEADER_SIZE = 5;
+
+    /**
+     * Instantiates a new Rpc codec.
+     */
+    private RpcCodec() {
+    }
+
+    /**
+     * 编码
+     *
+     * @param kind    the kind
+     * @param id      the id
+     * @param payload the payload
+     * @return the byte [ ]
+     */
+    public static byte[] encode(int kind, int id, byte[] payload) {
+        byte[] message = new byte[HEADER_SIZE + payload.length];
+        message[0] = (byte) kind;
+        message[1] = (byte) (id >> 24);
+        message[2] = (byte) (id >> 16);
+        message[3] = (byte) (id >> 8);
+        message[4] = (byte) id;
+        System.arraycopy(payload, 0, message, HEADER_SIZE, payload.length);
+        return message;
+    }
+
+    /**
+     * 消息类型，长度不足返回0
+     *
+     * @param message the message
+     * @return the kind
+     */
+    public static int kind(byte[] message) {
+        return message.length < HEADER_SIZE ? 0 : message[0];
+    }
+
+    /**
+     * 关联ID
+     *
+     * @param message the message
+     * @return the id
+     */
+    public static int id(byte[] message) {
+        return (message[1] & 0xFF) << 24 | (message[2] & 0xFF) << 16 | (message[3] & 0xFF) << 8 | message[4] & 0xFF;
+    }
+
+    /**
+     * 载荷
+     *
+     * @param message the message
+     * @return the byte [ ]
+     */
+    public static byte[] payload(byte[] message) {
+        byte[] payload = new byte[message.length - HEADER_SIZE];
+        System.arraycopy(message, HEADER_SIZE, payload, 0, payload.length);
+        return payload;
+    }
+}
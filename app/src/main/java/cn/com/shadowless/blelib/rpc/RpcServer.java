@@ -0,0 +1,175 @@
+package cn.com.shadowless.blelib.rpc;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * RPC服务方
+ * <p>
+ * 收到请求后交给处理器，处理器可同步或异步应答，应答携带请求的关联ID，
+ * 多个请求可同时处理，应答顺序不必与请求顺序一致。
+ *
+ * @param <K> 客户端标识
+ * @author sHadowLess
+ */
+public class RpcServer<K> {
+
+    /**
+     * 发送编码后的应答
+     *
+     * @param <K> 客户端标识
+     */
+    public interface Sender<K> {
+        /**
+         * Send.
+         *
+         * @param device  the device
+         * @param message the message
+         * @return 是否已交给发送队列
+         */
+        boolean send(K device, byte[] message);
+    }
+
+    /**
+     * 请求处理
+     *
+     * @param <K> 客户端标识
+     */
+    public interface Handler<K> {
+        /**
+         * 收到请求，通过responder应答一次，可在其他线程应答
+         *
+         * @param device    the device
+         * @param request   the request
+         * @param responder the responder
+         */
+        void onRequest(K device, byte[] request, Responder responder);
+    }
+
+    /**
+     * 应答一个请求，只有第一次应答生效
+     */
+    public interface Responder {
+        /**
+         * 应答
+         *
+         * @param response the response
+         * @return 是否已交给发送队列，重复应答返回false
+         */
+        boolean reply(byte[] response);
+
+        /**
+         * 错误应答，调用方以对端出错失败
+         *
+         * @param message the message
+         * @return 是否已交给发送队列，重复应答返回false
+         */
+        boolean fail(String message);
+
+        /**
+         * 关联ID
+         *
+         * @return the id
+         */
+        int getId();
+    }
+
+    /**
+     * 发送
+     */
+    private final Sender<K> sender;
+
+    /**
+     * 请求处理，为空时回复错误
+     */
+    private volatile Handler<K> handler;
+
+    /**
+     * Instantiates a new Rpc server.
+     *
+     * @param sender the sender
+     */
+    public RpcServer(Sender<K> sender) {
+        this.sender = sender;
+    }
+
+    /**
+     * 设置请求处理
+     *
+     * @param handler the handler
+     */
+    public void setHandler(Handler<K> handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * 处理客户端的请求
+     *
+     * @param device  the device
+     * @param message the message
+     */
+    public void onMessage(K device, byte[] message) {
+        if (RpcCodec.kind(message) != RpcCodec.KIND_REQUEST) {
+            return;
+        }
+        Responder responder = new CallResponder(device, RpcCodec.id(message));
+        Handler<K> current = handler;
+        if (current == null) {
+            responder.fail("服务端未设置RPC处理");
+            return;
+        }
+        try {
+            current.onRequest(device, RpcCodec.payload(message), responder);
+        } catch (RuntimeException e) {
+            responder.fail(String.valueOf(e));
+        }
+    }
+
+    /**
+     * 应答实现
+     */
+    private class CallResponder implements Responder {
+
+        /**
+         * 客户端
+         */
+        private final K device;
+
+        /**
+         * 关联ID
+         */
+        private final int id;
+
+        /**
+         * 是否已应答
+         */
+        private final AtomicBoolean replied = new AtomicBoolean();
+
+        /**
+         * Instantiates a new Call responder.
+         *
+         * @param device the device
+         * @param id     the id
+         */
+        CallResponder(K device, int id) {
+            this.device = device;
+            this.id = id;
+        }
+
+        @Override
+        public boolean reply(byte[] response) {
+            return replied.compareAndSet(false, true)
+                    && sender.send(device, RpcCodec.encode(RpcCodec.KIND_RESPONSE, id, response));
+        }
+
+        @Override
+        public boolean fail(String message) {
+            return replied.compareAndSet(false, true)
+                    && sender.send(device, RpcCodec.encode(RpcCodec.KIND_ERROR, id, String.valueOf(message).getBytes(RpcClient.UTF_8)));
+        }
+
+        @Override
+        public int getId() {
+            return id;
+        }
+    }
+}
@@ -0,0 +1,445 @@
+package cn.com.shadowless.blelib.trace;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * GATT事件记录
+ * <p>
+ * 事件写入预先分配的环形缓冲，每个事件占3个long：时间(System.nanoTime)、设备地址(48位)、
+ * 类型(16位)|状态(16位)|长度(32位)。记录只做一次原子自增、一次序号失效和四次有序写入，不加锁不分配对象，
+ * 缓冲写满后覆盖最旧的事件。每个槽位按顺序锁发布：先使序号失效，再写入事件，最后以release语义写入序号，
+ * 导出时前后两次读到相同的有效序号才采用，写入中的事件直接跳过，导出不需要停止记录。
+ * 同一槽位只有在并发写入的事件数超过容量时才会被两个写入者同时改写，此时个别事件可能不完整。
+ * <p>
+ * 二进制导出格式(大端)：魔数"BLET"，版本(int)，导出时的System.currentTimeMillis(long)，
+ * 导出时的System.nanoTime(long)，事件数(int)，之后按时间顺序为每个事件的3个long。
+ *
+ * @author sHadowLess
+ */
+public class TraceRecorder {
+
+    /**
+     * 默认容量，事件数
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * 导出格式魔数
+     */
+    public static final int MAGIC = 0x424C4554;
+
+    /**
+     * 导出格式版本
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * 每个事件占用的long数
+     */
+    private static final int SLOT_SIZE = 3;
+
+    /**
+     * 客户端连接状态变化，长度为newState
+     */
+    public static final int CONNECTION_STATE = 1;
+
+    /**
+     * 客户端发现服务
+     */
+    public static final int SERVICES_DISCOVERED = 2;
+
+    /**
+     * 客户端读特征值
+     */
+    public static final int CHARACTERISTIC_READ = 3;
+
+    /**
+     * 客户端写特征值
+     */
+    public static final int CHARACTERISTIC_WRITE = 4;
+
+    /**
+     * 客户端收到通知
+     */
+    public static final int CHARACTERISTIC_CHANGED = 5;
+
+    /**
+     * 客户端读描述符
+     */
+    public static final int DESCRIPTOR_READ = 6;
+
+    /**
+     * 客户端写描述符
+     */
+    public static final int DESCRIPTOR_WRITE = 7;
+
+    /**
+     * 客户端MTU变化，长度为MTU
+     */
+    public static final int MTU_CHANGED = 8;
+
+    /**
+     * 客户端PHY变化，长度为txPhy<<8|rxPhy
+     */
+    public static final int PHY_UPDATE = 9;
+
+    /**
+     * 客户端读取PHY，长度为txPhy<<8|rxPhy
+     */
+    public static final int PHY_READ = 10;
+
+    /**
+     * 客户端读取信号强度，长度为rssi
+     */
+    public static final int READ_REMOTE_RSSI = 11;
+
+    /**
+     * 客户端可靠写入完成
+     */
+    public static final int RELIABLE_WRITE_COMPLETED = 12;
+
+    /**
+     * 客户端服务变化
+     */
+    public static final int SERVICE_CHANGED = 13;
+
+    /**
+     * 扫描结果，状态为rssi，长度为广播数据长度
+     */
+    public static final int SCAN_RESULT = 20;
+
+    /**
+     * 批量扫描结果，长度为结果数
+     */
+    public static final int BATCH_SCAN_RESULTS = 21;
+
+    /**
+     * 扫描失败，状态为错误码
+     */
+    public static final int SCAN_FAILED = 22;
+
+    /**
+     * 服务端连接状态变化，长度为newState
+     */
+    public static final int SERVER_CONNECTION_STATE = 40;
+
+    /**
+     * 服务端添加服务
+     */
+    public static final int SERVICE_ADDED = 41;
+
+    /**
+     * 服务端读特征值请求，长度为offset
+     */
+    public static final int CHARACTERISTIC_READ_REQUEST = 42;
+
+    /**
+     * 服务端写特征值请求
+     */
+    public static final int CHARACTERISTIC_WRITE_REQUEST = 43;
+
+    /**
+     * 服务端读描述符请求，长度为offset
+     */
+    public static final int DESCRIPTOR_READ_REQUEST = 44;
+
+    /**
+     * 服务端写描述符请求
+     */
+    public static final int DESCRIPTOR_WRITE_REQUEST = 45;
+
+    /**
+     * 服务端执行长写入，长度为1执行0取消
+     */
+    public static final int EXECUTE_WRITE = 46;
+
+    /**
+     * 服务端通知已发送
+     */
+    public static final int NOTIFICATION_SENT = 47;
+
+    /**
+     * 服务端MTU变化，长度为MTU
+     */
+    public static final int SERVER_MTU_CHANGED = 48;
+
+    /**
+     * 服务端PHY变化，长度为txPhy<<8|rxPhy
+     */
+    public static final int SERVER_PHY_UPDATE = 49;
+
+    /**
+     * 服务端读取PHY，长度为txPhy<<8|rxPhy
+     */
+    public static final int SERVER_PHY_READ = 50;
+
+    /**
+     * 广播开启成功
+     */
+    public static final int ADVERTISE_START_SUCCESS = 60;
+
+    /**
+     * 广播开启失败，状态为错误码
+     */
+    public static final int ADVERTISE_START_FAILURE = 61;
+
+    /**
+     * L2CAP通道建立或关闭，状态0为成功或正常关闭，长度为PSM(关闭时为0)
+     */
+    public static final int L2CAP_STATE = 70;
+
+    /**
+     * 事件缓冲
+     */
+    private final AtomicLongArray slots;
+
+    /**
+     * 各槽位写入完成时的序号+1，0为写入中，用于导出时丢弃不完整的事件
+     */
+    private final AtomicLongArray sequences;
+
+    /**
+     * 容量掩码
+     */
+    private final int mask;
+
+    /**
+     * 下一个事件序号
+     */
+    private final AtomicLong cursor = new AtomicLong();
+
+    /**
+     * 是否记录
+     */
+    private volatile boolean enabled = true;
+
+    /**
+     * Instantiates a new Trace recorder.
+     */
+    public TraceRecorder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Instantiates a new Trace recorder.
+     *
+     * @param capacity 事件数，向上取整为2的幂
+     */
+    public TraceRecorder(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 24)) {
+            throw new IllegalArgumentException("记录容量需在1~16777216之间");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new AtomicLongArray(size * SLOT_SIZE);
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * 记录事件
+     *
+     * @param type    事件类型
+     * @param address 设备地址，可为null
+     * @param status  状态
+     * @param length  长度
+     */
+    public void record(int type, String address, int status, int length) {
+        if (!enabled) {
+            return;
+        }
+        long sequence = cursor.getAndIncrement();
+        int index = (int) (sequence & mask);
+        int base = index * SLOT_SIZE;
+        //先失效再写入，lazySet保证之前的写入不会被重排到其后
+        sequences.set(index, 0);
+        slots.lazySet(base, System.nanoTime());
+        slots.lazySet(base + 1, packAddress(address));
+        slots.lazySet(base + 2, ((long) (type & 0xFFFF) << 48) | ((long) (status & 0xFFFF) << 32) | (length & 0xFFFFFFFFL));
+        sequences.lazySet(index, sequence + 1);
+    }
+
+    /**
+     * 导出到文件
+     *
+     * @param file the file
+     * @throws IOException the io exception
+     */
+    public void dump(File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            dump(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * 按二进制格式导出，不关闭流
+     *
+     * @param out the out
+     * @throws IOException the io exception
+     */
+    public void dump(OutputStream out) throws IOException {
+        long[] events = snapshot();
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeLong(System.currentTimeMillis());
+        data.writeLong(System.nanoTime());
+        data.writeInt(events.length / SLOT_SIZE);
+        for (long value : events) {
+            data.writeLong(value);
+        }
+        data.flush();
+    }
+
+    /**
+     * 按文本导出，每行一个事件：距导出时的毫秒数 类型 地址 状态 长度，不关闭流
+     *
+     * @param writer the writer
+     * @throws IOException the io exception
+     */
+    public void dumpText(Writer writer) throws IOException {
+        long[] events = snapshot();
+        long now = System.nanoTime();
+        StringBuilder line = new StringBuilder(64);
+        for (int i = 0; i < events.length; i += SLOT_SIZE) {
+            long packed = events[i + 2];
+            line.setLength(0);
+            line.append((events[i] - now) / 1000000L).append("ms ")
+                    .append((int) (packed >>> 48)).append(' ')
+                    .append(unpackAddress(events[i + 1])).append(' ')
+                    .append((short) (packed >>> 32)).append(' ')
+                    .append((int) packed).append('\n');
+            writer.write(line.toString());
+        }
+        writer.flush();
+    }
+
+    /**
+     * 按时间顺序复制当前缓冲中完整的事件
+     *
+     * @return 每个事件3个long
+     */
+    public long[] snapshot() {
+        long end = cursor.get();
+        int capacity = mask + 1;
+        long start = Math.max(0, end - capacity);
+        long[] copy = new long[(int) (end - start) * SLOT_SIZE];
+        int count = 0;
+        for (long sequence = start; sequence < end; sequence++) {
+            int index = (int) (sequence & mask);
+            if (sequences.get(index) != sequence + 1) {
+                continue;
+            }
+            int base = index * SLOT_SIZE;
+            long time = slots.get(base);
+            long address = slots.get(base + 1);
+            long packed = slots.get(base + 2);
+            if (sequences.get(index) != sequence + 1) {
+                continue;
+            }
+            copy[count * SLOT_SIZE] = time;
+            copy[count * SLOT_SIZE + 1] = address;
+            copy[count * SLOT_SIZE + 2] = packed;
+            count++;
+        }
+        if (count * SLOT_SIZE == copy.length) {
+            return copy;
+        }
+        long[] result = new long[count * SLOT_SIZE];
+        System.arraycopy(copy, 0, result, 0, result.length);
+        return result;
+    }
+
+    /**
+     * 清空
+     */
+    public void clear() {
+        cursor.set(0);
+        for (int i = 0; i < sequences.length(); i++) {
+            sequences.set(i, 0);
+        }
+    }
+
+    /**
+     * 开关记录
+     *
+     * @param enabled the enabled
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * 已记录的事件总数，含已被覆盖的
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return cursor.get();
+    }
+
+    /**
+     * 容量
+     *
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * 把"AA:BB:CC:DD:EE:FF"格式的地址压缩为48位，不分配对象
+     *
+     * @param address the address
+     * @return 无法解析返回0
+     */
+    static long packAddress(String address) {
+        if (address == null) {
+            return 0;
+        }
+        long value = 0;
+        int digits = 0;
+        for (int i = 0; i < address.length(); i++) {
+            int digit = Character.digit(address.charAt(i), 16);
+            if (digit >= 0) {
+                value = (value << 4) | digit;
+                digits++;
+            }
+        }
+        return digits == 12 ? value : 0;
+    }
+
+    /**
+     * 还原地址
+     *
+     * @param value the value
+     * @return the string
+     */
+    static String unpackAddress(long value) {
+        if (value == 0) {
+            return "-";
+        }
+        StringBuilder builder = new StringBuilder(17);
+        for (int shift = 40; shift >= 0; shift -= 8) {
+            int octet = (int) (value >>> shift) & 0xFF;
+            builder.append(Character.forDigit(octet >> 4, 16)).append(Character.forDigit(octet & 0xF, 16));
+            if (shift > 0) {
+                builder.append(':');
+            }
+        }
+        return builder.toString().toUpperCase();
+    }
+}
@@ -0,0 +1,110 @@
+package cn.com.shadowless.blelib.transport;
+
+/**
+ * 客户端GATT传输
+ * <p>
+ * 把对服务端写入、读取、MTU协商与连接的I/O抽象出来，设备上由BluetoothGatt实现，
+ * JVM上可使用{@link LoopbackTransport}。每个操作的结果通过{@link Listener}异步回调，
+ * 同一时间只有一个操作在执行，由{@link TransportClient}的队列保证。
+ *
+ * @author sHadowLess
+ */
+public interface ClientTransport {
+
+    /**
+     * 无响应写入，同BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
+     */
+    int WRITE_TYPE_NO_RESPONSE = 1;
+
+    /**
+     * 有响应写入，同BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT
+     */
+    int WRITE_TYPE_DEFAULT = 2;
+
+    /**
+     * 设置事件回调
+     *
+     * @param listener the listener
+     */
+    void setListener(Listener listener);
+
+    /**
+     * 发起连接
+     *
+     * @param autoConnect 是否交给控制器等待设备出现
+     * @return 是否已发起
+     */
+    boolean connect(boolean autoConnect);
+
+    /**
+     * 断开连接
+     */
+    void disconnect();
+
+    /**
+     * 请求MTU，结果在onMtuChanged回调
+     *
+     * @param mtu the mtu
+     * @return 是否已发起
+     */
+    boolean requestMtu(int mtu);
+
+    /**
+     * 写入服务端，结果在onWriteComplete回调
+     *
+     * @param value     the value
+     * @param writeType the write type
+     * @return 是否已发起，false表示协议栈繁忙或未连接
+     */
+    boolean write(byte[] value, int writeType);
+
+    /**
+     * 读取服务端，结果在onReadComplete回调
+     *
+     * @return 是否已发起
+     */
+    boolean read();
+
+    /**
+     * 传输事件回调
+     */
+    interface Listener {
+        /**
+         * 连接状态变化
+         *
+         * @param status    the status
+         * @param connected the connected
+         */
+        void onConnectionStateChange(int status, boolean connected);
+
+        /**
+         * MTU协商完成
+         *
+         * @param mtu    the mtu
+         * @param status the status
+         */
+        void onMtuChanged(int mtu, int status);
+
+        /**
+         * 写入完成
+         *
+         * @param status the status
+         */
+        void onWriteComplete(int status);
+
+        /**
+         * 读取完成
+         *
+         * @param value  the value
+         * @param status the status
+         */
+        void onReadComplete(byte[] value, int status);
+
+        /**
+         * 收到服务端通知
+         *
+         * @param value the value
+         */
+        void onNotify(byte[] value);
+    }
+}
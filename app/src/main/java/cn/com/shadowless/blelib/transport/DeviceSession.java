@@ -0,0 +1,103 @@
+package cn.com.shadowless.blelib.transport;
+
+import cn.com.shadowless.blelib.frame.FrameCodec;
+
+/**
+ * 服务端的客户端会话
+ * <p>
+ * 记录客户端在通知特征值的CCCD中订阅的方式与协商后的MTU，
+ * 服务端据此只向已订阅的客户端发送，并按各自的MTU确定单包大小。
+ *
+ * @author sHadowLess
+ */
+public class DeviceSession {
+
+    /**
+     * 订阅：未订阅
+     */
+    public static final int SUBSCRIPTION_NONE = 0;
+
+    /**
+     * 订阅：通知，对应CCCD值0x0001
+     */
+    public static final int SUBSCRIPTION_NOTIFY = 0x01;
+
+    /**
+     * 订阅：指示，对应CCCD值0x0002，需客户端确认
+     */
+    public static final int SUBSCRIPTION_INDICATE = 0x02;
+
+    /**
+     * 订阅方式，按位组合
+     */
+    private volatile int subscription;
+
+    /**
+     * 协商后的MTU
+     */
+    private volatile int mtu = FrameCodec.DEFAULT_MTU;
+
+    /**
+     * 订阅方式，按位组合
+     *
+     * @return the subscription
+     */
+    public int getSubscription() {
+        return subscription;
+    }
+
+    /**
+     * 是否已订阅通知或指示
+     *
+     * @return the boolean
+     */
+    public boolean isSubscribed() {
+        return subscription != SUBSCRIPTION_NONE;
+    }
+
+    /**
+     * 是否以指示发送，同时订阅通知与指示时使用开销更小的通知
+     *
+     * @return the boolean
+     */
+    public boolean isIndicate() {
+        int current = subscription;
+        return (current & SUBSCRIPTION_NOTIFY) == 0 && (current & SUBSCRIPTION_INDICATE) != 0;
+    }
+
+    /**
+     * Gets mtu.
+     *
+     * @return the mtu
+     */
+    public int getMtu() {
+        return mtu;
+    }
+
+    /**
+     * 单包最大数据长度，MTU减去ATT头
+     *
+     * @return the payload size
+     */
+    public int getPayloadSize() {
+        return mtu - FrameCodec.ATT_HEADER_SIZE;
+    }
+
+    /**
+     * Sets subscription.
+     *
+     * @param subscription the subscription
+     */
+    void setSubscription(int subscription) {
+        this.subscription = subscription & (SUBSCRIPTION_NOTIFY | SUBSCRIPTION_INDICATE);
+    }
+
+    /**
+     * Sets mtu.
+     *
+     * @param mtu the mtu
+     */
+    void setMtu(int mtu) {
+        this.mtu = mtu;
+    }
+}
@@ -0,0 +1,86 @@
+package cn.com.shadowless.blelib.transport;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于ScheduledExecutorService的调度，用于JVM上运行
+ *
+ * @author sHadowLess
+ */
+public class ExecutorScheduler implements Scheduler {
+
+    /**
+     * 执行器
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * 尚未执行的任务
+     */
+    private final Map<Runnable, ScheduledFuture<?>> futures = new ConcurrentHashMap<>();
+
+    /**
+     * 使用单个守护线程
+     */
+    public ExecutorScheduler() {
+        this(Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ble-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }));
+    }
+
+    /**
+     * Instantiates a new Executor scheduler.
+     *
+     * @param executor the executor
+     */
+    public ExecutorScheduler(ScheduledExecutorService executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void schedule(final Runnable task, long delayMillis) {
+        ScheduledFuture<?> future = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                futures.remove(task);
+                task.run();
+            }
+        }, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+        ScheduledFuture<?> previous = futures.put(task, future);
+        if (previous != null) {
+            previous.cancel(false);
+        }
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        ScheduledFuture<?> future = futures.remove(task);
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    @Override
+    public long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * 关闭执行器
+     */
+    public void shutdown() {
+        futures.clear();
+        executor.shutdownNow();
+    }
+}
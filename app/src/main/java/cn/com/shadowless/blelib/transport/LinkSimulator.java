@@ -0,0 +1,935 @@
+package cn.com.shadowless.blelib.transport;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 链路模拟
+ * <p>
+ * 在{@link VirtualScheduler}的虚拟时间上模拟BLE链路：数据只在连接事件上收发，每个连接事件每个方向最多发送若干包，
+ * 有响应写入、读取与MTU交换的响应在下一个连接事件返回；无响应写入进入控制器缓冲即回调完成，缓冲满时提交失败；
+ * 通知发出后回调发送完成。可按概率丢弃无响应写入与通知、让有响应操作返回GATT错误、让连接事件断开链路。
+ * 随机数由种子决定，同样的参数与调用顺序得到同样的结果。
+ *
+ * @author sHadowLess
+ */
+public class LinkSimulator {
+
+    /**
+     * 默认连接间隔，微秒
+     */
+    public static final long DEFAULT_CONNECTION_INTERVAL = 30000;
+
+    /**
+     * 默认每个连接事件每个方向的包数
+     */
+    public static final int DEFAULT_PACKETS_PER_EVENT = 4;
+
+    /**
+     * 默认控制器缓冲包数
+     */
+    public static final int DEFAULT_TX_BUFFER = 16;
+
+    /**
+     * 默认建立连接所需的连接事件数
+     */
+    public static final int DEFAULT_CONNECT_EVENTS = 6;
+
+    /**
+     * 默认GATT错误状态，同BluetoothGatt的GATT_ERROR
+     */
+    public static final int DEFAULT_ERROR_STATUS = 0x85;
+
+    /**
+     * 连接超时断开，同BluetoothGatt的0x08
+     */
+    public static final int STATUS_CONNECTION_TIMEOUT = 0x08;
+
+    /**
+     * 成功状态
+     */
+    private static final int STATUS_SUCCESS = 0;
+
+    /**
+     * ATT头长度
+     */
+    private static final int ATT_HEADER = 3;
+
+    /**
+     * 默认MTU
+     */
+    private static final int DEFAULT_MTU = 23;
+
+    /**
+     * 包类型：无响应写入
+     */
+    private static final int PACKET_WRITE_COMMAND = 0;
+
+    /**
+     * 包类型：有响应写入
+     */
+    private static final int PACKET_WRITE_REQUEST = 1;
+
+    /**
+     * 包类型：读取
+     */
+    private static final int PACKET_READ = 2;
+
+    /**
+     * 包类型：MTU交换
+     */
+    private static final int PACKET_MTU = 3;
+
+    /**
+     * 包类型：通知
+     */
+    private static final int PACKET_NOTIFY = 4;
+
+    /**
+     * 虚拟时间调度
+     */
+    private final VirtualScheduler scheduler;
+
+    /**
+     * 连接间隔，微秒
+     */
+    private final long connectionInterval;
+
+    /**
+     * 每个连接事件每个方向的包数
+     */
+    private final int packetsPerEvent;
+
+    /**
+     * 最大MTU
+     */
+    private final int maxMtu;
+
+    /**
+     * 控制器缓冲包数
+     */
+    private final int txBuffer;
+
+    /**
+     * 建立连接所需的连接事件数
+     */
+    private final int connectEvents;
+
+    /**
+     * 无响应写入与通知的丢包率
+     */
+    private final double dropRate;
+
+    /**
+     * 有响应操作返回错误的概率
+     */
+    private final double errorRate;
+
+    /**
+     * 返回的错误状态
+     */
+    private final int errorStatus;
+
+    /**
+     * 每个连接事件断开链路的概率
+     */
+    private final double disconnectRate;
+
+    /**
+     * 随机数
+     */
+    private final Random random;
+
+    /**
+     * 服务端
+     */
+    private final Server server = new Server();
+
+    /**
+     * 各客户端，key为地址
+     */
+    private final Map<String, Link> links = new ConcurrentHashMap<>();
+
+    /**
+     * 有数据的连接事件数
+     */
+    private long eventCount;
+
+    /**
+     * 空中发送的包数
+     */
+    private long packetCount;
+
+    /**
+     * 空中发送的字节数
+     */
+    private long byteCount;
+
+    /**
+     * 丢弃的包数
+     */
+    private long droppedCount;
+
+    /**
+     * 返回错误的操作数
+     */
+    private long errorCount;
+
+    /**
+     * 链路断开次数
+     */
+    private long disconnectCount;
+
+    /**
+     * 构造
+     *
+     * @param builder the builder
+     */
+    private LinkSimulator(Builder builder) {
+        this.scheduler = builder.scheduler == null ? new VirtualScheduler() : builder.scheduler;
+        this.connectionInterval = builder.connectionInterval;
+        this.packetsPerEvent = builder.packetsPerEvent;
+        this.maxMtu = builder.maxMtu;
+        this.txBuffer = builder.txBuffer;
+        this.connectEvents = builder.connectEvents;
+        this.dropRate = builder.dropRate;
+        this.errorRate = builder.errorRate;
+        this.errorStatus = builder.errorStatus;
+        this.disconnectRate = builder.disconnectRate;
+        this.random = new Random(builder.seed);
+    }
+
+    /**
+     * 构造者
+     *
+     * @return the builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 构造者实体
+     */
+    public static class Builder {
+
+        /**
+         * The Scheduler.
+         */
+        private VirtualScheduler scheduler;
+
+        /**
+         * The Connection interval.
+         */
+        private long connectionInterval = DEFAULT_CONNECTION_INTERVAL;
+
+        /**
+         * The Packets per event.
+         */
+        private int packetsPerEvent = DEFAULT_PACKETS_PER_EVENT;
+
+        /**
+         * The Max mtu.
+         */
+        private int maxMtu = LoopbackTransport.DEFAULT_MAX_MTU;
+
+        /**
+         * The Tx buffer.
+         */
+        private int txBuffer = DEFAULT_TX_BUFFER;
+
+        /**
+         * The Connect events.
+         */
+        private int connectEvents = DEFAULT_CONNECT_EVENTS;
+
+        /**
+         * The Drop rate.
+         */
+        private double dropRate;
+
+        /**
+         * The Error rate.
+         */
+        private double errorRate;
+
+        /**
+         * The Error status.
+         */
+        private int errorStatus = DEFAULT_ERROR_STATUS;
+
+        /**
+         * The Disconnect rate.
+         */
+        private double disconnectRate;
+
+        /**
+         * The Seed.
+         */
+        private long seed;
+
+        /**
+         * 虚拟时间调度(不传有默认)，与TransportClient共用同一个
+         *
+         * @param scheduler the scheduler
+         * @return the builder
+         */
+        public Builder scheduler(VirtualScheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * 连接间隔，微秒，7.5ms到4s
+         *
+         * @param micros the micros
+         * @return the builder
+         */
+        public Builder connectionInterval(long micros) {
+            if (micros < 7500 || micros > 4000000) {
+                throw new IllegalArgumentException("连接间隔需在7500到4000000微秒之间");
+            }
+            this.connectionInterval = micros;
+            return this;
+        }
+
+        /**
+         * 每个连接事件每个方向最多发送的包数
+         *
+         * @param packetsPerEvent the packets per event
+         * @return the builder
+         */
+        public Builder packetsPerEvent(int packetsPerEvent) {
+            if (packetsPerEvent <= 0) {
+                throw new IllegalArgumentException("每个连接事件的包数必须大于0");
+            }
+            this.packetsPerEvent = packetsPerEvent;
+            return this;
+        }
+
+        /**
+         * 对端支持的最大MTU，MTU交换结果取请求值与该值的较小者
+         *
+         * @param maxMtu the max mtu
+         * @return the builder
+         */
+        public Builder maxMtu(int maxMtu) {
+            if (maxMtu < DEFAULT_MTU) {
+                throw new IllegalArgumentException("最大MTU不能小于" + DEFAULT_MTU);
+            }
+            this.maxMtu = maxMtu;
+            return this;
+        }
+
+        /**
+         * 控制器缓冲包数，无响应写入缓冲满时提交失败
+         *
+         * @param txBuffer the tx buffer
+         * @return the builder
+         */
+        public Builder txBuffer(int txBuffer) {
+            if (txBuffer <= 0) {
+                throw new IllegalArgumentException("控制器缓冲包数必须大于0");
+            }
+            this.txBuffer = txBuffer;
+            return this;
+        }
+
+        /**
+         * 建立连接所需的连接事件数
+         *
+         * @param connectEvents the connect events
+         * @return the builder
+         */
+        public Builder connectEvents(int connectEvents) {
+            if (connectEvents < 0) {
+                throw new IllegalArgumentException("建立连接的连接事件数不能小于0");
+            }
+            this.connectEvents = connectEvents;
+            return this;
+        }
+
+        /**
+         * 无响应写入与通知的丢包率
+         *
+         * @param dropRate 0到1
+         * @return the builder
+         */
+        public Builder dropRate(double dropRate) {
+            this.dropRate = checkRate(dropRate);
+            return this;
+        }
+
+        /**
+         * 有响应写入与读取返回GATT错误的概率
+         *
+         * @param errorRate   0到1
+         * @param errorStatus 返回的状态，如0x85
+         * @return the builder
+         */
+        public Builder gattError(double errorRate, int errorStatus) {
+            this.errorRate = checkRate(errorRate);
+            this.errorStatus = errorStatus;
+            return this;
+        }
+
+        /**
+         * 每个有数据的连接事件断开链路的概率，断开状态为0x08
+         *
+         * @param disconnectRate 0到1
+         * @return the builder
+         */
+        public Builder disconnectRate(double disconnectRate) {
+            this.disconnectRate = checkRate(disconnectRate);
+            return this;
+        }
+
+        /**
+         * 随机数种子
+         *
+         * @param seed the seed
+         * @return the builder
+         */
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * Build link simulator.
+         *
+         * @return the link simulator
+         */
+        public LinkSimulator build() {
+            return new LinkSimulator(this);
+        }
+
+        /**
+         * Check rate.
+         *
+         * @param rate the rate
+         * @return the double
+         */
+        private static double checkRate(double rate) {
+            if (rate < 0 || rate > 1) {
+                throw new IllegalArgumentException("概率需在0到1之间");
+            }
+            return rate;
+        }
+    }
+
+    /**
+     * 获取虚拟时间调度
+     *
+     * @return the scheduler
+     */
+    public VirtualScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * 获取服务端，客户端以地址标识
+     *
+     * @return the server
+     */
+    public ServerTransport<String> getServer() {
+        return server;
+    }
+
+    /**
+     * 创建客户端
+     *
+     * @param address 客户端地址，不能重复
+     * @return the client transport
+     */
+    public ClientTransport createClient(String address) {
+        Link link = new Link(address);
+        if (links.putIfAbsent(address, link) != null) {
+            throw new IllegalArgumentException("客户端地址已存在：" + address);
+        }
+        return link;
+    }
+
+    /**
+     * 立即断开链路，双方收到超时断开
+     *
+     * @param address the address
+     */
+    public void dropLink(String address) {
+        Link link = links.get(address);
+        if (link != null) {
+            link.drop(STATUS_CONNECTION_TIMEOUT);
+        }
+    }
+
+    /**
+     * 获取有数据的连接事件数
+     *
+     * @return the event count
+     */
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * 获取空中发送的包数
+     *
+     * @return the packet count
+     */
+    public long getPacketCount() {
+        return packetCount;
+    }
+
+    /**
+     * 获取空中发送的字节数，不含ATT头
+     *
+     * @return the byte count
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * 获取丢弃的包数
+     *
+     * @return the dropped count
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * 获取返回错误的操作数
+     *
+     * @return the error count
+     */
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * 获取链路断开次数
+     *
+     * @return the disconnect count
+     */
+    public long getDisconnectCount() {
+        return disconnectCount;
+    }
+
+    /**
+     * 按概率判定
+     *
+     * @param rate the rate
+     * @return the boolean
+     */
+    private boolean chance(double rate) {
+        return rate > 0 && random.nextDouble() < rate;
+    }
+
+    /**
+     * 模拟服务端
+     */
+    private class Server implements ServerTransport<String> {
+
+        /**
+         * The Listener.
+         */
+        private Listener<String> listener;
+
+        @Override
+        public void setListener(Listener<String> listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public boolean notify(String device, byte[] value) {
+            Link link = links.get(device);
+            if (link == null || !link.connected || value.length > link.mtu - ATT_HEADER || link.downstream.size() >= txBuffer) {
+                return false;
+            }
+            link.downstream.offer(new Packet(PACKET_NOTIFY, Arrays.copyOf(value, value.length)));
+            link.ensureEvent();
+            return true;
+        }
+
+        @Override
+        public void disconnect(String device) {
+            Link link = links.get(device);
+            if (link != null) {
+                link.drop(STATUS_SUCCESS);
+            }
+        }
+    }
+
+    /**
+     * 空中的包
+     */
+    private static final class Packet {
+
+        /**
+         * 包类型
+         */
+        final int type;
+
+        /**
+         * The Data.
+         */
+        final byte[] data;
+
+        /**
+         * Instantiates a new Packet.
+         *
+         * @param type the type
+         * @param data the data
+         */
+        Packet(int type, byte[] data) {
+            this.type = type;
+            this.data = data;
+        }
+    }
+
+    /**
+     * 一条模拟链路，同时是该客户端的传输
+     */
+    private class Link implements ClientTransport {
+
+        /**
+         * The Address.
+         */
+        private final String address;
+
+        /**
+         * 客户端到服务端的包
+         */
+        private final ArrayDeque<Packet> upstream = new ArrayDeque<>();
+
+        /**
+         * 服务端到客户端的包
+         */
+        private final ArrayDeque<Packet> downstream = new ArrayDeque<>();
+
+        /**
+         * 下一个连接事件返回的响应
+         */
+        private final List<Runnable> responses = new ArrayList<>();
+
+        /**
+         * The Listener.
+         */
+        private Listener listener;
+
+        /**
+         * The Connected.
+         */
+        private boolean connected;
+
+        /**
+         * 是否正在建立连接
+         */
+        private boolean connecting;
+
+        /**
+         * The Mtu.
+         */
+        private int mtu = DEFAULT_MTU;
+
+        /**
+         * 连接建立时间，连接事件以此为基准按间隔对齐
+         */
+        private long anchor;
+
+        /**
+         * 是否已安排连接事件
+         */
+        private boolean hasEvent;
+
+        /**
+         * 连接事件
+         */
+        private final Runnable connectionEvent = new Runnable() {
+            @Override
+            public void run() {
+                onConnectionEvent();
+            }
+        };
+
+        /**
+         * 连接完成
+         */
+        private final Runnable connectComplete = new Runnable() {
+            @Override
+            public void run() {
+                connecting = false;
+                connected = true;
+                mtu = DEFAULT_MTU;
+                anchor = scheduler.nowMicros();
+                ServerTransport.Listener<String> current = server.listener;
+                if (current != null) {
+                    current.onConnectionStateChange(address, true);
+                }
+                if (listener != null) {
+                    listener.onConnectionStateChange(STATUS_SUCCESS, true);
+                }
+            }
+        };
+
+        /**
+         * Instantiates a new Link.
+         *
+         * @param address the address
+         */
+        Link(String address) {
+            this.address = address;
+        }
+
+        @Override
+        public void setListener(Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public boolean connect(boolean autoConnect) {
+            if (connected || connecting) {
+                return false;
+            }
+            connecting = true;
+            scheduler.scheduleMicros(connectComplete, connectEvents * connectionInterval);
+            return true;
+        }
+
+        @Override
+        public void disconnect() {
+            if (connecting) {
+                connecting = false;
+                scheduler.cancel(connectComplete);
+            }
+            drop(STATUS_SUCCESS);
+        }
+
+        @Override
+        public boolean requestMtu(int mtu) {
+            return submit(new Packet(PACKET_MTU, new byte[]{(byte) (mtu >> 8), (byte) mtu}));
+        }
+
+        @Override
+        public boolean write(byte[] value, int writeType) {
+            if (value.length > mtu - ATT_HEADER) {
+                return false;
+            }
+            int type = writeType == WRITE_TYPE_NO_RESPONSE ? PACKET_WRITE_COMMAND : PACKET_WRITE_REQUEST;
+            if (!submit(new Packet(type, Arrays.copyOf(value, value.length)))) {
+                return false;
+            }
+            if (type == PACKET_WRITE_COMMAND) {
+                scheduler.scheduleMicros(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (connected && listener != null) {
+                            listener.onWriteComplete(STATUS_SUCCESS);
+                        }
+                    }
+                }, 0);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean read() {
+            return submit(new Packet(PACKET_READ, null));
+        }
+
+        /**
+         * 放入控制器缓冲
+         *
+         * @param packet the packet
+         * @return 缓冲满或未连接时返回false
+         */
+        private boolean submit(Packet packet) {
+            if (!connected || upstream.size() >= txBuffer) {
+                return false;
+            }
+            upstream.offer(packet);
+            ensureEvent();
+            return true;
+        }
+
+        /**
+         * 还没有安排连接事件时安排在下一个间隔点
+         */
+        private void ensureEvent() {
+            if (hasEvent) {
+                return;
+            }
+            hasEvent = true;
+            long elapsed = scheduler.nowMicros() - anchor;
+            scheduler.scheduleAt(connectionEvent, anchor + (elapsed / connectionInterval + 1) * connectionInterval);
+        }
+
+        /**
+         * 连接事件：先返回上个事件的响应，再按包数上限收发
+         */
+        private void onConnectionEvent() {
+            hasEvent = false;
+            if (!connected || (upstream.isEmpty() && downstream.isEmpty() && responses.isEmpty())) {
+                return;
+            }
+            eventCount++;
+            if (chance(disconnectRate)) {
+                drop(STATUS_CONNECTION_TIMEOUT);
+                return;
+            }
+            List<Runnable> due = new ArrayList<>(responses);
+            responses.clear();
+            for (Runnable response : due) {
+                if (!connected) {
+                    return;
+                }
+                response.run();
+            }
+            for (int i = 0; i < packetsPerEvent && connected; i++) {
+                Packet packet = upstream.poll();
+                if (packet == null) {
+                    break;
+                }
+                transmitUpstream(packet);
+            }
+            for (int i = 0; i < packetsPerEvent && connected; i++) {
+                Packet packet = downstream.poll();
+                if (packet == null) {
+                    break;
+                }
+                transmitDownstream(packet);
+            }
+            if (connected && (!upstream.isEmpty() || !downstream.isEmpty() || !responses.isEmpty())) {
+                ensureEvent();
+            }
+        }
+
+        /**
+         * 客户端到服务端
+         *
+         * @param packet the packet
+         */
+        private void transmitUpstream(final Packet packet) {
+            packetCount++;
+            byteCount += packet.data == null ? 0 : packet.data.length;
+            final ServerTransport.Listener<String> current = server.listener;
+            switch (packet.type) {
+                case PACKET_WRITE_COMMAND:
+                    if (chance(dropRate)) {
+                        droppedCount++;
+                    } else if (current != null) {
+                        current.onWrite(address, packet.data);
+                    }
+                    break;
+                case PACKET_WRITE_REQUEST:
+                    final int writeStatus = respondStatus();
+                    if (writeStatus == STATUS_SUCCESS && current != null) {
+                        current.onWrite(address, packet.data);
+                    }
+                    responses.add(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (listener != null) {
+                                listener.onWriteComplete(writeStatus);
+                            }
+                        }
+                    });
+                    break;
+                case PACKET_READ:
+                    final int readStatus = respondStatus();
+                    byte[] value = readStatus == STATUS_SUCCESS && current != null ? current.onRead(address) : null;
+                    final byte[] copy = value == null ? new byte[0] : Arrays.copyOf(value, value.length);
+                    responses.add(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (listener != null) {
+                                listener.onReadComplete(copy, readStatus);
+                            }
+                        }
+                    });
+                    break;
+                case PACKET_MTU:
+                    int requested = (packet.data[0] & 0xFF) << 8 | (packet.data[1] & 0xFF);
+                    final int negotiated = Math.max(DEFAULT_MTU, Math.min(requested, maxMtu));
+                    responses.add(new Runnable() {
+                        @Override
+                        public void run() {
+                            mtu = negotiated;
+                            if (current != null) {
+                                current.onMtuChanged(address, negotiated);
+                            }
+                            if (listener != null) {
+                                listener.onMtuChanged(negotiated, STATUS_SUCCESS);
+                            }
+                        }
+                    });
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        /**
+         * 服务端到客户端，丢弃的通知服务端同样收到发送完成
+         *
+         * @param packet the packet
+         */
+        private void transmitDownstream(Packet packet) {
+            packetCount++;
+            byteCount += packet.data.length;
+            if (chance(dropRate)) {
+                droppedCount++;
+            } else if (listener != null) {
+                listener.onNotify(packet.data);
+            }
+            ServerTransport.Listener<String> current = server.listener;
+            if (current != null && connected) {
+                current.onNotificationSent(address, STATUS_SUCCESS);
+            }
+        }
+
+        /**
+         * 有响应操作的状态
+         *
+         * @return the int
+         */
+        private int respondStatus() {
+            if (chance(errorRate)) {
+                errorCount++;
+                return errorStatus;
+            }
+            return STATUS_SUCCESS;
+        }
+
+        /**
+         * 断开，丢弃缓冲中的包与未返回的响应，双方各收到一次断开回调
+         *
+         * @param status the status
+         */
+        void drop(int status) {
+            if (!connected) {
+                return;
+            }
+            connected = false;
+            disconnectCount++;
+            upstream.clear();
+            downstream.clear();
+            responses.clear();
+            scheduler.cancel(connectionEvent);
+            hasEvent = false;
+            ServerTransport.Listener<String> current = server.listener;
+            if (current != null) {
+                current.onConnectionStateChange(address, false);
+            }
+            if (listener != null) {
+                listener.onConnectionStateChange(status, false);
+            }
+        }
+    }
+}
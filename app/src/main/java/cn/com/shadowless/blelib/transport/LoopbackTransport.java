@@ -0,0 +1,367 @@
+package cn.com.shadowless.blelib.transport;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 内存回环传输
+ * <p>
+ * 在同一JVM内把若干客户端接到一个服务端上，写入与通知复制后投递给对端，
+ * 所有事件在同一个线程上按提交顺序回调，与协议栈的单线程回调一致，
+ * 用于在没有蓝牙硬件的环境下压测队列、分包与重连。
+ *
+ * @author sHadowLess
+ */
+public class LoopbackTransport {
+
+    /**
+     * 默认最大MTU
+     */
+    public static final int DEFAULT_MAX_MTU = 517;
+
+    /**
+     * 默认MTU
+     */
+    public static final int DEFAULT_MTU = 23;
+
+    /**
+     * ATT头长度
+     */
+    private static final int ATT_HEADER = 3;
+
+    /**
+     * 成功状态
+     */
+    private static final int STATUS_SUCCESS = 0;
+
+    /**
+     * 连接超时断开，同BluetoothGatt的0x08
+     */
+    private static final int STATUS_CONNECTION_TIMEOUT = 0x08;
+
+    /**
+     * 最大MTU
+     */
+    private final int maxMtu;
+
+    /**
+     * 事件线程
+     */
+    private final ExecutorService executor;
+
+    /**
+     * 服务端
+     */
+    private final Server server = new Server();
+
+    /**
+     * 各客户端，key为地址
+     */
+    private final ConcurrentHashMap<String, Client> clients = new ConcurrentHashMap<>();
+
+    /**
+     * Instantiates a new Loopback transport.
+     */
+    public LoopbackTransport() {
+        this(DEFAULT_MAX_MTU);
+    }
+
+    /**
+     * Instantiates a new Loopback transport.
+     *
+     * @param maxMtu 双方都支持的最大MTU
+     */
+    public LoopbackTransport(int maxMtu) {
+        if (maxMtu < DEFAULT_MTU) {
+            throw new IllegalArgumentException("最大MTU不能小于" + DEFAULT_MTU);
+        }
+        this.maxMtu = maxMtu;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ble-loopback");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 获取服务端，客户端以地址标识
+     *
+     * @return the server
+     */
+    public ServerTransport<String> getServer() {
+        return server;
+    }
+
+    /**
+     * 创建客户端
+     *
+     * @param address 客户端地址，不能重复
+     * @return the client transport
+     */
+    public ClientTransport createClient(String address) {
+        Client client = new Client(address);
+        if (clients.putIfAbsent(address, client) != null) {
+            throw new IllegalArgumentException("客户端地址已存在：" + address);
+        }
+        return client;
+    }
+
+    /**
+     * 模拟链路丢失，客户端收到超时断开
+     *
+     * @param address the address
+     */
+    public void dropLink(String address) {
+        final Client client = clients.get(address);
+        if (client == null) {
+            return;
+        }
+        post(new Runnable() {
+            @Override
+            public void run() {
+                client.drop(STATUS_CONNECTION_TIMEOUT);
+            }
+        });
+    }
+
+    /**
+     * 关闭事件线程
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 投递到事件线程
+     *
+     * @param task the task
+     * @return 是否投递成功
+     */
+    private boolean post(Runnable task) {
+        if (executor.isShutdown()) {
+            return false;
+        }
+        executor.execute(task);
+        return true;
+    }
+
+    /**
+     * 回环服务端
+     */
+    private class Server implements ServerTransport<String> {
+
+        /**
+         * The Listener.
+         */
+        private volatile Listener<String> listener;
+
+        @Override
+        public void setListener(Listener<String> listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public boolean notify(final String device, byte[] value) {
+            final Client client = clients.get(device);
+            if (client == null || !client.connected || value.length > client.mtu - ATT_HEADER) {
+                return false;
+            }
+            final byte[] copy = Arrays.copyOf(value, value.length);
+            return post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!client.connected) {
+                        return;
+                    }
+                    ClientTransport.Listener current = client.listener;
+                    if (current != null) {
+                        current.onNotify(copy);
+                    }
+                    Listener<String> server = listener;
+                    if (server != null) {
+                        server.onNotificationSent(device, STATUS_SUCCESS);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void disconnect(String device) {
+            final Client client = clients.get(device);
+            if (client == null) {
+                return;
+            }
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    client.drop(STATUS_SUCCESS);
+                }
+            });
+        }
+    }
+
+    /**
+     * 回环客户端
+     */
+    private class Client implements ClientTransport {
+
+        /**
+         * The Address.
+         */
+        private final String address;
+
+        /**
+         * The Listener.
+         */
+        private volatile Listener listener;
+
+        /**
+         * The Connected.
+         */
+        private volatile boolean connected;
+
+        /**
+         * The Mtu.
+         */
+        private volatile int mtu = DEFAULT_MTU;
+
+        /**
+         * Instantiates a new Client.
+         *
+         * @param address the address
+         */
+        Client(String address) {
+            this.address = address;
+        }
+
+        @Override
+        public void setListener(Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public boolean connect(boolean autoConnect) {
+            return post(new Runnable() {
+                @Override
+                public void run() {
+                    if (connected) {
+                        return;
+                    }
+                    connected = true;
+                    mtu = DEFAULT_MTU;
+                    ServerTransport.Listener<String> server = LoopbackTransport.this.server.listener;
+                    if (server != null) {
+                        server.onConnectionStateChange(address, true);
+                    }
+                    Listener current = listener;
+                    if (current != null) {
+                        current.onConnectionStateChange(STATUS_SUCCESS, true);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void disconnect() {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    drop(STATUS_SUCCESS);
+                }
+            });
+        }
+
+        @Override
+        public boolean requestMtu(final int mtu) {
+            if (!connected) {
+                return false;
+            }
+            return post(new Runnable() {
+                @Override
+                public void run() {
+                    int negotiated = Math.max(DEFAULT_MTU, Math.min(mtu, maxMtu));
+                    Client.this.mtu = negotiated;
+                    ServerTransport.Listener<String> server = LoopbackTransport.this.server.listener;
+                    if (server != null) {
+                        server.onMtuChanged(address, negotiated);
+                    }
+                    Listener current = listener;
+                    if (current != null) {
+                        current.onMtuChanged(negotiated, STATUS_SUCCESS);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public boolean write(byte[] value, int writeType) {
+            if (!connected || value.length > mtu - ATT_HEADER) {
+                return false;
+            }
+            final byte[] copy = Arrays.copyOf(value, value.length);
+            return post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!connected) {
+                        return;
+                    }
+                    ServerTransport.Listener<String> server = LoopbackTransport.this.server.listener;
+                    if (server != null) {
+                        server.onWrite(address, copy);
+                    }
+                    Listener current = listener;
+                    if (current != null) {
+                        current.onWriteComplete(STATUS_SUCCESS);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public boolean read() {
+            if (!connected) {
+                return false;
+            }
+            return post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!connected) {
+                        return;
+                    }
+                    ServerTransport.Listener<String> server = LoopbackTransport.this.server.listener;
+                    byte[] value = server == null ? null : server.onRead(address);
+                    Listener current = listener;
+                    if (current != null) {
+                        current.onReadComplete(value == null ? new byte[0] : Arrays.copyOf(value, value.length), STATUS_SUCCESS);
+                    }
+                }
+            });
+        }
+
+        /**
+         * 在事件线程上断开，双方各收到一次断开回调
+         *
+         * @param status the status
+         */
+        void drop(int status) {
+            if (!connected) {
+                return;
+            }
+            connected = false;
+            ServerTransport.Listener<String> server = LoopbackTransport.this.server.listener;
+            if (server != null) {
+                server.onConnectionStateChange(address, false);
+            }
+            Listener current = listener;
+            if (current != null) {
+                current.onConnectionStateChange(status, false);
+            }
+        }
+    }
+}
@@ -0,0 +1,641 @@
+package cn.com.shadowless.blelib.transport;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 可靠传输，在不可靠的写入/通知之上提供按序、去重、带重传的分包传递
+ * <p>
+ * 数据包格式：[类型 1字节][序号 2字节][载荷][CRC-16/CCITT 2字节]
+ * 确认包格式：[类型 1字节][期望序号 2字节][选择确认位图][CRC-16/CCITT 2字节]
+ * 位图第i位表示序号 期望序号+1+i 已收到，发送端据此只重传缺失的数据包。
+ * 底层链路按序到达，因此某个缺口之后发出的包已被确认即可判定缺口丢失，无需等待超时。
+ * 重传超时按往返时间估计自适应(RFC 6298)，超时只重传最早的包并指数退避，避免拥塞时重复发送整个窗口。
+ *
+ * @author sHadowLess
+ */
+public class ReliableStream {
+
+    /**
+     * 数据包
+     */
+    public static final int TYPE_DATA = 0x01;
+
+    /**
+     * 确认包
+     */
+    public static final int TYPE_ACK = 0x02;
+
+    /**
+     * 包头长度
+     */
+    public static final int HEADER_SIZE = 3;
+
+    /**
+     * 校验长度
+     */
+    public static final int CRC_SIZE = 2;
+
+    /**
+     * 每个数据包的额外开销
+     */
+    public static final int OVERHEAD = HEADER_SIZE + CRC_SIZE;
+
+    /**
+     * 默认发送窗口
+     */
+    public static final int DEFAULT_WINDOW = 32;
+
+    /**
+     * 最大发送窗口，保证默认MTU下确认包能装下位图
+     */
+    public static final int MAX_WINDOW = 64;
+
+    /**
+     * 默认延迟确认时间
+     */
+    public static final long DEFAULT_ACK_DELAY = 20;
+
+    /**
+     * 默认重传超时
+     */
+    public static final long DEFAULT_RETRANSMIT_TIMEOUT = 300;
+
+    /**
+     * 超时退避上限倍数
+     */
+    private static final int MAX_BACKOFF = 64;
+
+    /**
+     * 序号空间
+     */
+    private static final int SEQ_MASK = 0xFFFF;
+
+    /**
+     * CRC-16/CCITT表
+     */
+    private static final int[] CRC_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int j = 0; j < 8; j++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            CRC_TABLE[i] = crc & 0xFFFF;
+        }
+    }
+
+    /**
+     * 底层发送
+     */
+    public interface Sink {
+        /**
+         * 发送一个包，允许丢失
+         *
+         * @param packet the packet
+         */
+        void send(byte[] packet);
+    }
+
+    /**
+     * 按序交付
+     */
+    public interface Receiver {
+        /**
+         * 按发送顺序交付载荷，每个载荷只交付一次
+         *
+         * @param payload the payload
+         */
+        void onReceive(byte[] payload);
+    }
+
+    /**
+     * 底层发送
+     */
+    private final Sink sink;
+
+    /**
+     * 按序交付
+     */
+    private final Receiver receiver;
+
+    /**
+     * 定时调度
+     */
+    private final Scheduler scheduler;
+
+    /**
+     * 发送窗口
+     */
+    private final int window;
+
+    /**
+     * 延迟确认时间
+     */
+    private final long ackDelay;
+
+    /**
+     * 最小重传超时
+     */
+    private final long retransmitTimeout;
+
+    /**
+     * 尚未分配序号的载荷
+     */
+    private final ArrayDeque<byte[]> pending = new ArrayDeque<>();
+
+    /**
+     * 已发送未确认的包，按序号取模存放
+     */
+    private final byte[][] inFlight;
+
+    /**
+     * 已被选择确认
+     */
+    private final boolean[] selectiveAcked;
+
+    /**
+     * 最近一次发送的发送次序
+     */
+    private final long[] sendOrder;
+
+    /**
+     * 最近一次发送的时间
+     */
+    private final long[] sendTime;
+
+    /**
+     * 是否重传过，重传过的包不用于估计往返时间
+     */
+    private final boolean[] retransmitted;
+
+    /**
+     * 乱序到达的载荷，按序号取模存放
+     */
+    private final byte[][] outOfOrder;
+
+    /**
+     * 最早未确认的序号
+     */
+    private int base;
+
+    /**
+     * 下一个分配的序号
+     */
+    private int nextSeq;
+
+    /**
+     * 发送次序计数
+     */
+    private long sendCounter;
+
+    /**
+     * 期望收到的序号
+     */
+    private int expected;
+
+    /**
+     * 上次确认后收到的包数
+     */
+    private int receivedSinceAck;
+
+    /**
+     * 平滑往返时间，毫秒，-1为尚未采样
+     */
+    private long smoothedRtt = -1;
+
+    /**
+     * 往返时间偏差，毫秒
+     */
+    private long rttVariance;
+
+    /**
+     * 超时退避倍数
+     */
+    private int backoff = 1;
+
+    /**
+     * 重传次数
+     */
+    private long retransmitCount;
+
+    /**
+     * 校验失败次数
+     */
+    private long corruptCount;
+
+    /**
+     * 重复包次数
+     */
+    private long duplicateCount;
+
+    /**
+     * 延迟确认
+     */
+    private final Runnable ackTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ReliableStream.this) {
+                sendAck();
+            }
+        }
+    };
+
+    /**
+     * 超时重传
+     */
+    private final Runnable retransmitTask = new Runnable() {
+        @Override
+        public void run() {
+            onRetransmitTimeout();
+        }
+    };
+
+    /**
+     * 使用默认参数
+     *
+     * @param sink      the sink
+     * @param receiver  the receiver
+     * @param scheduler the scheduler
+     */
+    public ReliableStream(Sink sink, Receiver receiver, Scheduler scheduler) {
+        this(sink, receiver, scheduler, DEFAULT_WINDOW, DEFAULT_ACK_DELAY, DEFAULT_RETRANSMIT_TIMEOUT);
+    }
+
+    /**
+     * Instantiates a new Reliable stream.
+     *
+     * @param sink              the sink
+     * @param receiver          the receiver
+     * @param scheduler         the scheduler
+     * @param window            the window
+     * @param ackDelay          the ack delay
+     * @param retransmitTimeout the retransmit timeout
+     */
+    public ReliableStream(Sink sink, Receiver receiver, Scheduler scheduler, int window, long ackDelay, long retransmitTimeout) {
+        if (window < 1 || window > MAX_WINDOW || (window & (window - 1)) != 0) {
+            throw new IllegalArgumentException("发送窗口需为1~" + MAX_WINDOW + "之间的2的幂");
+        }
+        if (ackDelay < 0 || retransmitTimeout <= ackDelay) {
+            throw new IllegalArgumentException("重传超时需大于延迟确认时间");
+        }
+        this.sink = sink;
+        this.receiver = receiver;
+        this.scheduler = scheduler;
+        this.window = window;
+        this.ackDelay = ackDelay;
+        this.retransmitTimeout = retransmitTimeout;
+        this.inFlight = new byte[window][];
+        this.selectiveAcked = new boolean[window];
+        this.sendOrder = new long[window];
+        this.sendTime = new long[window];
+        this.retransmitted = new boolean[window];
+        this.outOfOrder = new byte[window][];
+    }
+
+    /**
+     * 发送一组载荷，超出窗口的部分排队等待确认
+     *
+     * @param payloads the payloads
+     */
+    public synchronized void send(List<byte[]> payloads) {
+        pending.addAll(payloads);
+        fillWindow();
+    }
+
+    /**
+     * 发送一组载荷，排队的载荷超过容量时拒绝，排队为空时总是接受
+     *
+     * @param payloads the payloads
+     * @param capacity 排队载荷数上限
+     * @return 是否接受
+     */
+    public synchronized boolean offer(List<byte[]> payloads, int capacity) {
+        if (!pending.isEmpty() && pending.size() + payloads.size() > capacity) {
+            return false;
+        }
+        send(payloads);
+        return true;
+    }
+
+    /**
+     * 处理底层收到的包，校验失败的包直接丢弃
+     *
+     * @param packet the packet
+     */
+    public void onPacket(byte[] packet) {
+        List<byte[]> delivered = null;
+        synchronized (this) {
+            if (packet == null || packet.length < OVERHEAD || crc(packet, 0, packet.length - CRC_SIZE)
+                    != ((packet[packet.length - 2] & 0xFF) << 8 | packet[packet.length - 1] & 0xFF)) {
+                corruptCount++;
+                return;
+            }
+            int seq = (packet[1] & 0xFF) << 8 | packet[2] & 0xFF;
+            if (packet[0] == TYPE_DATA) {
+                delivered = onData(seq, packet);
+            } else if (packet[0] == TYPE_ACK) {
+                onAck(seq, packet);
+            } else {
+                corruptCount++;
+            }
+        }
+        if (delivered != null) {
+            for (byte[] payload : delivered) {
+                receiver.onReceive(payload);
+            }
+        }
+    }
+
+    /**
+     * 连接断开后重置双方状态，未确认的载荷随之丢弃
+     */
+    public synchronized void reset() {
+        scheduler.cancel(ackTask);
+        scheduler.cancel(retransmitTask);
+        pending.clear();
+        for (int i = 0; i < window; i++) {
+            inFlight[i] = null;
+            selectiveAcked[i] = false;
+            outOfOrder[i] = null;
+        }
+        base = 0;
+        nextSeq = 0;
+        expected = 0;
+        receivedSinceAck = 0;
+        smoothedRtt = -1;
+        rttVariance = 0;
+        backoff = 1;
+    }
+
+    /**
+     * 已发送未确认的包数
+     *
+     * @return the in flight count
+     */
+    public synchronized int getInFlightCount() {
+        return (nextSeq - base) & SEQ_MASK;
+    }
+
+    /**
+     * 排队中的载荷数
+     *
+     * @return the pending count
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Gets retransmit count.
+     *
+     * @return the retransmit count
+     */
+    public synchronized long getRetransmitCount() {
+        return retransmitCount;
+    }
+
+    /**
+     * Gets corrupt count.
+     *
+     * @return the corrupt count
+     */
+    public synchronized long getCorruptCount() {
+        return corruptCount;
+    }
+
+    /**
+     * 当前重传超时
+     *
+     * @return 毫秒
+     */
+    public synchronized long getRetransmitTimeout() {
+        long timeout = smoothedRtt < 0 ? retransmitTimeout : Math.max(retransmitTimeout, smoothedRtt + 4 * rttVariance);
+        return timeout * backoff;
+    }
+
+    /**
+     * Gets duplicate count.
+     *
+     * @return the duplicate count
+     */
+    public synchronized long getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * 收到数据包
+     *
+     * @param seq    the seq
+     * @param packet the packet
+     * @return 按序可交付的载荷
+     */
+    private List<byte[]> onData(int seq, byte[] packet) {
+        int offset = (seq - expected) & SEQ_MASK;
+        if (offset >= window) {
+            // 重复包，说明之前的确认丢失，立即重新确认
+            duplicateCount++;
+            sendAck();
+            return null;
+        }
+        int slot = seq % window;
+        if (outOfOrder[slot] != null) {
+            duplicateCount++;
+            sendAck();
+            return null;
+        }
+        byte[] payload = new byte[packet.length - OVERHEAD];
+        System.arraycopy(packet, HEADER_SIZE, payload, 0, payload.length);
+        outOfOrder[slot] = payload;
+        List<byte[]> delivered = null;
+        while (outOfOrder[expected % window] != null) {
+            if (delivered == null) {
+                delivered = new ArrayList<>();
+            }
+            delivered.add(outOfOrder[expected % window]);
+            outOfOrder[expected % window] = null;
+            expected = (expected + 1) & SEQ_MASK;
+        }
+        receivedSinceAck++;
+        if (offset > 0 || receivedSinceAck >= Math.max(1, window / 4)) {
+            // 出现缺口时立即确认，让发送端尽快补发
+            sendAck();
+        } else {
+            scheduler.schedule(ackTask, ackDelay);
+        }
+        return delivered;
+    }
+
+    /**
+     * 收到确认包
+     *
+     * @param next   对端期望的序号
+     * @param packet the packet
+     */
+    private void onAck(int next, byte[] packet) {
+        int acked = (next - base) & SEQ_MASK;
+        if (acked > getInFlightCount()) {
+            return;
+        }
+        long newestAckedOrder = -1;
+        for (int i = 0; i < acked; i++) {
+            int slot = (base + i) % window;
+            newestAckedOrder = Math.max(newestAckedOrder, sendOrder[slot]);
+            inFlight[slot] = null;
+            selectiveAcked[slot] = false;
+        }
+        if (acked > 0) {
+            int last = (base + acked - 1) % window;
+            if (!retransmitted[last]) {
+                sampleRtt(scheduler.now() - sendTime[last]);
+            }
+            backoff = 1;
+        }
+        base = next;
+        int bitmapSize = packet.length - OVERHEAD;
+        int inFlightCount = getInFlightCount();
+        for (int i = 0; i < bitmapSize * 8 && i + 1 < inFlightCount; i++) {
+            if ((packet[HEADER_SIZE + i / 8] & (1 << (i % 8))) != 0) {
+                int slot = (base + 1 + i) % window;
+                selectiveAcked[slot] = true;
+                newestAckedOrder = Math.max(newestAckedOrder, sendOrder[slot]);
+            }
+        }
+        // 链路按序到达，早于某个已确认包发出却没到的包必然丢失
+        for (int i = 0; i < inFlightCount; i++) {
+            int slot = (base + i) % window;
+            if (!selectiveAcked[slot] && sendOrder[slot] < newestAckedOrder) {
+                retransmit(slot);
+            }
+        }
+        fillWindow();
+        if (getInFlightCount() == 0) {
+            scheduler.cancel(retransmitTask);
+        } else if (acked > 0) {
+            scheduler.schedule(retransmitTask, getRetransmitTimeout());
+        }
+    }
+
+    /**
+     * 超时后重传最早未确认的包并退避，其余缺口由随后的选择确认触发重传
+     */
+    private synchronized void onRetransmitTimeout() {
+        if (getInFlightCount() == 0) {
+            return;
+        }
+        retransmit(base % window);
+        backoff = Math.min(MAX_BACKOFF, backoff * 2);
+        scheduler.schedule(retransmitTask, getRetransmitTimeout());
+    }
+
+    /**
+     * 按RFC 6298更新往返时间估计
+     *
+     * @param rtt the rtt
+     */
+    private void sampleRtt(long rtt) {
+        if (smoothedRtt < 0) {
+            smoothedRtt = rtt;
+            rttVariance = rtt / 2;
+            return;
+        }
+        rttVariance = (3 * rttVariance + Math.abs(smoothedRtt - rtt)) / 4;
+        smoothedRtt = (7 * smoothedRtt + rtt) / 8;
+    }
+
+    /**
+     * 在窗口允许时为排队的载荷分配序号并发送
+     */
+    private void fillWindow() {
+        boolean idle = getInFlightCount() == 0;
+        while (!pending.isEmpty() && getInFlightCount() < window) {
+            byte[] payload = pending.poll();
+            int seq = nextSeq;
+            byte[] packet = new byte[payload.length + OVERHEAD];
+            packet[0] = TYPE_DATA;
+            packet[1] = (byte) (seq >> 8);
+            packet[2] = (byte) seq;
+            System.arraycopy(payload, 0, packet, HEADER_SIZE, payload.length);
+            int slot = seq % window;
+            inFlight[slot] = packet;
+            selectiveAcked[slot] = false;
+            retransmitted[slot] = false;
+            nextSeq = (nextSeq + 1) & SEQ_MASK;
+            writeCrc(packet);
+            transmit(slot);
+        }
+        if (idle && getInFlightCount() > 0) {
+            scheduler.schedule(retransmitTask, getRetransmitTimeout());
+        }
+    }
+
+    /**
+     * 重传窗口中的一个包
+     *
+     * @param slot the slot
+     */
+    private void retransmit(int slot) {
+        retransmitted[slot] = true;
+        retransmitCount++;
+        transmit(slot);
+    }
+
+    /**
+     * 发送窗口中的一个包
+     *
+     * @param slot the slot
+     */
+    private void transmit(int slot) {
+        sendOrder[slot] = sendCounter++;
+        sendTime[slot] = scheduler.now();
+        sink.send(inFlight[slot]);
+    }
+
+    /**
+     * 发送确认包
+     */
+    private void sendAck() {
+        scheduler.cancel(ackTask);
+        receivedSinceAck = 0;
+        byte[] packet = new byte[OVERHEAD + (window + 6) / 8];
+        packet[0] = TYPE_ACK;
+        packet[1] = (byte) (expected >> 8);
+        packet[2] = (byte) expected;
+        for (int i = 0; i + 1 < window; i++) {
+            if (outOfOrder[(expected + 1 + i) % window] != null) {
+                packet[HEADER_SIZE + i / 8] |= (byte) (1 << (i % 8));
+            }
+        }
+        writeCrc(packet);
+        sink.send(packet);
+    }
+
+    /**
+     * 写入包尾校验
+     *
+     * @param packet the packet
+     */
+    private static void writeCrc(byte[] packet) {
+        int crc = crc(packet, 0, packet.length - CRC_SIZE);
+        packet[packet.length - 2] = (byte) (crc >> 8);
+        packet[packet.length - 1] = (byte) crc;
+    }
+
+    /**
+     * CRC-16/CCITT-FALSE
+     *
+     * @param data   the data
+     * @param offset the offset
+     * @param length the length
+     * @return the crc
+     */
+    static int crc(byte[] data, int offset, int length) {
+        int crc = 0xFFFF;
+        for (int i = offset; i < offset + length; i++) {
+            crc = (crc << 8 ^ CRC_TABLE[(crc >> 8 ^ data[i]) & 0xFF]) & 0xFFFF;
+        }
+        return crc;
+    }
+}
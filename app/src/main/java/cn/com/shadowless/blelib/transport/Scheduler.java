@@ -0,0 +1,35 @@
+package cn.com.shadowless.blelib.transport;
+
+/**
+ * 延时任务调度
+ * <p>
+ * 设备上由主线程Handler实现，JVM上可使用{@link ExecutorScheduler}或虚拟时间实现。
+ *
+ * @author sHadowLess
+ */
+public interface Scheduler {
+
+    /**
+     * 延时执行，同一任务已在等待时替换原来的计划，不会重复执行
+     * <p>
+     * 可靠传输的重传与延迟确认依赖此语义反复重置同一个任务。
+     *
+     * @param task        the task
+     * @param delayMillis the delay millis
+     */
+    void schedule(Runnable task, long delayMillis);
+
+    /**
+     * 取消尚未执行的任务
+     *
+     * @param task the task
+     */
+    void cancel(Runnable task);
+
+    /**
+     * 当前单调时间
+     *
+     * @return 毫秒
+     */
+    long now();
+}
@@ -0,0 +1,91 @@
+package cn.com.shadowless.blelib.transport;
+
+/**
+ * 服务端GATT传输
+ * <p>
+ * 把向客户端通知与接收客户端写入的I/O抽象出来，设备上由BluetoothGattServer实现，
+ * JVM上可使用{@link LoopbackTransport}。
+ *
+ * @param <K> 客户端标识，设备上为BluetoothDevice
+ * @author sHadowLess
+ */
+public interface ServerTransport<K> {
+
+    /**
+     * 设置事件回调
+     *
+     * @param listener the listener
+     */
+    void setListener(Listener<K> listener);
+
+    /**
+     * 通知客户端，结果在onNotificationSent回调
+     *
+     * @param device the device
+     * @param value  the value
+     * @return 是否已发起
+     */
+    boolean notify(K device, byte[] value);
+
+    /**
+     * 断开客户端
+     *
+     * @param device the device
+     */
+    void disconnect(K device);
+
+    /**
+     * 传输事件回调
+     *
+     * @param <K> 客户端标识
+     */
+    interface Listener<K> {
+        /**
+         * 客户端连接状态变化
+         *
+         * @param device    the device
+         * @param connected the connected
+         */
+        void onConnectionStateChange(K device, boolean connected);
+
+        /**
+         * 客户端MTU变化
+         *
+         * @param device the device
+         * @param mtu    the mtu
+         */
+        void onMtuChanged(K device, int mtu);
+
+        /**
+         * 客户端写入通知特征值的CCCD
+         *
+         * @param device       the device
+         * @param subscription 订阅方式，见{@link DeviceSession#SUBSCRIPTION_NOTIFY}
+         */
+        void onSubscriptionChanged(K device, int subscription);
+
+        /**
+         * 客户端写入
+         *
+         * @param device the device
+         * @param value  the value
+         */
+        void onWrite(K device, byte[] value);
+
+        /**
+         * 客户端读取
+         *
+         * @param device the device
+         * @return 返回给客户端的数据
+         */
+        byte[] onRead(K device);
+
+        /**
+         * 通知已发送
+         *
+         * @param device the device
+         * @param status the status
+         */
+        void onNotificationSent(K device, int status);
+    }
+}
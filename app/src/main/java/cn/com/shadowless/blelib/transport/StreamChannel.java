@@ -0,0 +1,395 @@
+package cn.com.shadowless.blelib.transport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 面向流的数据通道，在L2CAP CoC等字节流之上按[长度 4字节][数据]划分消息
+ * <p>
+ * 读取在独立线程上阻塞进行，发送交给单个写线程按调用顺序写出，调用方不会被底层阻塞，
+ * 待写出的消息有上限，达到上限时拒绝发送，由调用方稍后重试，不会无限积压。
+ * 不依赖Android，设备上包装BluetoothSocket的输入输出流，JVM上可包装任意流。
+ *
+ * @author sHadowLess
+ */
+public class StreamChannel implements Closeable {
+
+    /**
+     * 默认单条消息上限，防止损坏的长度字段导致超大分配
+     */
+    public static final int DEFAULT_MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * 默认待写出的消息上限
+     */
+    public static final int DEFAULT_MAX_PENDING = 64;
+
+    /**
+     * 读写缓冲大小
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * 通道事件
+     */
+    public interface Listener {
+        /**
+         * 收到完整消息，在读线程回调
+         *
+         * @param data the data
+         */
+        void onMessage(byte[] data);
+
+        /**
+         * 通道关闭，只回调一次
+         *
+         * @param cause 主动关闭或对端正常关闭时为null
+         */
+        void onClosed(IOException cause);
+    }
+
+    /**
+     * 输入
+     */
+    private final DataInputStream input;
+
+    /**
+     * 输出
+     */
+    private final DataOutputStream output;
+
+    /**
+     * 底层资源，关闭通道时一并关闭
+     */
+    private final Closeable resource;
+
+    /**
+     * 通道事件
+     */
+    private final Listener listener;
+
+    /**
+     * 单条消息上限
+     */
+    private final int maxMessageSize;
+
+    /**
+     * 读线程
+     */
+    private final Thread reader;
+
+    /**
+     * 写线程
+     */
+    private final ExecutorService writer;
+
+    /**
+     * 是否已关闭
+     */
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * 已写出的字节数(含长度字段)
+     */
+    private final AtomicLong sentBytes = new AtomicLong();
+
+    /**
+     * 已读取的字节数(含长度字段)
+     */
+    private final AtomicLong receivedBytes = new AtomicLong();
+
+    /**
+     * 使用默认消息上限
+     *
+     * @param name     线程名
+     * @param input    the input
+     * @param output   the output
+     * @param resource the resource
+     * @param listener the listener
+     */
+    public StreamChannel(String name, InputStream input, OutputStream output, Closeable resource, Listener listener) {
+        this(name, input, output, resource, listener, DEFAULT_MAX_MESSAGE_SIZE);
+    }
+
+    /**
+     * Instantiates a new Stream channel.
+     *
+     * @param name           线程名
+     * @param input          the input
+     * @param output         the output
+     * @param resource       底层资源，关闭通道时一并关闭
+     * @param listener       the listener
+     * @param maxMessageSize 单条消息上限
+     */
+    public StreamChannel(String name, InputStream input, OutputStream output, Closeable resource, Listener listener, int maxMessageSize) {
+        this(name, input, output, resource, listener, maxMessageSize, DEFAULT_MAX_PENDING);
+    }
+
+    /**
+     * Instantiates a new Stream channel.
+     *
+     * @param name           线程名
+     * @param input          the input
+     * @param output         the output
+     * @param resource       底层资源，关闭通道时一并关闭
+     * @param listener       the listener
+     * @param maxMessageSize 单条消息上限
+     * @param maxPending     待写出的消息上限，不含正在写出的消息
+     */
+    public StreamChannel(final String name, InputStream input, OutputStream output, Closeable resource, Listener listener, int maxMessageSize, int maxPending) {
+        if (maxMessageSize <= 0) {
+            throw new IllegalArgumentException("消息上限需大于0");
+        }
+        if (maxPending <= 0) {
+            throw new IllegalArgumentException("待写出上限需大于0");
+        }
+        this.input = new DataInputStream(new BufferedInputStream(input, BUFFER_SIZE));
+        this.output = new DataOutputStream(new BufferedOutputStream(output, BUFFER_SIZE));
+        this.resource = resource;
+        this.listener = listener;
+        this.maxMessageSize = maxMessageSize;
+        this.writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(maxPending), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readLoop();
+            }
+        }, name + "-reader");
+        this.reader.setDaemon(true);
+    }
+
+    /**
+     * 开始读取
+     */
+    public void start() {
+        reader.start();
+    }
+
+    /**
+     * 发送一条消息
+     *
+     * @param data the data
+     * @return 通道已关闭或待写出的消息达到上限返回false
+     */
+    public boolean send(final byte[] data) {
+        if (data.length > maxMessageSize) {
+            throw new IllegalArgumentException("消息长度超过上限" + maxMessageSize);
+        }
+        return submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    output.writeInt(data.length);
+                    output.write(data);
+                    output.flush();
+                    sentBytes.addAndGet(4 + data.length);
+                } catch (IOException e) {
+                    close(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 从输入流读取length字节作为一条消息发送，边读边写不整体载入内存，
+     * 发送完毕、发送被拒绝或通道关闭时未写出的消息都会关闭source
+     *
+     * @param source the source
+     * @param length the length
+     * @return 通道已关闭或待写出的消息达到上限返回false
+     */
+    public boolean send(InputStream source, int length) {
+        if (length < 0 || length > maxMessageSize) {
+            throw new IllegalArgumentException("消息长度需在0~" + maxMessageSize + "之间");
+        }
+        boolean submitted = submit(new SourceTask(source, length));
+        if (!submitted) {
+            closeQuietly(source);
+        }
+        return submitted;
+    }
+
+    /**
+     * 是否未关闭
+     *
+     * @return the boolean
+     */
+    public boolean isOpen() {
+        return !closed.get();
+    }
+
+    /**
+     * Gets sent bytes.
+     *
+     * @return the sent bytes
+     */
+    public long getSentBytes() {
+        return sentBytes.get();
+    }
+
+    /**
+     * Gets received bytes.
+     *
+     * @return the received bytes
+     */
+    public long getReceivedBytes() {
+        return receivedBytes.get();
+    }
+
+    @Override
+    public void close() {
+        close(null);
+    }
+
+    /**
+     * 关闭通道与底层资源，未写出的消息随之丢弃
+     *
+     * @param cause the cause
+     */
+    private void close(IOException cause) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        for (Runnable task : writer.shutdownNow()) {
+            if (task instanceof SourceTask) {
+                closeQuietly(((SourceTask) task).source);
+            }
+        }
+        closeQuietly(resource);
+        listener.onClosed(cause);
+    }
+
+    /**
+     * 从输入流边读边写的发送任务，通道关闭时未执行的任务据此关闭数据源
+     */
+    private final class SourceTask implements Runnable {
+
+        /**
+         * 数据源
+         */
+        private final InputStream source;
+
+        /**
+         * 消息长度
+         */
+        private final int length;
+
+        /**
+         * Instantiates a new Source task.
+         *
+         * @param source the source
+         * @param length the length
+         */
+        SourceTask(InputStream source, int length) {
+            this.source = source;
+            this.length = length;
+        }
+
+        @Override
+        public void run() {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try {
+                output.writeInt(length);
+                int remaining = length;
+                while (remaining > 0) {
+                    int read = source.read(buffer, 0, Math.min(buffer.length, remaining));
+                    if (read < 0) {
+                        throw new EOFException("数据源提前结束，缺少" + remaining + "字节");
+                    }
+                    output.write(buffer, 0, read);
+                    remaining -= read;
+                }
+                output.flush();
+                sentBytes.addAndGet(4 + length);
+            } catch (IOException e) {
+                close(e);
+            } finally {
+                closeQuietly(source);
+            }
+        }
+    }
+
+    /**
+     * 交给写线程
+     *
+     * @param task the task
+     * @return the boolean
+     */
+    private boolean submit(Runnable task) {
+        if (closed.get()) {
+            return false;
+        }
+        try {
+            writer.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 循环读取消息直到流结束或出错
+     */
+    private void readLoop() {
+        IOException cause = null;
+        try {
+            while (!closed.get()) {
+                int length;
+                try {
+                    length = input.readInt();
+                } catch (EOFException e) {
+                    //对端正常关闭
+                    break;
+                }
+                if (length < 0 || length > maxMessageSize) {
+                    throw new IOException("消息长度" + length + "超过上限" + maxMessageSize);
+                }
+                byte[] data = new byte[length];
+                input.readFully(data);
+                receivedBytes.addAndGet(4 + length);
+                listener.onMessage(data);
+            }
+        } catch (IOException e) {
+            cause = e;
+        }
+        close(cause);
+    }
+
+    /**
+     * Close quietly.
+     *
+     * @param closeable the closeable
+     */
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            //关闭失败无需处理
+        }
+    }
+}
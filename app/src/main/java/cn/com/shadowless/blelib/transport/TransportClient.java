@@ -0,0 +1,968 @@
+package cn.com.shadowless.blelib.transport;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import cn.com.shadowless.blelib.connect.ReconnectPolicy;
+import cn.com.shadowless.blelib.frame.FrameAssembler;
+import cn.com.shadowless.blelib.frame.FrameCodec;
+import cn.com.shadowless.blelib.frame.PayloadCompressor;
+import cn.com.shadowless.blelib.queue.CreditWindow;
+import cn.com.shadowless.blelib.queue.GattOperation;
+import cn.com.shadowless.blelib.queue.GattOperationQueue;
+import cn.com.shadowless.blelib.rpc.RpcClient;
+
+/**
+ * 客户端数据通路
+ * <p>
+ * 在{@link ClientTransport}之上组合GATT操作队列、按MTU分包与重组、信用窗口流式发送和断线重连，
+ * 不依赖Android，设备上由BleClient通过BluetoothGatt驱动，JVM上可直接接入{@link LoopbackTransport}。
+ * 开启可靠传输后分包消息经{@link ReliableStream}收发，丢包时只重传缺失的分包。
+ * RPC请求以分包消息流式发出，多个请求同时在途，应答按关联ID交给{@link RpcClient}中等待的调用。
+ *
+ * @author sHadowLess
+ */
+public class TransportClient implements ClientTransport.Listener {
+
+    /**
+     * 成功状态，同BluetoothGatt.GATT_SUCCESS
+     */
+    public static final int STATUS_SUCCESS = 0;
+
+    /**
+     * 本端主动断开时使用的失败状态，同BluetoothGatt.GATT_FAILURE
+     */
+    private static final int STATUS_FAILURE = 0x101;
+
+    /**
+     * 流式发送最大退避时间
+     */
+    private static final long MAX_RETRY_DELAY = 160;
+
+    /**
+     * 流式写入连续失败的重试上限，用尽后断开连接
+     */
+    private static final int MAX_STREAM_RETRIES = 8;
+
+    /**
+     * 传输
+     */
+    private final ClientTransport transport;
+
+    /**
+     * 调度
+     */
+    private final Scheduler scheduler;
+
+    /**
+     * GATT操作队列
+     */
+    private final GattOperationQueue operationQueue;
+
+    /**
+     * 流式发送的信用窗口
+     */
+    private final CreditWindow creditWindow;
+
+    /**
+     * 重连策略，为空不重连
+     */
+    private final ReconnectPolicy reconnectPolicy;
+
+    /**
+     * 分包编码
+     */
+    private final FrameCodec frameCodec = new FrameCodec();
+
+    /**
+     * 分包重组
+     */
+    private final FrameAssembler frameAssembler = new FrameAssembler();
+
+    /**
+     * RPC调用方
+     */
+    private final RpcClient rpcClient;
+
+    /**
+     * 流式发送待交给队列的分包，业务数据最多缓存操作队列容量个，可靠传输的重传与确认不受限制
+     */
+    private final ArrayDeque<byte[]> streamChunks = new ArrayDeque<>();
+
+    /**
+     * 流式写入连续失败的重试次数
+     */
+    private int streamRetryCount;
+
+    /**
+     * 事件回调
+     */
+    private volatile Callback callback;
+
+    /**
+     * 收到的通知是否按分包格式重组
+     */
+    private volatile boolean frameMode;
+
+    /**
+     * 载荷压缩，为空不压缩
+     */
+    private volatile PayloadCompressor compressor;
+
+    /**
+     * 对端是否已接受压缩
+     */
+    private volatile boolean compressing;
+
+    /**
+     * 可靠传输，为空不开启
+     */
+    private volatile ReliableStream reliableStream;
+
+    /**
+     * 已重连次数
+     */
+    private volatile int reconnectAttempt;
+
+    /**
+     * 断开时间，0为未在重连
+     */
+    private volatile long disconnectTime;
+
+    /**
+     * 最近一次重连耗时，毫秒
+     */
+    private volatile long lastReconnectTime = -1;
+
+    /**
+     * 是否已主动关闭
+     */
+    private volatile boolean closed = true;
+
+    /**
+     * 是否已连接
+     */
+    private volatile boolean connected;
+
+    /**
+     * 恢复队列
+     */
+    private final Runnable resumeQueue = new Runnable() {
+        @Override
+        public void run() {
+            operationQueue.resume();
+        }
+    };
+
+    /**
+     * 按策略重连
+     */
+    private final Runnable reconnectTask = new Runnable() {
+        @Override
+        public void run() {
+            if (closed) {
+                return;
+            }
+            boolean autoConnect = reconnectPolicy.useAutoConnect(reconnectAttempt);
+            reconnectAttempt++;
+            if (!transport.connect(autoConnect)) {
+                reconnectAttempt = 0;
+                Callback current = callback;
+                if (current != null) {
+                    current.onReconnectFailed();
+                }
+                return;
+            }
+            long timeout = reconnectPolicy.getConnectTimeout();
+            if (timeout > 0) {
+                scheduler.schedule(connectTimeoutTask, timeout);
+            }
+        }
+    };
+
+    /**
+     * 重连超过期限仍未连上时放弃本次尝试，autoConnect不会自行失败，需要按失败计数才能退回扫描
+     */
+    private final Runnable connectTimeoutTask = new Runnable() {
+        @Override
+        public void run() {
+            if (closed || connected) {
+                return;
+            }
+            transport.disconnect();
+            onConnectionStateChange(STATUS_FAILURE, false);
+        }
+    };
+
+    /**
+     * Instantiates a new Transport client.
+     *
+     * @param transport the transport
+     * @param scheduler the scheduler
+     */
+    public TransportClient(ClientTransport transport, Scheduler scheduler) {
+        this(transport, scheduler, GattOperationQueue.DEFAULT_CAPACITY, new CreditWindow(), new ReconnectPolicy());
+    }
+
+    /**
+     * Instantiates a new Transport client.
+     *
+     * @param transport       the transport
+     * @param scheduler       the scheduler
+     * @param queueCapacity   the queue capacity
+     * @param creditWindow    the credit window
+     * @param reconnectPolicy 为空不重连
+     */
+    public TransportClient(ClientTransport transport, Scheduler scheduler, int queueCapacity, CreditWindow creditWindow, ReconnectPolicy reconnectPolicy) {
+        this.transport = transport;
+        this.scheduler = scheduler;
+        this.operationQueue = new GattOperationQueue(queueCapacity, scheduler, GattOperationQueue.DEFAULT_TIMEOUT);
+        this.creditWindow = creditWindow;
+        this.reconnectPolicy = reconnectPolicy;
+        this.rpcClient = new RpcClient(new RpcClient.Sender() {
+            @Override
+            public boolean send(byte[] message) {
+                return streamMessage(message, FrameCodec.MESSAGE_RPC);
+            }
+        }, scheduler);
+        transport.setListener(this);
+    }
+
+    /**
+     * 设置事件回调
+     *
+     * @param callback the callback
+     */
+    public void setCallback(Callback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * 设置收到的通知是否按分包格式重组，重组后在onMessage回调
+     *
+     * @param frameMode the frame mode
+     */
+    public void setFrameMode(boolean frameMode) {
+        this.frameMode = frameMode;
+    }
+
+    /**
+     * 设置接收分包消息的长度上限，默认{@link FrameAssembler#DEFAULT_MAX_MESSAGE_SIZE}
+     *
+     * @param maxMessageSize the max message size
+     */
+    public void setMaxMessageSize(int maxMessageSize) {
+        frameAssembler.setMaxMessageSize(maxMessageSize);
+    }
+
+    /**
+     * 设置载荷压缩，仅作用于分包消息，需在{@link #handshake()}协商成功后生效
+     *
+     * @param compressor the compressor
+     */
+    public void setCompressor(PayloadCompressor compressor) {
+        this.compressor = compressor;
+        this.compressing = false;
+    }
+
+    /**
+     * 开启可靠传输，开启后分包消息带序号与校验经流式写入发送，通知按同一格式解析，对端需使用相同配置
+     *
+     * @param window            发送窗口，需为2的幂
+     * @param ackDelay          延迟确认时间，毫秒
+     * @param retransmitTimeout 重传超时，毫秒
+     */
+    public void setReliable(int window, long ackDelay, long retransmitTimeout) {
+        reliableStream = new ReliableStream(new ReliableStream.Sink() {
+            @Override
+            public void send(byte[] packet) {
+                synchronized (streamChunks) {
+                    streamChunks.add(packet);
+                }
+                pumpStream();
+            }
+        }, new ReliableStream.Receiver() {
+            @Override
+            public void onReceive(byte[] payload) {
+                onChunk(payload);
+            }
+        }, scheduler, window, ackDelay, retransmitTimeout);
+        frameCodec.setHeadroom(ReliableStream.OVERHEAD);
+    }
+
+    /**
+     * 获取可靠传输
+     *
+     * @return 未开启返回null
+     */
+    public ReliableStream getReliableStream() {
+        return reliableStream;
+    }
+
+    /**
+     * 向对端发送压缩能力，对端回复一致的能力后开始压缩，连接可写后调用
+     *
+     * @return 未设置压缩或入队失败返回false
+     */
+    public boolean handshake() {
+        PayloadCompressor current = compressor;
+        if (current == null) {
+            return false;
+        }
+        compressing = false;
+        return sendChunks(frameCodec.encode(current.capability(), FrameCodec.MESSAGE_HANDSHAKE), ClientTransport.WRITE_TYPE_DEFAULT);
+    }
+
+    /**
+     * 对端是否已接受压缩
+     *
+     * @return the boolean
+     */
+    public boolean isCompressing() {
+        return compressing;
+    }
+
+    /**
+     * 连接
+     *
+     * @return 是否已发起
+     */
+    public boolean connect() {
+        open();
+        return transport.connect(false);
+    }
+
+    /**
+     * 允许断开后重连，由外部发起首次连接时调用
+     */
+    public void open() {
+        closed = false;
+    }
+
+    /**
+     * 关闭，停止重连并清空队列
+     */
+    public void close() {
+        closed = true;
+        connected = false;
+        compressing = false;
+        scheduler.cancel(reconnectTask);
+        scheduler.cancel(connectTimeoutTask);
+        resetReconnect();
+        transport.disconnect();
+        clear();
+    }
+
+    /**
+     * 放弃本轮重连的计时与计数
+     */
+    public void resetReconnect() {
+        reconnectAttempt = 0;
+        disconnectTime = 0;
+    }
+
+    /**
+     * Send data，队列满时返回false
+     *
+     * @param data      the data
+     * @param writeType the write type
+     * @return 是否入队成功
+     */
+    public boolean sendData(byte[] data, int writeType) {
+        return operationQueue.offer(new WriteOperation(data, writeType));
+    }
+
+    /**
+     * Send data，队列满时等待
+     *
+     * @param data      the data
+     * @param writeType the write type
+     * @param timeout   the timeout
+     * @param unit      the unit
+     * @return 是否入队成功
+     * @throws InterruptedException the interrupted exception
+     */
+    public boolean sendData(byte[] data, int writeType, long timeout, TimeUnit unit) throws InterruptedException {
+        return operationQueue.offer(new WriteOperation(data, writeType), timeout, unit);
+    }
+
+    /**
+     * 按当前MTU分包发送，剩余容量不足以放下全部分包时返回false，开启可靠传输时总是入队成功
+     *
+     * @param data      the data
+     * @param writeType the write type
+     * @return 是否入队成功
+     */
+    public boolean sendFrame(byte[] data, int writeType) {
+        return sendChunks(encodeMessage(data, 0), writeType);
+    }
+
+    /**
+     * 按当前MTU分包发送，剩余容量不足时等待
+     *
+     * @param data      the data
+     * @param writeType the write type
+     * @param timeout   the timeout
+     * @param unit      the unit
+     * @return 是否入队成功
+     * @throws InterruptedException the interrupted exception
+     */
+    public boolean sendFrame(byte[] data, int writeType, long timeout, TimeUnit unit) throws InterruptedException {
+        ReliableStream reliable = reliableStream;
+        if (reliable != null) {
+            reliable.send(encodeMessage(data, 0));
+            return true;
+        }
+        return operationQueue.offerAll(toWriteOperations(encodeMessage(data, 0), writeType), timeout, unit);
+    }
+
+    /**
+     * 流式发送，按当前MTU切片后以无响应写入发送，
+     * 交给协议栈的包数受信用窗口限制，协议栈缓冲区满时退避重发，不丢包；
+     * 未发出的分包超过队列容量时拒绝，缓存为空时总是接受，单条数据不受容量限制
+     *
+     * @param data the data
+     * @return 是否接受
+     */
+    public boolean streamData(byte[] data) {
+        int chunkSize = frameCodec.getChunkSize();
+        List<byte[]> chunks = new ArrayList<>((data.length + chunkSize - 1) / chunkSize);
+        for (int offset = 0; offset < data.length; offset += chunkSize) {
+            byte[] chunk = new byte[Math.min(chunkSize, data.length - offset)];
+            System.arraycopy(data, offset, chunk, 0, chunk.length);
+            chunks.add(chunk);
+        }
+        if (!offerStream(chunks)) {
+            return false;
+        }
+        pumpStream();
+        return true;
+    }
+
+    /**
+     * 流式发送分包消息，对端需按分包格式重组，缓存已满时拒绝
+     *
+     * @param data the data
+     * @return 是否接受
+     */
+    public boolean streamFrame(byte[] data) {
+        return streamMessage(data, 0);
+    }
+
+    /**
+     * 发起RPC调用，需开启分包重组，不等待之前的调用完成
+     *
+     * @param request       the request
+     * @param timeoutMillis 超时，毫秒
+     * @param callback      the callback
+     * @return 关联ID，超出在途上限时排队发出
+     */
+    public int call(byte[] request, long timeoutMillis, RpcClient.Callback callback) {
+        return rpcClient.call(request, timeoutMillis, callback);
+    }
+
+    /**
+     * 获取RPC调用方
+     *
+     * @return the rpc client
+     */
+    public RpcClient getRpcClient() {
+        return rpcClient;
+    }
+
+    /**
+     * 带消息标记流式发送分包消息
+     *
+     * @param data  the data
+     * @param flags the flags
+     * @return 是否接受
+     */
+    private boolean streamMessage(byte[] data, int flags) {
+        List<byte[]> chunks = encodeMessage(data, flags);
+        ReliableStream reliable = reliableStream;
+        if (reliable != null) {
+            return reliable.offer(chunks, operationQueue.getCapacity());
+        }
+        if (!offerStream(chunks)) {
+            return false;
+        }
+        pumpStream();
+        return true;
+    }
+
+    /**
+     * 缓存流式分包，超过队列容量时拒绝，缓存为空时总是接受
+     *
+     * @param chunks the chunks
+     * @return 是否接受
+     */
+    private boolean offerStream(List<byte[]> chunks) {
+        synchronized (streamChunks) {
+            if (!streamChunks.isEmpty() && streamChunks.size() + chunks.size() > operationQueue.getCapacity()) {
+                return false;
+            }
+            streamChunks.addAll(chunks);
+            return true;
+        }
+    }
+
+    /**
+     * 读取服务端，结果在onReadComplete回调
+     *
+     * @return 是否入队成功
+     */
+    public boolean readData() {
+        return operationQueue.offer(new GattOperation(GattOperation.TYPE_READ) {
+            @Override
+            public boolean execute() {
+                return transport.read();
+            }
+        });
+    }
+
+    /**
+     * 插队请求MTU，结果在onMtuChanged回调
+     *
+     * @param mtu the mtu
+     */
+    public void requestMtu(final int mtu) {
+        operationQueue.offerFirst(new GattOperation(GattOperation.TYPE_MTU) {
+            @Override
+            public boolean execute() {
+                return transport.requestMtu(mtu);
+            }
+        });
+    }
+
+    /**
+     * 获取流式发送尚未交给队列的分包数
+     *
+     * @return the stream size
+     */
+    public int getStreamSize() {
+        synchronized (streamChunks) {
+            return streamChunks.size();
+        }
+    }
+
+    /**
+     * 获取流式发送的信用窗口
+     *
+     * @return the credit window
+     */
+    public CreditWindow getCreditWindow() {
+        return creditWindow;
+    }
+
+    /**
+     * 获取GATT操作队列，用于插入连接建立阶段的操作
+     *
+     * @return the operation queue
+     */
+    public GattOperationQueue getOperationQueue() {
+        return operationQueue;
+    }
+
+    /**
+     * 获取分包编码
+     *
+     * @return the frame codec
+     */
+    public FrameCodec getFrameCodec() {
+        return frameCodec;
+    }
+
+    /**
+     * 获取当前MTU
+     *
+     * @return the mtu
+     */
+    public int getMtu() {
+        return frameCodec.getMtu();
+    }
+
+    /**
+     * 获取队列中等待执行的操作数
+     *
+     * @return the queue size
+     */
+    public int getQueueSize() {
+        return operationQueue.size();
+    }
+
+    /**
+     * 获取队列容量
+     *
+     * @return the queue capacity
+     */
+    public int getQueueCapacity() {
+        return operationQueue.getCapacity();
+    }
+
+    /**
+     * 是否已连接
+     *
+     * @return the boolean
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * 最近一次重连耗时
+     *
+     * @return 毫秒，未发生过重连返回-1
+     */
+    public long getLastReconnectTime() {
+        return lastReconnectTime;
+    }
+
+    /**
+     * 清空队列与分包状态，在途的RPC调用以连接断开失败
+     */
+    public void clear() {
+        rpcClient.failAll(RpcClient.ERROR_DISCONNECTED, "连接已断开");
+        scheduler.cancel(resumeQueue);
+        operationQueue.clear();
+        synchronized (streamChunks) {
+            streamChunks.clear();
+        }
+        creditWindow.reset();
+        streamRetryCount = 0;
+        //MTU随连接重新协商，重连前按默认值切片
+        frameCodec.setMtu(FrameCodec.DEFAULT_MTU);
+        frameAssembler.reset();
+        ReliableStream reliable = reliableStream;
+        if (reliable != null) {
+            reliable.reset();
+        }
+    }
+
+    @Override
+    public void onConnectionStateChange(int status, boolean connected) {
+        this.connected = connected;
+        scheduler.cancel(connectTimeoutTask);
+        if (!connected) {
+            compressing = false;
+        }
+        Callback current = callback;
+        if (connected) {
+            int attempts = reconnectAttempt;
+            long start = disconnectTime;
+            resetReconnect();
+            if (start != 0) {
+                lastReconnectTime = scheduler.now() - start;
+                if (current != null) {
+                    current.onReconnected(attempts, lastReconnectTime);
+                }
+            }
+            return;
+        }
+        clear();
+        if (closed || reconnectPolicy == null) {
+            return;
+        }
+        if (disconnectTime == 0) {
+            disconnectTime = scheduler.now();
+        }
+        if (reconnectPolicy.shouldReconnect(reconnectAttempt)) {
+            scheduler.schedule(reconnectTask, reconnectPolicy.nextDelay(reconnectAttempt));
+            return;
+        }
+        reconnectAttempt = 0;
+        if (current != null) {
+            current.onReconnectFailed();
+        }
+    }
+
+    @Override
+    public void onMtuChanged(int mtu, int status) {
+        if (status == STATUS_SUCCESS) {
+            frameCodec.setMtu(mtu);
+        }
+        operationQueue.complete(GattOperation.TYPE_MTU);
+    }
+
+    @Override
+    public void onWriteComplete(int status) {
+        operationQueue.complete(GattOperation.TYPE_WRITE, status);
+    }
+
+    @Override
+    public void onReadComplete(byte[] value, int status) {
+        Callback current = callback;
+        if (current != null) {
+            current.onReadComplete(value, status);
+        }
+        operationQueue.complete(GattOperation.TYPE_READ);
+    }
+
+    @Override
+    public void onNotify(byte[] value) {
+        ReliableStream reliable = reliableStream;
+        if (reliable != null) {
+            reliable.onPacket(value);
+            return;
+        }
+        if (!frameMode) {
+            Callback current = callback;
+            if (current != null) {
+                current.onNotify(value);
+            }
+            return;
+        }
+        onChunk(value);
+    }
+
+    /**
+     * 重组分包，处理握手与解压后回调完整消息
+     *
+     * @param chunk the chunk
+     */
+    private void onChunk(byte[] chunk) {
+        Callback current = callback;
+        byte[] data = frameAssembler.feed(chunk);
+        if (data == null) {
+            return;
+        }
+        int flags = frameAssembler.getFlags();
+        PayloadCompressor codec = compressor;
+        if ((flags & FrameCodec.MESSAGE_HANDSHAKE) != 0) {
+            compressing = codec != null && codec.accepts(data);
+            return;
+        }
+        if ((flags & FrameCodec.MESSAGE_COMPRESSED) != 0) {
+            data = codec == null ? null : codec.decompress(data, frameAssembler.getMaxMessageSize());
+            if (data == null) {
+                return;
+            }
+            flags &= ~FrameCodec.MESSAGE_COMPRESSED;
+        }
+        if ((flags & FrameCodec.MESSAGE_RPC) != 0) {
+            rpcClient.onMessage(data);
+            return;
+        }
+        if (current != null) {
+            current.onMessage(data, flags);
+        }
+    }
+
+    /**
+     * 按当前MTU分包，已协商压缩时先尝试压缩
+     *
+     * @param data  the data
+     * @param flags the flags
+     * @return the list
+     */
+    private List<byte[]> encodeMessage(byte[] data, int flags) {
+        PayloadCompressor codec = compressor;
+        if (compressing && codec != null) {
+            byte[] compressed = codec.compress(data);
+            if (compressed != null) {
+                return frameCodec.encode(compressed, flags | FrameCodec.MESSAGE_COMPRESSED);
+            }
+        }
+        return frameCodec.encode(data, flags);
+    }
+
+    /**
+     * 发送已编码的分包，开启可靠传输时交给可靠传输
+     *
+     * @param chunks    the chunks
+     * @param writeType the write type
+     * @return 是否入队成功
+     */
+    private boolean sendChunks(List<byte[]> chunks, int writeType) {
+        ReliableStream reliable = reliableStream;
+        if (reliable != null) {
+            reliable.send(chunks);
+            return true;
+        }
+        return operationQueue.offerAll(toWriteOperations(chunks, writeType));
+    }
+
+    /**
+     * To write operations.
+     *
+     * @param chunks    the chunks
+     * @param writeType the write type
+     * @return the list
+     */
+    private List<WriteOperation> toWriteOperations(List<byte[]> chunks, int writeType) {
+        List<WriteOperation> operations = new ArrayList<>(chunks.size());
+        for (byte[] chunk : chunks) {
+            operations.add(new WriteOperation(chunk, writeType));
+        }
+        return operations;
+    }
+
+    /**
+     * 在信用允许的范围内把流式分包交给队列
+     */
+    private void pumpStream() {
+        while (creditWindow.tryAcquire()) {
+            byte[] chunk;
+            synchronized (streamChunks) {
+                chunk = streamChunks.poll();
+            }
+            if (chunk == null) {
+                creditWindow.cancel();
+                return;
+            }
+            if (!operationQueue.offer(new StreamOperation(chunk))) {
+                synchronized (streamChunks) {
+                    streamChunks.offerFirst(chunk);
+                }
+                creditWindow.cancel();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 事件回调
+     */
+    public interface Callback {
+        /**
+         * 断开后重连成功
+         *
+         * @param attempts   重连次数
+         * @param costMillis 从断开到重新连上的耗时
+         */
+        void onReconnected(int attempts, long costMillis);
+
+        /**
+         * 重连次数用尽或无法发起重连
+         */
+        void onReconnectFailed();
+
+        /**
+         * 收到通知，未开启分包重组时回调
+         *
+         * @param value the value
+         */
+        void onNotify(byte[] value);
+
+        /**
+         * 重组出完整消息，开启分包重组时回调
+         *
+         * @param data  the data
+         * @param flags 消息标志
+         */
+        void onMessage(byte[] data, int flags);
+
+        /**
+         * 读取完成
+         *
+         * @param value  the value
+         * @param status the status
+         */
+        void onReadComplete(byte[] value, int status);
+    }
+
+    /**
+     * 写特征值操作
+     */
+    private class WriteOperation extends GattOperation {
+
+        /**
+         * The Data.
+         */
+        final byte[] data;
+
+        /**
+         * The Write type.
+         */
+        private final int writeType;
+
+        /**
+         * Instantiates a new Write operation.
+         *
+         * @param data      the data
+         * @param writeType the write type
+         */
+        WriteOperation(byte[] data, int writeType) {
+            super(TYPE_WRITE);
+            this.data = data;
+            this.writeType = writeType;
+        }
+
+        @Override
+        public boolean execute() {
+            return transport.write(data, writeType);
+        }
+    }
+
+    /**
+     * 流式写入操作，写入回调归还信用
+     */
+    private class StreamOperation extends WriteOperation {
+
+        /**
+         * Instantiates a new Stream operation.
+         *
+         * @param data the data
+         */
+        StreamOperation(byte[] data) {
+            super(data, ClientTransport.WRITE_TYPE_NO_RESPONSE);
+        }
+
+        @Override
+        protected void onComplete(int status) {
+            if (status == STATUS_SUCCESS) {
+                streamRetryCount = 0;
+                creditWindow.release();
+                pumpStream();
+                return;
+            }
+            if (closed || !connected) {
+                return;
+            }
+            //写入失败或超时与提交失败一样退避后重发同一分包，保持分包顺序
+            operationQueue.pause();
+            if (retryStream()) {
+                operationQueue.offerFirst(new StreamOperation(data));
+            } else {
+                operationQueue.resume();
+            }
+        }
+
+        @Override
+        protected boolean onFailure() {
+            if (closed || !connected) {
+                return false;
+            }
+            return retryStream();
+        }
+    }
+
+    /**
+     * 流式写入失败后按指数退避恢复队列，连续失败达到上限时断开连接，
+     * 断开后队列与缓存清空，由重连策略决定是否重连
+     *
+     * @return 是否重试
+     */
+    private boolean retryStream() {
+        creditWindow.drop();
+        if (streamRetryCount >= MAX_STREAM_RETRIES) {
+            streamRetryCount = 0;
+            dropConnection();
+            return false;
+        }
+        long delay = Math.min(MAX_RETRY_DELAY, 5L << Math.min(streamRetryCount++, 5));
+        scheduler.schedule(resumeQueue, delay);
+        return true;
+    }
+
+    /**
+     * 本端判定连接不可用时断开，设备上的传输主动断开后不再回调，仍处于连接状态时直接按断开处理
+     */
+    private void dropConnection() {
+        transport.disconnect();
+        if (connected) {
+            onConnectionStateChange(STATUS_FAILURE, false);
+        }
+    }
+}
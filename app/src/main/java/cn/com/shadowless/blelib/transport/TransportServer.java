@@ -0,0 +1,649 @@
+package cn.com.shadowless.blelib.transport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import cn.com.shadowless.blelib.frame.FrameAssembler;
+import cn.com.shadowless.blelib.frame.FrameCodec;
+import cn.com.shadowless.blelib.frame.PayloadCompressor;
+import cn.com.shadowless.blelib.queue.NotifyFanOut;
+import cn.com.shadowless.blelib.rpc.RpcServer;
+
+/**
+ * 服务端数据通路
+ * <p>
+ * 在{@link ServerTransport}之上组合各客户端独立的通知队列、按客户端MTU分包与重组，
+ * 不依赖Android，设备上由BleServer通过BluetoothGattServer驱动，JVM上可直接接入{@link LoopbackTransport}。
+ * 开启可靠传输后每个客户端的分包消息经独立的{@link ReliableStream}收发。
+ * 带RPC标记的分包消息交给{@link RpcServer}，应答以同一标记通知回该客户端。
+ * 每个客户端有一个{@link DeviceSession}记录订阅与MTU，要求订阅时只向已订阅的客户端发送。
+ *
+ * @param <K> 客户端标识
+ * @author sHadowLess
+ */
+public class TransportServer<K> implements ServerTransport.Listener<K> {
+
+    /**
+     * 传输
+     */
+    private final ServerTransport<K> transport;
+
+    /**
+     * 通知分发
+     */
+    private final NotifyFanOut<K> notifyFanOut;
+
+    /**
+     * RPC服务方
+     */
+    private final RpcServer<K> rpcServer;
+
+    /**
+     * 各客户端的分包编码
+     */
+    private final ConcurrentHashMap<K, FrameCodec> frameCodecs = new ConcurrentHashMap<>();
+
+    /**
+     * 各客户端的分包重组
+     */
+    private final ConcurrentHashMap<K, FrameAssembler> frameAssemblers = new ConcurrentHashMap<>();
+
+    /**
+     * 接收分包消息的长度上限
+     */
+    private volatile int maxMessageSize = FrameAssembler.DEFAULT_MAX_MESSAGE_SIZE;
+
+    /**
+     * 已接受压缩的客户端
+     */
+    private final Set<K> compressing = Collections.newSetFromMap(new ConcurrentHashMap<K, Boolean>());
+
+    /**
+     * 各客户端的会话
+     */
+    private final ConcurrentHashMap<K, DeviceSession> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * 是否只向已订阅的客户端发送
+     */
+    private volatile boolean subscriptionRequired;
+
+    /**
+     * 各客户端的可靠传输
+     */
+    private final ConcurrentHashMap<K, ReliableStream> reliableStreams = new ConcurrentHashMap<>();
+
+    /**
+     * 可靠传输的调度，为空不开启
+     */
+    private volatile Scheduler reliableScheduler;
+
+    /**
+     * 可靠传输发送窗口
+     */
+    private volatile int reliableWindow;
+
+    /**
+     * 可靠传输延迟确认时间
+     */
+    private volatile long reliableAckDelay;
+
+    /**
+     * 可靠传输重传超时
+     */
+    private volatile long reliableRetransmitTimeout;
+
+    /**
+     * 载荷压缩，为空不响应客户端的压缩协商
+     */
+    private volatile PayloadCompressor compressor;
+
+    /**
+     * 事件回调
+     */
+    private volatile Callback<K> callback;
+
+    /**
+     * 客户端的写入是否按分包格式重组
+     */
+    private volatile boolean frameMode;
+
+    /**
+     * Instantiates a new Transport server.
+     *
+     * @param transport the transport
+     */
+    public TransportServer(ServerTransport<K> transport) {
+        this(transport, NotifyFanOut.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Instantiates a new Transport server.
+     *
+     * @param transport           the transport
+     * @param notifyQueueCapacity 每个客户端的通知队列容量
+     */
+    public TransportServer(ServerTransport<K> transport, int notifyQueueCapacity) {
+        this(transport, notifyQueueCapacity, null);
+    }
+
+    /**
+     * Instantiates a new Transport server.
+     *
+     * @param transport           the transport
+     * @param notifyQueueCapacity 每个客户端的通知队列容量
+     * @param scheduler           通知延时重发与发送回调超时的调度，为空时不启用
+     */
+    public TransportServer(final ServerTransport<K> transport, int notifyQueueCapacity, Scheduler scheduler) {
+        this.transport = transport;
+        this.notifyFanOut = new NotifyFanOut<>(new NotifyFanOut.Sender<K>() {
+            @Override
+            public boolean send(K device, byte[] data) {
+                return transport.notify(device, data);
+            }
+        }, notifyQueueCapacity, scheduler, NotifyFanOut.DEFAULT_TIMEOUT);
+        this.rpcServer = new RpcServer<>(new RpcServer.Sender<K>() {
+            @Override
+            public boolean send(K device, byte[] message) {
+                return sendChunks(device, encodeMessage(device, message, FrameCodec.MESSAGE_RPC));
+            }
+        });
+        transport.setListener(this);
+    }
+
+    /**
+     * 设置事件回调
+     *
+     * @param callback the callback
+     */
+    public void setCallback(Callback<K> callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * 设置客户端的写入是否按分包格式重组，重组后在onMessage回调
+     *
+     * @param frameMode the frame mode
+     */
+    public void setFrameMode(boolean frameMode) {
+        this.frameMode = frameMode;
+    }
+
+    /**
+     * 设置接收分包消息的长度上限，默认{@link FrameAssembler#DEFAULT_MAX_MESSAGE_SIZE}
+     *
+     * @param maxMessageSize the max message size
+     */
+    public void setMaxMessageSize(int maxMessageSize) {
+        if (maxMessageSize <= 0) {
+            throw new IllegalArgumentException("消息上限必须大于0");
+        }
+        this.maxMessageSize = maxMessageSize;
+        for (FrameAssembler assembler : frameAssemblers.values()) {
+            assembler.setMaxMessageSize(maxMessageSize);
+        }
+    }
+
+    /**
+     * 设置载荷压缩，仅作用于分包消息，客户端发起协商且能力一致后对该客户端生效
+     *
+     * @param compressor the compressor
+     */
+    public void setCompressor(PayloadCompressor compressor) {
+        this.compressor = compressor;
+        compressing.clear();
+    }
+
+    /**
+     * 开启可靠传输，开启后分包消息带序号与校验经通知发送，客户端写入按同一格式解析，客户端需使用相同配置
+     *
+     * @param scheduler         重传与延迟确认的调度
+     * @param window            发送窗口，需为2的幂
+     * @param ackDelay          延迟确认时间，毫秒
+     * @param retransmitTimeout 重传超时，毫秒
+     */
+    public void setReliable(Scheduler scheduler, int window, long ackDelay, long retransmitTimeout) {
+        if (window < 1 || window > ReliableStream.MAX_WINDOW || (window & (window - 1)) != 0) {
+            throw new IllegalArgumentException("发送窗口需为1~" + ReliableStream.MAX_WINDOW + "之间的2的幂");
+        }
+        if (ackDelay < 0 || retransmitTimeout <= ackDelay) {
+            throw new IllegalArgumentException("重传超时需大于延迟确认时间");
+        }
+        this.reliableWindow = window;
+        this.reliableAckDelay = ackDelay;
+        this.reliableRetransmitTimeout = retransmitTimeout;
+        this.reliableScheduler = scheduler;
+    }
+
+    /**
+     * 获取客户端的可靠传输，没有则新建
+     *
+     * @param device the device
+     * @return 未开启返回null
+     */
+    public ReliableStream getReliableStream(final K device) {
+        Scheduler scheduler = reliableScheduler;
+        if (scheduler == null) {
+            return null;
+        }
+        ReliableStream stream = reliableStreams.get(device);
+        if (stream == null) {
+            stream = new ReliableStream(new ReliableStream.Sink() {
+                @Override
+                public void send(byte[] packet) {
+                    if (isSubscribed(device)) {
+                        notifyFanOut.offer(device, packet);
+                    }
+                }
+            }, new ReliableStream.Receiver() {
+                @Override
+                public void onReceive(byte[] payload) {
+                    onChunk(device, payload);
+                }
+            }, scheduler, reliableWindow, reliableAckDelay, reliableRetransmitTimeout);
+            ReliableStream exist = reliableStreams.putIfAbsent(device, stream);
+            if (exist != null) {
+                stream = exist;
+            }
+        }
+        return stream;
+    }
+
+    /**
+     * 设置RPC请求处理，需开启分包重组，未设置时请求以错误应答
+     *
+     * @param handler the handler
+     */
+    public void setRpcHandler(RpcServer.Handler<K> handler) {
+        rpcServer.setHandler(handler);
+    }
+
+    /**
+     * 设置是否只向已订阅的客户端发送，开启后未在CCCD中订阅的客户端的发送直接返回失败，不占用队列与空口
+     *
+     * @param subscriptionRequired the subscription required
+     */
+    public void setSubscriptionRequired(boolean subscriptionRequired) {
+        this.subscriptionRequired = subscriptionRequired;
+    }
+
+    /**
+     * 获取客户端的会话
+     *
+     * @param device the device
+     * @return 未连接返回null
+     */
+    public DeviceSession getSession(K device) {
+        return sessions.get(device);
+    }
+
+    /**
+     * 客户端是否可接收发送，未要求订阅时总是可以
+     *
+     * @param device the device
+     * @return the boolean
+     */
+    public boolean isSubscribed(K device) {
+        if (!subscriptionRequired) {
+            return true;
+        }
+        DeviceSession session = sessions.get(device);
+        return session != null && session.isSubscribed();
+    }
+
+    /**
+     * 获取可接收发送的已连接客户端，未要求订阅时为全部已连接客户端
+     *
+     * @return the subscribers
+     */
+    public List<K> getSubscribers() {
+        boolean required = subscriptionRequired;
+        List<K> list = new ArrayList<>(sessions.size());
+        for (Map.Entry<K, DeviceSession> entry : sessions.entrySet()) {
+            if (!required || entry.getValue().isSubscribed()) {
+                list.add(entry.getKey());
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 客户端是否已接受压缩
+     *
+     * @param device the device
+     * @return the boolean
+     */
+    public boolean isCompressing(K device) {
+        return compressing.contains(device);
+    }
+
+    /**
+     * 通知客户端，队列满时丢弃该客户端最旧的数据，超过该客户端单包长度时按单包长度依次通知，
+     * 队列剩余容量不足时整条丢弃
+     *
+     * @param device the device
+     * @param data   the data
+     * @return 是否没有丢弃数据，要求订阅而客户端未订阅时返回false
+     */
+    public boolean send(K device, byte[] data) {
+        if (!isSubscribed(device)) {
+            return false;
+        }
+        DeviceSession session = sessions.get(device);
+        int size = session == null ? data.length : session.getPayloadSize();
+        if (data.length <= size) {
+            return notifyFanOut.offer(device, data);
+        }
+        List<byte[]> chunks = new ArrayList<>((data.length + size - 1) / size);
+        for (int offset = 0; offset < data.length; offset += size) {
+            byte[] chunk = new byte[Math.min(size, data.length - offset)];
+            System.arraycopy(data, offset, chunk, 0, chunk.length);
+            chunks.add(chunk);
+        }
+        return notifyFanOut.offerAll(device, chunks);
+    }
+
+    /**
+     * 按该客户端的MTU分包通知，队列剩余容量不足时整条丢弃，开启可靠传输时总是入队成功
+     *
+     * @param device the device
+     * @param data   the data
+     * @return 是否入队成功，要求订阅而客户端未订阅时返回false
+     */
+    public boolean sendFrame(K device, byte[] data) {
+        if (!isSubscribed(device)) {
+            return false;
+        }
+        return sendChunks(device, encodeMessage(device, data, 0));
+    }
+
+    /**
+     * 断开客户端
+     *
+     * @param device the device
+     */
+    public void disconnect(K device) {
+        transport.disconnect(device);
+    }
+
+    /**
+     * 获取客户端已送达的通知数
+     *
+     * @param device the device
+     * @return the delivered count
+     */
+    public long getDeliveredCount(K device) {
+        return notifyFanOut.getDeliveredCount(device);
+    }
+
+    /**
+     * 获取客户端因队列满被丢弃的通知数
+     *
+     * @param device the device
+     * @return the dropped count
+     */
+    public long getDroppedCount(K device) {
+        return notifyFanOut.getDroppedCount(device);
+    }
+
+    /**
+     * 获取客户端待发送的通知数
+     *
+     * @param device the device
+     * @return the pending count
+     */
+    public int getPendingCount(K device) {
+        return notifyFanOut.size(device);
+    }
+
+    /**
+     * 获取客户端的分包编码，没有则按默认MTU新建
+     *
+     * @param device the device
+     * @return the frame codec
+     */
+    public FrameCodec getFrameCodec(K device) {
+        FrameCodec codec = frameCodecs.get(device);
+        if (codec == null) {
+            codec = new FrameCodec();
+            if (reliableScheduler != null) {
+                codec.setHeadroom(ReliableStream.OVERHEAD);
+            }
+            FrameCodec exist = frameCodecs.putIfAbsent(device, codec);
+            if (exist != null) {
+                codec = exist;
+            }
+        }
+        return codec;
+    }
+
+    /**
+     * 清空全部客户端的队列与分包状态
+     */
+    public void clear() {
+        sessions.clear();
+        frameCodecs.clear();
+        frameAssemblers.clear();
+        compressing.clear();
+        notifyFanOut.clear();
+        for (ReliableStream stream : reliableStreams.values()) {
+            stream.reset();
+        }
+        reliableStreams.clear();
+    }
+
+    @Override
+    public void onConnectionStateChange(K device, boolean connected) {
+        if (connected) {
+            getOrCreateSession(device);
+        } else {
+            sessions.remove(device);
+            frameCodecs.remove(device);
+            frameAssemblers.remove(device);
+            compressing.remove(device);
+            notifyFanOut.remove(device);
+            ReliableStream stream = reliableStreams.remove(device);
+            if (stream != null) {
+                stream.reset();
+            }
+        }
+        Callback<K> current = callback;
+        if (current != null) {
+            current.onConnectionStateChange(device, connected);
+        }
+    }
+
+    @Override
+    public void onMtuChanged(K device, int mtu) {
+        DeviceSession session = sessions.get(device);
+        if (session == null) {
+            //已断开设备的迟到回调，不重建会话
+            return;
+        }
+        session.setMtu(mtu);
+        getFrameCodec(device).setMtu(mtu);
+    }
+
+    @Override
+    public void onSubscriptionChanged(K device, int subscription) {
+        DeviceSession session = sessions.get(device);
+        if (session != null) {
+            session.setSubscription(subscription);
+        }
+    }
+
+    /**
+     * 获取客户端的会话，没有则新建
+     *
+     * @param device the device
+     * @return the session
+     */
+    private DeviceSession getOrCreateSession(K device) {
+        DeviceSession session = sessions.get(device);
+        if (session == null) {
+            session = new DeviceSession();
+            DeviceSession exist = sessions.putIfAbsent(device, session);
+            if (exist != null) {
+                session = exist;
+            }
+        }
+        return session;
+    }
+
+    @Override
+    public void onWrite(K device, byte[] value) {
+        ReliableStream reliable = getReliableStream(device);
+        if (reliable != null) {
+            reliable.onPacket(value);
+            return;
+        }
+        if (!frameMode) {
+            Callback<K> current = callback;
+            if (current != null) {
+                current.onWrite(device, value);
+            }
+            return;
+        }
+        onChunk(device, value);
+    }
+
+    /**
+     * 重组客户端的分包，处理握手与解压后回调完整消息
+     *
+     * @param device the device
+     * @param chunk  the chunk
+     */
+    private void onChunk(K device, byte[] chunk) {
+        Callback<K> current = callback;
+        FrameAssembler assembler = frameAssemblers.get(device);
+        if (assembler == null) {
+            assembler = new FrameAssembler(maxMessageSize);
+            frameAssemblers.put(device, assembler);
+        }
+        byte[] data = assembler.feed(chunk);
+        if (data == null) {
+            return;
+        }
+        int flags = assembler.getFlags();
+        PayloadCompressor codec = compressor;
+        if ((flags & FrameCodec.MESSAGE_HANDSHAKE) != 0) {
+            if (codec == null) {
+                return;
+            }
+            if (codec.accepts(data)) {
+                compressing.add(device);
+            } else {
+                compressing.remove(device);
+            }
+            sendChunks(device, getFrameCodec(device).encode(codec.capability(), FrameCodec.MESSAGE_HANDSHAKE));
+            return;
+        }
+        if ((flags & FrameCodec.MESSAGE_COMPRESSED) != 0) {
+            data = codec == null ? null : codec.decompress(data, maxMessageSize);
+            if (data == null) {
+                return;
+            }
+            flags &= ~FrameCodec.MESSAGE_COMPRESSED;
+        }
+        if ((flags & FrameCodec.MESSAGE_RPC) != 0) {
+            rpcServer.onMessage(device, data);
+            return;
+        }
+        if (current != null) {
+            current.onMessage(device, data, flags);
+        }
+    }
+
+    /**
+     * 通知已编码的分包，开启可靠传输时交给该客户端的可靠传输
+     *
+     * @param device the device
+     * @param chunks the chunks
+     * @return 是否入队成功
+     */
+    private boolean sendChunks(K device, List<byte[]> chunks) {
+        if (!isSubscribed(device)) {
+            return false;
+        }
+        ReliableStream reliable = getReliableStream(device);
+        if (reliable != null) {
+            reliable.send(chunks);
+            return true;
+        }
+        return notifyFanOut.offerAll(device, chunks);
+    }
+
+    /**
+     * 按客户端MTU分包，该客户端已接受压缩时先尝试压缩
+     *
+     * @param device the device
+     * @param data   the data
+     * @param flags  the flags
+     * @return the list
+     */
+    private List<byte[]> encodeMessage(K device, byte[] data, int flags) {
+        PayloadCompressor codec = compressor;
+        if (codec != null && compressing.contains(device)) {
+            byte[] compressed = codec.compress(data);
+            if (compressed != null) {
+                return getFrameCodec(device).encode(compressed, flags | FrameCodec.MESSAGE_COMPRESSED);
+            }
+        }
+        return getFrameCodec(device).encode(data, flags);
+    }
+
+    @Override
+    public byte[] onRead(K device) {
+        Callback<K> current = callback;
+        return current == null ? null : current.onRead(device);
+    }
+
+    @Override
+    public void onNotificationSent(K device, int status) {
+        notifyFanOut.onSent(device, status == TransportClient.STATUS_SUCCESS);
+    }
+
+    /**
+     * 事件回调
+     *
+     * @param <K> 客户端标识
+     */
+    public interface Callback<K> {
+        /**
+         * 客户端连接状态变化
+         *
+         * @param device    the device
+         * @param connected the connected
+         */
+        void onConnectionStateChange(K device, boolean connected);
+
+        /**
+         * 收到写入，未开启分包重组时回调
+         *
+         * @param device the device
+         * @param value  the value
+         */
+        void onWrite(K device, byte[] value);
+
+        /**
+         * 重组出完整消息，开启分包重组时回调
+         *
+         * @param device the device
+         * @param data   the data
+         * @param flags  消息标志
+         */
+        void onMessage(K device, byte[] data, int flags);
+
+        /**
+         * 客户端读取
+         *
+         * @param device the device
+         * @return 读取到的值
+         */
+        byte[] onRead(K device);
+    }
+}
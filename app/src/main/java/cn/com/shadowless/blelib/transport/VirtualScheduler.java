@@ -0,0 +1,225 @@
+package cn.com.shadowless.blelib.transport;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * 虚拟时间调度
+ * <p>
+ * 时间只在执行任务时前进，任务按到期时间与提交顺序执行，结果与机器快慢无关，
+ * 与{@link LinkSimulator}配合在单线程上确定性地推演传输过程。非线程安全，只能在推演线程上使用。
+ *
+ * @author sHadowLess
+ */
+public class VirtualScheduler implements Scheduler {
+
+    /**
+     * 待执行任务，按到期时间与提交顺序排序
+     */
+    private final PriorityQueue<Entry> entries = new PriorityQueue<>();
+
+    /**
+     * 待执行任务索引，同一任务重复提交时替换之前的
+     */
+    private final Map<Runnable, Entry> pending = new HashMap<>();
+
+    /**
+     * 当前时间，微秒
+     */
+    private long nowMicros;
+
+    /**
+     * 提交序号
+     */
+    private long sequence;
+
+    @Override
+    public void schedule(Runnable task, long delayMillis) {
+        scheduleMicros(task, delayMillis * 1000);
+    }
+
+    /**
+     * 按微秒延时执行
+     *
+     * @param task        the task
+     * @param delayMicros the delay micros
+     */
+    public void scheduleMicros(Runnable task, long delayMicros) {
+        scheduleAt(task, nowMicros + Math.max(0, delayMicros));
+    }
+
+    /**
+     * 在指定时间执行，早于当前时间则按当前时间执行
+     *
+     * @param task       the task
+     * @param timeMicros the time micros
+     */
+    public void scheduleAt(Runnable task, long timeMicros) {
+        Entry entry = new Entry(task, Math.max(nowMicros, timeMicros), sequence++);
+        Entry previous = pending.put(task, entry);
+        if (previous != null) {
+            previous.cancelled = true;
+        }
+        entries.offer(entry);
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        Entry entry = pending.remove(task);
+        if (entry != null) {
+            entry.cancelled = true;
+        }
+    }
+
+    @Override
+    public long now() {
+        return nowMicros / 1000;
+    }
+
+    /**
+     * 当前时间
+     *
+     * @return 微秒
+     */
+    public long nowMicros() {
+        return nowMicros;
+    }
+
+    /**
+     * 执行下一个任务
+     *
+     * @return 没有任务时返回false
+     */
+    public boolean runNext() {
+        Entry entry = poll();
+        if (entry == null) {
+            return false;
+        }
+        nowMicros = entry.time;
+        entry.task.run();
+        return true;
+    }
+
+    /**
+     * 执行到期时间不晚于指定时间的任务，结束后时间停在指定时间
+     *
+     * @param timeMicros the time micros
+     */
+    public void runUntil(long timeMicros) {
+        Entry entry;
+        while ((entry = peek()) != null && entry.time <= timeMicros) {
+            runNext();
+        }
+        nowMicros = Math.max(nowMicros, timeMicros);
+    }
+
+    /**
+     * 推进指定时间
+     *
+     * @param micros the micros
+     */
+    public void advance(long micros) {
+        runUntil(nowMicros + micros);
+    }
+
+    /**
+     * 执行到没有任务或时间超过上限
+     *
+     * @param limitMicros 时间上限
+     * @return 是否已没有任务
+     */
+    public boolean runUntilIdle(long limitMicros) {
+        Entry entry;
+        while ((entry = peek()) != null) {
+            if (entry.time > limitMicros) {
+                return false;
+            }
+            runNext();
+        }
+        return true;
+    }
+
+    /**
+     * 是否没有待执行任务
+     *
+     * @return the boolean
+     */
+    public boolean isIdle() {
+        return peek() == null;
+    }
+
+    /**
+     * 取出下一个未取消的任务
+     *
+     * @return the entry
+     */
+    private Entry poll() {
+        Entry entry = peek();
+        if (entry != null) {
+            entries.poll();
+            pending.remove(entry.task);
+        }
+        return entry;
+    }
+
+    /**
+     * 查看下一个未取消的任务，顺带丢弃已取消的
+     *
+     * @return the entry
+     */
+    private Entry peek() {
+        Entry entry;
+        while ((entry = entries.peek()) != null && entry.cancelled) {
+            entries.poll();
+        }
+        return entry;
+    }
+
+    /**
+     * 任务
+     */
+    private static final class Entry implements Comparable<Entry> {
+
+        /**
+         * The Task.
+         */
+        final Runnable task;
+
+        /**
+         * 到期时间，微秒
+         */
+        final long time;
+
+        /**
+         * 提交序号
+         */
+        final long sequence;
+
+        /**
+         * The Cancelled.
+         */
+        boolean cancelled;
+
+        /**
+         * Instantiates a new Entry.
+         *
+         * @param task     the task
+         * @param time     the time
+         * @param sequence the sequence
+         */
+        Entry(Runnable task, long time, long sequence) {
+            this.task = task;
+            this.time = time;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            if (time != o.time) {
+                return time < o.time ? -1 : 1;
+            }
+            return sequence < o.sequence ? -1 : (sequence == o.sequence ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package cn.com.shadowless.blelib.connect;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * PHY策略的掩码、请求与结果判断
+ *
+ * @author sHadowLess
+ */
+public class PhyPolicyTest {
+
+    /**
+     * PHY取值与BluetoothDevice.PHY_LE_*_MASK一致
+     */
+    @Test
+    public void masksMatchPlatformValues() {
+        assertEquals(1, PhyPolicy.toMask(PhyPolicy.PHY_LE_1M));
+        assertEquals(2, PhyPolicy.toMask(PhyPolicy.PHY_LE_2M));
+        assertEquals(4, PhyPolicy.toMask(PhyPolicy.PHY_LE_CODED));
+        assertEquals(4, PhyPolicy.range(PhyPolicy.PHY_OPTION_S8).getPhyMask());
+        assertEquals(PhyPolicy.PHY_OPTION_S8, PhyPolicy.range(PhyPolicy.PHY_OPTION_S8).getPhyOptions());
+    }
+
+    /**
+     * 1M为默认值不需要请求，对端拒绝过的PHY不再请求
+     */
+    @Test
+    public void requestsUnlessDefaultOrRefused() {
+        assertFalse(new PhyPolicy(PhyPolicy.PHY_LE_1M, PhyPolicy.PHY_OPTION_NO_PREFERRED).shouldRequest(DeviceProfile.UNKNOWN));
+        PhyPolicy throughput = PhyPolicy.throughput();
+        assertTrue(throughput.shouldRequest(DeviceProfile.UNKNOWN));
+        assertTrue(throughput.shouldRequest(PhyPolicy.PHY_LE_CODED));
+        assertFalse(throughput.shouldRequest(PhyPolicy.PHY_LE_2M));
+    }
+
+    /**
+     * 收发两个方向都切换到目标PHY才算协商成功
+     */
+    @Test
+    public void acceptsOnlyBothDirections() {
+        PhyPolicy throughput = PhyPolicy.throughput();
+        assertTrue(throughput.isAccepted(PhyPolicy.PHY_LE_2M, PhyPolicy.PHY_LE_2M));
+        assertFalse(throughput.isAccepted(PhyPolicy.PHY_LE_2M, PhyPolicy.PHY_LE_1M));
+        assertFalse(throughput.isAccepted(PhyPolicy.PHY_LE_1M, PhyPolicy.PHY_LE_1M));
+    }
+
+    /**
+     * 非法PHY
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownPhy() {
+        new PhyPolicy(4, PhyPolicy.PHY_OPTION_NO_PREFERRED);
+    }
+}
@@ -0,0 +1,82 @@
+package cn.com.shadowless.blelib.connect;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 连接优先级的升降阈值、滞回与最短停留
+ *
+ * @author sHadowLess
+ */
+public class PrioritySchedulerTest {
+
+    /**
+     * 队列积压达到高阈值时立即升到高优先级
+     */
+    @Test
+    public void escalatesImmediatelyOnBacklog() {
+        PriorityScheduler scheduler = new PriorityScheduler();
+        scheduler.reset(PriorityScheduler.PRIORITY_BALANCED, 0);
+        assertEquals(PriorityScheduler.PRIORITY_HIGH, scheduler.evaluate(PriorityScheduler.DEFAULT_HIGH_QUEUE_SIZE, 200));
+    }
+
+    /**
+     * 接收速率达到高阈值时升到高优先级
+     */
+    @Test
+    public void escalatesOnInboundRate() {
+        PriorityScheduler scheduler = new PriorityScheduler();
+        scheduler.reset(PriorityScheduler.PRIORITY_BALANCED, 0);
+        scheduler.recordInbound(500);
+        assertEquals(PriorityScheduler.PRIORITY_BALANCED, scheduler.evaluate(0, 200));
+        scheduler.recordInbound(1000);
+        assertEquals(PriorityScheduler.PRIORITY_HIGH, scheduler.evaluate(0, 400));
+    }
+
+    /**
+     * 高优先级在低阈值以上保持，降到低阈值以下后经过最短停留才降级
+     */
+    @Test
+    public void holdsHighUntilBelowLowThreshold() {
+        PriorityScheduler scheduler = new PriorityScheduler();
+        scheduler.reset(PriorityScheduler.PRIORITY_BALANCED, 0);
+        scheduler.evaluate(8, 200);
+        assertEquals(PriorityScheduler.PRIORITY_HIGH, scheduler.evaluate(3, 2000));
+        assertEquals(PriorityScheduler.PRIORITY_BALANCED, scheduler.evaluate(2, 2200));
+    }
+
+    /**
+     * 升级后不足最短停留时间不降级
+     */
+    @Test
+    public void respectsMinimumDwell() {
+        PriorityScheduler scheduler = new PriorityScheduler();
+        scheduler.reset(PriorityScheduler.PRIORITY_BALANCED, 0);
+        scheduler.evaluate(8, 200);
+        assertEquals(PriorityScheduler.PRIORITY_HIGH, scheduler.evaluate(1, 400));
+        assertEquals(PriorityScheduler.PRIORITY_HIGH, scheduler.evaluate(1, 200 + PriorityScheduler.MIN_DWELL - 1));
+        assertEquals(PriorityScheduler.PRIORITY_BALANCED, scheduler.evaluate(1, 200 + PriorityScheduler.MIN_DWELL));
+    }
+
+    /**
+     * 空闲超过期限降到低功耗，有数据时立即回到均衡
+     */
+    @Test
+    public void idlesToLowPower() {
+        PriorityScheduler scheduler = new PriorityScheduler(8, 2, 4096, 1024, 1000);
+        scheduler.reset(PriorityScheduler.PRIORITY_BALANCED, 0);
+        assertEquals(PriorityScheduler.PRIORITY_BALANCED, scheduler.evaluate(0, 800));
+        assertEquals(PriorityScheduler.PRIORITY_LOW_POWER, scheduler.evaluate(0, 1000));
+        assertEquals(PriorityScheduler.PRIORITY_LOW_POWER, scheduler.evaluate(0, 1200));
+        assertEquals(PriorityScheduler.PRIORITY_BALANCED, scheduler.evaluate(1, 1400));
+    }
+
+    /**
+     * 参数校验
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvertedThresholds() {
+        new PriorityScheduler(2, 8, 4096, 1024, 1000);
+    }
+}
@@ -0,0 +1,90 @@
+package cn.com.shadowless.blelib.connect;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 重连策略的退避抖动范围与直连切换
+ *
+ * @author sHadowLess
+ */
+public class ReconnectPolicyTest {
+
+    /**
+     * 等待时间在[上限/2, 上限]之间，上限按2^attempt增长且不超过最大间隔
+     */
+    @Test
+    public void jitterStaysWithinBounds() {
+        ReconnectPolicy policy = new ReconnectPolicy(10, 2, 200, 10000, new Random(7));
+        for (int attempt = 0; attempt < 40; attempt++) {
+            long ceiling = Math.min(10000, 200L << Math.min(attempt, 20));
+            for (int i = 0; i < 200; i++) {
+                long delay = policy.nextDelay(attempt);
+                assertTrue(attempt + ":" + delay, delay >= ceiling / 2);
+                assertTrue(attempt + ":" + delay, delay <= ceiling);
+            }
+        }
+    }
+
+    /**
+     * 抖动覆盖整个范围，不是固定值
+     */
+    @Test
+    public void jitterSpreads() {
+        ReconnectPolicy policy = new ReconnectPolicy(10, 2, 200, 10000, new Random(7));
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int i = 0; i < 1000; i++) {
+            long delay = policy.nextDelay(3);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue(min < 900);
+        assertTrue(max > 1500);
+    }
+
+    /**
+     * 基础间隔为0时立即重连
+     */
+    @Test
+    public void zeroBaseDelay() {
+        ReconnectPolicy policy = new ReconnectPolicy(3, 1, 0, 0, new Random(1));
+        assertEquals(0, policy.nextDelay(0));
+        assertEquals(0, policy.nextDelay(5));
+    }
+
+    /**
+     * 前若干次直连，之后改用autoConnect，达到上限后退回扫描
+     */
+    @Test
+    public void switchesToAutoConnectThenGivesUp() {
+        ReconnectPolicy policy = new ReconnectPolicy();
+        assertFalse(policy.useAutoConnect(0));
+        assertFalse(policy.useAutoConnect(1));
+        assertTrue(policy.useAutoConnect(2));
+        assertTrue(policy.shouldReconnect(ReconnectPolicy.DEFAULT_MAX_ATTEMPTS - 1));
+        assertFalse(policy.shouldReconnect(ReconnectPolicy.DEFAULT_MAX_ATTEMPTS));
+        assertEquals(ReconnectPolicy.DEFAULT_CONNECT_TIMEOUT, policy.getConnectTimeout());
+    }
+
+    /**
+     * 参数校验
+     */
+    @Test
+    public void rejectsInvalidArguments() {
+        try {
+            new ReconnectPolicy(1, 1, 500, 100);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new ReconnectPolicy(1, 1, 100, 500, -1);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(0, new ReconnectPolicy(1, 1, 100, 500, 0).getConnectTimeout());
+    }
+}
@@ -0,0 +1,93 @@
+package cn.com.shadowless.blelib.frame;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 分包重组的长度上限与异常分包处理
+ *
+ * @author sHadowLess
+ */
+public class FrameAssemblerTest {
+
+    /**
+     * 默认上限以内的消息按数据增长缓冲后完整重组
+     */
+    @Test
+    public void assemblesUpToDefaultLimit() {
+        byte[] data = FrameCodecTest.random(FrameAssembler.DEFAULT_MAX_MESSAGE_SIZE, 1);
+        FrameAssembler assembler = new FrameAssembler();
+        assertArrayEquals(data, FrameCodecTest.assemble(assembler, new FrameCodec(247).encode(data)));
+        assertEquals(0, assembler.getDroppedCount());
+    }
+
+    /**
+     * 首包声明的长度超过上限时丢弃，放宽上限后接收
+     */
+    @Test
+    public void rejectsOversizedUnlessAllowed() {
+        byte[] data = FrameCodecTest.random(FrameAssembler.DEFAULT_MAX_MESSAGE_SIZE + 1, 2);
+        List<byte[]> chunks = new FrameCodec(247).encode(data);
+        FrameAssembler assembler = new FrameAssembler();
+        assertNull(assembler.feed(chunks.get(0)));
+        assertFalse(assembler.isAssembling());
+        assertEquals(1, assembler.getDroppedCount());
+        assembler.setMaxMessageSize(2 * FrameAssembler.DEFAULT_MAX_MESSAGE_SIZE);
+        assertArrayEquals(data, FrameCodecTest.assemble(assembler, chunks));
+    }
+
+    /**
+     * 上限不超过协议可表示的长度
+     */
+    @Test
+    public void limitIsClampedToProtocolMaximum() {
+        assertEquals(FrameCodec.MAX_MESSAGE_SIZE, new FrameAssembler(Integer.MAX_VALUE).getMaxMessageSize());
+    }
+
+    /**
+     * 序号不连续时丢弃当前消息，下一条消息不受影响
+     */
+    @Test
+    public void dropsMessageWithMissingChunk() {
+        FrameCodec codec = new FrameCodec();
+        FrameAssembler assembler = new FrameAssembler();
+        List<byte[]> broken = codec.encode(FrameCodecTest.random(200, 3));
+        broken.remove(2);
+        for (byte[] chunk : broken) {
+            assertNull(assembler.feed(chunk));
+        }
+        assertEquals(1, assembler.getDroppedCount());
+        byte[] next = FrameCodecTest.random(200, 4);
+        assertArrayEquals(next, FrameCodecTest.assemble(assembler, codec.encode(next)));
+    }
+
+    /**
+     * 新的首包打断未完成的消息
+     */
+    @Test
+    public void firstChunkRestartsAssembly() {
+        FrameCodec codec = new FrameCodec();
+        FrameAssembler assembler = new FrameAssembler();
+        List<byte[]> partial = codec.encode(FrameCodecTest.random(100, 5));
+        assertNull(assembler.feed(partial.get(0)));
+        assertTrue(assembler.isAssembling());
+        byte[] next = FrameCodecTest.random(100, 6);
+        assertArrayEquals(next, FrameCodecTest.assemble(assembler, codec.encode(next)));
+        assertEquals(1, assembler.getDroppedCount());
+    }
+
+    /**
+     * 空消息与标记
+     */
+    @Test
+    public void carriesFlagsAndEmptyMessage() {
+        FrameAssembler assembler = new FrameAssembler();
+        List<byte[]> chunks = new FrameCodec().encode(new byte[0], FrameCodec.MESSAGE_RPC);
+        assertEquals(1, chunks.size());
+        assertArrayEquals(new byte[0], assembler.feed(chunks.get(0)));
+        assertEquals(FrameCodec.MESSAGE_RPC, assembler.getFlags());
+    }
+}
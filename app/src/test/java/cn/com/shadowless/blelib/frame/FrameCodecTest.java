@@ -0,0 +1,104 @@
+package cn.com.shadowless.blelib.frame;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 拆包随MTU变化的分包大小与重组
+ *
+ * @author sHadowLess
+ */
+public class FrameCodecTest {
+
+    /**
+     * 每个分包不超过当前MTU可用长度，重组后与原数据一致
+     */
+    @Test
+    public void chunksFitMtu() {
+        for (int mtu : new int[]{FrameCodec.DEFAULT_MTU, 100, 247, 517}) {
+            FrameCodec codec = new FrameCodec(mtu);
+            byte[] data = random(5000, mtu);
+            List<byte[]> chunks = codec.encode(data);
+            assertEquals(codec.chunkCount(data.length), chunks.size());
+            for (byte[] chunk : chunks) {
+                assertTrue(chunk.length <= mtu - FrameCodec.ATT_HEADER_SIZE);
+            }
+            assertArrayEquals(data, assemble(new FrameAssembler(), chunks));
+        }
+    }
+
+    /**
+     * MTU变化后下一条消息按新MTU切片，同一个重组器连续重组
+     */
+    @Test
+    public void mtuChangeBetweenMessages() {
+        FrameCodec codec = new FrameCodec();
+        FrameAssembler assembler = new FrameAssembler();
+        byte[] before = random(1000, 1);
+        List<byte[]> small = codec.encode(before);
+        codec.setMtu(247);
+        byte[] after = random(1000, 2);
+        List<byte[]> large = codec.encode(after);
+        assertTrue(large.size() < small.size());
+        assertArrayEquals(before, assemble(assembler, small));
+        assertArrayEquals(after, assemble(assembler, large));
+        codec.setMtu(FrameCodec.DEFAULT_MTU);
+        assertEquals(small.size(), codec.encode(before).size());
+        assertEquals(0, assembler.getDroppedCount());
+    }
+
+    /**
+     * 预留空间从每个分包中扣除
+     */
+    @Test
+    public void headroomReducesChunkSize() {
+        FrameCodec codec = new FrameCodec(247);
+        int chunkSize = codec.getChunkSize();
+        codec.setHeadroom(5);
+        assertEquals(chunkSize - 5, codec.getChunkSize());
+        for (byte[] chunk : codec.encode(random(2000, 3))) {
+            assertTrue(chunk.length <= 247 - FrameCodec.ATT_HEADER_SIZE - 5);
+        }
+    }
+
+    /**
+     * MTU不能小于默认值
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMtuBelowDefault() {
+        new FrameCodec().setMtu(FrameCodec.DEFAULT_MTU - 1);
+    }
+
+    /**
+     * 依次输入分包
+     *
+     * @param assembler the assembler
+     * @param chunks    the chunks
+     * @return 重组完成的消息
+     */
+    static byte[] assemble(FrameAssembler assembler, List<byte[]> chunks) {
+        byte[] message = null;
+        for (byte[] chunk : chunks) {
+            assertNull("消息提前完成", message);
+            message = assembler.feed(chunk);
+        }
+        return message;
+    }
+
+    /**
+     * 随机数据
+     *
+     * @param length the length
+     * @param seed   the seed
+     * @return the byte [ ]
+     */
+    static byte[] random(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
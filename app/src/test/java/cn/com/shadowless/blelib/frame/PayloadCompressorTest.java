@@ -0,0 +1,114 @@
+package cn.com.shadowless.blelib.frame;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * 载荷压缩的往返、字典协商与长度上限
+ *
+ * @author sHadowLess
+ */
+public class PayloadCompressorTest {
+
+    /**
+     * 测试字典
+     */
+    private static final byte[] DICTIONARY = "{\"temperature\":,\"humidity\":,\"battery\":}".getBytes(Charset.forName("UTF-8"));
+
+    /**
+     * 压缩后解压与原数据一致，字典能让短消息压缩得更小
+     */
+    @Test
+    public void roundTripsWithAndWithoutDictionary() {
+        byte[] data = json(4);
+        PayloadCompressor plain = new PayloadCompressor(null, 0);
+        PayloadCompressor primed = new PayloadCompressor(DICTIONARY, 0);
+        byte[] plainOut = plain.compress(data);
+        byte[] primedOut = primed.compress(data);
+        assertNotNull(plainOut);
+        assertNotNull(primedOut);
+        assertTrue(primedOut.length < plainOut.length);
+        assertArrayEquals(data, plain.decompress(plainOut));
+        assertArrayEquals(data, primed.decompress(primedOut));
+        assertEquals(data.length * 2, plain.getInputBytes() + primed.getInputBytes());
+    }
+
+    /**
+     * 短于阈值或不可压缩的消息返回null，原样发送
+     */
+    @Test
+    public void skipsShortAndIncompressible() {
+        PayloadCompressor compressor = new PayloadCompressor();
+        assertNull(compressor.compress(new byte[PayloadCompressor.DEFAULT_THRESHOLD - 1]));
+        assertNull(compressor.compress(FrameCodecTest.random(1000, 1)));
+        assertEquals(0, compressor.getInputBytes());
+    }
+
+    /**
+     * 字典不一致时协商失败，误用时解压得不到原数据
+     */
+    @Test
+    public void dictionaryMismatch() {
+        PayloadCompressor primed = new PayloadCompressor(DICTIONARY, 0);
+        PayloadCompressor plain = new PayloadCompressor(null, 0);
+        byte[] other = DICTIONARY.clone();
+        other[0] = '[';
+        PayloadCompressor changed = new PayloadCompressor(other, 0);
+        assertTrue(primed.accepts(new PayloadCompressor(DICTIONARY, 100).capability()));
+        assertFalse(primed.accepts(plain.capability()));
+        assertFalse(primed.accepts(changed.capability()));
+        assertFalse(primed.accepts(new byte[3]));
+        byte[] data = json(2);
+        byte[] compressed = primed.compress(data);
+        assertFalse(Arrays.equals(data, plain.decompress(compressed)));
+    }
+
+    /**
+     * 长度头超过上限时拒绝，不按对端声明的长度分配
+     */
+    @Test
+    public void rejectsLengthAboveLimit() {
+        PayloadCompressor compressor = new PayloadCompressor(null, 0);
+        byte[] data = json(50);
+        byte[] compressed = compressor.compress(data);
+        assertNull(compressor.decompress(compressed, data.length - 1));
+        assertArrayEquals(data, compressor.decompress(compressed, data.length));
+        byte[] forged = compressed.clone();
+        forged[0] = (byte) 0xFF;
+        forged[1] = (byte) 0xFF;
+        forged[2] = (byte) 0xFF;
+        assertNull(compressor.decompress(forged, FrameAssembler.DEFAULT_MAX_MESSAGE_SIZE));
+    }
+
+    /**
+     * 截断或损坏的数据返回null
+     */
+    @Test
+    public void rejectsCorruptData() {
+        PayloadCompressor compressor = new PayloadCompressor(null, 0);
+        byte[] data = json(20);
+        byte[] compressed = compressor.compress(data);
+        assertNull(compressor.decompress(Arrays.copyOf(compressed, compressed.length / 2)));
+        assertNull(compressor.decompress(new byte[2]));
+        assertArrayEquals(data, compressor.decompress(compressed));
+    }
+
+    /**
+     * 重复的JSON记录
+     *
+     * @param count the count
+     * @return the byte [ ]
+     */
+    private static byte[] json(int count) {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            builder.append("{\"temperature\":").append(20 + i).append(",\"humidity\":").append(40 + i)
+                    .append(",\"battery\":").append(90 - i).append('}');
+        }
+        return builder.append(']').toString().getBytes(Charset.forName("UTF-8"));
+    }
+}
@@ -0,0 +1,81 @@
+package cn.com.shadowless.blelib.metrics;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * 连接统计的失败状态码与超时计数
+ *
+ * @author sHadowLess
+ */
+public class ConnectionMetricsTest {
+
+    /**
+     * 按完整状态码计数，0x101不会记到0x01
+     */
+    @Test
+    public void keysFailuresByFullStatus() {
+        ConnectionMetrics metrics = new ConnectionMetrics("a");
+        metrics.recordOperation(ConnectionMetrics.OP_WRITE, 0x101);
+        metrics.recordOperation(ConnectionMetrics.OP_WRITE, 0x101);
+        metrics.recordOperation(ConnectionMetrics.OP_WRITE, 0x85);
+        metrics.recordFailure(0x01);
+        metrics.recordOperation(ConnectionMetrics.OP_WRITE, 0);
+        MetricsSnapshot snapshot = metrics.snapshot(0);
+        Map<Integer, Long> failures = snapshot.getFailures();
+        assertEquals(3, failures.size());
+        assertEquals(Long.valueOf(2), failures.get(0x101));
+        assertEquals(Long.valueOf(1), failures.get(0x85));
+        assertEquals(Long.valueOf(1), failures.get(0x01));
+        assertEquals(4, snapshot.getOperationCount(ConnectionMetrics.OP_WRITE));
+    }
+
+    /**
+     * 超时计入操作数，并以超时状态计入失败
+     */
+    @Test
+    public void countsTimeouts() {
+        ConnectionMetrics metrics = new ConnectionMetrics("a");
+        metrics.recordTimeout(ConnectionMetrics.OP_MTU);
+        metrics.recordTimeout(ConnectionMetrics.OP_DISCOVER);
+        MetricsSnapshot snapshot = metrics.snapshot(0);
+        assertEquals(1, snapshot.getOperationCount(ConnectionMetrics.OP_MTU));
+        assertEquals(1, snapshot.getOperationCount(ConnectionMetrics.OP_DISCOVER));
+        assertEquals(Long.valueOf(2), snapshot.getFailures().get(ConnectionMetrics.STATUS_TIMEOUT));
+    }
+
+    /**
+     * 意外断开即使状态码为成功也计入，本端请求的正常断开不计入
+     */
+    @Test
+    public void countsUnexpectedDisconnect() {
+        ConnectionMetrics metrics = new ConnectionMetrics("a");
+        metrics.recordDisconnected(0, true);
+        assertTrue(metrics.snapshot(0).getFailures().isEmpty());
+        metrics.recordDisconnected(0, false);
+        metrics.recordDisconnected(0x08, true);
+        Map<Integer, Long> failures = metrics.snapshot(0).getFailures();
+        assertEquals(Long.valueOf(1), failures.get(0));
+        assertEquals(Long.valueOf(1), failures.get(0x08));
+    }
+
+    /**
+     * 清空后溢出表中的状态码不再出现在快照中
+     */
+    @Test
+    public void resetClearsAllCounts() {
+        ConnectionMetrics metrics = new ConnectionMetrics("a");
+        metrics.recordInbound(10);
+        metrics.recordOperation(ConnectionMetrics.OP_READ, 0x101);
+        metrics.recordTimeout(ConnectionMetrics.OP_READ);
+        metrics.reset();
+        MetricsSnapshot snapshot = metrics.snapshot(3);
+        assertTrue(snapshot.getFailures().isEmpty());
+        assertEquals(0, snapshot.getBytesIn());
+        assertEquals(0, snapshot.getOperationCount(ConnectionMetrics.OP_READ));
+        assertEquals(3, snapshot.getQueueDepth());
+    }
+}
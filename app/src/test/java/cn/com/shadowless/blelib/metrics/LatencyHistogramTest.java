@@ -0,0 +1,79 @@
+package cn.com.shadowless.blelib.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 延迟直方图的分桶与分位数
+ *
+ * @author sHadowLess
+ */
+public class LatencyHistogramTest {
+
+    /**
+     * 等于边界的值落在该桶，超过最大边界的值落在溢出桶
+     */
+    @Test
+    public void bucketsByUpperBound() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(0);
+        histogram.record(250);
+        histogram.record(251);
+        histogram.record(10000000);
+        histogram.record(10000001);
+        HistogramSnapshot snapshot = histogram.snapshot();
+        long[] counts = snapshot.getCounts();
+        assertEquals(snapshot.getBounds().length + 1, counts.length);
+        assertEquals(2, counts[0]);
+        assertEquals(1, counts[1]);
+        assertEquals(1, counts[counts.length - 2]);
+        assertEquals(1, counts[counts.length - 1]);
+        assertEquals(5, snapshot.getCount());
+        assertEquals(10000001, snapshot.getMax());
+    }
+
+    /**
+     * 负值忽略
+     */
+    @Test
+    public void ignoresNegative() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-1);
+        assertEquals(0, histogram.snapshot().getCount());
+    }
+
+    /**
+     * 分位数返回所在桶的上边界，不超过最大值，溢出桶返回最大值
+     */
+    @Test
+    public void percentileUsesBucketBound() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) {
+            histogram.record(300);
+        }
+        for (int i = 0; i < 9; i++) {
+            histogram.record(3000);
+        }
+        histogram.record(20000000);
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(500, snapshot.percentile(50));
+        assertEquals(500, snapshot.percentile(90));
+        assertEquals(5000, snapshot.percentile(99));
+        assertEquals(20000000, snapshot.percentile(100));
+        assertEquals((90 * 300 + 9 * 3000 + 20000000) / 100, snapshot.mean());
+    }
+
+    /**
+     * 只有一个值时分位数不超过该值
+     */
+    @Test
+    public void percentileClampedToMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(300);
+        assertEquals(300, histogram.snapshot().percentile(50));
+        histogram.reset();
+        assertEquals(0, histogram.snapshot().percentile(50));
+        assertEquals(0, histogram.snapshot().mean());
+    }
+}
@@ -0,0 +1,77 @@
+package cn.com.shadowless.blelib.pool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 字节数组池的分级借还
+ *
+ * @author sHadowLess
+ */
+public class BufferPoolTest {
+
+    /**
+     * 借出长度向上取整为2的幂，最小64字节
+     */
+    @Test
+    public void roundsUpToSizeClass() {
+        BufferPool pool = new BufferPool();
+        assertEquals(64, pool.acquire(0).length);
+        assertEquals(64, pool.acquire(64).length);
+        assertEquals(128, pool.acquire(65).length);
+        assertEquals(512, pool.acquire(500).length);
+        assertEquals(1 << 16, pool.getMaxBufferSize());
+    }
+
+    /**
+     * 归还后同级别的申请复用同一数组
+     */
+    @Test
+    public void reusesReleasedBuffer() {
+        BufferPool pool = new BufferPool();
+        byte[] buffer = pool.acquire(100);
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(128));
+        assertNotSame(buffer, pool.acquire(128));
+    }
+
+    /**
+     * 超过最大级别的申请按原长度分配，归还时不缓存
+     */
+    @Test
+    public void oversizedIsNotPooled() {
+        BufferPool pool = new BufferPool(1024, 2);
+        byte[] large = pool.acquire(1500);
+        assertEquals(1500, large.length);
+        pool.release(large);
+        byte[] again = pool.acquire(2048);
+        assertNotSame(large, again);
+        pool.release(again);
+        assertNotSame(again, pool.acquire(2048));
+    }
+
+    /**
+     * 非本池级别的数组与超出每级数量的数组直接丢弃
+     */
+    @Test
+    public void dropsForeignAndSurplusBuffers() {
+        BufferPool pool = new BufferPool(1024, 1);
+        pool.release(new byte[100]);
+        pool.release(new byte[32]);
+        byte[] first = new byte[256];
+        byte[] second = new byte[256];
+        pool.release(first);
+        pool.release(second);
+        assertSame(first, pool.acquire(256));
+        assertNotSame(second, pool.acquire(256));
+    }
+
+    /**
+     * 参数校验
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTinyMaximum() {
+        new BufferPool(32, 1);
+    }
+}
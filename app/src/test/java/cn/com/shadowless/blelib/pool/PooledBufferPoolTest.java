@@ -0,0 +1,95 @@
+package cn.com.shadowless.blelib.pool;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * 可归还缓冲的分级复用与重复归还
+ *
+ * @author sHadowLess
+ */
+public class PooledBufferPoolTest {
+
+    /**
+     * 容量按级别向上取整，有效长度为申请长度
+     */
+    @Test
+    public void sizesByClass() {
+        PooledBufferPool pool = new PooledBufferPool();
+        PooledBuffer buffer = pool.acquire(100);
+        assertEquals(128, buffer.capacity());
+        assertEquals(100, buffer.length());
+        assertEquals(64, pool.acquire(1).capacity());
+    }
+
+    /**
+     * 复制数据后视图只包含有效长度
+     */
+    @Test
+    public void copiesIntoView() {
+        PooledBufferPool pool = new PooledBufferPool();
+        byte[] source = {0, 1, 2, 3, 4, 5};
+        PooledBuffer buffer = pool.copyOf(source, 2, 3);
+        ByteBuffer view = buffer.buffer();
+        assertEquals(0, view.position());
+        assertEquals(3, view.remaining());
+        assertEquals(2, view.get());
+        assertEquals(3, buffer.buffer().remaining());
+        assertEquals(0, pool.copyOf(source, 0, 0).length());
+    }
+
+    /**
+     * 归还后同级别的申请复用同一缓冲并重置长度
+     */
+    @Test
+    public void reusesReleasedBuffer() {
+        PooledBufferPool pool = new PooledBufferPool();
+        PooledBuffer buffer = pool.acquire(100);
+        buffer.release();
+        PooledBuffer again = pool.acquire(70);
+        assertSame(buffer, again);
+        assertEquals(70, again.length());
+    }
+
+    /**
+     * 重复归还只入池一次，不会被两个使用者同时借出
+     */
+    @Test
+    public void doubleReleaseIsIgnored() {
+        PooledBufferPool pool = new PooledBufferPool();
+        PooledBuffer buffer = pool.acquire(100);
+        buffer.release();
+        buffer.release();
+        assertSame(buffer, pool.acquire(100));
+        assertNotSame(buffer, pool.acquire(100));
+    }
+
+    /**
+     * 超过最大级别的缓冲按原长度分配，归还时不入池
+     */
+    @Test
+    public void oversizedIsNotPooled() {
+        PooledBufferPool pool = new PooledBufferPool(1024, 4);
+        PooledBuffer large = pool.acquire(3000);
+        assertEquals(3000, large.capacity());
+        large.release();
+        assertNotSame(large, pool.acquire(3000));
+    }
+
+    /**
+     * 每级缓存数量有上限
+     */
+    @Test
+    public void boundsPerClass() {
+        PooledBufferPool pool = new PooledBufferPool(1024, 1);
+        PooledBuffer first = pool.acquire(64);
+        PooledBuffer second = pool.acquire(64);
+        first.release();
+        second.release();
+        assertSame(first, pool.acquire(64));
+        assertNotSame(second, pool.acquire(64));
+    }
+}
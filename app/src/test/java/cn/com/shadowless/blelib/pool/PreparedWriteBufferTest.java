@@ -0,0 +1,92 @@
+package cn.com.shadowless.blelib.pool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 长写入按偏移量拼接与越界处理
+ *
+ * @author sHadowLess
+ */
+public class PreparedWriteBufferTest {
+
+    /**
+     * 按偏移量依次写入后提交为连续数据
+     */
+    @Test
+    public void concatenatesByOffset() {
+        PreparedWriteBuffer buffer = new PreparedWriteBuffer(new BufferPool(), 512);
+        assertTrue(buffer.write(0, bytes(0, 18)));
+        assertTrue(buffer.write(18, bytes(18, 18)));
+        assertTrue(buffer.write(36, bytes(36, 4)));
+        assertEquals(40, buffer.length());
+        assertArrayEquals(bytes(0, 40), buffer.commit());
+        assertEquals(0, buffer.length());
+        assertNull(buffer.array());
+    }
+
+    /**
+     * 重写已写入的区间覆盖原数据，长度取最大结束位置
+     */
+    @Test
+    public void overwritesWrittenRange() {
+        PreparedWriteBuffer buffer = new PreparedWriteBuffer(new BufferPool(), 512);
+        assertTrue(buffer.write(0, bytes(0, 10)));
+        assertTrue(buffer.write(2, new byte[]{9, 9}));
+        assertEquals(10, buffer.length());
+        byte[] data = buffer.commit();
+        assertEquals(9, data[2]);
+        assertEquals(9, data[3]);
+        assertEquals(4, data[4]);
+    }
+
+    /**
+     * 跳过未写入区间、负偏移与超过最大长度的分片被拒绝，已写入的数据不变
+     */
+    @Test
+    public void rejectsGapsAndOverflow() {
+        PreparedWriteBuffer buffer = new PreparedWriteBuffer(new BufferPool(), 32);
+        assertTrue(buffer.write(0, bytes(0, 20)));
+        assertFalse(buffer.write(21, bytes(0, 1)));
+        assertFalse(buffer.write(-1, bytes(0, 1)));
+        assertFalse(buffer.write(20, bytes(0, 13)));
+        assertTrue(buffer.write(20, bytes(20, 12)));
+        assertArrayEquals(bytes(0, 32), buffer.commit());
+    }
+
+    /**
+     * 扩容时保留已写入的数据，取消后数组归还给池
+     */
+    @Test
+    public void growsAndReturnsArrays() {
+        BufferPool pool = new BufferPool();
+        PreparedWriteBuffer buffer = new PreparedWriteBuffer(pool, 4096);
+        assertTrue(buffer.write(0, bytes(0, 60)));
+        byte[] small = buffer.array();
+        assertEquals(64, small.length);
+        assertTrue(buffer.write(60, bytes(60, 180)));
+        assertEquals(256, buffer.array().length);
+        assertSame(small, pool.acquire(64));
+        byte[] large = buffer.array();
+        buffer.cancel();
+        assertEquals(0, buffer.length());
+        assertSame(large, pool.acquire(256));
+        assertArrayEquals(new byte[0], buffer.commit());
+    }
+
+    /**
+     * 连续字节
+     *
+     * @param start  the start
+     * @param length the length
+     * @return the byte [ ]
+     */
+    private static byte[] bytes(int start, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (start + i);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,103 @@
+package cn.com.shadowless.blelib.queue;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 发送窗口的加性增长与乘性减小
+ *
+ * @author sHadowLess
+ */
+public class CreditWindowTest {
+
+    /**
+     * 在途数量达到窗口后拒绝，取消或确认后腾出额度
+     */
+    @Test
+    public void limitsInFlight() {
+        CreditWindow window = new CreditWindow(1, 2, 8);
+        assertTrue(window.tryAcquire());
+        assertTrue(window.tryAcquire());
+        assertFalse(window.tryAcquire());
+        assertEquals(2, window.getInFlight());
+        window.cancel();
+        assertEquals(2, window.getWindow());
+        assertTrue(window.tryAcquire());
+        window.release();
+        assertEquals(1, window.getInFlight());
+    }
+
+    /**
+     * 连续确认一个窗口的数量后窗口加一，不超过上限
+     */
+    @Test
+    public void growsAfterWindowOfSuccesses() {
+        CreditWindow window = new CreditWindow(1, 2, 4);
+        ack(window, 1);
+        assertEquals(2, window.getWindow());
+        ack(window, 1);
+        assertEquals(3, window.getWindow());
+        ack(window, 3);
+        assertEquals(4, window.getWindow());
+        ack(window, 100);
+        assertEquals(4, window.getWindow());
+    }
+
+    /**
+     * 丢包时窗口减半且不低于下限，增长计数重新开始
+     */
+    @Test
+    public void halvesOnDrop() {
+        CreditWindow window = new CreditWindow(2, 8, 8);
+        ack(window, 7);
+        window.drop();
+        assertEquals(4, window.getWindow());
+        ack(window, 3);
+        assertEquals(4, window.getWindow());
+        ack(window, 1);
+        assertEquals(5, window.getWindow());
+        window.drop();
+        window.drop();
+        window.drop();
+        assertEquals(2, window.getWindow());
+        assertEquals(4, window.getDropCount());
+    }
+
+    /**
+     * 重置恢复初始窗口并清空在途数量，保留丢包统计
+     */
+    @Test
+    public void resetRestoresInitialWindow() {
+        CreditWindow window = new CreditWindow();
+        ack(window, 100);
+        assertTrue(window.getWindow() > CreditWindow.DEFAULT_INITIAL_WINDOW);
+        window.tryAcquire();
+        window.drop();
+        window.reset();
+        assertEquals(CreditWindow.DEFAULT_INITIAL_WINDOW, window.getWindow());
+        assertEquals(0, window.getInFlight());
+        assertEquals(1, window.getDropCount());
+    }
+
+    /**
+     * 窗口参数不满足大小关系时拒绝
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidBounds() {
+        new CreditWindow(4, 2, 8);
+    }
+
+    /**
+     * 逐个发送并确认
+     *
+     * @param window the window
+     * @param count  the count
+     */
+    private static void ack(CreditWindow window, int count) {
+        for (int i = 0; i < count; i++) {
+            assertTrue(window.tryAcquire());
+            window.release();
+        }
+    }
+}
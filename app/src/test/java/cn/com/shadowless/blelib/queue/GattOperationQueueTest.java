@@ -0,0 +1,297 @@
+package cn.com.shadowless.blelib.queue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 操作队列的容量限制与超时
+ *
+ * @author sHadowLess
+ */
+public class GattOperationQueueTest {
+
+    /**
+     * 测试用超时，毫秒
+     */
+    private static final long TIMEOUT = 100;
+
+    /**
+     * 记录执行与结束状态的操作
+     */
+    private static class Operation extends GattOperation {
+
+        /**
+         * 提交结果
+         */
+        boolean accepted = true;
+
+        /**
+         * 提交失败时是否重试
+         */
+        boolean retry;
+
+        /**
+         * 执行次数
+         */
+        int executed;
+
+        /**
+         * 结束状态，未结束为null
+         */
+        Integer status;
+
+        /**
+         * Instantiates a new Operation.
+         *
+         * @param type the type
+         */
+        Operation(int type) {
+            super(type);
+        }
+
+        @Override
+        public boolean execute() {
+            executed++;
+            return accepted;
+        }
+
+        @Override
+        protected void onComplete(int status) {
+            this.status = status;
+        }
+
+        @Override
+        protected boolean onFailure() {
+            return retry;
+        }
+    }
+
+    /**
+     * 队列满时拒绝入队，执行中的操作不占容量，完成后腾出空间
+     */
+    @Test
+    public void rejectsWhenFull() {
+        GattOperationQueue queue = new GattOperationQueue(2);
+        Operation running = new Operation(GattOperation.TYPE_WRITE);
+        assertTrue(queue.offer(running));
+        assertEquals(1, running.executed);
+        assertTrue(queue.offer(new Operation(GattOperation.TYPE_WRITE)));
+        assertTrue(queue.offer(new Operation(GattOperation.TYPE_WRITE)));
+        assertFalse(queue.offer(new Operation(GattOperation.TYPE_WRITE)));
+        assertEquals(2, queue.size());
+        queue.complete(GattOperation.TYPE_WRITE);
+        assertEquals(Integer.valueOf(0), running.status);
+        assertEquals(1, queue.size());
+        assertTrue(queue.offer(new Operation(GattOperation.TYPE_WRITE)));
+    }
+
+    /**
+     * 剩余容量不足时整体拒绝，不会只入队一部分
+     */
+    @Test
+    public void offerAllIsAllOrNothing() {
+        GattOperationQueue queue = new GattOperationQueue(3);
+        queue.offer(new Operation(GattOperation.TYPE_WRITE));
+        queue.offer(new Operation(GattOperation.TYPE_WRITE));
+        List<Operation> batch = Arrays.asList(new Operation(GattOperation.TYPE_WRITE), new Operation(GattOperation.TYPE_WRITE),
+                new Operation(GattOperation.TYPE_WRITE));
+        assertFalse(queue.offerAll(batch));
+        assertEquals(1, queue.size());
+        assertTrue(queue.offerAll(batch.subList(0, 2)));
+        assertEquals(3, queue.size());
+    }
+
+    /**
+     * 插入队首不受容量限制，且先于已排队的操作执行
+     */
+    @Test
+    public void offerFirstBypassesCapacity() {
+        GattOperationQueue queue = new GattOperationQueue(1);
+        queue.offer(new Operation(GattOperation.TYPE_WRITE));
+        Operation queued = new Operation(GattOperation.TYPE_WRITE);
+        assertTrue(queue.offer(queued));
+        Operation mtu = new Operation(GattOperation.TYPE_MTU);
+        queue.offerFirst(mtu);
+        assertEquals(2, queue.size());
+        queue.complete(GattOperation.TYPE_WRITE);
+        assertEquals(1, mtu.executed);
+        assertEquals(0, queued.executed);
+    }
+
+    /**
+     * 回调丢失时到期以超时结束，并继续执行下一个
+     */
+    @Test
+    public void timesOutLostCallback() {
+        ManualScheduler scheduler = new ManualScheduler();
+        GattOperationQueue queue = new GattOperationQueue(4, scheduler, TIMEOUT);
+        Operation lost = new Operation(GattOperation.TYPE_READ);
+        Operation next = new Operation(GattOperation.TYPE_WRITE);
+        queue.offer(lost);
+        queue.offer(next);
+        scheduler.advance(TIMEOUT - 1);
+        assertNull(lost.status);
+        assertEquals(0, next.executed);
+        scheduler.advance(1);
+        assertEquals(Integer.valueOf(GattOperation.STATUS_TIMEOUT), lost.status);
+        assertEquals(1, next.executed);
+        assertEquals(1, queue.getTimeoutCount());
+        //迟到的回调类型不一致，不影响正在执行的操作
+        queue.complete(GattOperation.TYPE_READ);
+        assertNull(next.status);
+        queue.complete(GattOperation.TYPE_WRITE);
+        assertTrue(queue.isIdle());
+        assertTrue(scheduler.isIdle());
+    }
+
+    /**
+     * 超时操作的回调迟到时丢弃，不会提前结束下一个同类型操作
+     */
+    @Test
+    public void dropsLateCallbackOfTimedOutOperation() {
+        ManualScheduler scheduler = new ManualScheduler();
+        GattOperationQueue queue = new GattOperationQueue(4, scheduler, TIMEOUT);
+        final List<GattOperation> timedOut = new ArrayList<>();
+        queue.setTimeoutListener(new GattOperationQueue.TimeoutListener() {
+            @Override
+            public void onTimeout(GattOperation operation) {
+                timedOut.add(operation);
+            }
+        });
+        Operation lost = new Operation(GattOperation.TYPE_WRITE);
+        Operation next = new Operation(GattOperation.TYPE_WRITE);
+        queue.offer(lost);
+        queue.offer(next);
+        scheduler.advance(TIMEOUT);
+        assertEquals(Arrays.<GattOperation>asList(lost), timedOut);
+        assertEquals(1, next.executed);
+        queue.complete(GattOperation.TYPE_WRITE, 5);
+        assertNull(next.status);
+        assertEquals(1, queue.getLateCount());
+        queue.complete(GattOperation.TYPE_WRITE, 0);
+        assertEquals(Integer.valueOf(0), next.status);
+        assertTrue(queue.isIdle());
+    }
+
+    /**
+     * 被丢弃的其实是下一个操作自己的回调时，该操作超时后不再丢弃，后续操作正常完成
+     */
+    @Test
+    public void lateDropDoesNotCascade() {
+        ManualScheduler scheduler = new ManualScheduler();
+        GattOperationQueue queue = new GattOperationQueue(4, scheduler, TIMEOUT);
+        Operation lost = new Operation(GattOperation.TYPE_WRITE);
+        Operation second = new Operation(GattOperation.TYPE_WRITE);
+        Operation third = new Operation(GattOperation.TYPE_WRITE);
+        queue.offer(lost);
+        queue.offer(second);
+        queue.offer(third);
+        scheduler.advance(TIMEOUT);
+        queue.complete(GattOperation.TYPE_WRITE, 0);
+        assertNull(second.status);
+        scheduler.advance(TIMEOUT);
+        assertEquals(Integer.valueOf(GattOperation.STATUS_TIMEOUT), second.status);
+        assertEquals(1, third.executed);
+        queue.complete(GattOperation.TYPE_WRITE, 0);
+        assertEquals(Integer.valueOf(0), third.status);
+        assertEquals(2, queue.getTimeoutCount());
+        assertEquals(1, queue.getLateCount());
+    }
+
+    /**
+     * 暂停后正在执行的操作照常完成，后续操作等待恢复
+     */
+    @Test
+    public void pauseHoldsFollowingOperations() {
+        GattOperationQueue queue = new GattOperationQueue(4);
+        Operation running = new Operation(GattOperation.TYPE_WRITE);
+        Operation held = new Operation(GattOperation.TYPE_WRITE);
+        queue.offer(running);
+        queue.offer(held);
+        queue.pause();
+        queue.complete(GattOperation.TYPE_WRITE);
+        assertEquals(Integer.valueOf(0), running.status);
+        assertEquals(0, held.executed);
+        queue.resume();
+        assertEquals(1, held.executed);
+    }
+
+    /**
+     * 每个操作单独计时，按时完成的操作不超时
+     */
+    @Test
+    public void deadlineRestartsForEachOperation() {
+        ManualScheduler scheduler = new ManualScheduler();
+        GattOperationQueue queue = new GattOperationQueue(4, scheduler, TIMEOUT);
+        Operation first = new Operation(GattOperation.TYPE_WRITE);
+        Operation second = new Operation(GattOperation.TYPE_WRITE);
+        queue.offer(first);
+        queue.offer(second);
+        scheduler.advance(TIMEOUT - 10);
+        queue.complete(GattOperation.TYPE_WRITE);
+        scheduler.advance(50);
+        assertNull(second.status);
+        assertEquals(0, queue.getTimeoutCount());
+        scheduler.advance(50);
+        assertEquals(Integer.valueOf(GattOperation.STATUS_TIMEOUT), second.status);
+        assertEquals(1, queue.getTimeoutCount());
+    }
+
+    /**
+     * 同步操作与清空队列不留下超时检查
+     */
+    @Test
+    public void syncAndClearDoNotTimeOut() {
+        ManualScheduler scheduler = new ManualScheduler();
+        GattOperationQueue queue = new GattOperationQueue(4, scheduler, TIMEOUT);
+        Operation sync = new Operation(GattOperation.TYPE_SYNC);
+        queue.offer(sync);
+        assertEquals(1, sync.executed);
+        assertTrue(queue.isIdle());
+        assertTrue(scheduler.isIdle());
+        Operation pending = new Operation(GattOperation.TYPE_WRITE);
+        queue.offer(pending);
+        queue.clear();
+        scheduler.advance(TIMEOUT * 2);
+        assertNull(pending.status);
+        assertEquals(0, queue.getTimeoutCount());
+    }
+
+    /**
+     * 提交失败要求重试时暂停，恢复后重新执行同一操作
+     */
+    @Test
+    public void pausesOnRetryableFailure() {
+        final List<Integer> order = new ArrayList<>();
+        GattOperationQueue queue = new GattOperationQueue(4);
+        Operation busy = new Operation(GattOperation.TYPE_WRITE) {
+            @Override
+            public boolean execute() {
+                order.add(1);
+                return super.execute();
+            }
+        };
+        busy.accepted = false;
+        busy.retry = true;
+        Operation after = new Operation(GattOperation.TYPE_WRITE) {
+            @Override
+            public boolean execute() {
+                order.add(2);
+                return super.execute();
+            }
+        };
+        queue.offer(busy);
+        queue.offer(after);
+        assertTrue(queue.isPaused());
+        assertEquals(0, after.executed);
+        busy.accepted = true;
+        queue.resume();
+        queue.complete(GattOperation.TYPE_WRITE);
+        assertEquals(Arrays.asList(1, 1, 2), order);
+    }
+}
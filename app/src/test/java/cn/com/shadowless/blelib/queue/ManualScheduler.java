@@ -0,0 +1,75 @@
+package cn.com.shadowless.blelib.queue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import cn.com.shadowless.blelib.transport.Scheduler;
+
+/**
+ * 手动推进时间的调度
+ *
+ * @author sHadowLess
+ */
+class ManualScheduler implements Scheduler {
+
+    /**
+     * 待执行任务与到期时间
+     */
+    private final Map<Runnable, Long> tasks = new LinkedHashMap<>();
+
+    /**
+     * 当前时间，毫秒
+     */
+    private long now;
+
+    @Override
+    public void schedule(Runnable task, long delayMillis) {
+        tasks.remove(task);
+        tasks.put(task, now + delayMillis);
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        tasks.remove(task);
+    }
+
+    @Override
+    public long now() {
+        return now;
+    }
+
+    /**
+     * 推进时间并按到期顺序执行任务
+     *
+     * @param millis the millis
+     */
+    void advance(long millis) {
+        long target = now + millis;
+        while (true) {
+            Runnable next = null;
+            long due = Long.MAX_VALUE;
+            for (Map.Entry<Runnable, Long> entry : tasks.entrySet()) {
+                if (entry.getValue() <= target && entry.getValue() < due) {
+                    next = entry.getKey();
+                    due = entry.getValue();
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            tasks.remove(next);
+            now = due;
+            next.run();
+        }
+        now = target;
+    }
+
+    /**
+     * 是否没有待执行任务
+     *
+     * @return the boolean
+     */
+    boolean isIdle() {
+        return tasks.isEmpty();
+    }
+}
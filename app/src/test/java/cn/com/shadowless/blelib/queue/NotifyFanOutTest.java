@@ -0,0 +1,280 @@
+package cn.com.shadowless.blelib.queue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * 通知分发的整条丢弃、提交失败重发与设备隔离
+ *
+ * @author sHadowLess
+ */
+public class NotifyFanOutTest {
+
+    /**
+     * 记录发送内容，可模拟协议栈忙
+     */
+    private static class Recorder implements NotifyFanOut.Sender<String> {
+
+        /**
+         * 已提交的通知，格式为 设备:数据
+         */
+        final List<String> sent = new ArrayList<>();
+
+        /**
+         * 提交失败的设备
+         */
+        final Set<String> busy = new HashSet<>();
+
+        @Override
+        public boolean send(String device, byte[] data) {
+            if (busy.contains(device)) {
+                return false;
+            }
+            sent.add(device + ":" + new String(data));
+            return true;
+        }
+    }
+
+    /**
+     * 同一设备同时只有一个通知在途，发送回调到达后按顺序发送下一个
+     */
+    @Test
+    public void sendsOneAtATimeInOrder() {
+        Recorder recorder = new Recorder();
+        NotifyFanOut<String> fanOut = new NotifyFanOut<>(recorder);
+        fanOut.offer("a", bytes("1"));
+        fanOut.offer("a", bytes("2"));
+        fanOut.offer("a", bytes("3"));
+        assertEquals(Arrays.asList("a:1"), recorder.sent);
+        assertEquals(2, fanOut.size("a"));
+        drain(fanOut, "a", 3);
+        assertEquals(Arrays.asList("a:1", "a:2", "a:3"), recorder.sent);
+        assertEquals(3, fanOut.getDeliveredCount("a"));
+    }
+
+    /**
+     * 队列满时整条丢弃最旧的消息，不拆散分包
+     */
+    @Test
+    public void evictsWholeMessages() {
+        Recorder recorder = new Recorder();
+        NotifyFanOut<String> fanOut = new NotifyFanOut<>(recorder, 4);
+        fanOut.offer("a", bytes("x"));
+        assertTrue(fanOut.offerAll("a", chunks("b1", "b2")));
+        assertTrue(fanOut.offerAll("a", chunks("c1", "c2")));
+        assertFalse(fanOut.offer("a", bytes("d")));
+        assertEquals(2, fanOut.getDroppedCount("a"));
+        assertEquals(3, fanOut.size("a"));
+        drain(fanOut, "a", 4);
+        assertEquals(Arrays.asList("a:x", "a:c1", "a:c2", "a:d"), recorder.sent);
+    }
+
+    /**
+     * 已发出部分分包的消息不被丢弃，保证对端能完成重组
+     */
+    @Test
+    public void keepsPartiallySentMessage() {
+        Recorder recorder = new Recorder();
+        NotifyFanOut<String> fanOut = new NotifyFanOut<>(recorder, 4);
+        assertTrue(fanOut.offerAll("a", chunks("a1", "a2", "a3")));
+        assertTrue(fanOut.offerAll("a", chunks("b1", "b2")));
+        assertFalse(fanOut.offer("a", bytes("c")));
+        assertTrue(fanOut.offer("a", bytes("d")));
+        drain(fanOut, "a", 5);
+        assertEquals(Arrays.asList("a:a1", "a:a2", "a:a3", "a:c", "a:d"), recorder.sent);
+        assertEquals(2, fanOut.getDroppedCount("a"));
+    }
+
+    /**
+     * 剩余容量不足时整体拒绝
+     */
+    @Test
+    public void offerAllRejectsWhenFull() {
+        Recorder recorder = new Recorder();
+        NotifyFanOut<String> fanOut = new NotifyFanOut<>(recorder, 3);
+        fanOut.offer("a", bytes("x"));
+        assertTrue(fanOut.offerAll("a", chunks("b1", "b2")));
+        assertFalse(fanOut.offerAll("a", chunks("c1", "c2")));
+        assertEquals(2, fanOut.getDroppedCount("a"));
+        drain(fanOut, "a", 3);
+        assertEquals(Arrays.asList("a:x", "a:b1", "a:b2"), recorder.sent);
+    }
+
+    /**
+     * 提交失败的通知保留，先于后续数据重发
+     */
+    @Test
+    public void retriesRejectedSend() {
+        Recorder recorder = new Recorder();
+        NotifyFanOut<String> fanOut = new NotifyFanOut<>(recorder);
+        recorder.busy.add("a");
+        fanOut.offer("a", bytes("1"));
+        assertTrue(recorder.sent.isEmpty());
+        assertEquals(1, fanOut.size("a"));
+        assertEquals(1, fanOut.getFailedCount("a"));
+        recorder.busy.clear();
+        fanOut.offer("a", bytes("2"));
+        drain(fanOut, "a", 2);
+        assertEquals(Arrays.asList("a:1", "a:2"), recorder.sent);
+        assertEquals(0, fanOut.size("a"));
+    }
+
+    /**
+     * 其他设备的发送回调到达后重发提交失败的通知
+     */
+    @Test
+    public void retriesStalledDeviceOnOtherCallback() {
+        Recorder recorder = new Recorder();
+        NotifyFanOut<String> fanOut = new NotifyFanOut<>(recorder);
+        fanOut.offer("b", bytes("1"));
+        recorder.busy.add("a");
+        fanOut.offer("a", bytes("1"));
+        recorder.busy.clear();
+        fanOut.onSent("b", true);
+        assertEquals(Arrays.asList("b:1", "a:1"), recorder.sent);
+    }
+
+    /**
+     * 慢设备只积压和丢弃自己的队列
+     */
+    @Test
+    public void isolatesSlowDevice() {
+        Recorder recorder = new Recorder();
+        NotifyFanOut<String> fanOut = new NotifyFanOut<>(recorder, 2);
+        for (int i = 0; i < 10; i++) {
+            fanOut.offer("slow", bytes(String.valueOf(i)));
+        }
+        assertEquals(2, fanOut.size("slow"));
+        assertEquals(7, fanOut.getDroppedCount("slow"));
+        for (int i = 0; i < 10; i++) {
+            assertTrue(fanOut.offer("fast", bytes(String.valueOf(i))));
+            fanOut.onSent("fast", true);
+        }
+        assertEquals(10, fanOut.getDeliveredCount("fast"));
+        assertEquals(0, fanOut.getDroppedCount("fast"));
+        fanOut.remove("slow");
+        assertEquals(0, fanOut.size("slow"));
+    }
+
+    /**
+     * 提交失败后没有其他回调和入队时，延时重发
+     */
+    @Test
+    public void retriesRejectedSendAfterDelay() {
+        Recorder recorder = new Recorder();
+        ManualScheduler scheduler = new ManualScheduler();
+        NotifyFanOut<String> fanOut = new NotifyFanOut<>(recorder, 4, scheduler, 1000);
+        recorder.busy.add("a");
+        fanOut.offer("a", bytes("1"));
+        scheduler.advance(5);
+        assertEquals(1, fanOut.getFailedCount("a"));
+        recorder.busy.clear();
+        scheduler.advance(20);
+        assertEquals(Arrays.asList("a:1"), recorder.sent);
+        fanOut.onSent("a", true);
+        assertTrue(scheduler.isIdle());
+        assertEquals(1, fanOut.getDeliveredCount("a"));
+    }
+
+    /**
+     * 发送回调丢失时超时按失败处理并继续发送，迟到的回调丢弃
+     */
+    @Test
+    public void lostCallbackTimesOut() {
+        Recorder recorder = new Recorder();
+        ManualScheduler scheduler = new ManualScheduler();
+        NotifyFanOut<String> fanOut = new NotifyFanOut<>(recorder, 4, scheduler, 1000);
+        fanOut.offer("a", bytes("1"));
+        fanOut.offer("a", bytes("2"));
+        scheduler.advance(999);
+        assertEquals(Arrays.asList("a:1"), recorder.sent);
+        scheduler.advance(1);
+        assertEquals(Arrays.asList("a:1", "a:2"), recorder.sent);
+        assertEquals(1, fanOut.getFailedCount("a"));
+        //第一个通知的迟到回调不算作第二个的结果
+        fanOut.onSent("a", true);
+        assertEquals(0, fanOut.getDeliveredCount("a"));
+        fanOut.onSent("a", true);
+        assertEquals(1, fanOut.getDeliveredCount("a"));
+        assertTrue(scheduler.isIdle());
+    }
+
+    /**
+     * 迟到回调已丢弃后再超时不再等待迟到回调，连续丢失回调的设备仍能发完
+     */
+    @Test
+    public void repeatedLossDoesNotStall() {
+        Recorder recorder = new Recorder();
+        ManualScheduler scheduler = new ManualScheduler();
+        NotifyFanOut<String> fanOut = new NotifyFanOut<>(recorder, 4, scheduler, 1000);
+        fanOut.offer("a", bytes("1"));
+        fanOut.offer("a", bytes("2"));
+        fanOut.offer("a", bytes("3"));
+        scheduler.advance(1000);
+        fanOut.onSent("a", true);
+        scheduler.advance(1000);
+        fanOut.onSent("a", true);
+        assertEquals(Arrays.asList("a:1", "a:2", "a:3"), recorder.sent);
+        assertEquals(1, fanOut.getDeliveredCount("a"));
+        assertEquals(0, fanOut.size("a"));
+    }
+
+    /**
+     * 移除设备时取消计时
+     */
+    @Test
+    public void removeCancelsTimer() {
+        ManualScheduler scheduler = new ManualScheduler();
+        NotifyFanOut<String> fanOut = new NotifyFanOut<>(new Recorder(), 4, scheduler, 1000);
+        fanOut.offer("a", bytes("1"));
+        fanOut.offer("b", bytes("1"));
+        assertFalse(scheduler.isIdle());
+        fanOut.remove("a");
+        fanOut.clear();
+        assertTrue(scheduler.isIdle());
+    }
+
+    /**
+     * 逐个确认发送回调
+     *
+     * @param fanOut the fan out
+     * @param device the device
+     * @param count  the count
+     */
+    private static void drain(NotifyFanOut<String> fanOut, String device, int count) {
+        for (int i = 0; i < count; i++) {
+            fanOut.onSent(device, true);
+        }
+    }
+
+    /**
+     * 分包列表
+     *
+     * @param values the values
+     * @return the list
+     */
+    private static List<byte[]> chunks(String... values) {
+        List<byte[]> chunks = new ArrayList<>(values.length);
+        for (String value : values) {
+            chunks.add(bytes(value));
+        }
+        return chunks;
+    }
+
+    /**
+     * 字符串转字节
+     *
+     * @param value the value
+     * @return the byte [ ]
+     */
+    private static byte[] bytes(String value) {
+        return value.getBytes();
+    }
+}
@@ -0,0 +1,228 @@
+package cn.com.shadowless.blelib.queue;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 回调分发的按键串行、分批让出与异常处理
+ *
+ * @author sHadowLess
+ */
+public class OrderedDispatcherTest {
+
+    /**
+     * 未设置线程池时在提交线程上直接执行
+     */
+    @Test
+    public void runsDirectlyWithoutExecutor() {
+        OrderedDispatcher dispatcher = new OrderedDispatcher(null);
+        List<String> log = new ArrayList<>();
+        dispatcher.execute("a", record(log, "a1"));
+        assertTrue(dispatcher.isDirect());
+        assertEquals(Arrays.asList("a1"), log);
+    }
+
+    /**
+     * 同一键只提交一次，按提交顺序执行；不同键各自提交
+     */
+    @Test
+    public void keysAreSerializedIndependently() {
+        ManualExecutor executor = new ManualExecutor();
+        OrderedDispatcher dispatcher = new OrderedDispatcher(executor);
+        List<String> log = new ArrayList<>();
+        dispatcher.execute("a", record(log, "a1"));
+        dispatcher.execute("a", record(log, "a2"));
+        dispatcher.execute("b", record(log, "b1"));
+        assertEquals(2, executor.tasks.size());
+        assertEquals(3, dispatcher.getPendingCount());
+        executor.runNext();
+        assertEquals(Arrays.asList("a1", "a2"), log);
+        dispatcher.execute("a", record(log, "a3"));
+        assertEquals(2, executor.tasks.size());
+        executor.runAll();
+        assertEquals(Arrays.asList("a1", "a2", "b1", "a3"), log);
+        assertEquals(0, dispatcher.getPendingCount());
+    }
+
+    /**
+     * 单个键连续执行到上限后重新提交，让出线程
+     */
+    @Test
+    public void longQueueYieldsBetweenBatches() {
+        ManualExecutor executor = new ManualExecutor();
+        OrderedDispatcher dispatcher = new OrderedDispatcher(executor);
+        List<String> log = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            dispatcher.execute("a", record(log, "a" + i));
+        }
+        dispatcher.execute("b", record(log, "b0"));
+        executor.runNext();
+        assertEquals(64, log.size());
+        assertEquals(37, dispatcher.getPendingCount());
+        executor.runNext();
+        assertEquals("b0", log.get(64));
+        executor.runAll();
+        assertEquals(101, log.size());
+        assertEquals("a99", log.get(100));
+    }
+
+    /**
+     * 任务异常交给监听，不中断同一键的后续任务
+     */
+    @Test
+    public void taskFailureIsReportedAndSkipped() {
+        ManualExecutor executor = new ManualExecutor();
+        final List<Object> errors = new ArrayList<>();
+        OrderedDispatcher dispatcher = new OrderedDispatcher(executor, new OrderedDispatcher.ErrorListener() {
+            @Override
+            public void onError(Object key, RuntimeException e) {
+                errors.add(key);
+            }
+        });
+        List<String> log = new ArrayList<>();
+        dispatcher.execute("a", new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException();
+            }
+        });
+        dispatcher.execute("a", record(log, "a2"));
+        executor.runAll();
+        assertEquals(Arrays.<Object>asList("a"), errors);
+        assertEquals(Arrays.asList("a2"), log);
+    }
+
+    /**
+     * 线程池拒绝时丢弃该键的任务并报告，之后的任务重新提交
+     */
+    @Test
+    public void rejectionDropsStripe() {
+        ManualExecutor executor = new ManualExecutor();
+        final List<RuntimeException> errors = new ArrayList<>();
+        OrderedDispatcher dispatcher = new OrderedDispatcher(executor, new OrderedDispatcher.ErrorListener() {
+            @Override
+            public void onError(Object key, RuntimeException e) {
+                errors.add(e);
+            }
+        });
+        List<String> log = new ArrayList<>();
+        executor.reject = true;
+        dispatcher.execute("a", record(log, "a1"));
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0) instanceof RejectedExecutionException);
+        assertEquals(0, dispatcher.getPendingCount());
+        executor.reject = false;
+        dispatcher.execute("a", record(log, "a2"));
+        executor.runAll();
+        assertEquals(Arrays.asList("a2"), log);
+    }
+
+    /**
+     * 多线程下每个键内保持提交顺序
+     */
+    @Test
+    public void preservesOrderOnThreadPool() throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            OrderedDispatcher dispatcher = new OrderedDispatcher(pool);
+            final int keys = 4;
+            final int count = 1000;
+            final CountDownLatch done = new CountDownLatch(keys * count);
+            final List<List<Integer>> results = new ArrayList<>();
+            for (int k = 0; k < keys; k++) {
+                results.add(new ArrayList<Integer>());
+            }
+            for (int i = 0; i < count; i++) {
+                for (int k = 0; k < keys; k++) {
+                    final List<Integer> result = results.get(k);
+                    final int value = i;
+                    dispatcher.execute(k, new Runnable() {
+                        @Override
+                        public void run() {
+                            result.add(value);
+                            done.countDown();
+                        }
+                    });
+                }
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            for (int k = 0; k < keys; k++) {
+                List<Integer> result = results.get(k);
+                assertEquals(count, result.size());
+                for (int i = 0; i < count; i++) {
+                    assertEquals(Integer.valueOf(i), result.get(i));
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * 记录执行顺序的任务
+     *
+     * @param log  the log
+     * @param name the name
+     * @return the runnable
+     */
+    private static Runnable record(final List<String> log, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                log.add(name);
+            }
+        };
+    }
+
+    /**
+     * 手动执行的线程池
+     */
+    private static final class ManualExecutor implements Executor {
+
+        /**
+         * 已提交的任务
+         */
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        /**
+         * 是否拒绝执行
+         */
+        boolean reject;
+
+        @Override
+        public void execute(Runnable command) {
+            if (reject) {
+                throw new RejectedExecutionException();
+            }
+            tasks.add(command);
+        }
+
+        /**
+         * 执行最早提交的任务
+         */
+        void runNext() {
+            tasks.poll().run();
+        }
+
+        /**
+         * 执行到没有任务
+         */
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                runNext();
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package cn.com.shadowless.blelib.reactive;
+
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 发布者的按需交付与溢出策略
+ *
+ * @author sHadowLess
+ */
+public class BlePublisherTest {
+
+    /**
+     * 在调用线程上交付，结果可立即断言
+     */
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * 只交付订阅者请求的数量，其余留在缓冲中
+     */
+    @Test
+    public void deliversOnlyRequested() {
+        BlePublisher<Integer> publisher = new BlePublisher<>(16, BlePublisher.OVERFLOW_DROP_OLDEST, DIRECT);
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        offer(publisher, 1, 5);
+        assertTrue(recorder.items.isEmpty());
+        recorder.subscription.request(2);
+        assertEquals(Arrays.asList(1, 2), recorder.items);
+        recorder.subscription.request(10);
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), recorder.items);
+        publisher.offer(6);
+        assertEquals(6, recorder.items.size());
+        assertEquals(0, publisher.getDroppedCount());
+    }
+
+    /**
+     * 丢弃最旧：缓冲满后保留最新的若干条
+     */
+    @Test
+    public void dropOldestKeepsNewest() {
+        BlePublisher<Integer> publisher = new BlePublisher<>(3, BlePublisher.OVERFLOW_DROP_OLDEST, DIRECT);
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        offer(publisher, 1, 5);
+        recorder.subscription.request(Long.MAX_VALUE);
+        assertEquals(Arrays.asList(3, 4, 5), recorder.items);
+        assertEquals(2, publisher.getDroppedCount());
+    }
+
+    /**
+     * 只保留最新：容量固定为1
+     */
+    @Test
+    public void latestKeepsOne() {
+        BlePublisher<Integer> publisher = new BlePublisher<>(64, BlePublisher.OVERFLOW_LATEST, DIRECT);
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        offer(publisher, 1, 3);
+        recorder.subscription.request(5);
+        assertEquals(Arrays.asList(3), recorder.items);
+        assertEquals(2, publisher.getDroppedCount());
+    }
+
+    /**
+     * 有界缓冲满时以错误结束订阅，丢弃缓冲中的数据
+     */
+    @Test
+    public void bufferOverflowFailsSubscription() {
+        BlePublisher<Integer> publisher = new BlePublisher<>(2, BlePublisher.OVERFLOW_BUFFER, DIRECT);
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        offer(publisher, 1, 3);
+        assertTrue(recorder.error instanceof IllegalStateException);
+        assertTrue(recorder.items.isEmpty());
+        assertEquals(3, publisher.getDroppedCount());
+        assertFalse(publisher.hasSubscribers());
+        publisher.offer(4);
+        assertTrue(recorder.items.isEmpty());
+    }
+
+    /**
+     * 请求数不大于0时以IllegalArgumentException结束订阅
+     */
+    @Test
+    public void nonPositiveRequestFails() {
+        BlePublisher<Integer> publisher = new BlePublisher<>(4, BlePublisher.OVERFLOW_DROP_OLDEST, DIRECT);
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        recorder.subscription.request(0);
+        assertTrue(recorder.error instanceof IllegalArgumentException);
+        assertEquals(0, publisher.getSubscriberCount());
+    }
+
+    /**
+     * 取消后不再交付，订阅者被移除
+     */
+    @Test
+    public void cancelStopsDelivery() {
+        BlePublisher<Integer> publisher = new BlePublisher<>(4, BlePublisher.OVERFLOW_DROP_OLDEST, DIRECT);
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        publisher.subscribe(first);
+        publisher.subscribe(second);
+        assertEquals(2, publisher.getSubscriberCount());
+        first.subscription.request(Long.MAX_VALUE);
+        second.subscription.request(Long.MAX_VALUE);
+        publisher.offer(1);
+        first.subscription.cancel();
+        publisher.offer(2);
+        assertEquals(Arrays.asList(1), first.items);
+        assertEquals(Arrays.asList(1, 2), second.items);
+        assertEquals(1, publisher.getSubscriberCount());
+    }
+
+    /**
+     * 默认交付线程上按发布顺序交付，不占用发布线程
+     */
+    @Test
+    public void defaultExecutorDeliversInOrder() throws InterruptedException {
+        BlePublisher<Integer> publisher = new BlePublisher<>();
+        final CountDownLatch done = new CountDownLatch(100);
+        final List<Integer> received = new ArrayList<>();
+        final Thread caller = Thread.currentThread();
+        final boolean[] sameThread = new boolean[1];
+        publisher.subscribe(new Recorder() {
+            @Override
+            public void onSubscribe(Subscription s) {
+                s.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(Integer item) {
+                synchronized (received) {
+                    received.add(item);
+                    sameThread[0] |= Thread.currentThread() == caller;
+                }
+                done.countDown();
+            }
+        });
+        offer(publisher, 0, 99);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        synchronized (received) {
+            for (int i = 0; i < 100; i++) {
+                assertEquals(Integer.valueOf(i), received.get(i));
+            }
+            assertFalse(sameThread[0]);
+        }
+    }
+
+    /**
+     * 非法的容量与策略
+     */
+    @Test
+    public void rejectsInvalidArguments() {
+        try {
+            new BlePublisher<Integer>(0, BlePublisher.OVERFLOW_DROP_OLDEST, DIRECT);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new BlePublisher<Integer>(1, 3, DIRECT);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /**
+     * 依次发布区间内的整数
+     *
+     * @param publisher the publisher
+     * @param from      the from
+     * @param to        the to
+     */
+    private static void offer(BlePublisher<Integer> publisher, int from, int to) {
+        for (int i = from; i <= to; i++) {
+            publisher.offer(i);
+        }
+    }
+
+    /**
+     * 记录交付结果的订阅者
+     */
+    private static class Recorder implements Subscriber<Integer> {
+
+        /**
+         * 收到的数据
+         */
+        final List<Integer> items = new ArrayList<>();
+
+        /**
+         * 订阅
+         */
+        Subscription subscription;
+
+        /**
+         * 结束订阅的错误
+         */
+        Throwable error;
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            subscription = s;
+        }
+
+        @Override
+        public void onNext(Integer item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package cn.com.shadowless.blelib.rpc;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cn.com.shadowless.blelib.transport.VirtualScheduler;
+
+import static org.junit.Assert.*;
+
+/**
+ * RPC调用的并发应答、超时、迟到应答与在途限制
+ *
+ * @author sHadowLess
+ */
+public class RpcTest {
+
+    /**
+     * 测试用超时，毫秒
+     */
+    private static final long TIMEOUT = 100;
+
+    /**
+     * 记录一次调用的结果
+     */
+    private static class Result implements RpcClient.Callback {
+
+        /**
+         * 回调次数
+         */
+        int count;
+
+        /**
+         * 应答
+         */
+        byte[] response;
+
+        /**
+         * 失败原因，未失败为0
+         */
+        int error;
+
+        @Override
+        public void onResponse(byte[] response) {
+            count++;
+            this.response = response;
+        }
+
+        @Override
+        public void onFailure(int error, String message) {
+            count++;
+            this.error = error;
+        }
+    }
+
+    /**
+     * 虚拟时间
+     */
+    private VirtualScheduler scheduler;
+
+    /**
+     * 客户端发出的请求
+     */
+    private List<byte[]> requests;
+
+    /**
+     * 服务端发出的应答
+     */
+    private List<byte[]> responses;
+
+    /**
+     * 服务端
+     */
+    private RpcServer<String> server;
+
+    /**
+     * 初始化
+     */
+    @Before
+    public void setUp() {
+        scheduler = new VirtualScheduler();
+        requests = new ArrayList<>();
+        responses = new ArrayList<>();
+        server = new RpcServer<>(new RpcServer.Sender<String>() {
+            @Override
+            public boolean send(String device, byte[] message) {
+                responses.add(message);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * 多个调用同时在途，应答乱序到达时按关联ID交给各自的调用
+     */
+    @Test
+    public void matchesOutOfOrderResponses() {
+        final List<RpcServer.Responder> deferred = new ArrayList<>();
+        server.setHandler(new RpcServer.Handler<String>() {
+            @Override
+            public void onRequest(String device, byte[] request, RpcServer.Responder responder) {
+                deferred.add(responder);
+            }
+        });
+        RpcClient client = newClient(RpcClient.DEFAULT_MAX_IN_FLIGHT);
+        Result[] results = new Result[3];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = new Result();
+            client.call(new byte[]{(byte) i}, TIMEOUT, results[i]);
+        }
+        assertEquals(3, client.getInFlightCount());
+        forwardRequests();
+        for (int i = deferred.size() - 1; i >= 0; i--) {
+            deferred.get(i).reply(new byte[]{(byte) (i + 10)});
+        }
+        forwardResponses(client);
+        for (int i = 0; i < results.length; i++) {
+            assertEquals(1, results[i].count);
+            assertArrayEquals(new byte[]{(byte) (i + 10)}, results[i].response);
+        }
+        assertEquals(0, client.getInFlightCount());
+        assertTrue(scheduler.isIdle());
+    }
+
+    /**
+     * 未收到应答时到期超时，之后到达的应答计为迟到且不再回调
+     */
+    @Test
+    public void timesOutAndCountsLateResponse() {
+        RpcClient client = newClient(RpcClient.DEFAULT_MAX_IN_FLIGHT);
+        Result result = new Result();
+        int id = client.call(new byte[0], TIMEOUT, result);
+        scheduler.advance((TIMEOUT - 1) * 1000);
+        assertEquals(0, result.count);
+        scheduler.advance(1000);
+        assertEquals(1, result.count);
+        assertEquals(RpcClient.ERROR_TIMEOUT, result.error);
+        assertEquals(1, client.getTimeoutCount());
+        assertEquals(0, client.getInFlightCount());
+        client.onMessage(RpcCodec.encode(RpcCodec.KIND_RESPONSE, id, new byte[]{1}));
+        assertEquals(1, result.count);
+        assertNull(result.response);
+        assertEquals(1, client.getLateCount());
+    }
+
+    /**
+     * 超过在途上限的调用排队，空出位置后发出，排队时间计入超时
+     */
+    @Test
+    public void queuesBeyondMaxInFlight() {
+        RpcClient client = newClient(2);
+        Result first = new Result();
+        Result second = new Result();
+        Result third = new Result();
+        Result fourth = new Result();
+        int firstId = client.call(new byte[0], TIMEOUT, first);
+        client.call(new byte[0], TIMEOUT * 10, second);
+        client.call(new byte[0], TIMEOUT * 10, third);
+        client.call(new byte[0], TIMEOUT / 2, fourth);
+        assertEquals(2, requests.size());
+        assertEquals(2, client.getWaitingCount());
+        client.onMessage(RpcCodec.encode(RpcCodec.KIND_RESPONSE, firstId, new byte[0]));
+        assertEquals(1, first.count);
+        assertEquals(3, requests.size());
+        assertEquals(1, client.getWaitingCount());
+        scheduler.advance(TIMEOUT / 2 * 1000);
+        assertEquals(RpcClient.ERROR_TIMEOUT, fourth.error);
+        assertEquals(0, client.getWaitingCount());
+        assertEquals(3, requests.size());
+        assertEquals(2, client.getInFlightCount());
+    }
+
+    /**
+     * 只有第一次应答生效
+     */
+    @Test
+    public void serverHonoursFirstReplyOnly() {
+        final boolean[] replies = new boolean[3];
+        server.setHandler(new RpcServer.Handler<String>() {
+            @Override
+            public void onRequest(String device, byte[] request, RpcServer.Responder responder) {
+                replies[0] = responder.reply(new byte[]{1});
+                replies[1] = responder.reply(new byte[]{2});
+                replies[2] = responder.fail("重复");
+            }
+        });
+        RpcClient client = newClient(RpcClient.DEFAULT_MAX_IN_FLIGHT);
+        Result result = new Result();
+        client.call(new byte[0], TIMEOUT, result);
+        forwardRequests();
+        assertTrue(replies[0]);
+        assertFalse(replies[1]);
+        assertFalse(replies[2]);
+        assertEquals(1, responses.size());
+        forwardResponses(client);
+        assertArrayEquals(new byte[]{1}, result.response);
+        assertEquals(0, client.getLateCount());
+    }
+
+    /**
+     * 处理抛出异常或未设置处理时以对端出错失败
+     */
+    @Test
+    public void serverErrorsFailCall() {
+        RpcClient client = newClient(RpcClient.DEFAULT_MAX_IN_FLIGHT);
+        Result unhandled = new Result();
+        client.call(new byte[0], TIMEOUT, unhandled);
+        forwardRequests();
+        forwardResponses(client);
+        assertEquals(RpcClient.ERROR_REMOTE, unhandled.error);
+        server.setHandler(new RpcServer.Handler<String>() {
+            @Override
+            public void onRequest(String device, byte[] request, RpcServer.Responder responder) {
+                throw new IllegalStateException("处理失败");
+            }
+        });
+        Result thrown = new Result();
+        client.call(new byte[0], TIMEOUT, thrown);
+        forwardRequests();
+        forwardResponses(client);
+        assertEquals(RpcClient.ERROR_REMOTE, thrown.error);
+    }
+
+    /**
+     * 断开时在途与排队的调用都以连接断开失败，并停止计时
+     */
+    @Test
+    public void failAllEndsEveryCall() {
+        RpcClient client = newClient(1);
+        Result sent = new Result();
+        Result queued = new Result();
+        client.call(new byte[0], TIMEOUT, sent);
+        client.call(new byte[0], TIMEOUT, queued);
+        client.failAll(RpcClient.ERROR_DISCONNECTED, "连接已断开");
+        assertEquals(RpcClient.ERROR_DISCONNECTED, sent.error);
+        assertEquals(RpcClient.ERROR_DISCONNECTED, queued.error);
+        assertTrue(scheduler.isIdle());
+        assertEquals(1, requests.size());
+        assertEquals(0, client.getTimeoutCount());
+    }
+
+    /**
+     * 创建客户端，请求记录在requests中
+     *
+     * @param maxInFlight the max in flight
+     * @return the rpc client
+     */
+    private RpcClient newClient(int maxInFlight) {
+        return new RpcClient(new RpcClient.Sender() {
+            @Override
+            public boolean send(byte[] message) {
+                requests.add(message);
+                return true;
+            }
+        }, scheduler, maxInFlight);
+    }
+
+    /**
+     * 把客户端请求交给服务端
+     */
+    private void forwardRequests() {
+        List<byte[]> batch = new ArrayList<>(requests);
+        requests.clear();
+        for (byte[] request : batch) {
+            server.onMessage("client", request);
+        }
+    }
+
+    /**
+     * 把服务端应答交给客户端
+     *
+     * @param client the client
+     */
+    private void forwardResponses(RpcClient client) {
+        List<byte[]> batch = new ArrayList<>(responses);
+        responses.clear();
+        for (byte[] response : batch) {
+            client.onMessage(response);
+        }
+    }
+}
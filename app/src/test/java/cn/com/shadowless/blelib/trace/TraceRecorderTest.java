@@ -0,0 +1,150 @@
+package cn.com.shadowless.blelib.trace;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * 事件记录的环形覆盖、导出格式与并发导出
+ *
+ * @author sHadowLess
+ */
+public class TraceRecorderTest {
+
+    /**
+     * 测试地址
+     */
+    private static final String ADDRESS = "AA:BB:CC:DD:EE:0F";
+
+    /**
+     * 容量向上取整为2的幂，写满后只保留最新的事件并按时间顺序导出
+     */
+    @Test
+    public void wrapsAndKeepsLatest() {
+        TraceRecorder recorder = new TraceRecorder(5);
+        assertEquals(8, recorder.getCapacity());
+        for (int i = 0; i < 20; i++) {
+            recorder.record(TraceRecorder.CHARACTERISTIC_WRITE, ADDRESS, 0, i);
+        }
+        assertEquals(20, recorder.getCount());
+        long[] events = recorder.snapshot();
+        assertEquals(8 * 3, events.length);
+        for (int i = 0; i < 8; i++) {
+            assertEquals(12 + i, (int) events[i * 3 + 2]);
+            if (i > 0) {
+                assertTrue(events[i * 3] >= events[(i - 1) * 3]);
+            }
+        }
+        recorder.clear();
+        assertEquals(0, recorder.snapshot().length);
+    }
+
+    /**
+     * 二进制导出带格式头，事件按类型、状态、长度打包
+     *
+     * @throws IOException the io exception
+     */
+    @Test
+    public void dumpsBinaryFormat() throws IOException {
+        TraceRecorder recorder = new TraceRecorder(4);
+        recorder.record(TraceRecorder.MTU_CHANGED, ADDRESS, 0, 247);
+        recorder.record(TraceRecorder.SCAN_RESULT, null, -60, 31);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recorder.dump(out);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(TraceRecorder.MAGIC, in.readInt());
+        assertEquals(TraceRecorder.VERSION, in.readInt());
+        in.readLong();
+        in.readLong();
+        assertEquals(2, in.readInt());
+        in.readLong();
+        assertEquals(TraceRecorder.packAddress(ADDRESS), in.readLong());
+        long packed = in.readLong();
+        assertEquals(TraceRecorder.MTU_CHANGED, (int) (packed >>> 48));
+        assertEquals(247, (int) packed);
+        in.readLong();
+        assertEquals(0, in.readLong());
+        packed = in.readLong();
+        assertEquals(TraceRecorder.SCAN_RESULT, (int) (packed >>> 48));
+        assertEquals(-60, (short) (packed >>> 32));
+        assertEquals(-1, in.read());
+    }
+
+    /**
+     * 文本导出每行一个事件，地址还原
+     *
+     * @throws IOException the io exception
+     */
+    @Test
+    public void dumpsText() throws IOException {
+        TraceRecorder recorder = new TraceRecorder(4);
+        recorder.record(TraceRecorder.CONNECTION_STATE, ADDRESS, 8, 0);
+        StringWriter writer = new StringWriter();
+        recorder.dumpText(writer);
+        String line = writer.toString();
+        assertTrue(line, line.endsWith(" 1 " + ADDRESS + " 8 0\n"));
+    }
+
+    /**
+     * 地址压缩与还原，无法解析的地址记为0
+     */
+    @Test
+    public void packsAddress() {
+        assertEquals(ADDRESS, TraceRecorder.unpackAddress(TraceRecorder.packAddress(ADDRESS)));
+        assertEquals(0, TraceRecorder.packAddress("AA:BB"));
+        assertEquals("-", TraceRecorder.unpackAddress(0));
+    }
+
+    /**
+     * 关闭后不记录
+     */
+    @Test
+    public void disabledRecordsNothing() {
+        TraceRecorder recorder = new TraceRecorder(4);
+        recorder.setEnabled(false);
+        recorder.record(TraceRecorder.CONNECTION_STATE, ADDRESS, 0, 2);
+        assertEquals(0, recorder.getCount());
+    }
+
+    /**
+     * 记录的同时导出，导出的每个事件都是完整的
+     *
+     * @throws InterruptedException the interrupted exception
+     */
+    @Test
+    public void snapshotDuringRecordingIsConsistent() throws InterruptedException {
+        final TraceRecorder recorder = new TraceRecorder(64);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final CountDownLatch done = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; running.get(); i++) {
+                    //状态与长度取同一个值，导出时检查是否来自同一次写入
+                    recorder.record(TraceRecorder.CHARACTERISTIC_CHANGED, null, i & 0x7FFF, i & 0x7FFF);
+                }
+                done.countDown();
+            }
+        }).start();
+        try {
+            for (int round = 0; round < 2000; round++) {
+                long[] events = recorder.snapshot();
+                for (int i = 0; i < events.length; i += 3) {
+                    long packed = events[i + 2];
+                    assertEquals((short) (packed >>> 32), (int) packed);
+                }
+            }
+        } finally {
+            running.set(false);
+            done.await();
+        }
+    }
+}
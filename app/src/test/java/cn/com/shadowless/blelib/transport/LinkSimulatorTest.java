@@ -0,0 +1,316 @@
+package cn.com.shadowless.blelib.transport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 模拟链路的连接事件节奏、MTU协商、缓冲上限与按种子复现的故障注入
+ *
+ * @author sHadowLess
+ */
+public class LinkSimulatorTest {
+
+    /**
+     * 连接间隔，微秒
+     */
+    private static final long INTERVAL = 30000;
+
+    /**
+     * 客户端地址
+     */
+    private static final String ADDRESS = "client-1";
+
+    /**
+     * 运行时限，微秒
+     */
+    private static final long LIMIT = 60L * 1000 * 1000;
+
+    /**
+     * 连接需要的连接事件数到达后才回调，双方各收到一次
+     */
+    @Test
+    public void connectTakesConnectEvents() {
+        LinkSimulator simulator = LinkSimulator.builder().connectionInterval(INTERVAL).connectEvents(3).build();
+        Recorder server = serve(simulator);
+        ClientTransport transport = simulator.createClient(ADDRESS);
+        Recorder client = listen(transport);
+        assertTrue(transport.connect(false));
+        assertFalse(transport.connect(false));
+        simulator.getScheduler().advance(3 * INTERVAL - 1);
+        assertTrue(client.states.isEmpty());
+        simulator.getScheduler().advance(1);
+        assertEquals(1, client.states.size());
+        assertEquals(Integer.valueOf(0), client.states.get(0));
+        assertEquals(1, server.states.size());
+    }
+
+    /**
+     * MTU交换取双方最小值，在下一个连接事件返回
+     */
+    @Test
+    public void mtuIsCappedAndAnsweredNextEvent() {
+        LinkSimulator simulator = LinkSimulator.builder().connectionInterval(INTERVAL).maxMtu(185).build();
+        serve(simulator);
+        ClientTransport transport = simulator.createClient(ADDRESS);
+        Recorder client = connect(simulator, transport);
+        assertFalse(transport.write(new byte[21], ClientTransport.WRITE_TYPE_NO_RESPONSE));
+        assertTrue(transport.requestMtu(517));
+        simulator.getScheduler().advance(INTERVAL);
+        assertTrue(client.mtus.isEmpty());
+        simulator.getScheduler().advance(INTERVAL);
+        assertEquals(1, client.mtus.size());
+        assertEquals(Integer.valueOf(185), client.mtus.get(0));
+        assertTrue(transport.write(new byte[182], ClientTransport.WRITE_TYPE_NO_RESPONSE));
+        assertFalse(transport.write(new byte[183], ClientTransport.WRITE_TYPE_NO_RESPONSE));
+    }
+
+    /**
+     * 每个连接事件最多发送设定的包数，控制器缓冲满后写入失败
+     */
+    @Test
+    public void packetsPerEventAndTxBuffer() {
+        LinkSimulator simulator = LinkSimulator.builder().connectionInterval(INTERVAL).packetsPerEvent(4).txBuffer(10).build();
+        Recorder server = serve(simulator);
+        ClientTransport transport = simulator.createClient(ADDRESS);
+        connect(simulator, transport);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(transport.write(new byte[]{(byte) i}, ClientTransport.WRITE_TYPE_NO_RESPONSE));
+        }
+        assertFalse(transport.write(new byte[]{10}, ClientTransport.WRITE_TYPE_NO_RESPONSE));
+        simulator.getScheduler().advance(INTERVAL);
+        assertEquals(4, server.writes.size());
+        simulator.getScheduler().advance(INTERVAL);
+        assertEquals(8, server.writes.size());
+        assertTrue(simulator.getScheduler().runUntilIdle(LIMIT));
+        assertEquals(10, server.writes.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, server.writes.get(i)[0]);
+        }
+        assertEquals(3, simulator.getEventCount());
+        assertEquals(10, simulator.getPacketCount());
+    }
+
+    /**
+     * 连接间隔越长，同样的数据耗时越长
+     */
+    @Test
+    public void throughputFollowsConnectionInterval() {
+        assertTrue(transferTime(45000) > 5 * transferTime(7500));
+    }
+
+    /**
+     * 同一种子的丢包结果一致，全部丢包时服务端收不到数据
+     */
+    @Test
+    public void dropsAreDeterministicBySeed() {
+        long dropped = droppedWrites(7);
+        assertTrue(dropped > 0 && dropped < 16);
+        assertEquals(dropped, droppedWrites(7));
+        LinkSimulator simulator = LinkSimulator.builder().dropRate(1).build();
+        Recorder server = serve(simulator);
+        ClientTransport transport = simulator.createClient(ADDRESS);
+        connect(simulator, transport);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(transport.write(new byte[1], ClientTransport.WRITE_TYPE_NO_RESPONSE));
+        }
+        assertTrue(simulator.getScheduler().runUntilIdle(LIMIT));
+        assertTrue(server.writes.isEmpty());
+        assertEquals(5, simulator.getDroppedCount());
+    }
+
+    /**
+     * 有响应写入按错误率返回设定的状态，服务端不收到数据
+     */
+    @Test
+    public void gattErrorsAnswerWithStatus() {
+        LinkSimulator simulator = LinkSimulator.builder().gattError(1, LinkSimulator.DEFAULT_ERROR_STATUS).build();
+        Recorder server = serve(simulator);
+        ClientTransport transport = simulator.createClient(ADDRESS);
+        Recorder client = connect(simulator, transport);
+        assertTrue(transport.write(new byte[1], ClientTransport.WRITE_TYPE_DEFAULT));
+        assertTrue(simulator.getScheduler().runUntilIdle(LIMIT));
+        assertEquals(1, client.writeStatus.size());
+        assertEquals(Integer.valueOf(LinkSimulator.DEFAULT_ERROR_STATUS), client.writeStatus.get(0));
+        assertTrue(server.writes.isEmpty());
+        assertEquals(1, simulator.getErrorCount());
+    }
+
+    /**
+     * 连接事件中断开时以超时状态回调并丢弃缓冲
+     */
+    @Test
+    public void disconnectRateDropsWithTimeout() {
+        LinkSimulator simulator = LinkSimulator.builder().disconnectRate(1).build();
+        Recorder server = serve(simulator);
+        ClientTransport transport = simulator.createClient(ADDRESS);
+        Recorder client = connect(simulator, transport);
+        assertTrue(transport.write(new byte[1], ClientTransport.WRITE_TYPE_NO_RESPONSE));
+        assertTrue(simulator.getScheduler().runUntilIdle(LIMIT));
+        assertEquals(Integer.valueOf(LinkSimulator.STATUS_CONNECTION_TIMEOUT), client.states.get(client.states.size() - 1));
+        assertEquals(Boolean.FALSE, server.connected);
+        assertTrue(server.writes.isEmpty());
+        assertEquals(1, simulator.getDisconnectCount());
+        assertFalse(transport.write(new byte[1], ClientTransport.WRITE_TYPE_NO_RESPONSE));
+    }
+
+    /**
+     * 以默认参数传输固定数据量的虚拟耗时
+     *
+     * @param interval 连接间隔，微秒
+     * @return 虚拟耗时，微秒
+     */
+    private static long transferTime(long interval) {
+        LinkSimulator simulator = LinkSimulator.builder().connectionInterval(interval).build();
+        Recorder server = serve(simulator);
+        ClientTransport transport = simulator.createClient(ADDRESS);
+        connect(simulator, transport);
+        long start = simulator.getScheduler().nowMicros();
+        int sent = 0;
+        while (sent < 200) {
+            if (transport.write(new byte[20], ClientTransport.WRITE_TYPE_NO_RESPONSE)) {
+                sent++;
+            } else {
+                simulator.getScheduler().runNext();
+            }
+        }
+        assertTrue(simulator.getScheduler().runUntilIdle(LIMIT));
+        assertEquals(200, server.writes.size());
+        return simulator.getScheduler().nowMicros() - start;
+    }
+
+    /**
+     * 一半丢包率下的丢包数
+     *
+     * @param seed the seed
+     * @return the long
+     */
+    private static long droppedWrites(long seed) {
+        LinkSimulator simulator = LinkSimulator.builder().dropRate(0.5).seed(seed).build();
+        serve(simulator);
+        ClientTransport transport = simulator.createClient(ADDRESS);
+        connect(simulator, transport);
+        for (int i = 0; i < 16; i++) {
+            assertTrue(transport.write(new byte[1], ClientTransport.WRITE_TYPE_NO_RESPONSE));
+        }
+        assertTrue(simulator.getScheduler().runUntilIdle(LIMIT));
+        return simulator.getDroppedCount();
+    }
+
+    /**
+     * 建立连接
+     *
+     * @param simulator the simulator
+     * @param transport the transport
+     * @return 客户端事件
+     */
+    private static Recorder connect(LinkSimulator simulator, ClientTransport transport) {
+        Recorder client = listen(transport);
+        assertTrue(transport.connect(false));
+        assertTrue(simulator.getScheduler().runUntilIdle(LIMIT));
+        assertEquals(1, client.states.size());
+        return client;
+    }
+
+    /**
+     * 监听客户端传输
+     *
+     * @param transport the transport
+     * @return 客户端事件
+     */
+    private static Recorder listen(ClientTransport transport) {
+        final Recorder recorder = new Recorder();
+        transport.setListener(new ClientTransport.Listener() {
+            @Override
+            public void onConnectionStateChange(int status, boolean connected) {
+                recorder.states.add(status);
+            }
+
+            @Override
+            public void onMtuChanged(int mtu, int status) {
+                recorder.mtus.add(mtu);
+            }
+
+            @Override
+            public void onWriteComplete(int status) {
+                recorder.writeStatus.add(status);
+            }
+
+            @Override
+            public void onReadComplete(byte[] value, int status) {
+            }
+
+            @Override
+            public void onNotify(byte[] value) {
+            }
+        });
+        return recorder;
+    }
+
+    /**
+     * 以不分包的服务端接收写入
+     *
+     * @param simulator the simulator
+     * @return 服务端事件
+     */
+    private static Recorder serve(LinkSimulator simulator) {
+        final Recorder recorder = new Recorder();
+        TransportServer<String> server = new TransportServer<>(simulator.getServer());
+        server.setCallback(new TransportServer.Callback<String>() {
+            @Override
+            public void onConnectionStateChange(String device, boolean connected) {
+                recorder.states.add(connected ? 1 : 0);
+                recorder.connected = connected;
+            }
+
+            @Override
+            public void onWrite(String device, byte[] value) {
+                recorder.writes.add(value);
+            }
+
+            @Override
+            public void onMessage(String device, byte[] data, int flags) {
+            }
+
+            @Override
+            public byte[] onRead(String device) {
+                return null;
+            }
+        });
+        return recorder;
+    }
+
+    /**
+     * 记录的事件
+     */
+    private static final class Recorder {
+
+        /**
+         * 连接状态，客户端为状态码，服务端为1或0
+         */
+        final List<Integer> states = new ArrayList<>();
+
+        /**
+         * 协商出的MTU
+         */
+        final List<Integer> mtus = new ArrayList<>();
+
+        /**
+         * 写入完成状态
+         */
+        final List<Integer> writeStatus = new ArrayList<>();
+
+        /**
+         * 服务端收到的写入
+         */
+        final List<byte[]> writes = new ArrayList<>();
+
+        /**
+         * 服务端看到的连接状态
+         */
+        Boolean connected;
+    }
+}
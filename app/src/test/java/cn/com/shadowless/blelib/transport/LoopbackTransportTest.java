@@ -0,0 +1,249 @@
+package cn.com.shadowless.blelib.transport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import cn.com.shadowless.blelib.connect.ReconnectPolicy;
+import cn.com.shadowless.blelib.frame.FrameCodec;
+import cn.com.shadowless.blelib.queue.CreditWindow;
+import cn.com.shadowless.blelib.queue.GattOperationQueue;
+
+import static org.junit.Assert.*;
+
+/**
+ * 客户端与服务端经内存回环的收发、MTU协商与断线重连
+ *
+ * @author sHadowLess
+ */
+public class LoopbackTransportTest {
+
+    /**
+     * 等待时限，毫秒
+     */
+    private static final long WAIT = 5000;
+
+    /**
+     * 客户端地址
+     */
+    private static final String ADDRESS = "client-1";
+
+    /**
+     * 回环
+     */
+    private LoopbackTransport loopback;
+
+    /**
+     * 定时
+     */
+    private ExecutorScheduler scheduler;
+
+    /**
+     * 服务端
+     */
+    private TransportServer<String> server;
+
+    /**
+     * 服务端重组出的消息
+     */
+    private final BlockingQueue<byte[]> serverMessages = new LinkedBlockingQueue<>();
+
+    /**
+     * 客户端重组出的消息
+     */
+    private final BlockingQueue<byte[]> clientMessages = new LinkedBlockingQueue<>();
+
+    /**
+     * 客户端读取结果
+     */
+    private final BlockingQueue<byte[]> reads = new LinkedBlockingQueue<>();
+
+    /**
+     * 服务端连接事件
+     */
+    private final BlockingQueue<Boolean> states = new LinkedBlockingQueue<>();
+
+    /**
+     * 重连成功
+     */
+    private final CountDownLatch reconnected = new CountDownLatch(1);
+
+    /**
+     * 创建定时
+     */
+    @Before
+    public void setUp() {
+        scheduler = new ExecutorScheduler();
+    }
+
+    /**
+     * 关闭线程
+     */
+    @After
+    public void tearDown() {
+        loopback.shutdown();
+        scheduler.shutdown();
+    }
+
+    /**
+     * 分包消息双向收发，超过默认MTU的消息在两端完整重组
+     */
+    @Test
+    public void framedMessagesBothWays() throws InterruptedException {
+        TransportClient client = connect(new LoopbackTransport(), null);
+        byte[] request = random(2000, 1);
+        assertTrue(client.sendFrame(request, ClientTransport.WRITE_TYPE_DEFAULT));
+        assertArrayEquals(request, serverMessages.poll(WAIT, TimeUnit.MILLISECONDS));
+        byte[] response = random(3000, 2);
+        assertTrue(server.sendFrame(ADDRESS, response));
+        assertArrayEquals(response, clientMessages.poll(WAIT, TimeUnit.MILLISECONDS));
+        client.close();
+    }
+
+    /**
+     * 协商结果不超过回环支持的最大MTU，两端按协商值切片
+     */
+    @Test
+    public void mtuIsCappedByTransport() throws InterruptedException {
+        TransportClient client = connect(new LoopbackTransport(185), null);
+        client.requestMtu(LoopbackTransport.DEFAULT_MAX_MTU);
+        assertTrue(awaitMtu(client, 185));
+        int chunkSize = new FrameCodec(185).getChunkSize();
+        assertEquals(chunkSize, client.getFrameCodec().getChunkSize());
+        assertEquals(chunkSize, server.getFrameCodec(ADDRESS).getChunkSize());
+        byte[] request = random(1000, 3);
+        assertTrue(client.sendFrame(request, ClientTransport.WRITE_TYPE_DEFAULT));
+        assertArrayEquals(request, serverMessages.poll(WAIT, TimeUnit.MILLISECONDS));
+        client.close();
+    }
+
+    /**
+     * 读取返回服务端提供的值
+     */
+    @Test
+    public void readReturnsServerValue() throws InterruptedException {
+        TransportClient client = connect(new LoopbackTransport(), null);
+        assertTrue(client.readData());
+        assertArrayEquals(new byte[]{1, 2, 3}, reads.poll(WAIT, TimeUnit.MILLISECONDS));
+        client.close();
+    }
+
+    /**
+     * 链路丢失后按策略重连，重连后继续收发
+     */
+    @Test
+    public void reconnectsAfterLinkLoss() throws InterruptedException {
+        TransportClient client = connect(new LoopbackTransport(), new ReconnectPolicy(3, 3, 10, 50));
+        loopback.dropLink(ADDRESS);
+        assertEquals(Boolean.FALSE, states.poll(WAIT, TimeUnit.MILLISECONDS));
+        assertTrue(reconnected.await(WAIT, TimeUnit.MILLISECONDS));
+        assertEquals(Boolean.TRUE, states.poll(WAIT, TimeUnit.MILLISECONDS));
+        assertTrue(client.isConnected());
+        byte[] request = random(500, 4);
+        assertTrue(client.sendFrame(request, ClientTransport.WRITE_TYPE_DEFAULT));
+        assertArrayEquals(request, serverMessages.poll(WAIT, TimeUnit.MILLISECONDS));
+        client.close();
+    }
+
+    /**
+     * 建立服务端与客户端并等待连接
+     *
+     * @param loopback the loopback
+     * @param policy   重连策略，null为不重连
+     * @return the transport client
+     */
+    private TransportClient connect(LoopbackTransport loopback, ReconnectPolicy policy) throws InterruptedException {
+        this.loopback = loopback;
+        server = new TransportServer<>(loopback.getServer());
+        server.setFrameMode(true);
+        server.setCallback(new TransportServer.Callback<String>() {
+            @Override
+            public void onConnectionStateChange(String device, boolean connected) {
+                states.add(connected);
+            }
+
+            @Override
+            public void onWrite(String device, byte[] value) {
+            }
+
+            @Override
+            public void onMessage(String device, byte[] data, int flags) {
+                serverMessages.add(data);
+            }
+
+            @Override
+            public byte[] onRead(String device) {
+                return new byte[]{1, 2, 3};
+            }
+        });
+        TransportClient client = new TransportClient(loopback.createClient(ADDRESS), scheduler,
+                GattOperationQueue.DEFAULT_CAPACITY, new CreditWindow(), policy);
+        client.setFrameMode(true);
+        client.setCallback(new TransportClient.Callback() {
+            @Override
+            public void onReconnected(int attempts, long costMillis) {
+                reconnected.countDown();
+            }
+
+            @Override
+            public void onReconnectFailed() {
+            }
+
+            @Override
+            public void onNotify(byte[] value) {
+            }
+
+            @Override
+            public void onMessage(byte[] data, int flags) {
+                clientMessages.add(data);
+            }
+
+            @Override
+            public void onReadComplete(byte[] value, int status) {
+                reads.add(value);
+            }
+        });
+        assertTrue(client.connect());
+        assertEquals(Boolean.TRUE, states.poll(WAIT, TimeUnit.MILLISECONDS));
+        long deadline = System.currentTimeMillis() + WAIT;
+        while (!client.isConnected() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(client.isConnected());
+        return client;
+    }
+
+    /**
+     * 等待客户端MTU更新
+     *
+     * @param client the client
+     * @param mtu    the mtu
+     * @return 是否在时限内更新
+     */
+    private static boolean awaitMtu(TransportClient client, int mtu) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT;
+        while (client.getMtu() != mtu && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        return client.getMtu() == mtu;
+    }
+
+    /**
+     * 随机数据
+     *
+     * @param length the length
+     * @param seed   the seed
+     * @return the byte [ ]
+     */
+    private static byte[] random(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,251 @@
+package cn.com.shadowless.blelib.transport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 可靠传输在丢包、乱序与序号回绕下的按序交付
+ *
+ * @author sHadowLess
+ */
+public class ReliableStreamTest {
+
+    /**
+     * 单向链路时延，微秒
+     */
+    private static final long LINK_DELAY = 7500;
+
+    /**
+     * 两端经有损链路相连的可靠传输
+     */
+    private static class Link {
+
+        /**
+         * 虚拟时间
+         */
+        final VirtualScheduler scheduler = new VirtualScheduler();
+
+        /**
+         * 接收端按序收到的载荷
+         */
+        final List<Integer> received = new ArrayList<>();
+
+        /**
+         * 丢包与乱序随机源
+         */
+        final Random random = new Random(42);
+
+        /**
+         * 丢包率
+         */
+        final double loss;
+
+        /**
+         * 时延抖动上限，微秒，大于发包间隔时乱序
+         */
+        final long jitter;
+
+        /**
+         * 发送端
+         */
+        final ReliableStream sender;
+
+        /**
+         * 接收端
+         */
+        final ReliableStream receiver;
+
+        /**
+         * Instantiates a new Link.
+         *
+         * @param loss   the loss
+         * @param jitter the jitter
+         */
+        Link(double loss, long jitter) {
+            this.loss = loss;
+            this.jitter = jitter;
+            final ReliableStream[] ends = new ReliableStream[2];
+            ends[0] = new ReliableStream(new ReliableStream.Sink() {
+                @Override
+                public void send(byte[] packet) {
+                    deliver(ends[1], packet);
+                }
+            }, new ReliableStream.Receiver() {
+                @Override
+                public void onReceive(byte[] payload) {
+                    fail("发送端不应收到数据");
+                }
+            }, scheduler, 32, 20, 300);
+            ends[1] = new ReliableStream(new ReliableStream.Sink() {
+                @Override
+                public void send(byte[] packet) {
+                    deliver(ends[0], packet);
+                }
+            }, new ReliableStream.Receiver() {
+                @Override
+                public void onReceive(byte[] payload) {
+                    received.add(decode(payload));
+                }
+            }, scheduler, 32, 20, 300);
+            this.sender = ends[0];
+            this.receiver = ends[1];
+        }
+
+        /**
+         * 按丢包率丢弃，否则加上随机抖动后交给对端
+         *
+         * @param target the target
+         * @param packet the packet
+         */
+        void deliver(final ReliableStream target, final byte[] packet) {
+            if (random.nextDouble() < loss) {
+                return;
+            }
+            long delay = LINK_DELAY + (jitter == 0 ? 0 : (long) (random.nextDouble() * jitter));
+            scheduler.scheduleMicros(new Runnable() {
+                @Override
+                public void run() {
+                    target.onPacket(packet);
+                }
+            }, delay);
+        }
+
+        /**
+         * 发送count个载荷，载荷内容为序号
+         *
+         * @param count the count
+         */
+        void send(int count) {
+            List<byte[]> payloads = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                payloads.add(encode(i));
+            }
+            sender.send(payloads);
+            assertTrue("链路未在时限内空闲", scheduler.runUntilIdle(3600L * 1000 * 1000));
+        }
+    }
+
+    /**
+     * 丢包时全部载荷按序且只交付一次
+     */
+    @Test
+    public void deliversInOrderUnderLoss() {
+        Link link = new Link(0.1, 0);
+        link.send(2000);
+        assertReceivedInOrder(link.received, 2000);
+        assertTrue(link.sender.getRetransmitCount() > 0);
+        assertEquals(0, link.sender.getInFlightCount());
+        assertEquals(0, link.sender.getPendingCount());
+    }
+
+    /**
+     * 乱序到达时缓存后按序交付
+     */
+    @Test
+    public void deliversInOrderWhenReordered() {
+        Link link = new Link(0, 20000);
+        link.send(2000);
+        assertReceivedInOrder(link.received, 2000);
+    }
+
+    /**
+     * 丢包与乱序同时存在
+     */
+    @Test
+    public void deliversInOrderUnderLossAndReordering() {
+        Link link = new Link(0.05, 20000);
+        link.send(2000);
+        assertReceivedInOrder(link.received, 2000);
+    }
+
+    /**
+     * 超过16位序号空间后继续按序交付
+     */
+    @Test
+    public void sequenceWrapsAround() {
+        Link link = new Link(0.01, 0);
+        link.send(70000);
+        assertReceivedInOrder(link.received, 70000);
+    }
+
+    /**
+     * 校验失败的包被丢弃并计数
+     */
+    @Test
+    public void dropsCorruptPackets() {
+        final VirtualScheduler scheduler = new VirtualScheduler();
+        final List<Integer> received = new ArrayList<>();
+        ReliableStream stream = new ReliableStream(new ReliableStream.Sink() {
+            @Override
+            public void send(byte[] packet) {
+            }
+        }, new ReliableStream.Receiver() {
+            @Override
+            public void onReceive(byte[] payload) {
+                received.add(decode(payload));
+            }
+        }, scheduler);
+        final byte[][] captured = new byte[1][];
+        ReliableStream peer = new ReliableStream(new ReliableStream.Sink() {
+            @Override
+            public void send(byte[] packet) {
+                if (captured[0] == null) {
+                    captured[0] = packet;
+                }
+            }
+        }, new ReliableStream.Receiver() {
+            @Override
+            public void onReceive(byte[] payload) {
+            }
+        }, scheduler);
+        List<byte[]> payloads = new ArrayList<>();
+        payloads.add(encode(7));
+        peer.send(payloads);
+        byte[] corrupt = captured[0].clone();
+        corrupt[ReliableStream.HEADER_SIZE] ^= 0x01;
+        stream.onPacket(corrupt);
+        assertEquals(1, stream.getCorruptCount());
+        assertTrue(received.isEmpty());
+        stream.onPacket(captured[0]);
+        assertEquals(1, received.size());
+        assertEquals(7, (int) received.get(0));
+    }
+
+    /**
+     * 断言收到0到count-1且顺序一致
+     *
+     * @param received the received
+     * @param count    the count
+     */
+    private static void assertReceivedInOrder(List<Integer> received, int count) {
+        assertEquals(count, received.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, (int) received.get(i));
+        }
+    }
+
+    /**
+     * 序号编码为4字节载荷
+     *
+     * @param value the value
+     * @return the byte [ ]
+     */
+    private static byte[] encode(int value) {
+        return new byte[]{(byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value};
+    }
+
+    /**
+     * 解码载荷中的序号
+     *
+     * @param payload the payload
+     * @return the int
+     */
+    private static int decode(byte[] payload) {
+        return (payload[0] & 0xFF) << 24 | (payload[1] & 0xFF) << 16 | (payload[2] & 0xFF) << 8 | (payload[3] & 0xFF);
+    }
+}
@@ -0,0 +1,215 @@
+package cn.com.shadowless.blelib.transport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 流式通道的消息划分、待写出上限与关闭
+ *
+ * @author sHadowLess
+ */
+public class StreamChannelTest {
+
+    /**
+     * 等待时限，秒
+     */
+    private static final long WAIT = 5;
+
+    /**
+     * 收集消息与关闭原因
+     */
+    private static class Collector implements StreamChannel.Listener {
+
+        /**
+         * 收到的消息
+         */
+        final BlockingQueue<byte[]> messages = new LinkedBlockingQueue<>();
+
+        /**
+         * 关闭回调
+         */
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        /**
+         * 关闭原因
+         */
+        volatile IOException cause;
+
+        @Override
+        public void onMessage(byte[] data) {
+            messages.add(data);
+        }
+
+        @Override
+        public void onClosed(IOException cause) {
+            this.cause = cause;
+            closed.countDown();
+        }
+    }
+
+    /**
+     * 按长度划分消息，字节数组与输入流发送的消息按调用顺序到达
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void framesMessagesInOrder() throws Exception {
+        PipedInputStream in = new PipedInputStream(1 << 16);
+        PipedOutputStream out = new PipedOutputStream(in);
+        Collector receiver = new Collector();
+        StreamChannel reading = new StreamChannel("test", in, new ByteArrayOutputStream(), null, receiver);
+        StreamChannel writing = new StreamChannel("test", new PipedInputStream(), out, out, new Collector());
+        reading.start();
+        byte[] large = new byte[20000];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) i;
+        }
+        assertTrue(writing.send(new byte[]{1, 2, 3}));
+        assertTrue(writing.send(new byte[0]));
+        assertTrue(writing.send(new ByteArrayInputStream(large), large.length));
+        assertArrayEquals(new byte[]{1, 2, 3}, receiver.messages.poll(WAIT, TimeUnit.SECONDS));
+        assertArrayEquals(new byte[0], receiver.messages.poll(WAIT, TimeUnit.SECONDS));
+        assertArrayEquals(large, receiver.messages.poll(WAIT, TimeUnit.SECONDS));
+        //写线程在写出后才计数，对端可能先收到消息
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(WAIT);
+        while (writing.getSentBytes() < 3 * 4 + 3 + large.length && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(3 * 4 + 3 + large.length, writing.getSentBytes());
+        assertEquals(writing.getSentBytes(), reading.getReceivedBytes());
+        writing.close();
+        assertTrue(receiver.closed.await(WAIT, TimeUnit.SECONDS));
+        assertNull(receiver.cause);
+        reading.close();
+    }
+
+    /**
+     * 长度字段超过上限时以异常关闭，不按该长度分配
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void rejectsOversizedLength() throws Exception {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        new DataOutputStream(raw).writeInt(1025);
+        Collector receiver = new Collector();
+        StreamChannel channel = new StreamChannel("test", new ByteArrayInputStream(raw.toByteArray()),
+                new ByteArrayOutputStream(), null, receiver, 1024);
+        channel.start();
+        assertTrue(receiver.closed.await(WAIT, TimeUnit.SECONDS));
+        assertNotNull(receiver.cause);
+        assertFalse(channel.isOpen());
+        assertFalse(channel.send(new byte[1]));
+    }
+
+    /**
+     * 待写出的消息达到上限时拒绝，关闭时关闭未写出消息的数据源
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void boundsPendingAndClosesDroppedSources() throws Exception {
+        BlockingOutput output = new BlockingOutput();
+        StreamChannel channel = new StreamChannel("test", new PipedInputStream(), output, null, new Collector(),
+                StreamChannel.DEFAULT_MAX_MESSAGE_SIZE, 2);
+        assertTrue(channel.send(new byte[10]));
+        assertTrue(output.entered.await(WAIT, TimeUnit.SECONDS));
+        TrackedSource first = new TrackedSource(10);
+        TrackedSource second = new TrackedSource(10);
+        TrackedSource rejected = new TrackedSource(10);
+        assertTrue(channel.send(first, 10));
+        assertTrue(channel.send(second, 10));
+        assertFalse(channel.send(rejected, 10));
+        assertTrue(rejected.closed);
+        assertFalse(channel.send(new byte[10]));
+        assertFalse(first.closed);
+        channel.close();
+        assertTrue(first.closed);
+        assertTrue(second.closed);
+    }
+
+    /**
+     * 第一次写入时阻塞，直到写线程被中断
+     */
+    private static class BlockingOutput extends OutputStream {
+
+        /**
+         * 写线程已进入写入
+         */
+        final CountDownLatch entered = new CountDownLatch(1);
+
+        @Override
+        public void write(int b) throws IOException {
+            block();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            block();
+        }
+
+        /**
+         * 阻塞直到中断
+         *
+         * @throws IOException the io exception
+         */
+        private void block() throws IOException {
+            entered.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    /**
+     * 记录是否被关闭的数据源
+     */
+    private static class TrackedSource extends InputStream {
+
+        /**
+         * 剩余字节
+         */
+        private int remaining;
+
+        /**
+         * 是否已关闭
+         */
+        volatile boolean closed;
+
+        /**
+         * Instantiates a new Tracked source.
+         *
+         * @param length the length
+         */
+        TrackedSource(int length) {
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() {
+            return remaining-- > 0 ? 0 : -1;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package cn.com.shadowless.blelib.transport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import cn.com.shadowless.blelib.connect.ReconnectPolicy;
+import cn.com.shadowless.blelib.frame.FrameCodec;
+import cn.com.shadowless.blelib.queue.CreditWindow;
+
+import static org.junit.Assert.*;
+
+/**
+ * 客户端传输在模拟链路上的连接状态处理
+ *
+ * @author sHadowLess
+ */
+public class TransportClientTest {
+
+    /**
+     * 运行时限，微秒
+     */
+    private static final long LIMIT = 60L * 1000 * 1000;
+
+    /**
+     * 流式写入最大退避时间，微秒
+     */
+    private static final long BACKOFF_LIMIT = 160L * 1000;
+
+    /**
+     * 队列容量，同时限制流式发送缓存
+     */
+    private static final int QUEUE_CAPACITY = 16;
+
+    /**
+     * 模拟链路
+     */
+    private LinkSimulator simulator;
+
+    /**
+     * 虚拟时间
+     */
+    private VirtualScheduler scheduler;
+
+    /**
+     * 不重连的客户端
+     */
+    private TransportClient client;
+
+    /**
+     * 服务端收到的消息
+     */
+    private final List<byte[]> messages = new ArrayList<>();
+
+    /**
+     * 建立连接
+     */
+    @Before
+    public void setUp() {
+        simulator = LinkSimulator.builder().maxMtu(247).seed(42).build();
+        scheduler = simulator.getScheduler();
+        TransportServer<String> server = new TransportServer<>(simulator.getServer());
+        server.setFrameMode(true);
+        server.setCallback(new TransportServer.Callback<String>() {
+            @Override
+            public void onConnectionStateChange(String device, boolean connected) {
+            }
+
+            @Override
+            public void onWrite(String device, byte[] value) {
+            }
+
+            @Override
+            public void onMessage(String device, byte[] data, int flags) {
+                messages.add(data);
+            }
+
+            @Override
+            public byte[] onRead(String device) {
+                return null;
+            }
+        });
+        client = new TransportClient(simulator.createClient("client"), scheduler,
+                QUEUE_CAPACITY, new CreditWindow(), null);
+        client.setFrameMode(true);
+        assertTrue(client.connect());
+        assertTrue(scheduler.runUntilIdle(LIMIT));
+        assertTrue(client.isConnected());
+    }
+
+    /**
+     * 断开后MTU恢复默认值，重连前按默认值切片
+     */
+    @Test
+    public void mtuResetsOnDisconnect() {
+        client.requestMtu(247);
+        assertTrue(scheduler.runUntilIdle(LIMIT));
+        assertEquals(247, client.getMtu());
+        simulator.dropLink("client");
+        assertTrue(scheduler.runUntilIdle(LIMIT));
+        assertFalse(client.isConnected());
+        assertEquals(FrameCodec.DEFAULT_MTU, client.getMtu());
+    }
+
+    /**
+     * 流式缓存非空且超过队列容量时拒绝，发送完成后重新接受，已接受的消息不丢失
+     */
+    @Test
+    public void streamIsBoundedByQueueCapacity() {
+        byte[] first = new byte[400];
+        byte[] second = new byte[400];
+        second[0] = 1;
+        assertTrue(client.streamFrame(first));
+        assertFalse(client.streamFrame(second));
+        assertTrue(scheduler.runUntilIdle(LIMIT));
+        assertEquals(0, client.getStreamSize());
+        assertTrue(client.streamFrame(second));
+        assertTrue(scheduler.runUntilIdle(LIMIT));
+        assertEquals(2, messages.size());
+        assertArrayEquals(first, messages.get(0));
+        assertArrayEquals(second, messages.get(1));
+    }
+
+    /**
+     * 流式写入持续失败时退避重发同一分包，达到上限后断开并清空缓存
+     */
+    @Test
+    public void failingStreamWritesBackOffThenDisconnect() {
+        SilentTransport transport = new SilentTransport();
+        VirtualScheduler virtual = new VirtualScheduler();
+        TransportClient failing = new TransportClient(transport, virtual,
+                QUEUE_CAPACITY, new CreditWindow(), null);
+        failing.setFrameMode(true);
+        assertTrue(failing.connect());
+        failing.onConnectionStateChange(TransportClient.STATUS_SUCCESS, true);
+        assertTrue(failing.streamFrame(new byte[100]));
+        assertEquals(1, transport.writes.size());
+        byte[] chunk = transport.writes.get(0);
+        for (int i = 1; i <= 8; i++) {
+            failing.onWriteComplete(0x85);
+            //退避期间不重发
+            assertEquals(i, transport.writes.size());
+            virtual.advance(BACKOFF_LIMIT);
+            assertEquals(i + 1, transport.writes.size());
+            assertArrayEquals(chunk, transport.writes.get(i));
+        }
+        failing.onWriteComplete(0x85);
+        assertEquals(1, transport.disconnects);
+        assertFalse(failing.isConnected());
+        assertEquals(0, failing.getStreamSize());
+        assertTrue(virtual.runUntilIdle(LIMIT));
+        assertEquals(9, transport.writes.size());
+    }
+
+    /**
+     * 重连一直没有回调时按连接期限计为失败，用尽次数后退回扫描
+     */
+    @Test
+    public void reconnectDeadlineCountsAsFailure() {
+        SilentTransport transport = new SilentTransport();
+        VirtualScheduler virtual = new VirtualScheduler();
+        final int[] failed = new int[1];
+        TransportClient reconnecting = new TransportClient(transport, virtual, QUEUE_CAPACITY, new CreditWindow(),
+                new ReconnectPolicy(3, 1, 100, 100, 1000, new Random(1)));
+        reconnecting.setCallback(new TransportClient.Callback() {
+            @Override
+            public void onReconnected(int attempts, long costMillis) {
+            }
+
+            @Override
+            public void onReconnectFailed() {
+                failed[0]++;
+            }
+
+            @Override
+            public void onNotify(byte[] value) {
+            }
+
+            @Override
+            public void onMessage(byte[] data, int flags) {
+            }
+
+            @Override
+            public void onReadComplete(byte[] value, int status) {
+            }
+        });
+        assertTrue(reconnecting.connect());
+        reconnecting.onConnectionStateChange(TransportClient.STATUS_SUCCESS, true);
+        reconnecting.onConnectionStateChange(LinkSimulator.STATUS_CONNECTION_TIMEOUT, false);
+        assertTrue(virtual.runUntilIdle(LIMIT));
+        assertEquals(1, failed[0]);
+        assertEquals(Arrays.asList(false, false, true, true), transport.connects);
+        assertEquals(3, transport.disconnects);
+        assertFalse(reconnecting.isConnected());
+    }
+
+    /**
+     * 期限内连上时不再计时
+     */
+    @Test
+    public void reconnectDeadlineCancelledOnConnect() {
+        SilentTransport transport = new SilentTransport();
+        VirtualScheduler virtual = new VirtualScheduler();
+        TransportClient reconnecting = new TransportClient(transport, virtual, QUEUE_CAPACITY, new CreditWindow(),
+                new ReconnectPolicy(3, 0, 100, 100, 1000, new Random(1)));
+        assertTrue(reconnecting.connect());
+        reconnecting.onConnectionStateChange(TransportClient.STATUS_SUCCESS, true);
+        reconnecting.onConnectionStateChange(LinkSimulator.STATUS_CONNECTION_TIMEOUT, false);
+        virtual.advance(200L * 1000);
+        assertEquals(2, transport.connects.size());
+        reconnecting.onConnectionStateChange(TransportClient.STATUS_SUCCESS, true);
+        assertTrue(virtual.runUntilIdle(LIMIT));
+        assertTrue(reconnecting.isConnected());
+        assertEquals(0, transport.disconnects);
+    }
+
+    /**
+     * 记录写入的传输，主动断开后不回调，同设备上的BluetoothGatt关闭
+     */
+    private static class SilentTransport implements ClientTransport {
+
+        /**
+         * 写入的数据
+         */
+        private final List<byte[]> writes = new ArrayList<>();
+
+        /**
+         * 每次连接是否使用autoConnect
+         */
+        private final List<Boolean> connects = new ArrayList<>();
+
+        /**
+         * 断开次数
+         */
+        private int disconnects;
+
+        @Override
+        public void setListener(Listener listener) {
+        }
+
+        @Override
+        public boolean connect(boolean autoConnect) {
+            connects.add(autoConnect);
+            return true;
+        }
+
+        @Override
+        public void disconnect() {
+            disconnects++;
+        }
+
+        @Override
+        public boolean requestMtu(int mtu) {
+            return true;
+        }
+
+        @Override
+        public boolean write(byte[] value, int writeType) {
+            writes.add(value.clone());
+            return true;
+        }
+
+        @Override
+        public boolean read() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package cn.com.shadowless.blelib.transport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import cn.com.shadowless.blelib.frame.FrameCodec;
+
+import static org.junit.Assert.*;
+
+/**
+ * 服务端会话表：按订阅发送、各客户端独立的MTU与断开清理
+ *
+ * @author sHadowLess
+ */
+public class TransportServerTest {
+
+    /**
+     * 记录通知的传输
+     */
+    private RecordingTransport transport;
+
+    /**
+     * 服务端
+     */
+    private TransportServer<String> server;
+
+    /**
+     * 已确认发送完成的通知数
+     */
+    private int confirmed;
+
+    /**
+     * 建立服务端
+     */
+    @Before
+    public void setUp() {
+        transport = new RecordingTransport();
+        server = new TransportServer<>(transport);
+    }
+
+    /**
+     * 要求订阅时只向在CCCD中订阅的客户端发送
+     */
+    @Test
+    public void sendsOnlyToSubscribers() {
+        server.setSubscriptionRequired(true);
+        server.onConnectionStateChange("a", true);
+        server.onConnectionStateChange("b", true);
+        assertFalse(server.send("a", new byte[]{1}));
+        assertFalse(server.isSubscribed("a"));
+        assertTrue(server.getSubscribers().isEmpty());
+        server.onSubscriptionChanged("a", DeviceSession.SUBSCRIPTION_NOTIFY);
+        assertTrue(server.send("a", new byte[]{1}));
+        assertFalse(server.send("b", new byte[]{1}));
+        assertEquals(Collections.singletonList("a"), server.getSubscribers());
+        assertEquals(Arrays.asList("a"), transport.devices);
+        server.onSubscriptionChanged("a", DeviceSession.SUBSCRIPTION_NONE);
+        assertFalse(server.send("a", new byte[]{2}));
+    }
+
+    /**
+     * 不要求订阅时全部已连接客户端都可发送
+     */
+    @Test
+    public void allConnectedWithoutRequirement() {
+        server.onConnectionStateChange("a", true);
+        server.onConnectionStateChange("b", true);
+        assertTrue(server.isSubscribed("a"));
+        List<String> subscribers = new ArrayList<>(server.getSubscribers());
+        Collections.sort(subscribers);
+        assertEquals(Arrays.asList("a", "b"), subscribers);
+    }
+
+    /**
+     * 订阅方式：只订阅指示时以指示发送，同时订阅时用通知
+     */
+    @Test
+    public void indicateOnlyWhenNotifyAbsent() {
+        server.onConnectionStateChange("a", true);
+        DeviceSession session = server.getSession("a");
+        server.onSubscriptionChanged("a", DeviceSession.SUBSCRIPTION_INDICATE);
+        assertTrue(session.isIndicate());
+        server.onSubscriptionChanged("a", DeviceSession.SUBSCRIPTION_NOTIFY | DeviceSession.SUBSCRIPTION_INDICATE);
+        assertFalse(session.isIndicate());
+        assertTrue(session.isSubscribed());
+        server.onSubscriptionChanged("a", 0xFF00);
+        assertEquals(DeviceSession.SUBSCRIPTION_NONE, session.getSubscription());
+    }
+
+    /**
+     * 超过单包长度的发送按各自客户端的MTU拆分
+     */
+    @Test
+    public void splitsByPerDeviceMtu() {
+        server.onConnectionStateChange("a", true);
+        server.onConnectionStateChange("b", true);
+        server.onMtuChanged("a", 100);
+        assertEquals(100, server.getSession("a").getMtu());
+        assertEquals(FrameCodec.DEFAULT_MTU, server.getSession("b").getMtu());
+        assertTrue(server.send("a", new byte[150]));
+        assertTrue(server.send("b", new byte[30]));
+        drain();
+        assertEquals(Arrays.asList(97, 53), transport.lengthsOf("a"));
+        assertEquals(Arrays.asList(20, 10), transport.lengthsOf("b"));
+        assertTrue(server.sendFrame("a", new byte[500]));
+        drain();
+        for (int length : transport.lengths) {
+            assertTrue(length <= 97);
+        }
+    }
+
+    /**
+     * 断开后移除会话，迟到的MTU回调不重建会话
+     */
+    @Test
+    public void disconnectRemovesSession() {
+        server.setSubscriptionRequired(true);
+        server.onConnectionStateChange("a", true);
+        server.onSubscriptionChanged("a", DeviceSession.SUBSCRIPTION_NOTIFY);
+        server.onConnectionStateChange("a", false);
+        assertNull(server.getSession("a"));
+        server.onMtuChanged("a", 100);
+        server.onSubscriptionChanged("a", DeviceSession.SUBSCRIPTION_NOTIFY);
+        assertNull(server.getSession("a"));
+        assertTrue(server.getSubscribers().isEmpty());
+        server.onConnectionStateChange("a", true);
+        assertEquals(FrameCodec.DEFAULT_MTU, server.getSession("a").getMtu());
+        assertFalse(server.isSubscribed("a"));
+    }
+
+    /**
+     * 依次确认已发出的通知，直到没有待发送的数据
+     */
+    private void drain() {
+        while (confirmed < transport.devices.size()) {
+            server.onNotificationSent(transport.devices.get(confirmed++), 0);
+        }
+    }
+
+    /**
+     * 同步记录通知的服务端传输
+     */
+    private static final class RecordingTransport implements ServerTransport<String> {
+
+        /**
+         * 通知的客户端
+         */
+        final List<String> devices = new ArrayList<>();
+
+        /**
+         * 通知的长度
+         */
+        final List<Integer> lengths = new ArrayList<>();
+
+        /**
+         * 发给指定客户端的通知长度
+         *
+         * @param device the device
+         * @return the list
+         */
+        List<Integer> lengthsOf(String device) {
+            List<Integer> list = new ArrayList<>();
+            for (int i = 0; i < devices.size(); i++) {
+                if (devices.get(i).equals(device)) {
+                    list.add(lengths.get(i));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setListener(Listener<String> listener) {
+        }
+
+        @Override
+        public boolean notify(String device, byte[] value) {
+            devices.add(device);
+            lengths.add(value.length);
+            return true;
+        }
+
+        @Override
+        public void disconnect(String device) {
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package cn.com.shadowless.blelib.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+
+import cn.com.shadowless.blelib.pool.BufferPool;
+import cn.com.shadowless.blelib.pool.PooledBuffer;
+import cn.com.shadowless.blelib.pool.PooledBufferPool;
+
+/**
+ * 缓冲池化，与每次新建数组对比
+ *
+ * @author sHadowLess
+ */
+@State(Scope.Thread)
+public class BufferPoolBenchmark {
+
+    /**
+     * The Size.
+     */
+    @Param({"20", "244", "514"})
+    public int size;
+
+    /**
+     * 模拟收到的通知数据
+     */
+    private byte[] value;
+
+    /**
+     * The Buffer pool.
+     */
+    private BufferPool bufferPool;
+
+    /**
+     * The Pooled buffer pool.
+     */
+    private PooledBufferPool pooledBufferPool;
+
+    /**
+     * Sets up.
+     */
+    @Setup
+    public void setUp() {
+        value = new byte[size];
+        new Random(size).nextBytes(value);
+        bufferPool = new BufferPool();
+        pooledBufferPool = new PooledBufferPool();
+    }
+
+    /**
+     * 每次新建数组拷贝
+     *
+     * @param blackhole the blackhole
+     */
+    @Benchmark
+    public void allocate(Blackhole blackhole) {
+        byte[] copy = new byte[value.length];
+        System.arraycopy(value, 0, copy, 0, value.length);
+        blackhole.consume(copy);
+    }
+
+    /**
+     * 从数组池借出并归还
+     *
+     * @param blackhole the blackhole
+     */
+    @Benchmark
+    public void bufferPool(Blackhole blackhole) {
+        byte[] buffer = bufferPool.acquire(value.length);
+        System.arraycopy(value, 0, buffer, 0, value.length);
+        blackhole.consume(buffer);
+        bufferPool.release(buffer);
+    }
+
+    /**
+     * 拷贝到池化缓冲并释放
+     *
+     * @param blackhole the blackhole
+     */
+    @Benchmark
+    public void pooledBuffer(Blackhole blackhole) {
+        PooledBuffer buffer = pooledBufferPool.copyOf(value, 0, value.length);
+        blackhole.consume(buffer.array());
+        buffer.release();
+    }
+}
@@ -0,0 +1,70 @@
+package cn.com.shadowless.blelib.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Random;
+
+import cn.com.shadowless.blelib.frame.FrameAssembler;
+import cn.com.shadowless.blelib.frame.FrameCodec;
+
+/**
+ * 分包重组
+ *
+ * @author sHadowLess
+ */
+@State(Scope.Thread)
+public class FrameAssemblerBenchmark {
+
+    /**
+     * The Mtu.
+     */
+    @Param({"23", "247", "517"})
+    public int mtu;
+
+    /**
+     * The Size.
+     */
+    @Param({"20", "1024", "16384"})
+    public int size;
+
+    /**
+     * The Assembler.
+     */
+    private FrameAssembler assembler;
+
+    /**
+     * 一条消息的全部分包
+     */
+    private byte[][] chunks;
+
+    /**
+     * Sets up.
+     */
+    @Setup
+    public void setUp() {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        List<byte[]> list = new FrameCodec(mtu).encode(data);
+        chunks = list.toArray(new byte[list.size()][]);
+        assembler = new FrameAssembler();
+    }
+
+    /**
+     * 依次喂入一条消息的全部分包
+     *
+     * @return 重组后的消息
+     */
+    @Benchmark
+    public byte[] reassemble() {
+        byte[] message = null;
+        for (byte[] chunk : chunks) {
+            message = assembler.feed(chunk);
+        }
+        return message;
+    }
+}
@@ -0,0 +1,82 @@
+package cn.com.shadowless.blelib.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import cn.com.shadowless.blelib.frame.FrameCodec;
+
+/**
+ * 按MTU分包
+ *
+ * @author sHadowLess
+ */
+@State(Scope.Thread)
+public class FrameCodecBenchmark {
+
+    /**
+     * The Mtu.
+     */
+    @Param({"23", "185", "247", "517"})
+    public int mtu;
+
+    /**
+     * The Size.
+     */
+    @Param({"20", "1024", "16384"})
+    public int size;
+
+    /**
+     * The Codec.
+     */
+    private FrameCodec codec;
+
+    /**
+     * The Data.
+     */
+    private byte[] data;
+
+    /**
+     * 复用的分包列表
+     */
+    private List<byte[]> out;
+
+    /**
+     * Sets up.
+     */
+    @Setup
+    public void setUp() {
+        codec = new FrameCodec(mtu);
+        data = new byte[size];
+        new Random(size).nextBytes(data);
+        out = new ArrayList<>(codec.chunkCount(size));
+    }
+
+    /**
+     * 每次新建分包列表
+     *
+     * @return the list
+     */
+    @Benchmark
+    public List<byte[]> encode() {
+        return codec.encode(data);
+    }
+
+    /**
+     * 复用分包列表
+     *
+     * @return the list
+     */
+    @Benchmark
+    public List<byte[]> encodeInto() {
+        out.clear();
+        codec.encode(data, 0, out);
+        return out;
+    }
+}
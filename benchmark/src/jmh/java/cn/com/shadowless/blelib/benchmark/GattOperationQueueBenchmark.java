@@ -0,0 +1,100 @@
+package cn.com.shadowless.blelib.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cn.com.shadowless.blelib.queue.GattOperation;
+import cn.com.shadowless.blelib.queue.GattOperationQueue;
+
+/**
+ * GATT操作入队、执行与回调出队
+ *
+ * @author sHadowLess
+ */
+@State(Scope.Thread)
+public class GattOperationQueueBenchmark {
+
+    /**
+     * 批量入队数
+     */
+    private static final int BATCH = 16;
+
+    /**
+     * The Queue.
+     */
+    private GattOperationQueue queue;
+
+    /**
+     * 已执行次数，防止执行被优化掉
+     */
+    private int executed;
+
+    /**
+     * 复用的批量操作
+     */
+    private List<GattOperation> batch;
+
+    /**
+     * Sets up.
+     */
+    @Setup
+    public void setUp() {
+        queue = new GattOperationQueue();
+        batch = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            batch.add(new NoopOperation());
+        }
+    }
+
+    /**
+     * 单个操作入队后立即执行，回调到达后出队
+     *
+     * @return the int
+     */
+    @Benchmark
+    public int offerComplete() {
+        queue.offer(new NoopOperation());
+        queue.complete(GattOperation.TYPE_WRITE);
+        return executed;
+    }
+
+    /**
+     * 整体入队后逐个回调出队
+     *
+     * @return the int
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int offerAllComplete() {
+        queue.offerAll(batch);
+        for (int i = 0; i < BATCH; i++) {
+            queue.complete(GattOperation.TYPE_WRITE);
+        }
+        return executed;
+    }
+
+    /**
+     * 总是成功的写操作
+     */
+    private class NoopOperation extends GattOperation {
+
+        /**
+         * Instantiates a new Noop operation.
+         */
+        NoopOperation() {
+            super(TYPE_WRITE);
+        }
+
+        @Override
+        public boolean execute() {
+            executed++;
+            return true;
+        }
+    }
+}
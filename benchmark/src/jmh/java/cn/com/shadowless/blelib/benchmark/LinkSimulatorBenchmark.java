@@ -0,0 +1,155 @@
+package cn.com.shadowless.blelib.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import cn.com.shadowless.blelib.transport.LinkSimulator;
+import cn.com.shadowless.blelib.transport.TransportClient;
+import cn.com.shadowless.blelib.transport.TransportServer;
+import cn.com.shadowless.blelib.transport.VirtualScheduler;
+
+/**
+ * 链路模拟：按连接间隔与丢包率推演1MB流式发送，一次操作为一次完整传输
+ * <p>
+ * 主指标为推演耗时，虚拟耗时与送达字节数以辅助计数输出，除以操作次数即为单次传输的值。
+ * 开启可靠传输后丢包由选择重传补齐，可对比送达字节数与虚拟耗时的代价。
+ *
+ * @author sHadowLess
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LinkSimulatorBenchmark {
+
+    /**
+     * 传输总量
+     */
+    private static final int TOTAL = 1024 * 1024;
+
+    /**
+     * 单条消息大小
+     */
+    private static final int MESSAGE = 4096;
+
+    /**
+     * 连接间隔，微秒
+     */
+    @Param({"7500", "45000"})
+    public long interval;
+
+    /**
+     * 丢包率
+     */
+    @Param({"0", "0.01"})
+    public double dropRate;
+
+    /**
+     * 是否开启可靠传输
+     */
+    @Param({"false", "true"})
+    public boolean reliable;
+
+    /**
+     * The Message.
+     */
+    private final byte[] message = new byte[MESSAGE];
+
+    /**
+     * 辅助计数
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+
+        /**
+         * 虚拟耗时，毫秒
+         */
+        public long virtualMillis;
+
+        /**
+         * 服务端重组出的字节数
+         */
+        public long deliveredBytes;
+
+        /**
+         * Reset.
+         */
+        @Setup(Level.Iteration)
+        public void reset() {
+            virtualMillis = 0;
+            deliveredBytes = 0;
+        }
+    }
+
+    /**
+     * 建立连接、交换MTU后流式发送1MB，推演到链路空闲
+     *
+     * @param counters the counters
+     * @return 送达字节数
+     */
+    @Benchmark
+    public long transfer(Counters counters) {
+        LinkSimulator simulator = LinkSimulator.builder()
+                .connectionInterval(interval)
+                .packetsPerEvent(6)
+                .maxMtu(247)
+                .dropRate(dropRate)
+                .seed(1)
+                .build();
+        VirtualScheduler scheduler = simulator.getScheduler();
+        TransportServer<String> server = new TransportServer<>(simulator.getServer());
+        server.setFrameMode(true);
+        if (reliable) {
+            server.setReliable(scheduler, 32, 20, 300);
+        }
+        final long[] delivered = new long[1];
+        server.setCallback(new TransportServer.Callback<String>() {
+            @Override
+            public void onConnectionStateChange(String device, boolean connected) {
+            }
+
+            @Override
+            public void onWrite(String device, byte[] value) {
+            }
+
+            @Override
+            public void onMessage(String device, byte[] data, int flags) {
+                delivered[0] += data.length;
+            }
+
+            @Override
+            public byte[] onRead(String device) {
+                return null;
+            }
+        });
+        TransportClient client = new TransportClient(simulator.createClient("bench"), scheduler);
+        if (reliable) {
+            client.setReliable(32, 20, 300);
+        }
+        client.connect();
+        scheduler.runUntilIdle(Long.MAX_VALUE);
+        client.requestMtu(247);
+        scheduler.runUntilIdle(Long.MAX_VALUE);
+        long start = scheduler.nowMicros();
+        for (int sent = 0; sent < TOTAL; sent += MESSAGE) {
+            while (!client.streamFrame(message)) {
+                //流式缓存已满时推进虚拟时间，等待已缓存的分包发出
+                scheduler.runNext();
+            }
+        }
+        scheduler.runUntilIdle(Long.MAX_VALUE);
+        counters.virtualMillis += (scheduler.nowMicros() - start) / 1000;
+        counters.deliveredBytes += delivered[0];
+        return delivered[0];
+    }
+}
@@ -0,0 +1,123 @@
+package cn.com.shadowless.blelib.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import cn.com.shadowless.blelib.transport.ExecutorScheduler;
+import cn.com.shadowless.blelib.transport.LoopbackTransport;
+import cn.com.shadowless.blelib.transport.TransportClient;
+import cn.com.shadowless.blelib.transport.TransportServer;
+
+/**
+ * 回环传输：客户端流式发送分包消息，服务端重组出完整消息为一次操作
+ *
+ * @author sHadowLess
+ */
+@State(Scope.Benchmark)
+public class LoopbackBenchmark {
+
+    /**
+     * 协商的MTU
+     */
+    @Param({"23", "247"})
+    public int mtu;
+
+    /**
+     * 消息大小
+     */
+    @Param({"1024", "65536"})
+    public int size;
+
+    /**
+     * The Loopback.
+     */
+    private LoopbackTransport loopback;
+
+    /**
+     * The Scheduler.
+     */
+    private ExecutorScheduler scheduler;
+
+    /**
+     * The Client.
+     */
+    private TransportClient client;
+
+    /**
+     * 服务端每重组出一条消息释放一次
+     */
+    private final Semaphore received = new Semaphore(0);
+
+    /**
+     * The Data.
+     */
+    private byte[] data;
+
+    /**
+     * Sets up.
+     *
+     * @throws InterruptedException the interrupted exception
+     */
+    @Setup
+    public void setUp() throws InterruptedException {
+        data = new byte[size];
+        loopback = new LoopbackTransport();
+        scheduler = new ExecutorScheduler();
+        TransportServer<String> server = new TransportServer<>(loopback.getServer());
+        server.setFrameMode(true);
+        server.setCallback(new TransportServer.Callback<String>() {
+            @Override
+            public void onConnectionStateChange(String device, boolean connected) {
+            }
+
+            @Override
+            public void onWrite(String device, byte[] value) {
+            }
+
+            @Override
+            public void onMessage(String device, byte[] data, int flags) {
+                received.release();
+            }
+
+            @Override
+            public byte[] onRead(String device) {
+                return null;
+            }
+        });
+        client = new TransportClient(loopback.createClient("bench"), scheduler);
+        client.connect();
+        client.requestMtu(mtu);
+        while (client.getMtu() != mtu) {
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Tear down.
+     */
+    @TearDown
+    public void tearDown() {
+        client.close();
+        scheduler.shutdown();
+        loopback.shutdown();
+    }
+
+    /**
+     * 流式发送一条消息并等待服务端重组完成
+     *
+     * @return 是否按时收到
+     * @throws InterruptedException the interrupted exception
+     */
+    @Benchmark
+    public boolean streamFrame() throws InterruptedException {
+        client.streamFrame(data);
+        return received.tryAcquire(10, TimeUnit.SECONDS);
+    }
+}
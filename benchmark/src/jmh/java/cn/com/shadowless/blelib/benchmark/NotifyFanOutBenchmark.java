@@ -0,0 +1,87 @@
+package cn.com.shadowless.blelib.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import cn.com.shadowless.blelib.queue.NotifyFanOut;
+
+/**
+ * 通知分发：入队、发送回调驱动下一条
+ *
+ * @author sHadowLess
+ */
+@State(Scope.Thread)
+public class NotifyFanOutBenchmark {
+
+    /**
+     * 每个客户端每次入队条数
+     */
+    private static final int BURST = 8;
+
+    /**
+     * 客户端数
+     */
+    private static final int DEVICES = 4;
+
+    /**
+     * The Fan out.
+     */
+    private NotifyFanOut<Integer> fanOut;
+
+    /**
+     * 客户端key
+     */
+    private Integer[] keys;
+
+    /**
+     * The Data.
+     */
+    private final byte[] data = new byte[20];
+
+    /**
+     * 已发送字节数，防止发送被优化掉
+     */
+    private long sentBytes;
+
+    /**
+     * Sets up.
+     */
+    @Setup
+    public void setUp() {
+        fanOut = new NotifyFanOut<>(new NotifyFanOut.Sender<Integer>() {
+            @Override
+            public boolean send(Integer device, byte[] data) {
+                sentBytes += data.length;
+                return true;
+            }
+        });
+        keys = new Integer[DEVICES];
+        for (int i = 0; i < DEVICES; i++) {
+            keys[i] = i;
+        }
+    }
+
+    /**
+     * 每个客户端入队BURST条，再逐条回调发送完成
+     *
+     * @return the long
+     */
+    @Benchmark
+    @OperationsPerInvocation(BURST * DEVICES)
+    public long offerAndDispatch() {
+        for (Integer key : keys) {
+            for (int i = 0; i < BURST; i++) {
+                fanOut.offer(key, data);
+            }
+        }
+        for (Integer key : keys) {
+            for (int i = 0; i < BURST; i++) {
+                fanOut.onSent(key, true);
+            }
+        }
+        return sentBytes;
+    }
+}
@@ -0,0 +1,71 @@
+package cn.com.shadowless.blelib.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.Charset;
+
+import cn.com.shadowless.blelib.frame.PayloadCompressor;
+
+/**
+ * 载荷压缩：带字典压缩与解压一条遥测JSON
+ *
+ * @author sHadowLess
+ */
+@State(Scope.Thread)
+public class PayloadCompressorBenchmark {
+
+    /**
+     * The Compressor.
+     */
+    private PayloadCompressor compressor;
+
+    /**
+     * 原始消息
+     */
+    private byte[] message;
+
+    /**
+     * 压缩后的消息
+     */
+    private byte[] compressed;
+
+    /**
+     * Sets up.
+     */
+    @Setup
+    public void setUp() {
+        Charset utf8 = Charset.forName("UTF-8");
+        compressor = new PayloadCompressor("{\"temperature\":,\"humidity\":,\"timestamp\":,\"device\":\"sensor-\"}".getBytes(utf8), PayloadCompressor.DEFAULT_THRESHOLD);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            builder.append("{\"temperature\":").append(20 + i % 3)
+                    .append(",\"humidity\":55,\"timestamp\":16900000").append(i)
+                    .append(",\"device\":\"sensor-7\"}");
+        }
+        message = builder.toString().getBytes(utf8);
+        compressed = compressor.compress(message);
+    }
+
+    /**
+     * Compress.
+     *
+     * @return the byte [ ]
+     */
+    @Benchmark
+    public byte[] compress() {
+        return compressor.compress(message);
+    }
+
+    /**
+     * Decompress.
+     *
+     * @return the byte [ ]
+     */
+    @Benchmark
+    public byte[] decompress() {
+        return compressor.decompress(compressed);
+    }
+}
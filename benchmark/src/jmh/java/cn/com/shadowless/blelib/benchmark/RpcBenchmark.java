@@ -0,0 +1,131 @@
+package cn.com.shadowless.blelib.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import cn.com.shadowless.blelib.rpc.RpcClient;
+import cn.com.shadowless.blelib.rpc.RpcServer;
+import cn.com.shadowless.blelib.transport.LinkSimulator;
+import cn.com.shadowless.blelib.transport.TransportClient;
+import cn.com.shadowless.blelib.transport.TransportServer;
+import cn.com.shadowless.blelib.transport.VirtualScheduler;
+
+/**
+ * RPC：按连接间隔推演100次请求应答，一次操作为全部调用完成
+ * <p>
+ * 逐个调用时每次都要等上一个应答，流水线调用一次发出全部请求，按关联ID收取应答，
+ * 虚拟耗时以辅助计数输出，除以操作次数即为完成全部调用的时间。
+ *
+ * @author sHadowLess
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RpcBenchmark {
+
+    /**
+     * 调用次数
+     */
+    private static final int CALLS = 100;
+
+    /**
+     * 连接间隔，微秒
+     */
+    @Param({"7500", "30000"})
+    public long interval;
+
+    /**
+     * 是否流水线调用
+     */
+    @Param({"false", "true"})
+    public boolean pipelined;
+
+    /**
+     * The Request.
+     */
+    private final byte[] request = new byte[16];
+
+    /**
+     * 辅助计数
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+
+        /**
+         * 虚拟耗时，毫秒
+         */
+        public long virtualMillis;
+
+        /**
+         * Reset.
+         */
+        @Setup(Level.Iteration)
+        public void reset() {
+            virtualMillis = 0;
+        }
+    }
+
+    /**
+     * 建立连接、交换MTU后完成全部调用，推演到链路空闲
+     *
+     * @param counters the counters
+     * @return 成功的调用数
+     */
+    @Benchmark
+    public int calls(Counters counters) {
+        LinkSimulator simulator = LinkSimulator.builder()
+                .connectionInterval(interval)
+                .packetsPerEvent(6)
+                .maxMtu(247)
+                .seed(1)
+                .build();
+        VirtualScheduler scheduler = simulator.getScheduler();
+        TransportServer<String> server = new TransportServer<>(simulator.getServer());
+        server.setFrameMode(true);
+        server.setRpcHandler(new RpcServer.Handler<String>() {
+            @Override
+            public void onRequest(String device, byte[] request, RpcServer.Responder responder) {
+                responder.reply(request);
+            }
+        });
+        final TransportClient client = new TransportClient(simulator.createClient("bench"), scheduler);
+        client.setFrameMode(true);
+        client.connect();
+        scheduler.runUntilIdle(Long.MAX_VALUE);
+        client.requestMtu(247);
+        scheduler.runUntilIdle(Long.MAX_VALUE);
+        final int[] done = new int[1];
+        RpcClient.Callback callback = new RpcClient.Callback() {
+            @Override
+            public void onResponse(byte[] response) {
+                done[0]++;
+                if (!pipelined && done[0] < CALLS) {
+                    client.call(request, RpcClient.DEFAULT_TIMEOUT, this);
+                }
+            }
+
+            @Override
+            public void onFailure(int error, String message) {
+            }
+        };
+        long start = scheduler.nowMicros();
+        int count = pipelined ? CALLS : 1;
+        for (int i = 0; i < count; i++) {
+            client.call(request, RpcClient.DEFAULT_TIMEOUT, callback);
+        }
+        scheduler.runUntilIdle(Long.MAX_VALUE);
+        counters.virtualMillis += (scheduler.nowMicros() - start) / 1000;
+        return done[0];
+    }
+}
@@ -0,0 +1,55 @@
+package cn.com.shadowless.blelib.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+import cn.com.shadowless.blelib.trace.TraceRecorder;
+
+/**
+ * GATT事件记录，单次记录耗时
+ *
+ * @author sHadowLess
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TraceRecorderBenchmark {
+
+    /**
+     * The Recorder.
+     */
+    private TraceRecorder recorder;
+
+    /**
+     * Sets up.
+     */
+    @Setup
+    public void setUp() {
+        recorder = new TraceRecorder();
+    }
+
+    /**
+     * 单线程记录
+     */
+    @Benchmark
+    public void record() {
+        recorder.record(TraceRecorder.CHARACTERISTIC_CHANGED, "AA:BB:CC:DD:EE:FF", 0, 244);
+    }
+
+    /**
+     * 回调线程与发送线程同时记录
+     */
+    @Benchmark
+    @Threads(2)
+    public void recordContended() {
+        recorder.record(TraceRecorder.NOTIFICATION_SENT, "AA:BB:CC:DD:EE:FF", 0, 0);
+    }
+}